@@ -0,0 +1,375 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * BenchmarkFixtures builds the sources and entry points measured by the JMH
+ * benchmarks. JMH requires benchmarks to be in a named package, and classes
+ * in a named package cannot refer to the interpreter classes in the default
+ * package, so the benchmarks look this class up by name and only see the
+ * java.util.function objects it returns.
+ */
+public class BenchmarkFixtures
+{
+	// the variables of the expression fixtures, in the slots the parser
+	// gives them in chain, where x is seen first
+	private static final Id X = new Id ("x", 0);
+	private static final Id Y = new Id ("y", 1);
+
+	/**
+	 * @param statements > 0
+	 * @return program of statements assignments, prints, ifs and loops in sequence
+	 */
+	public static String wideSource(int statements)
+	{
+		StringBuilder source = new StringBuilder ("function a ( )\n");
+		for (int i = 0; i < statements; i++)
+			switch (i % 4) {
+				case 0:
+					source.append("\tx = + * x 3 - y ").append(i).append('\n');
+					break;
+				case 1:
+					source.append("\tif <= x ").append(i).append(" then\n\t\ty = / x 2\n\telse\n\t\ty = 0\n\tend\n");
+					break;
+				case 2:
+					source.append("\twhile > y 100 do\n\t\ty = - y 100\n\tend\n");
+					break;
+				default:
+					source.append("\tprint ( + x y )\n");
+			}
+		return source.append("end\n").toString();
+	}
+
+	/**
+	 * @param depth > 0
+	 * @return program of depth nested while loops around an expression
+	 *         nested depth levels deep
+	 */
+	public static String deepSource(int depth)
+	{
+		StringBuilder source = new StringBuilder ("function a ( )\n");
+		for (int i = 0; i < depth; i++)
+			source.append("while > x ").append(i).append(" do\n");
+		source.append("x = ");
+		for (int i = 0; i < depth; i++)
+			source.append(i % 2 == 0 ? "+ x " : "* ");
+		source.append("1");
+		for (int i = 0; i < depth; i++)
+			source.append(i % 2 == 0 ? "" : " 2");
+		source.append('\n');
+		for (int i = 0; i < depth; i++)
+			source.append("end\n");
+		return source.append("end\n").toString();
+	}
+
+	/**
+	 * @param script "test2" or "test4"
+	 * @param iterations number of loop iterations
+	 * @return the given test script with its loop bound raised to iterations
+	 * @throws IllegalArgumentException if script is unknown
+	 */
+	public static String scaledSource(String script, int iterations)
+	{
+		if (script.equals("test2"))
+			return "function a ( )\n\tx = 1\n\twhile < x " + iterations +
+				" do\n\t\tx = + x 1\n\tend\n\tprint ( x )\nend\n";
+		if (script.equals("test4"))
+			return "function a ( )\n\tx = 1\n\trepeat\n\t\tx = + x 1\n\tuntil > x " + iterations +
+				"\n\tprint ( x )\nend\n";
+		throw new IllegalArgumentException ("unknown script " + script);
+	}
+
+	/**
+	 * @param n >= 0
+	 * @return program printing the nth Fibonacci number, computed by a
+	 *         function calling itself twice for every n above 1
+	 */
+	public static String callSource(int n)
+	{
+		return "function a ( )\n\tprint ( fib ( " + n + " ) )\nend\n" +
+			"function fib ( n )\n\tif < n 2 then\n\t\treturn n\n\telse\n" +
+			"\t\treturn + fib ( - n 1 ) fib ( - n 2 )\n\tend\nend\n";
+	}
+
+	/**
+	 * @param n >= 0 - number of iterations
+	 * @return program running a loop of n iterations whose body has an if
+	 *         statement that always takes the same branch and one that
+	 *         takes its branches in turn
+	 */
+	public static String branchSource(int n)
+	{
+		return "function a ( )\n\ti = 0\n\ts = 0\n\twhile < i " + n + " do\n" +
+			"\t\tif < i 0 then\n\t\t\ts = - s 1\n\t\telse\n\t\t\ts = + s * i 3\n\t\tend\n" +
+			"\t\tif == - i * / i 2 2 0 then\n\t\t\ts = + s 1\n\t\telse\n\t\t\ts = - s 1\n\t\tend\n" +
+			"\t\ti = + i 1\n\tend\n\tprint ( s )\nend\n";
+	}
+
+	/**
+	 * @param size >= 700 - number of elements of the table built
+	 * @return program that builds a table of size elements, then sums 100
+	 *         of them starting from the value of k into another table
+	 */
+	public static String forkSource(int size)
+	{
+		return "function a ( )\n\ti = 0\n\twhile < i " + size + " do\n\t\tt [ i ] = * i i\n" +
+			"\t\ti = + i 1\n\tend\n\ts = k\n\tj = 0\n\twhile < j 100 do\n" +
+			"\t\ts = + s t [ * j 7 ]\n\t\tu [ j ] = s\n\t\tj = + j 1\n\tend\n\tprint ( s )\nend\n";
+	}
+
+	/**
+	 * @param mode "rerun" to run the whole program for every variant, "fork"
+	 *        to fork every variant from a snapshot taken once the table has
+	 *        been built
+	 * @param size >= 700 - number of elements of the table built
+	 * @return action running the next variant of the program of forkSource,
+	 *         with k set to the number of the variant, on the bytecode VM
+	 */
+	public static Runnable variant(String mode, int size) throws Exception
+	{
+		Program program = new Parser (forkSource (size).getBytes()).parse();
+		int k = program.getSymbols().lookup("k");
+		BytecodeProgram compiled = new BytecodeCompiler().compile(program);
+		int[] variant = new int[1];
+		if (mode.equals("rerun"))
+			return () -> {
+				ExecutionContext context = new ExecutionContext (new MemoryOutputSink());
+				context.reserve(program.getVariableCount());
+				context.storeAt(k, variant[0]++);
+				compiled.execute(context);
+			};
+		BytecodeProgram.Execution setup = compiled.start(new ExecutionContext (new MemoryOutputSink()));
+		// the fuel runs out once the last element has been built
+		if (setup.resume(size + 1))
+			throw new IllegalStateException ("program finished during setup");
+		BytecodeProgram.Snapshot snapshot = setup.snapshot();
+		return () -> {
+			BytecodeProgram.Execution fork = snapshot.fork(new MemoryOutputSink());
+			fork.setVariable(k, variant[0]++);
+			fork.resume(Long.MAX_VALUE);
+		};
+	}
+
+	/**
+	 * @param source cannot be null
+	 * @return name of a temporary file holding source, deleted on exit
+	 */
+	public static String writeSource(String source) throws Exception
+	{
+		Path file = Files.createTempFile("bench", ".lua");
+		file.toFile().deleteOnExit();
+		Files.writeString(file, source);
+		return file.toString();
+	}
+
+	/**
+	 * @return function counting the tokens of the file it is given
+	 */
+	public static ToIntFunction<String> lexer()
+	{
+		return fileName -> {
+			try
+			{
+				LexicalAnalyzer lex = new LexicalAnalyzer (fileName);
+				int count = 0;
+				while (lex.getLookaheadType() != TokenType.EOS_TOK)
+				{
+					lex.skipToken();
+					count++;
+				}
+				lex.close();
+				return count;
+			}
+			catch (Exception e)
+			{
+				throw new IllegalStateException (e);
+			}
+		};
+	}
+
+	/**
+	 * @return function counting the tokens of the file it is given, lexed
+	 *         by a ParallelLexer on the common fork-join pool
+	 */
+	public static ToIntFunction<String> parallelLexer()
+	{
+		ParallelLexer lexer = new ParallelLexer (ForkJoinPool.commonPool(), ParallelLexer.DEFAULT_CHUNK_SIZE);
+		return fileName -> {
+			try
+			{
+				return lexer.lex(Files.readAllBytes(Paths.get(fileName))).size() - 1;
+			}
+			catch (Exception e)
+			{
+				throw new IllegalStateException (e);
+			}
+		};
+	}
+
+	/**
+	 * @return function parsing the source bytes it is given into a Program
+	 */
+	public static Function<byte[], Object> parser()
+	{
+		return source -> {
+			try
+			{
+				return new Parser (source).parse();
+			}
+			catch (ParserException e)
+			{
+				throw new IllegalStateException (e);
+			}
+		};
+	}
+
+	/**
+	 * @param source cannot be null - valid program
+	 * @param backend "tree", "trace", "vm" or "jvm"
+	 * @return action executing source on backend in a new context, with its
+	 *         output kept in memory
+	 */
+	public static Runnable program(String source, String backend) throws Exception
+	{
+		Program program = new Parser (source.getBytes()).parse();
+		if (backend.equals("tree"))
+			return () -> program.execute(new ExecutionContext (new MemoryOutputSink()));
+		if (backend.equals("trace"))
+			return () -> {
+				ExecutionContext context = new ExecutionContext (new MemoryOutputSink());
+				context.setTracer(new Tracer());
+				program.execute(context);
+			};
+		CompiledProgram compiled = backend.equals("vm") ? new BytecodeCompiler().compile(program) :
+			new JvmCompiler().compile(program);
+		return () -> compiled.execute(new ExecutionContext (new MemoryOutputSink()));
+	}
+
+	/**
+	 * @param shape "idLiteral", "idId" or "nested"
+	 * @return evaluation of an addition of that operand shape, built as the
+	 *         parser builds it, in a context where x = 7 and y = 3
+	 */
+	public static IntSupplier arithmetic(String shape)
+	{
+		ExecutionContext context = variables();
+		BinaryExpression expr = BinaryExpression.create (BinaryExpression.ArithmeticOperator.ADD_OP,
+			operand1 (shape), operand2 (shape));
+		return () -> expr.evaluate(context);
+	}
+
+	/**
+	 * @param shape "idLiteral", "idId" or "nested"
+	 * @return evaluation of a less than comparison of that operand shape,
+	 *         built as the parser builds it, in a context where x = 7 and y = 3
+	 */
+	public static BooleanSupplier relational(String shape)
+	{
+		ExecutionContext context = variables();
+		BooleanExpression expr = BooleanExpression.create (BooleanExpression.RelationalOperator.LT_OP,
+			operand1 (shape), operand2 (shape));
+		return () -> expr.evaluate(context);
+	}
+
+	/**
+	 * @param depth > 0
+	 * @param tree whether to build the chain as a tree of BinaryExpression
+	 *        nodes rather than as the parser builds it
+	 * @return evaluation of the chain + x * y + x * y ... 1 of depth
+	 *         operators in a context where x = 7 and y = 3
+	 */
+	public static IntSupplier chain(int depth, boolean tree) throws Exception
+	{
+		ExecutionContext context = variables();
+		ArithmeticExpression expr;
+		if (tree)
+		{
+			expr = new LiteralInteger (1);
+			for (int i = depth - 1; i >= 0; i--)
+				expr = i % 2 == 0 ?
+					BinaryExpression.create (BinaryExpression.ArithmeticOperator.ADD_OP, X, expr) :
+					BinaryExpression.create (BinaryExpression.ArithmeticOperator.MUL_OP, Y, expr);
+		}
+		else
+		{
+			StringBuilder source = new StringBuilder ("function a ( )\nprint ( ");
+			for (int i = 0; i < depth; i++)
+				source.append(i % 2 == 0 ? "+ x " : "* y ");
+			source.append("1 )\nend\n");
+			Block blk = new Parser (source.toString().getBytes()).parse().getBlock();
+			expr = ((PrintStatement) blk.getStatement(0)).getExpr();
+		}
+		ArithmeticExpression chain = expr;
+		return () -> chain.evaluate(context);
+	}
+
+	/**
+	 * @param kind "int[]", "table" or "sparse"
+	 * @param size > 0 - number of elements
+	 * @return action filling a new container with size elements and summing
+	 *         them back: an int[] of that size, an IntTable filled with the
+	 *         keys 0 to size - 1, which all go to its array part, or an
+	 *         IntTable filled with keys spread apart, which all go to its
+	 *         hash part
+	 * @throws IllegalArgumentException if kind is unknown
+	 */
+	public static IntSupplier table(String kind, int size)
+	{
+		if (kind.equals("int[]"))
+			return () -> {
+				int[] array = new int[size];
+				for (int i = 0; i < size; i++)
+					array[i] = i;
+				int sum = 0;
+				for (int i = 0; i < size; i++)
+					sum += array[i];
+				return sum;
+			};
+		if (!kind.equals("table") && !kind.equals("sparse"))
+			throw new IllegalArgumentException ("unknown kind " + kind);
+		int stride = kind.equals("table") ? 1 : 7919;
+		return () -> {
+			IntTable table = new IntTable();
+			for (int i = 0; i < size; i++)
+				table.set(i * stride, i);
+			int sum = 0;
+			for (int i = 0; i < size; i++)
+				sum += table.get(i * stride);
+			return sum;
+		};
+	}
+
+	private static ExecutionContext variables()
+	{
+		ExecutionContext context = new ExecutionContext (new MemoryOutputSink());
+		context.reserve(2);
+		context.storeAt(X.getSlot(), 7);
+		context.storeAt(Y.getSlot(), 3);
+		return context;
+	}
+
+	private static ArithmeticExpression operand1(String shape)
+	{
+		if (shape.equals("nested"))
+			return BinaryExpression.create (BinaryExpression.ArithmeticOperator.MUL_OP,
+				X, new LiteralInteger (2));
+		return X;
+	}
+
+	private static ArithmeticExpression operand2(String shape)
+	{
+		if (shape.equals("idLiteral"))
+			return new LiteralInteger (5);
+		if (shape.equals("idId"))
+			return Y;
+		if (shape.equals("nested"))
+			return BinaryExpression.create (BinaryExpression.ArithmeticOperator.SUB_OP,
+				Y, X);
+		throw new IllegalArgumentException ("unknown shape " + shape);
+	}
+}
@@ -0,0 +1,49 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CallBenchmark measures function calls: a recursive Fibonacci function,
+ * which makes about fib(n) calls of two arithmetic operations each, on the
+ * tree walking interpreter and on the bytecode and JVM backends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CallBenchmark
+{
+	@Param({"25"})
+	public int n;
+
+	@Param({"tree", "vm", "jvm"})
+	public String backend;
+
+	private Runnable program;
+
+	@Setup
+	public void setup()
+	{
+		program = Fixtures.call("program", Fixtures.<String>call("callSource", n), backend);
+	}
+
+	@Benchmark
+	public void execute()
+	{
+		program.run();
+	}
+}
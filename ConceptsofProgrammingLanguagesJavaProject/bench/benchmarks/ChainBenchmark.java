@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ChainBenchmark measures evaluating a long chain of additions and
+ * multiplications, once as the parser builds it, a PostfixExpression when
+ * the chain is deeper than PostfixExpression.MAX_TREE_DEPTH, and once as a
+ * tree of BinaryExpression nodes evaluated recursively.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChainBenchmark
+{
+	@Param({"16", "256", "4096"})
+	public int depth;
+
+	private IntSupplier parsed;
+	private IntSupplier tree;
+
+	@Setup
+	public void setup()
+	{
+		parsed = Fixtures.call("chain", depth, false);
+		tree = Fixtures.call("chain", depth, true);
+	}
+
+	@Benchmark
+	public int parsed()
+	{
+		return parsed.getAsInt();
+	}
+
+	@Benchmark
+	public int tree()
+	{
+		return tree.getAsInt();
+	}
+}
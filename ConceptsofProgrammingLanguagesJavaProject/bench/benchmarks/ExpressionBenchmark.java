@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ExpressionBenchmark measures evaluating single BinaryExpression and
+ * BooleanExpression nodes, as specialized by the parser, for an Id and a
+ * literal, two Ids and nested generic operands.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark
+{
+	@Param({"idLiteral", "idId", "nested"})
+	public String shape;
+
+	private IntSupplier arithmetic;
+	private BooleanSupplier relational;
+
+	@Setup
+	public void setup()
+	{
+		arithmetic = Fixtures.call("arithmetic", shape);
+		relational = Fixtures.call("relational", shape);
+	}
+
+	@Benchmark
+	public int binaryExpression()
+	{
+		return arithmetic.getAsInt();
+	}
+
+	@Benchmark
+	public boolean booleanExpression()
+	{
+		return relational.getAsBoolean();
+	}
+}
@@ -0,0 +1,35 @@
+package benchmarks;
+
+import java.lang.reflect.Method;
+
+/**
+ * Fixtures calls the static methods of BenchmarkFixtures, which lives in the
+ * default package with the interpreter and so can only be reached by name.
+ */
+final class Fixtures
+{
+	private Fixtures()
+	{
+	}
+
+	/**
+	 * @param name name of a static method of BenchmarkFixtures
+	 * @param args arguments of the method
+	 * @return result of the method
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T call(String name, Object... args)
+	{
+		try
+		{
+			for (Method method : Class.forName("BenchmarkFixtures").getMethods())
+				if (method.getName().equals(name) && method.getParameterCount() == args.length)
+					return (T) method.invoke(null, args);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			throw new IllegalStateException ("unable to call BenchmarkFixtures." + name, e);
+		}
+		throw new IllegalArgumentException ("no BenchmarkFixtures." + name);
+	}
+}
@@ -0,0 +1,50 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ForkBenchmark measures running variants of a program that share an
+ * expensive prefix, building a large table, on the bytecode VM: running
+ * every variant from the start, and forking every variant from a snapshot
+ * taken after the prefix, which shares the table copy-on-write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForkBenchmark
+{
+	@Param({"rerun", "fork"})
+	public String mode;
+
+	@Param({"10000", "1000000"})
+	public int size;
+
+	private Runnable variant;
+
+	@Setup
+	public void setup()
+	{
+		variant = Fixtures.call("variant", mode, size);
+	}
+
+	@Benchmark
+	public void runVariant()
+	{
+		variant.run();
+	}
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * InterpreterBenchmark measures executing the loops of test2.lua (while)
+ * and test4.lua (repeat) scaled up to iterations iterations, on the tree
+ * walking interpreter and on the bytecode and JVM backends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterpreterBenchmark
+{
+	@Param({"test2", "test4"})
+	public String script;
+
+	@Param({"1000000"})
+	public int iterations;
+
+	@Param({"tree", "vm", "jvm"})
+	public String backend;
+
+	private Runnable program;
+
+	@Setup
+	public void setup()
+	{
+		program = Fixtures.call("program", Fixtures.<String>call("scaledSource", script, iterations), backend);
+	}
+
+	@Benchmark
+	public void execute()
+	{
+		program.run();
+	}
+}
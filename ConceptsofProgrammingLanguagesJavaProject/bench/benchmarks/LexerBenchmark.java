@@ -0,0 +1,76 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * LexerBenchmark measures LexicalAnalyzer reading a large source file from
+ * disk to the end, and ParallelLexer lexing the same file on the common
+ * fork-join pool; the tokens counter reports tokens per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LexerBenchmark
+{
+	@Param({"10000", "100000"})
+	public int statements;
+
+	private String fileName;
+	private ToIntFunction<String> lexer;
+	private ToIntFunction<String> parallelLexer;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters
+	{
+		public long tokens;
+
+		@Setup(Level.Iteration)
+		public void reset()
+		{
+			tokens = 0;
+		}
+	}
+
+	@Setup
+	public void setup()
+	{
+		fileName = Fixtures.call("writeSource", Fixtures.<String>call("wideSource", statements));
+		lexer = Fixtures.call("lexer");
+		parallelLexer = Fixtures.call("parallelLexer");
+	}
+
+	@Benchmark
+	public int lexFile(Counters counters)
+	{
+		int count = lexer.applyAsInt(fileName);
+		counters.tokens += count;
+		return count;
+	}
+
+	@Benchmark
+	public int lexFileParallel(Counters counters)
+	{
+		int count = parallelLexer.applyAsInt(fileName);
+		counters.tokens += count;
+		return count;
+	}
+}
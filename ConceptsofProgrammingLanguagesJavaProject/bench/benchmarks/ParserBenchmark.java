@@ -0,0 +1,53 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ParserBenchmark measures Parser.parse() from source bytes on wide
+ * programs, many statements in sequence, and on deep programs, loops and
+ * expressions nested size levels deep.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark
+{
+	@Param({"wide", "deep"})
+	public String shape;
+
+	@Param({"100", "1000"})
+	public int size;
+
+	private byte[] source;
+	private Function<byte[], Object> parser;
+
+	@Setup
+	public void setup()
+	{
+		String text = Fixtures.call(shape.equals("wide") ? "wideSource" : "deepSource", size);
+		source = text.getBytes();
+		parser = Fixtures.call("parser");
+	}
+
+	@Benchmark
+	public Object parse()
+	{
+		return parser.apply(source);
+	}
+}
@@ -0,0 +1,51 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TableBenchmark measures filling a container with consecutive elements and
+ * reading them back: a plain int[] of the final size, an IntTable whose
+ * array part grows as it is filled, and an IntTable whose keys are spread
+ * apart so that they all go to its hash part.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableBenchmark
+{
+	@Param({"int[]", "table", "sparse"})
+	public String kind;
+
+	@Param({"1000", "100000"})
+	public int size;
+
+	private IntSupplier fill;
+
+	@Setup
+	public void setup()
+	{
+		fill = Fixtures.call("table", kind, size);
+	}
+
+	@Benchmark
+	public int fillAndRead()
+	{
+		return fill.getAsInt();
+	}
+}
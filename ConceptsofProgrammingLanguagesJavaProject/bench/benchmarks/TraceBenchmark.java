@@ -0,0 +1,50 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TraceBenchmark measures a hot loop with branches in its body, one that
+ * always goes the same way and one that alternates, on the tree walking
+ * interpreter alone, under a Tracer, which compiles the loop once it is
+ * hot, and compiled as a whole by the JVM backend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TraceBenchmark
+{
+	@Param({"100000"})
+	public int n;
+
+	@Param({"tree", "trace", "jvm"})
+	public String backend;
+
+	private Runnable program;
+
+	@Setup
+	public void setup()
+	{
+		program = Fixtures.call("program", Fixtures.<String>call("branchSource", n), backend);
+	}
+
+	@Benchmark
+	public void execute()
+	{
+		program.run();
+	}
+}
@@ -1,6 +1,7 @@
 public interface ArithmeticExpression {
 	/**
+	 * @param context holds the variables the expression reads
 	 * @return value of the arithmetic expression
 	 */
-	public int evaluate();
+	public int evaluate(ExecutionContext context);
 }
@@ -1,6 +1,7 @@
 public class AssignmentStatement implements Statement {
 	private Id var;
 	private ArithmeticExpression expr;
+	private int slot;
 
 
 	public AssignmentStatement(Id var, ArithmeticExpression expr)
@@ -11,10 +12,19 @@ public class AssignmentStatement implements Statement {
 			throw new IllegalArgumentException ("null ArithmeticExpression argument");
 		this.var = var;
 		this.expr = expr;
+		slot = var.getSlot();
+	}
+	public Id getVar()
+	{
+		return var;
+	}
+	public ArithmeticExpression getExpr()
+	{
+		return expr;
 	}
 	@Override
-	public void execute()
+	public void execute(ExecutionContext context)
 	{
-		Memory.store (var.getChar(), expr.evaluate());
+		context.storeAt(slot, expr.evaluate(context));
 	}
 }
\ No newline at end of file
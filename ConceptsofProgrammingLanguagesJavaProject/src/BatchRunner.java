@@ -0,0 +1,368 @@
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * BatchRunner lexes, parses and executes many scripts concurrently. Every
+ * script is an independent task with its own Parser, Optimizer and
+ * ExecutionContext, whose print statements write to a MemoryOutputSink,
+ * so tasks share no mutable state and throughput grows with the number of
+ * threads of the executor. Results are reported in input order.
+ *
+ * usage: BatchRunner [-threads n] [-executor forkjoin|virtual] [-vm|-jvm] [-O0]
+ *        [-cache n] directory|manifest
+ *
+ * A directory runs every .lua file in it, in name order; any other file is a
+ * manifest listing one script path per line, relative to the manifest.
+ * Blank lines and lines starting with # are ignored. Scripts ending in .luac
+ * are loaded as precompiled ProgramFiles. With -cache, programs are parsed
+ * or loaded and then optimized through a ProgramCache of the given
+ * capacity, so a script listed more than once is only read and hashed
+ * again.
+ */
+public class BatchRunner
+{
+	public enum Status {OK, NOT_FOUND, SYNTAX_ERROR, RUNTIME_ERROR, TIMEOUT}
+
+	/**
+	 * outcome of running one script
+	 */
+	public static class Result
+	{
+		private final Path script;
+		private final Status status;
+		private final String message;
+		private final String output;
+		private final long nanos;
+
+		public Result(Path script, Status status, String message, String output, long nanos)
+		{
+			this.script = script;
+			this.status = status;
+			this.message = message;
+			this.output = output;
+			this.nanos = nanos;
+		}
+		public Path getScript()
+		{
+			return script;
+		}
+		public Status getStatus()
+		{
+			return status;
+		}
+		/**
+		 * @return error message, or null if status is OK
+		 */
+		public String getMessage()
+		{
+			return message;
+		}
+		/**
+		 * @return everything the script printed, also when it failed
+		 */
+		public String getOutput()
+		{
+			return output;
+		}
+		/**
+		 * @return time taken to lex, parse and execute the script
+		 */
+		public long getNanos()
+		{
+			return nanos;
+		}
+	}
+
+	private final ExecutorService executor;
+	private final String backend;
+	private final boolean optimize;
+	private final ProgramCache cache;
+
+	/**
+	 * @param executor cannot be null - runs the scripts
+	 * @param backend backend as accepted by Interpreter, "" to walk the tree
+	 * @param optimize whether scripts are optimized before they are executed
+	 * @throws IllegalArgumentException if executor or backend is null
+	 */
+	public BatchRunner(ExecutorService executor, String backend, boolean optimize)
+	{
+		this(executor, backend, optimize, null);
+	}
+
+	/**
+	 * @param executor cannot be null - runs the scripts
+	 * @param backend backend as accepted by Interpreter, "" to walk the tree
+	 * @param optimize whether scripts are optimized before they are executed
+	 * @param cache cache scripts are parsed and loaded through, whose
+	 *        programs are executed as they are, so it should prepare them
+	 *        with the Optimizer; null to parse and optimize every script
+	 * @throws IllegalArgumentException if executor or backend is null
+	 */
+	public BatchRunner(ExecutorService executor, String backend, boolean optimize,
+			ProgramCache cache)
+	{
+		if (executor == null)
+			throw new IllegalArgumentException ("null executor argument");
+		if (backend == null)
+			throw new IllegalArgumentException ("null backend argument");
+		this.executor = executor;
+		this.backend = backend;
+		this.optimize = optimize;
+		this.cache = cache;
+	}
+
+	/**
+	 * @param scripts cannot be null
+	 * @return one future per script, in the order of scripts
+	 * @throws IllegalArgumentException if scripts is null
+	 */
+	public List<Future<Result>> submit(List<Path> scripts)
+	{
+		if (scripts == null)
+			throw new IllegalArgumentException ("null script list argument");
+		List<Future<Result>> results = new ArrayList<Future<Result>>(scripts.size());
+		for (Path script : scripts)
+			results.add(executor.submit(() -> run (script)));
+		return results;
+	}
+
+	/**
+	 * @param script cannot be null
+	 * @return result of lexing, parsing and executing script on the calling thread
+	 * @throws IllegalArgumentException if script is null
+	 */
+	public Result run(Path script)
+	{
+		if (script == null)
+			throw new IllegalArgumentException ("null script argument");
+		long start = System.nanoTime();
+		MemoryOutputSink output = new MemoryOutputSink();
+		Status status = Status.OK;
+		String message = null;
+		try
+		{
+			boolean compiled = script.toString().endsWith(".luac");
+			Program program;
+			if (cache != null)
+				program = compiled ? cache.load(script) : cache.get(script.toString());
+			else
+				program = new Optimizer (optimize).optimize(compiled ? ProgramFile.load(script) :
+					new Parser (script.toString()).parse());
+			Interpreter.execute (program, backend, new ExecutionContext (output));
+		}
+		catch (IOException | LexicalException | ParserException | ProgramFormatException | RuntimeException |
+				StackOverflowError e)
+		{
+			status = statusOf (e);
+			message = messageOf (e);
+		}
+		return new Result (script, status, message, output.toString(), System.nanoTime() - start);
+	}
+
+	/**
+	 * @param e cannot be null - what reading, parsing or executing a script
+	 *        threw, or the TimeoutException it was stopped with
+	 * @return status of the script
+	 */
+	public static Status statusOf(Throwable e)
+	{
+		if (e instanceof IOException)
+			return Status.NOT_FOUND;
+		if (e instanceof LexicalException || e instanceof ParserException || e instanceof ProgramFormatException)
+			return Status.SYNTAX_ERROR;
+		if (e instanceof TimeoutException)
+			return Status.TIMEOUT;
+		return Status.RUNTIME_ERROR;
+	}
+
+	/**
+	 * @param e cannot be null - what reading, parsing or executing a script
+	 *        threw, or the TimeoutException it was stopped with
+	 * @return message reported for the script
+	 */
+	public static String messageOf(Throwable e)
+	{
+		if (e instanceof FileNotFoundException)
+			return "source file is not found";
+		if (e instanceof IOException)
+			return "source file cannot be read";
+		if (e instanceof ArithmeticException)
+			// once compiled, HotSpot may throw a preallocated instance without a message
+			return "division by zero";
+		if (e instanceof StackOverflowError)
+			// nested deeper than the Java stack of the thread allows
+			return "stack overflow";
+		return e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+	}
+
+	/**
+	 * @param source cannot be null - directory or manifest
+	 * @return scripts in source, in the order they are to be reported
+	 * @throws IOException if source cannot be read
+	 */
+	public static List<Path> listScripts(Path source) throws IOException
+	{
+		if (source == null)
+			throw new IllegalArgumentException ("null source argument");
+		List<Path> scripts = new ArrayList<Path>();
+		if (Files.isDirectory(source))
+		{
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(source, "*.lua"))
+			{
+				for (Path entry : entries)
+					scripts.add(entry);
+			}
+			Collections.sort(scripts);
+		}
+		else
+		{
+			Path base = source.toAbsolutePath().getParent();
+			for (String line : Files.readAllLines(source))
+			{
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#"))
+					scripts.add(base.resolve(line));
+			}
+		}
+		return scripts;
+	}
+
+	/**
+	 * @param kind "forkjoin" or "virtual"
+	 * @param threads number of threads of a fork-join pool, ignored for
+	 *        virtual threads
+	 * @return new executor of the given kind
+	 * @throws IllegalArgumentException if kind is unknown, threads is not
+	 *         positive or virtual threads are not available in this JVM
+	 */
+	public static ExecutorService createExecutor(String kind, int threads)
+	{
+		if ("forkjoin".equals(kind))
+		{
+			if (threads <= 0)
+				throw new IllegalArgumentException ("invalid thread count argument");
+			return new ForkJoinPool (threads);
+		}
+		if ("virtual".equals(kind))
+		{
+			// looked up reflectively so that the runner still builds for JVMs
+			// without virtual threads
+			try
+			{
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			}
+			catch (ReflectiveOperationException e)
+			{
+				throw new IllegalArgumentException ("virtual threads are not available in this JVM");
+			}
+		}
+		throw new IllegalArgumentException ("unknown executor " + kind);
+	}
+
+	public static void main(String[] args)
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		String kind = "forkjoin";
+		String backend = "";
+		boolean optimize = true;
+		String source = null;
+		// capacity of the cache, -1 without one
+		int capacity = -1;
+		try
+		{
+			for (int i = 0; i < args.length; i++)
+			{
+				if (args[i].equals("-threads") && i + 1 < args.length)
+					threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-executor") && i + 1 < args.length)
+					kind = args[++i];
+				else if (args[i].equals("-cache") && i + 1 < args.length)
+					capacity = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-O0"))
+					optimize = false;
+				else if (args[i].equals("-vm") || args[i].equals("-jvm"))
+					backend = args[i];
+				else
+					source = args[i];
+			}
+			if (source == null)
+				throw new IllegalArgumentException ("usage: BatchRunner [-threads n] " +
+					"[-executor forkjoin|virtual] [-vm|-jvm] [-O0] [-cache n] directory|manifest");
+			boolean optimizeCached = optimize;
+			ProgramCache cache = capacity < 0 ? null :
+				new ProgramCache (capacity, program -> new Optimizer (optimizeCached).optimize(program));
+			List<Path> scripts = listScripts (Paths.get(source));
+			ExecutorService executor = createExecutor (kind, threads);
+			PrintStream out = new PrintStream (new BufferedOutputStream (System.out, 1 << 16), false);
+			int failed = 0;
+			long start = System.nanoTime();
+			try
+			{
+				List<Future<Result>> results = new BatchRunner (executor, backend, optimize, cache).submit(scripts);
+				for (int i = 0; i < results.size(); i++)
+				{
+					Result result;
+					try
+					{
+						result = results.get(i).get();
+					}
+					catch (ExecutionException e)
+					{
+						// an error run does not catch fails only its own script
+						result = new Result (scripts.get(i), statusOf (e.getCause()), messageOf (e.getCause()), "", 0);
+					}
+					out.printf("== %s: %s (%.3f ms)%n", result.getScript(), result.getStatus(),
+						result.getNanos() / 1e6);
+					out.print(result.getOutput());
+					if (result.getStatus() != Status.OK)
+					{
+						out.println(result.getMessage());
+						failed++;
+					}
+				}
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			out.printf("%d scripts, %d ok, %d failed in %.3f s (%.1f scripts/s on %s)%n",
+				scripts.size(), scripts.size() - failed, failed, seconds, scripts.size() / seconds,
+				kind.equals("virtual") ? "virtual threads" : threads + " fork-join threads");
+			if (cache != null)
+				out.println(cache);
+			out.flush();
+		}
+		catch (NumberFormatException e)
+		{
+			System.out.println ("invalid thread count or cache capacity");
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.out.println (e.getMessage());
+		}
+		catch (IOException e)
+		{
+			System.out.println ("unable to read " + source);
+		}
+		catch (InterruptedException e)
+		{
+			System.out.println ("batch interrupted - terminating");
+		}
+	}
+}
@@ -1,3 +1,10 @@
+/**
+ * BinaryExpression applies an arithmetic operator to two operands. Parser
+ * builds instances through create, which picks a subclass specialized for the
+ * operator and, for the common Id/literal and Id/Id operand shapes, for the
+ * operands, so that evaluate is a single straight-line method the JIT can
+ * inline instead of a switch over the operator.
+ */
 public class BinaryExpression implements ArithmeticExpression {
 	public enum ArithmeticOperator {ADD_OP, SUB_OP, MUL_OP, DIV_OP}
 	private ArithmeticOperator op;
@@ -19,23 +26,228 @@ public class BinaryExpression implements ArithmeticExpression {
 		this.expr1 = expr1;
 		this.expr2 = expr2;
 	}
+	/**
+	 * @param op cannot be null
+	 * @param expr1 cannot be null
+	 * @param expr2 cannot be null
+	 * @return an expression equivalent to new BinaryExpression (op, expr1, expr2),
+	 *         specialized for op and the shape of the operands
+	 * @throws IllegalArgumentException if any argument is null
+	 */
+	public static BinaryExpression create(ArithmeticOperator op, ArithmeticExpression expr1,
+			ArithmeticExpression expr2) {
+		if (op == null)
+			throw new IllegalArgumentException ("null arithmetic operator argument");
+		if (expr1 == null || expr2 == null)
+			throw new IllegalArgumentException ("null arithmetic expression argument");
+		if (expr1 instanceof Id && expr2 instanceof LiteralInteger)
+			switch (op) {
+				case ADD_OP:
+					return new AddIdLiteral ((Id) expr1, (LiteralInteger) expr2);
+				case SUB_OP:
+					return new SubIdLiteral ((Id) expr1, (LiteralInteger) expr2);
+				case MUL_OP:
+					return new MulIdLiteral ((Id) expr1, (LiteralInteger) expr2);
+				case DIV_OP:
+					return new DivIdLiteral ((Id) expr1, (LiteralInteger) expr2);
+			}
+		if (expr1 instanceof Id && expr2 instanceof Id)
+			switch (op) {
+				case ADD_OP:
+					return new AddIdId ((Id) expr1, (Id) expr2);
+				case SUB_OP:
+					return new SubIdId ((Id) expr1, (Id) expr2);
+				case MUL_OP:
+					return new MulIdId ((Id) expr1, (Id) expr2);
+				case DIV_OP:
+					return new DivIdId ((Id) expr1, (Id) expr2);
+			}
+		switch (op) {
+			case ADD_OP:
+				return new Add (expr1, expr2);
+			case SUB_OP:
+				return new Sub (expr1, expr2);
+			case MUL_OP:
+				return new Mul (expr1, expr2);
+			default:
+				return new Div (expr1, expr2);
+		}
+	}
+	public ArithmeticOperator getOp() {
+		return op;
+	}
+	public ArithmeticExpression getExpr1() {
+		return expr1;
+	}
+	public ArithmeticExpression getExpr2() {
+		return expr2;
+	}
 	@Override
-	public int evaluate() {
+	public int evaluate(ExecutionContext context) {
 		int value = 0;
 		switch (op) {
 			case ADD_OP:
-				value = expr1.evaluate() + expr2.evaluate();
+				value = expr1.evaluate(context) + expr2.evaluate(context);
 				break;
 			case SUB_OP:
-				value = expr1.evaluate() - expr2.evaluate();
+				value = expr1.evaluate(context) - expr2.evaluate(context);
 				break;
 			case MUL_OP:
-				value = expr1.evaluate() * expr2.evaluate();
+				value = expr1.evaluate(context) * expr2.evaluate(context);
 				break;
 			case DIV_OP:
-				value = expr1.evaluate() / expr2.evaluate();
+				value = expr1.evaluate(context) / expr2.evaluate(context);
 				break;
 		}
 		return value;
 	};
-}
\ No newline at end of file
+
+	private static final class Add extends BinaryExpression {
+		private final ArithmeticExpression left, right;
+		Add(ArithmeticExpression expr1, ArithmeticExpression expr2) {
+			super(ArithmeticOperator.ADD_OP, expr1, expr2);
+			left = expr1;
+			right = expr2;
+		}
+		@Override
+		public int evaluate(ExecutionContext context) {
+			return left.evaluate(context) + right.evaluate(context);
+		}
+	}
+	private static final class AddIdLiteral extends BinaryExpression {
+		private final int slot;
+		private final int value;
+		AddIdLiteral(Id id, LiteralInteger literal) {
+			super(ArithmeticOperator.ADD_OP, id, literal);
+			slot = id.getSlot();
+			value = literal.getValue();
+		}
+		@Override
+		public int evaluate(ExecutionContext context) {
+			return context.fetchAt(slot) + value;
+		}
+	}
+	private static final class AddIdId extends BinaryExpression {
+		private final int slot1, slot2;
+		AddIdId(Id id1, Id id2) {
+			super(ArithmeticOperator.ADD_OP, id1, id2);
+			slot1 = id1.getSlot();
+			slot2 = id2.getSlot();
+		}
+		@Override
+		public int evaluate(ExecutionContext context) {
+			return context.fetchAt(slot1) + context.fetchAt(slot2);
+		}
+	}
+	private static final class Sub extends BinaryExpression {
+		private final ArithmeticExpression left, right;
+		Sub(ArithmeticExpression expr1, ArithmeticExpression expr2) {
+			super(ArithmeticOperator.SUB_OP, expr1, expr2);
+			left = expr1;
+			right = expr2;
+		}
+		@Override
+		public int evaluate(ExecutionContext context) {
+			return left.evaluate(context) - right.evaluate(context);
+		}
+	}
+	private static final class SubIdLiteral extends BinaryExpression {
+		private final int slot;
+		private final int value;
+		SubIdLiteral(Id id, LiteralInteger literal) {
+			super(ArithmeticOperator.SUB_OP, id, literal);
+			slot = id.getSlot();
+			value = literal.getValue();
+		}
+		@Override
+		public int evaluate(ExecutionContext context) {
+			return context.fetchAt(slot) - value;
+		}
+	}
+	private static final class SubIdId extends BinaryExpression {
+		private final int slot1, slot2;
+		SubIdId(Id id1, Id id2) {
+			super(ArithmeticOperator.SUB_OP, id1, id2);
+			slot1 = id1.getSlot();
+			slot2 = id2.getSlot();
+		}
+		@Override
+		public int evaluate(ExecutionContext context) {
+			return context.fetchAt(slot1) - context.fetchAt(slot2);
+		}
+	}
+	private static final class Mul extends BinaryExpression {
+		private final ArithmeticExpression left, right;
+		Mul(ArithmeticExpression expr1, ArithmeticExpression expr2) {
+			super(ArithmeticOperator.MUL_OP, expr1, expr2);
+			left = expr1;
+			right = expr2;
+		}
+		@Override
+		public int evaluate(ExecutionContext context) {
+			return left.evaluate(context) * right.evaluate(context);
+		}
+	}
+	private static final class MulIdLiteral extends BinaryExpression {
+		private final int slot;
+		private final int value;
+		MulIdLiteral(Id id, LiteralInteger literal) {
+			super(ArithmeticOperator.MUL_OP, id, literal);
+			slot = id.getSlot();
+			value = literal.getValue();
+		}
+		@Override
+		public int evaluate(ExecutionContext context) {
+			return context.fetchAt(slot) * value;
+		}
+	}
+	private static final class MulIdId extends BinaryExpression {
+		private final int slot1, slot2;
+		MulIdId(Id id1, Id id2) {
+			super(ArithmeticOperator.MUL_OP, id1, id2);
+			slot1 = id1.getSlot();
+			slot2 = id2.getSlot();
+		}
+		@Override
+		public int evaluate(ExecutionContext context) {
+			return context.fetchAt(slot1) * context.fetchAt(slot2);
+		}
+	}
+	private static final class Div extends BinaryExpression {
+		private final ArithmeticExpression left, right;
+		Div(ArithmeticExpression expr1, ArithmeticExpression expr2) {
+			super(ArithmeticOperator.DIV_OP, expr1, expr2);
+			left = expr1;
+			right = expr2;
+		}
+		@Override
+		public int evaluate(ExecutionContext context) {
+			return left.evaluate(context) / right.evaluate(context);
+		}
+	}
+	private static final class DivIdLiteral extends BinaryExpression {
+		private final int slot;
+		private final int value;
+		DivIdLiteral(Id id, LiteralInteger literal) {
+			super(ArithmeticOperator.DIV_OP, id, literal);
+			slot = id.getSlot();
+			value = literal.getValue();
+		}
+		@Override
+		public int evaluate(ExecutionContext context) {
+			return context.fetchAt(slot) / value;
+		}
+	}
+	private static final class DivIdId extends BinaryExpression {
+		private final int slot1, slot2;
+		DivIdId(Id id1, Id id2) {
+			super(ArithmeticOperator.DIV_OP, id1, id2);
+			slot1 = id1.getSlot();
+			slot2 = id2.getSlot();
+		}
+		@Override
+		public int evaluate(ExecutionContext context) {
+			return context.fetchAt(slot1) / context.fetchAt(slot2);
+		}
+	}
+}
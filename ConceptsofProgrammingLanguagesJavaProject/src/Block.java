@@ -1,25 +1,121 @@
-import java.util.ArrayList;
 import java.util.List;
 public class Block {
-	private List<Statement> stmts;
-	public Block ()
+	private final Statement[] stmts;
+	// whether a return statement may end the block before its last statement
+	private final boolean returns;
+	/**
+	 * @param stmts cannot be null and cannot contain null
+	 * @throws IllegalArgumentException if stmts or any statement is null
+	 */
+	public Block (List<Statement> stmts)
 	{
-		stmts = new ArrayList<Statement>();
+		if (stmts == null)
+			throw new IllegalArgumentException ("null statement list argument");
+		this.stmts = stmts.toArray(new Statement[stmts.size()]);
+		for (Statement stmt : this.stmts)
+			if (stmt == null)
+				throw new IllegalArgumentException ("null statement argument");
+		boolean returns = false;
+		for (Statement stmt : this.stmts)
+			returns |= mayReturn (stmt);
+		this.returns = returns;
+	}
+	private Block (Statement[] stmts, boolean returns)
+	{
+		this.stmts = stmts;
+		this.returns = returns;
 	}
 	/**
-	 * @param stmt cannot be null
-	 * @throws IllegalArgumentException if stmt is null
+	 * @param from 0 <= from <= to - first statement replaced
+	 * @param to to <= size() - statement after the last one replaced
+	 * @param stmts cannot be null and cannot contain null - statements
+	 *        replacing them
+	 * @return block with statements from..to of this block replaced by stmts,
+	 *         whose other statements are copied without being inspected
+	 *         unless a replaced statement may return
+	 * @throws IllegalArgumentException if any argument is invalid
 	 */
-	public void add(Statement stmt) {
-		if (stmt == null)
-			throw new IllegalArgumentException ("null statement argument");
-		stmts.add(stmt);
+	public Block replace(int from, int to, List<Statement> stmts)
+	{
+		if (from < 0 || from > to || to > this.stmts.length)
+			throw new IllegalArgumentException ("invalid statement range argument");
+		if (stmts == null)
+			throw new IllegalArgumentException ("null statement list argument");
+		Statement[] replaced = new Statement[this.stmts.length - (to - from) + stmts.size()];
+		System.arraycopy(this.stmts, 0, replaced, 0, from);
+		System.arraycopy(this.stmts, to, replaced, from + stmts.size(), this.stmts.length - to);
+		boolean returns = false;
+		for (int i = from; i < to; i++)
+			returns |= mayReturn (this.stmts[i]);
+		if (returns)
+		{
+			// the statement that may return could have been the only one
+			returns = false;
+			for (int i = 0; i < replaced.length; i++)
+				if (i < from || i >= from + stmts.size())
+					returns |= mayReturn (replaced[i]);
+		}
+		else
+			returns = this.returns;
+		for (int i = 0; i < stmts.size(); i++)
+		{
+			Statement stmt = stmts.get(i);
+			if (stmt == null)
+				throw new IllegalArgumentException ("null statement argument");
+			replaced[from + i] = stmt;
+			returns |= mayReturn (stmt);
+		}
+		return new Block (replaced, returns);
 	}
 	/**
-	 * postcondition: every statement in the block has been executed
+	 * @return whether executing the block may execute a return statement
 	 */
-	public void execute() {
-		for (int i = 0; i < stmts.size(); i++)
-			stmts.get(i).execute();
+	public boolean canReturn() {
+		return returns;
+	}
+	private static boolean mayReturn(Statement stmt) {
+		if (stmt instanceof AssignmentStatement || stmt instanceof IndexAssignmentStatement ||
+				stmt instanceof PrintStatement || stmt instanceof CallStatement)
+			return false;
+		if (stmt instanceof IfStatement)
+			return ((IfStatement) stmt).getBlock1().canReturn() || ((IfStatement) stmt).getBlock2().canReturn();
+		if (stmt instanceof WhileStatement)
+			return ((WhileStatement) stmt).getBlock().canReturn();
+		if (stmt instanceof RepeatStatement)
+			return ((RepeatStatement) stmt).getBlock().canReturn();
+		// a return statement, or a statement the block does not know
+		return true;
+	}
+	/**
+	 * @return number of statements in the block
+	 */
+	public int size() {
+		return stmts.length;
+	}
+	/**
+	 * @param i 0 <= i < size()
+	 * @return statement at position i of the block
+	 */
+	public Statement getStatement(int i) {
+		return stmts[i];
+	}
+	/**
+	 * @param context holds the variables of the executing program
+	 * postcondition: every statement in the block has been executed, up to
+	 *                the one that executed a return statement if any
+	 */
+	public void execute(ExecutionContext context) {
+		if (!returns)
+		{
+			for (Statement stmt : stmts)
+				stmt.execute(context);
+			return;
+		}
+		for (Statement stmt : stmts)
+		{
+			stmt.execute(context);
+			if (context.isReturning())
+				return;
+		}
 	}
 }
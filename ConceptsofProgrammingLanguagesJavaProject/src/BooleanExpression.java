@@ -1,3 +1,8 @@
+/**
+ * BooleanExpression applies a relational operator to two operands. Like
+ * BinaryExpression, instances built through create are specialized for the
+ * operator and the common Id/literal and Id/Id operand shapes.
+ */
 public class BooleanExpression {
 	public enum RelationalOperator	{EQ_OP, NE_OP, GT_OP, GE_OP, LT_OP, LE_OP}
 	private RelationalOperator op;
@@ -17,32 +22,324 @@ public class BooleanExpression {
 		this.expr1 = expr1;
 		this.expr2 = expr2;
 	};
+	/**
+	 * @param op cannot be null
+	 * @param expr1 cannot be null
+	 * @param expr2 cannot be null
+	 * @return an expression equivalent to new BooleanExpression (op, expr1, expr2),
+	 *         specialized for op and the shape of the operands
+	 * @throws IllegalArgumentException if any argument is null
+	 */
+	public static BooleanExpression create(RelationalOperator op, ArithmeticExpression expr1,
+			ArithmeticExpression expr2) {
+		if (op == null)
+			throw new IllegalArgumentException ("null relational operator argument");
+		if (expr1 == null || expr2 == null)
+			throw new IllegalArgumentException ("null arithmetic expression argument");
+		if (expr1 instanceof Id && expr2 instanceof LiteralInteger)
+			switch (op) {
+				case EQ_OP:
+					return new EqIdLiteral ((Id) expr1, (LiteralInteger) expr2);
+				case NE_OP:
+					return new NeIdLiteral ((Id) expr1, (LiteralInteger) expr2);
+				case LT_OP:
+					return new LtIdLiteral ((Id) expr1, (LiteralInteger) expr2);
+				case LE_OP:
+					return new LeIdLiteral ((Id) expr1, (LiteralInteger) expr2);
+				case GT_OP:
+					return new GtIdLiteral ((Id) expr1, (LiteralInteger) expr2);
+				case GE_OP:
+					return new GeIdLiteral ((Id) expr1, (LiteralInteger) expr2);
+			}
+		if (expr1 instanceof Id && expr2 instanceof Id)
+			switch (op) {
+				case EQ_OP:
+					return new EqIdId ((Id) expr1, (Id) expr2);
+				case NE_OP:
+					return new NeIdId ((Id) expr1, (Id) expr2);
+				case LT_OP:
+					return new LtIdId ((Id) expr1, (Id) expr2);
+				case LE_OP:
+					return new LeIdId ((Id) expr1, (Id) expr2);
+				case GT_OP:
+					return new GtIdId ((Id) expr1, (Id) expr2);
+				case GE_OP:
+					return new GeIdId ((Id) expr1, (Id) expr2);
+			}
+		switch (op) {
+			case EQ_OP:
+				return new Eq (expr1, expr2);
+			case NE_OP:
+				return new Ne (expr1, expr2);
+			case LT_OP:
+				return new Lt (expr1, expr2);
+			case LE_OP:
+				return new Le (expr1, expr2);
+			case GT_OP:
+				return new Gt (expr1, expr2);
+			default:
+				return new Ge (expr1, expr2);
+		}
+	}
+	public RelationalOperator getOp() {
+		return op;
+	}
+	public ArithmeticExpression getExpr1() {
+		return expr1;
+	}
+	public ArithmeticExpression getExpr2() {
+		return expr2;
+	}
 	
 	/**
+	 * @param context holds the variables the expression reads
 	 * @return value of the boolean expression
 	 */
-	public boolean evaluate () {
+	public boolean evaluate(ExecutionContext context) {
 		boolean result = false;
 		switch (op) {
 			case EQ_OP:
-				result = expr1.evaluate() == expr2.evaluate();
+				result = expr1.evaluate(context) == expr2.evaluate(context);
 				break;
 			case NE_OP:
-				result = expr1.evaluate() != expr2.evaluate();
+				result = expr1.evaluate(context) != expr2.evaluate(context);
 				break;
 			case LT_OP:
-				result = expr1.evaluate() < expr2.evaluate();
+				result = expr1.evaluate(context) < expr2.evaluate(context);
 				break;
 			case LE_OP:
-				result = expr1.evaluate() <= expr2.evaluate();
+				result = expr1.evaluate(context) <= expr2.evaluate(context);
 				break;
 			case GT_OP:
-				result = expr1.evaluate() > expr2.evaluate();
+				result = expr1.evaluate(context) > expr2.evaluate(context);
 				break;
 			case GE_OP:
-				result = expr1.evaluate() >= expr2.evaluate();
+				result = expr1.evaluate(context) >= expr2.evaluate(context);
 				break;
 		}
 		return result;
 	}
-}
\ No newline at end of file
+
+	private static final class Eq extends BooleanExpression {
+		private final ArithmeticExpression left, right;
+		Eq(ArithmeticExpression expr1, ArithmeticExpression expr2) {
+			super(RelationalOperator.EQ_OP, expr1, expr2);
+			left = expr1;
+			right = expr2;
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return left.evaluate(context) == right.evaluate(context);
+		}
+	}
+	private static final class EqIdLiteral extends BooleanExpression {
+		private final int slot;
+		private final int value;
+		EqIdLiteral(Id id, LiteralInteger literal) {
+			super(RelationalOperator.EQ_OP, id, literal);
+			slot = id.getSlot();
+			value = literal.getValue();
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return context.fetchAt(slot) == value;
+		}
+	}
+	private static final class EqIdId extends BooleanExpression {
+		private final int slot1, slot2;
+		EqIdId(Id id1, Id id2) {
+			super(RelationalOperator.EQ_OP, id1, id2);
+			slot1 = id1.getSlot();
+			slot2 = id2.getSlot();
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return context.fetchAt(slot1) == context.fetchAt(slot2);
+		}
+	}
+	private static final class Ne extends BooleanExpression {
+		private final ArithmeticExpression left, right;
+		Ne(ArithmeticExpression expr1, ArithmeticExpression expr2) {
+			super(RelationalOperator.NE_OP, expr1, expr2);
+			left = expr1;
+			right = expr2;
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return left.evaluate(context) != right.evaluate(context);
+		}
+	}
+	private static final class NeIdLiteral extends BooleanExpression {
+		private final int slot;
+		private final int value;
+		NeIdLiteral(Id id, LiteralInteger literal) {
+			super(RelationalOperator.NE_OP, id, literal);
+			slot = id.getSlot();
+			value = literal.getValue();
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return context.fetchAt(slot) != value;
+		}
+	}
+	private static final class NeIdId extends BooleanExpression {
+		private final int slot1, slot2;
+		NeIdId(Id id1, Id id2) {
+			super(RelationalOperator.NE_OP, id1, id2);
+			slot1 = id1.getSlot();
+			slot2 = id2.getSlot();
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return context.fetchAt(slot1) != context.fetchAt(slot2);
+		}
+	}
+	private static final class Lt extends BooleanExpression {
+		private final ArithmeticExpression left, right;
+		Lt(ArithmeticExpression expr1, ArithmeticExpression expr2) {
+			super(RelationalOperator.LT_OP, expr1, expr2);
+			left = expr1;
+			right = expr2;
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return left.evaluate(context) < right.evaluate(context);
+		}
+	}
+	private static final class LtIdLiteral extends BooleanExpression {
+		private final int slot;
+		private final int value;
+		LtIdLiteral(Id id, LiteralInteger literal) {
+			super(RelationalOperator.LT_OP, id, literal);
+			slot = id.getSlot();
+			value = literal.getValue();
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return context.fetchAt(slot) < value;
+		}
+	}
+	private static final class LtIdId extends BooleanExpression {
+		private final int slot1, slot2;
+		LtIdId(Id id1, Id id2) {
+			super(RelationalOperator.LT_OP, id1, id2);
+			slot1 = id1.getSlot();
+			slot2 = id2.getSlot();
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return context.fetchAt(slot1) < context.fetchAt(slot2);
+		}
+	}
+	private static final class Le extends BooleanExpression {
+		private final ArithmeticExpression left, right;
+		Le(ArithmeticExpression expr1, ArithmeticExpression expr2) {
+			super(RelationalOperator.LE_OP, expr1, expr2);
+			left = expr1;
+			right = expr2;
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return left.evaluate(context) <= right.evaluate(context);
+		}
+	}
+	private static final class LeIdLiteral extends BooleanExpression {
+		private final int slot;
+		private final int value;
+		LeIdLiteral(Id id, LiteralInteger literal) {
+			super(RelationalOperator.LE_OP, id, literal);
+			slot = id.getSlot();
+			value = literal.getValue();
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return context.fetchAt(slot) <= value;
+		}
+	}
+	private static final class LeIdId extends BooleanExpression {
+		private final int slot1, slot2;
+		LeIdId(Id id1, Id id2) {
+			super(RelationalOperator.LE_OP, id1, id2);
+			slot1 = id1.getSlot();
+			slot2 = id2.getSlot();
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return context.fetchAt(slot1) <= context.fetchAt(slot2);
+		}
+	}
+	private static final class Gt extends BooleanExpression {
+		private final ArithmeticExpression left, right;
+		Gt(ArithmeticExpression expr1, ArithmeticExpression expr2) {
+			super(RelationalOperator.GT_OP, expr1, expr2);
+			left = expr1;
+			right = expr2;
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return left.evaluate(context) > right.evaluate(context);
+		}
+	}
+	private static final class GtIdLiteral extends BooleanExpression {
+		private final int slot;
+		private final int value;
+		GtIdLiteral(Id id, LiteralInteger literal) {
+			super(RelationalOperator.GT_OP, id, literal);
+			slot = id.getSlot();
+			value = literal.getValue();
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return context.fetchAt(slot) > value;
+		}
+	}
+	private static final class GtIdId extends BooleanExpression {
+		private final int slot1, slot2;
+		GtIdId(Id id1, Id id2) {
+			super(RelationalOperator.GT_OP, id1, id2);
+			slot1 = id1.getSlot();
+			slot2 = id2.getSlot();
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return context.fetchAt(slot1) > context.fetchAt(slot2);
+		}
+	}
+	private static final class Ge extends BooleanExpression {
+		private final ArithmeticExpression left, right;
+		Ge(ArithmeticExpression expr1, ArithmeticExpression expr2) {
+			super(RelationalOperator.GE_OP, expr1, expr2);
+			left = expr1;
+			right = expr2;
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return left.evaluate(context) >= right.evaluate(context);
+		}
+	}
+	private static final class GeIdLiteral extends BooleanExpression {
+		private final int slot;
+		private final int value;
+		GeIdLiteral(Id id, LiteralInteger literal) {
+			super(RelationalOperator.GE_OP, id, literal);
+			slot = id.getSlot();
+			value = literal.getValue();
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return context.fetchAt(slot) >= value;
+		}
+	}
+	private static final class GeIdId extends BooleanExpression {
+		private final int slot1, slot2;
+		GeIdId(Id id1, Id id2) {
+			super(RelationalOperator.GE_OP, id1, id2);
+			slot1 = id1.getSlot();
+			slot2 = id2.getSlot();
+		}
+		@Override
+		public boolean evaluate(ExecutionContext context) {
+			return context.fetchAt(slot1) >= context.fetchAt(slot2);
+		}
+	}
+}
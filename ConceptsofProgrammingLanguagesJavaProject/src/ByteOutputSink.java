@@ -0,0 +1,71 @@
+import java.util.Arrays;
+
+/**
+ * ByteOutputSink formats printed values straight into a reusable byte
+ * buffer, without going through String or taking a lock. Subclasses decide
+ * what happens when the buffer fills up and when the sink is flushed.
+ */
+public abstract class ByteOutputSink implements OutputSink
+{
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+	// a sign, ten digits and the line separator
+	private static final int MAX_LINE = 11 + LINE_SEPARATOR.length;
+	protected byte[] buffer;
+	protected int length;
+
+	/**
+	 * @param capacity initial size of the buffer, at least 64
+	 * @throws IllegalArgumentException if capacity is less than 64
+	 */
+	protected ByteOutputSink(int capacity)
+	{
+		if (capacity < 64)
+			throw new IllegalArgumentException ("invalid capacity argument");
+		buffer = new byte[capacity];
+	}
+
+	@Override
+	public void printInt(int value)
+	{
+		if (buffer.length - length < MAX_LINE)
+		{
+			overflow();
+			if (buffer.length - length < MAX_LINE)
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + MAX_LINE));
+		}
+		long rest = value;
+		if (rest < 0)
+		{
+			buffer[length++] = '-';
+			rest = -rest;
+		}
+		int end = length + digits (rest);
+		int pos = end;
+		do
+		{
+			buffer[--pos] = (byte) ('0' + rest % 10);
+			rest /= 10;
+		}
+		while (rest != 0);
+		length = end;
+		for (byte b : LINE_SEPARATOR)
+			buffer[length++] = b;
+	}
+
+	/**
+	 * called when the buffer may not have room for another line; the buffer
+	 * is grown if it still has no room afterwards
+	 */
+	protected abstract void overflow();
+
+	private static int digits(long value)
+	{
+		int count = 1;
+		while (value >= 10)
+		{
+			value /= 10;
+			count++;
+		}
+		return count;
+	}
+}
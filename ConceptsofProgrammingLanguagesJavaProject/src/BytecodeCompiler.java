@@ -0,0 +1,737 @@
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BytecodeCompiler lowers the tree built by Parser into a BytecodeProgram.
+ * Loops are laid out with their condition at the bottom so that every
+ * iteration runs a single fused compare-and-branch instruction.
+ *
+ * Binary expressions in a loop that read no variable or table assigned in
+ * the loop and cannot throw are hoisted: they are computed into a register once,
+ * before the loop is entered, and the loop reads that register instead. A
+ * loop that calls a function may assign any table.
+ *
+ * The code of every function follows the code of the program, compiled the
+ * same way against registers of its own: its parameters and locals in the
+ * slots of its symbol table, then its constants, then its intermediate
+ * values. The arguments of a call are computed into consecutive registers,
+ * which CALL copies into the registers of the callee.
+ */
+public class BytecodeCompiler
+{
+	private int[] code;
+	private int codeLength;
+	// variables of the function being compiled and tables of the program
+	private int variableCount;
+	private int tableCount;
+	private boolean inFunction;
+	private Map<Function, Integer> functionIndexes;
+	private Map<Integer, Integer> constantRegisters;
+	private int[] constants;
+	private int nextTemp;
+	private int registerCount;
+	// loop-invariant expressions of the enclosing loops and their registers
+	private Map<ArithmeticExpression, Integer> hoisted;
+
+	/**
+	 * @param program cannot be null
+	 * @return bytecode equivalent to program
+	 * @throws IllegalArgumentException if program is null, contains a node
+	 *         the compiler does not know or a variable with no slot in its
+	 *         symbol table
+	 */
+	public BytecodeProgram compile(Program program)
+	{
+		if (program == null)
+			throw new IllegalArgumentException ("null program argument");
+		code = new int[64];
+		codeLength = 0;
+		tableCount = program.getVariableCount();
+		hoisted = new IdentityHashMap<ArithmeticExpression, Integer>();
+		functionIndexes = new IdentityHashMap<Function, Integer>();
+		for (int i = 0; i < program.getFunctionCount(); i++)
+			functionIndexes.put(program.getFunction(i), i);
+		inFunction = false;
+		begin (program.getBlock(), program.getVariableCount());
+		compileBlock (program.getBlock());
+		emit (BytecodeProgram.HALT);
+		int[] programConstants = Arrays.copyOf(constants, constantRegisters.size());
+		int programRegisters = registerCount;
+		// entry, parameter count, local count, register count, constants
+		int[][] functions = new int[program.getFunctionCount()][];
+		inFunction = true;
+		for (int i = 0; i < functions.length; i++)
+		{
+			Function function = program.getFunction(i);
+			int entry = codeLength;
+			begin (function.getBody(), function.getFrameSize());
+			// the value of a function that ends without a return
+			int zero = constantRegister (0);
+			nextTemp = registerCount = variableCount + constantRegisters.size();
+			compileBlock (function.getBody());
+			emit (BytecodeProgram.RET, zero);
+			functions[i] = new int[4 + constantRegisters.size()];
+			functions[i][0] = entry;
+			functions[i][1] = function.getParameterCount();
+			functions[i][2] = variableCount;
+			functions[i][3] = registerCount;
+			System.arraycopy(constants, 0, functions[i], 4, constantRegisters.size());
+		}
+		return new BytecodeProgram (Arrays.copyOf(code, codeLength), program.getVariableCount(),
+			programConstants, programRegisters, functions);
+	}
+
+	/**
+	 * @param body body of the function about to be compiled
+	 * @param variableCount number of variables of the function
+	 * postcondition: every literal in body has been given a constant
+	 *                register, and the intermediate values start after them
+	 */
+	private void begin(Block body, int variableCount)
+	{
+		this.variableCount = variableCount;
+		constantRegisters = new HashMap<Integer, Integer>();
+		constants = new int[8];
+		collectConstants (body);
+		nextTemp = variableCount + constantRegisters.size();
+		registerCount = nextTemp;
+	}
+
+	/**
+	 * postcondition: every literal in blk has been given a constant register
+	 * @throws IllegalArgumentException if a variable of blk has no slot in
+	 *         the symbol table of the program
+	 */
+	private void collectConstants(Block blk)
+	{
+		for (int i = 0; i < blk.size(); i++)
+		{
+			Statement stmt = blk.getStatement(i);
+			if (stmt instanceof AssignmentStatement)
+			{
+				collectConstants (((AssignmentStatement) stmt).getVar());
+				collectConstants (((AssignmentStatement) stmt).getExpr());
+			}
+			else if (stmt instanceof IndexAssignmentStatement)
+			{
+				collectConstants (((IndexAssignmentStatement) stmt).getTarget());
+				collectConstants (((IndexAssignmentStatement) stmt).getExpr());
+			}
+			else if (stmt instanceof PrintStatement)
+				collectConstants (((PrintStatement) stmt).getExpr());
+			else if (stmt instanceof ReturnStatement)
+				collectConstants (((ReturnStatement) stmt).getExpr());
+			else if (stmt instanceof CallStatement)
+				collectConstants (((CallStatement) stmt).getCall());
+			else if (stmt instanceof IfStatement)
+			{
+				IfStatement ifStmt = (IfStatement) stmt;
+				collectConstants (ifStmt.getExpr());
+				collectConstants (ifStmt.getBlock1());
+				collectConstants (ifStmt.getBlock2());
+			}
+			else if (stmt instanceof WhileStatement)
+			{
+				collectConstants (((WhileStatement) stmt).getExpr());
+				collectConstants (((WhileStatement) stmt).getBlock());
+			}
+			else if (stmt instanceof RepeatStatement)
+			{
+				collectConstants (((RepeatStatement) stmt).getBlock());
+				collectConstants (((RepeatStatement) stmt).getExpr());
+			}
+		}
+	}
+
+	private void collectConstants(BooleanExpression expr)
+	{
+		collectConstants (expr.getExpr1());
+		collectConstants (expr.getExpr2());
+	}
+
+	private void collectConstants(ArithmeticExpression expr)
+	{
+		if (expr instanceof LiteralInteger)
+			constantRegister (((LiteralInteger) expr).getValue());
+		else if (expr instanceof Id)
+			checkSlot (((Id) expr).getSlot());
+		else if (expr instanceof IndexExpression)
+		{
+			checkTable (((IndexExpression) expr).getSlot());
+			collectConstants (((IndexExpression) expr).getIndex());
+		}
+		else if (expr instanceof CallExpression)
+		{
+			CallExpression call = (CallExpression) expr;
+			if (!functionIndexes.containsKey(call.getFunction()))
+				throw new IllegalArgumentException ("function " + call.getFunction().getName() + " not in the program");
+			if (call.size() != call.getFunction().getParameterCount())
+				throw new IllegalArgumentException ("wrong number of arguments to " + call.getFunction().getName());
+			for (int i = 0; i < call.size(); i++)
+				collectConstants (call.getArgument(i));
+		}
+		else if (expr instanceof BinaryExpression)
+		{
+			collectConstants (((BinaryExpression) expr).getExpr1());
+			collectConstants (((BinaryExpression) expr).getExpr2());
+		}
+		else if (expr instanceof PostfixExpression)
+		{
+			PostfixExpression postfix = (PostfixExpression) expr;
+			for (int i = 0; i < postfix.size(); i++)
+				if (postfix.getOpcode(i) == PostfixExpression.LITERAL)
+					constantRegister (postfix.getOperand(i));
+				else if (postfix.getOpcode(i) == PostfixExpression.VAR)
+					checkSlot (postfix.getOperand(i));
+				else if (postfix.getOpcode(i) == PostfixExpression.ELEMENT)
+					checkTable (postfix.getOperand(i));
+		}
+	}
+
+	/**
+	 * @return constant register holding value, a new one if value had none
+	 */
+	private int constantRegister(int value)
+	{
+		Integer register = constantRegisters.get(value);
+		if (register != null)
+			return register;
+		int index = constantRegisters.size();
+		if (index == constants.length)
+			constants = Arrays.copyOf(constants, index * 2);
+		constants[index] = value;
+		constantRegisters.put(value, variableCount + index);
+		return variableCount + index;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if slot is not a variable register
+	 */
+	private void checkSlot(int slot)
+	{
+		if (slot >= variableCount)
+			throw new IllegalArgumentException ("variable slot " + slot + " not in the symbol table");
+	}
+
+	/**
+	 * @throws IllegalArgumentException if slot is not the slot of a variable
+	 *         of the program
+	 */
+	private void checkTable(int slot)
+	{
+		if (slot >= tableCount)
+			throw new IllegalArgumentException ("variable slot " + slot + " not in the symbol table");
+	}
+
+	private void compileBlock(Block blk)
+	{
+		for (int i = 0; i < blk.size(); i++)
+			compileStatement (blk.getStatement(i));
+	}
+
+	private void compileStatement(Statement stmt)
+	{
+		if (stmt instanceof AssignmentStatement)
+		{
+			AssignmentStatement assignment = (AssignmentStatement) stmt;
+			compileInto (assignment.getExpr(), assignment.getVar().getSlot());
+		}
+		else if (stmt instanceof IndexAssignmentStatement)
+		{
+			IndexAssignmentStatement assignment = (IndexAssignmentStatement) stmt;
+			int temp = nextTemp;
+			int key = compileExpression (assignment.getTarget().getIndex());
+			int value = compileExpression (assignment.getExpr());
+			emit (BytecodeProgram.SETTABLE, assignment.getTarget().getSlot(), key, value);
+			nextTemp = temp;
+		}
+		else if (stmt instanceof PrintStatement)
+		{
+			int temp = nextTemp;
+			emit (BytecodeProgram.PRINT, compileExpression (((PrintStatement) stmt).getExpr()));
+			nextTemp = temp;
+		}
+		else if (stmt instanceof CallStatement)
+		{
+			int temp = nextTemp;
+			compileExpression (((CallStatement) stmt).getCall());
+			nextTemp = temp;
+		}
+		else if (stmt instanceof ReturnStatement)
+		{
+			int temp = nextTemp;
+			int value = compileExpression (((ReturnStatement) stmt).getExpr());
+			nextTemp = temp;
+			// a return in the program ends it
+			if (inFunction)
+				emit (BytecodeProgram.RET, value);
+			else
+				emit (BytecodeProgram.HALT);
+		}
+		else if (stmt instanceof IfStatement)
+		{
+			IfStatement ifStmt = (IfStatement) stmt;
+			int toElse = compileBranch (ifStmt.getExpr(), false);
+			compileBlock (ifStmt.getBlock1());
+			emit (BytecodeProgram.JMP, 0);
+			int toEnd = codeLength - 1;
+			code[toElse] = codeLength;
+			compileBlock (ifStmt.getBlock2());
+			code[toEnd] = codeLength;
+		}
+		else if (stmt instanceof WhileStatement)
+		{
+			WhileStatement whileStmt = (WhileStatement) stmt;
+			int temp = nextTemp;
+			List<ArithmeticExpression> invariants = hoist (whileStmt.getExpr(), whileStmt.getBlock());
+			emit (BytecodeProgram.JMP, 0);
+			int toTest = codeLength - 1;
+			int body = codeLength;
+			compileBlock (whileStmt.getBlock());
+			code[toTest] = codeLength;
+			int toBody = compileBranch (whileStmt.getExpr(), true);
+			code[toBody] = body;
+			hoisted.keySet().removeAll(invariants);
+			nextTemp = temp;
+		}
+		else if (stmt instanceof RepeatStatement)
+		{
+			RepeatStatement repeatStmt = (RepeatStatement) stmt;
+			int temp = nextTemp;
+			List<ArithmeticExpression> invariants = hoist (repeatStmt.getExpr(), repeatStmt.getBlock());
+			int body = codeLength;
+			compileBlock (repeatStmt.getBlock());
+			int toBody = compileBranch (repeatStmt.getExpr(), false);
+			code[toBody] = body;
+			hoisted.keySet().removeAll(invariants);
+			nextTemp = temp;
+		}
+		else
+			throw new IllegalArgumentException ("unsupported statement " + stmt.getClass().getName());
+	}
+
+	/**
+	 * @param expr condition of a loop
+	 * @param blk body of the loop
+	 * @return expressions hoisted out of the loop, whose registers stay
+	 *         reserved until the caller restores nextTemp
+	 * postcondition: code computing every hoisted expression into its
+	 *                register has been emitted
+	 */
+	private List<ArithmeticExpression> hoist(BooleanExpression expr, Block blk)
+	{
+		boolean[] assigned = new boolean[variableCount];
+		boolean[] tables = new boolean[tableCount];
+		collectAssigned (blk, assigned, tables);
+		collectCalls (expr.getExpr1(), tables);
+		collectCalls (expr.getExpr2(), tables);
+		List<ArithmeticExpression> invariants = new ArrayList<ArithmeticExpression>();
+		collectInvariants (expr, assigned, tables, invariants);
+		collectInvariants (blk, assigned, tables, invariants);
+		for (ArithmeticExpression invariant : invariants)
+		{
+			int target = nextTemp++;
+			registerCount = Math.max(registerCount, nextTemp);
+			compileBinary ((BinaryExpression) invariant, target);
+			hoisted.put(invariant, target);
+		}
+		return invariants;
+	}
+
+	/**
+	 * postcondition: assigned[i] is true for the slot of every variable
+	 *                assigned in blk, and tables[i] for the slot of every
+	 *                table an element of which is assigned in blk, or of
+	 *                every table if blk calls a function
+	 */
+	private void collectAssigned(Block blk, boolean[] assigned, boolean[] tables)
+	{
+		for (int i = 0; i < blk.size(); i++)
+		{
+			Statement stmt = blk.getStatement(i);
+			if (stmt instanceof AssignmentStatement)
+			{
+				assigned[((AssignmentStatement) stmt).getVar().getSlot()] = true;
+				collectCalls (((AssignmentStatement) stmt).getExpr(), tables);
+			}
+			else if (stmt instanceof IndexAssignmentStatement)
+			{
+				tables[((IndexAssignmentStatement) stmt).getTarget().getSlot()] = true;
+				collectCalls (((IndexAssignmentStatement) stmt).getTarget(), tables);
+				collectCalls (((IndexAssignmentStatement) stmt).getExpr(), tables);
+			}
+			else if (stmt instanceof PrintStatement)
+				collectCalls (((PrintStatement) stmt).getExpr(), tables);
+			else if (stmt instanceof ReturnStatement)
+				collectCalls (((ReturnStatement) stmt).getExpr(), tables);
+			else if (stmt instanceof CallStatement)
+				collectCalls (((CallStatement) stmt).getCall(), tables);
+			else if (stmt instanceof IfStatement)
+			{
+				collectCalls (((IfStatement) stmt).getExpr().getExpr1(), tables);
+				collectCalls (((IfStatement) stmt).getExpr().getExpr2(), tables);
+				collectAssigned (((IfStatement) stmt).getBlock1(), assigned, tables);
+				collectAssigned (((IfStatement) stmt).getBlock2(), assigned, tables);
+			}
+			else if (stmt instanceof WhileStatement)
+			{
+				collectCalls (((WhileStatement) stmt).getExpr().getExpr1(), tables);
+				collectCalls (((WhileStatement) stmt).getExpr().getExpr2(), tables);
+				collectAssigned (((WhileStatement) stmt).getBlock(), assigned, tables);
+			}
+			else if (stmt instanceof RepeatStatement)
+			{
+				collectCalls (((RepeatStatement) stmt).getExpr().getExpr1(), tables);
+				collectCalls (((RepeatStatement) stmt).getExpr().getExpr2(), tables);
+				collectAssigned (((RepeatStatement) stmt).getBlock(), assigned, tables);
+			}
+		}
+	}
+
+	/**
+	 * postcondition: if expr calls a function, which may assign an element
+	 *                of any table, every element of tables is true
+	 */
+	private static void collectCalls(ArithmeticExpression expr, boolean[] tables)
+	{
+		if (expr instanceof CallExpression)
+			Arrays.fill(tables, true);
+		else if (expr instanceof BinaryExpression)
+		{
+			collectCalls (((BinaryExpression) expr).getExpr1(), tables);
+			collectCalls (((BinaryExpression) expr).getExpr2(), tables);
+		}
+		else if (expr instanceof IndexExpression)
+			collectCalls (((IndexExpression) expr).getIndex(), tables);
+	}
+
+	private void collectInvariants(Block blk, boolean[] assigned, boolean[] tables, List<ArithmeticExpression> invariants)
+	{
+		for (int i = 0; i < blk.size(); i++)
+		{
+			Statement stmt = blk.getStatement(i);
+			if (stmt instanceof AssignmentStatement)
+				collectInvariants (((AssignmentStatement) stmt).getExpr(), assigned, tables, invariants);
+			else if (stmt instanceof IndexAssignmentStatement)
+			{
+				collectInvariants (((IndexAssignmentStatement) stmt).getTarget(), assigned, tables, invariants);
+				collectInvariants (((IndexAssignmentStatement) stmt).getExpr(), assigned, tables, invariants);
+			}
+			else if (stmt instanceof PrintStatement)
+				collectInvariants (((PrintStatement) stmt).getExpr(), assigned, tables, invariants);
+			else if (stmt instanceof ReturnStatement)
+				collectInvariants (((ReturnStatement) stmt).getExpr(), assigned, tables, invariants);
+			else if (stmt instanceof CallStatement)
+				collectInvariants (((CallStatement) stmt).getCall(), assigned, tables, invariants);
+			else if (stmt instanceof IfStatement)
+			{
+				IfStatement ifStmt = (IfStatement) stmt;
+				collectInvariants (ifStmt.getExpr(), assigned, tables, invariants);
+				collectInvariants (ifStmt.getBlock1(), assigned, tables, invariants);
+				collectInvariants (ifStmt.getBlock2(), assigned, tables, invariants);
+			}
+			else if (stmt instanceof WhileStatement)
+			{
+				collectInvariants (((WhileStatement) stmt).getExpr(), assigned, tables, invariants);
+				collectInvariants (((WhileStatement) stmt).getBlock(), assigned, tables, invariants);
+			}
+			else if (stmt instanceof RepeatStatement)
+			{
+				collectInvariants (((RepeatStatement) stmt).getBlock(), assigned, tables, invariants);
+				collectInvariants (((RepeatStatement) stmt).getExpr(), assigned, tables, invariants);
+			}
+		}
+	}
+
+	private void collectInvariants(BooleanExpression expr, boolean[] assigned, boolean[] tables,
+			List<ArithmeticExpression> invariants)
+	{
+		collectInvariants (expr.getExpr1(), assigned, tables, invariants);
+		collectInvariants (expr.getExpr2(), assigned, tables, invariants);
+	}
+
+	/**
+	 * postcondition: the largest subexpressions of expr that are invariant
+	 *                and not hoisted yet have been added to invariants
+	 */
+	private void collectInvariants(ArithmeticExpression expr, boolean[] assigned, boolean[] tables,
+			List<ArithmeticExpression> invariants)
+	{
+		if (expr instanceof IndexExpression)
+			collectInvariants (((IndexExpression) expr).getIndex(), assigned, tables, invariants);
+		if (expr instanceof CallExpression)
+			for (int i = 0; i < ((CallExpression) expr).size(); i++)
+				collectInvariants (((CallExpression) expr).getArgument(i), assigned, tables, invariants);
+		if (!(expr instanceof BinaryExpression) || hoisted.containsKey(expr))
+			return;
+		if (isInvariant (expr, assigned, tables))
+		{
+			if (!invariants.contains(expr))
+				invariants.add(expr);
+			return;
+		}
+		collectInvariants (((BinaryExpression) expr).getExpr1(), assigned, tables, invariants);
+		collectInvariants (((BinaryExpression) expr).getExpr2(), assigned, tables, invariants);
+	}
+
+	/**
+	 * @return whether expr reads no variable in assigned or table in tables,
+	 *         calls no function and cannot throw, so
+	 *         that it may be computed before the loop whether or not the loop
+	 *         would evaluate it
+	 */
+	private static boolean isInvariant(ArithmeticExpression expr, boolean[] assigned, boolean[] tables)
+	{
+		if (expr instanceof Id)
+			return !assigned[((Id) expr).getSlot()];
+		if (expr instanceof IndexExpression)
+			return !tables[((IndexExpression) expr).getSlot()] &&
+				isInvariant (((IndexExpression) expr).getIndex(), assigned, tables);
+		if (expr instanceof PostfixExpression || expr instanceof CallExpression)
+			// never hoisted, and so neither are the expressions around it
+			return false;
+		if (expr instanceof BinaryExpression)
+		{
+			BinaryExpression binary = (BinaryExpression) expr;
+			if (binary.getOp() == BinaryExpression.ArithmeticOperator.DIV_OP &&
+				!(binary.getExpr2() instanceof LiteralInteger && ((LiteralInteger) binary.getExpr2()).getValue() != 0))
+				return false;
+			return isInvariant (binary.getExpr1(), assigned, tables) && isInvariant (binary.getExpr2(), assigned, tables);
+		}
+		return true;
+	}
+
+	/**
+	 * @param expr condition to test
+	 * @param jumpIfTrue whether the branch is taken when expr is true or false
+	 * @return index in code of the branch target, to be patched by the caller
+	 */
+	private int compileBranch(BooleanExpression expr, boolean jumpIfTrue)
+	{
+		int temp = nextTemp;
+		int left = compileExpression (expr.getExpr1());
+		int right = compileExpression (expr.getExpr2());
+		nextTemp = temp;
+		BooleanExpression.RelationalOperator op = expr.getOp();
+		int opcode = 0;
+		switch (op) {
+			case EQ_OP:
+				opcode = jumpIfTrue ? BytecodeProgram.JEQ : BytecodeProgram.JNE;
+				break;
+			case NE_OP:
+				opcode = jumpIfTrue ? BytecodeProgram.JNE : BytecodeProgram.JEQ;
+				break;
+			case LT_OP:
+				opcode = jumpIfTrue ? BytecodeProgram.JLT : BytecodeProgram.JGE;
+				break;
+			case LE_OP:
+				opcode = jumpIfTrue ? BytecodeProgram.JLE : BytecodeProgram.JGT;
+				break;
+			case GT_OP:
+				opcode = jumpIfTrue ? BytecodeProgram.JGT : BytecodeProgram.JLE;
+				break;
+			case GE_OP:
+				opcode = jumpIfTrue ? BytecodeProgram.JGE : BytecodeProgram.JLT;
+				break;
+		}
+		emit (opcode, left, right, 0);
+		return codeLength - 1;
+	}
+
+	/**
+	 * @return register holding the value of expr once the emitted code has run
+	 */
+	private int compileExpression(ArithmeticExpression expr)
+	{
+		if (expr instanceof Id)
+			return ((Id) expr).getSlot();
+		if (expr instanceof LiteralInteger)
+			return constantRegisters.get(((LiteralInteger) expr).getValue());
+		if (expr instanceof BinaryExpression)
+		{
+			Integer register = hoisted.get(expr);
+			if (register != null)
+				return register;
+			int target = nextTemp;
+			compileBinary ((BinaryExpression) expr, target);
+			nextTemp = target + 1;
+			registerCount = Math.max(registerCount, nextTemp);
+			return target;
+		}
+		if (expr instanceof PostfixExpression)
+		{
+			int target = nextTemp;
+			compilePostfix ((PostfixExpression) expr, target);
+			nextTemp = target + 1;
+			registerCount = Math.max(registerCount, nextTemp);
+			return target;
+		}
+		if (expr instanceof IndexExpression)
+		{
+			int target = nextTemp;
+			compileIndex ((IndexExpression) expr, target);
+			nextTemp = target + 1;
+			registerCount = Math.max(registerCount, nextTemp);
+			return target;
+		}
+		if (expr instanceof CallExpression)
+		{
+			int target = nextTemp;
+			compileCall ((CallExpression) expr, target);
+			nextTemp = target + 1;
+			registerCount = Math.max(registerCount, nextTemp);
+			return target;
+		}
+		throw new IllegalArgumentException ("unsupported expression " + expr.getClass().getName());
+	}
+
+	/**
+	 * postcondition: code storing the value of expr in register target has
+	 *                been emitted; target is written only after the
+	 *                operands of expr have been computed
+	 */
+	private void compileInto(ArithmeticExpression expr, int target)
+	{
+		if (expr instanceof BinaryExpression && !hoisted.containsKey(expr))
+			compileBinary ((BinaryExpression) expr, target);
+		else if (expr instanceof PostfixExpression)
+			compilePostfix ((PostfixExpression) expr, target);
+		else if (expr instanceof IndexExpression)
+			compileIndex ((IndexExpression) expr, target);
+		else if (expr instanceof CallExpression)
+			compileCall ((CallExpression) expr, target);
+		else
+			emit (BytecodeProgram.MOVE, target, compileExpression (expr));
+	}
+
+	/**
+	 * postcondition: code storing the value call returns in register target
+	 *                has been emitted; the arguments are computed into the
+	 *                registers from nextTemp on, and target is written only
+	 *                once the call has returned
+	 */
+	private void compileCall(CallExpression call, int target)
+	{
+		int start = nextTemp;
+		for (int i = 0; i < call.size(); i++)
+		{
+			nextTemp = start + i;
+			registerCount = Math.max(registerCount, nextTemp + 1);
+			compileInto (call.getArgument(i), start + i);
+		}
+		nextTemp = start;
+		emit (BytecodeProgram.CALL, target, functionIndexes.get(call.getFunction()), start);
+	}
+
+	/**
+	 * postcondition: code storing the value of expr in register target has
+	 *                been emitted; target is written only after both operands
+	 *                have been computed
+	 */
+	private void compileBinary(BinaryExpression expr, int target)
+	{
+		int temp = nextTemp;
+		int left = compileExpression (expr.getExpr1());
+		int right = compileExpression (expr.getExpr2());
+		nextTemp = temp;
+		int opcode = 0;
+		switch (expr.getOp()) {
+			case ADD_OP:
+				opcode = BytecodeProgram.ADD;
+				break;
+			case SUB_OP:
+				opcode = BytecodeProgram.SUB;
+				break;
+			case MUL_OP:
+				opcode = BytecodeProgram.MUL;
+				break;
+			case DIV_OP:
+				opcode = BytecodeProgram.DIV;
+				break;
+		}
+		emit (opcode, target, left, right);
+	}
+
+	/**
+	 * postcondition: code storing the element expr reads in register target
+	 *                has been emitted; target is written only after the key
+	 *                has been computed
+	 */
+	private void compileIndex(IndexExpression expr, int target)
+	{
+		int temp = nextTemp;
+		int key = compileExpression (expr.getIndex());
+		nextTemp = temp;
+		emit (BytecodeProgram.GETTABLE, target, expr.getSlot(), key);
+	}
+
+	/**
+	 * postcondition: code storing the value of expr in register target has
+	 *                been emitted; the operand stack of expr is kept in the
+	 *                registers from nextTemp on, a variable or literal in
+	 *                the register it already has, and target is written only
+	 *                by the last instruction
+	 */
+	private void compilePostfix(PostfixExpression expr, int target)
+	{
+		int[] stack = new int[expr.getMaxDepth()];
+		int top = -1;
+		for (int i = 0; i < expr.size(); i++)
+		{
+			int opcode = expr.getOpcode(i);
+			if (opcode == PostfixExpression.VAR)
+				stack[++top] = expr.getOperand(i);
+			else if (opcode == PostfixExpression.LITERAL)
+				stack[++top] = constantRegisters.get(expr.getOperand(i));
+			else if (opcode == PostfixExpression.ELEMENT)
+			{
+				int key = stack[top];
+				stack[top] = i == expr.size() - 1 ? target : nextTemp + top;
+				registerCount = Math.max(registerCount, nextTemp + top + 1);
+				emit (BytecodeProgram.GETTABLE, stack[top], expr.getOperand(i), key);
+			}
+			else
+			{
+				int right = stack[top--];
+				int left = stack[top];
+				if (opcode == PostfixExpression.RSUB || opcode == PostfixExpression.RDIV)
+				{
+					int swap = left;
+					left = right;
+					right = swap;
+				}
+				stack[top] = i == expr.size() - 1 ? target : nextTemp + top;
+				registerCount = Math.max(registerCount, nextTemp + top + 1);
+				switch (opcode) {
+					case PostfixExpression.ADD:
+						emit (BytecodeProgram.ADD, stack[top], left, right);
+						break;
+					case PostfixExpression.SUB:
+					case PostfixExpression.RSUB:
+						emit (BytecodeProgram.SUB, stack[top], left, right);
+						break;
+					case PostfixExpression.MUL:
+						emit (BytecodeProgram.MUL, stack[top], left, right);
+						break;
+					default:
+						emit (BytecodeProgram.DIV, stack[top], left, right);
+						break;
+				}
+			}
+		}
+		if (stack[0] != target)
+			emit (BytecodeProgram.MOVE, target, stack[0]);
+	}
+
+	private void emit(int... words)
+	{
+		if (codeLength + words.length > code.length)
+			code = Arrays.copyOf(code, Math.max(code.length * 2, codeLength + words.length));
+		for (int word : words)
+			code[codeLength++] = word;
+	}
+}
@@ -0,0 +1,603 @@
+import java.util.Arrays;
+
+/**
+ * BytecodeProgram is a Program lowered by BytecodeCompiler into a flat int
+ * instruction stream over a register file, executed by a single switch
+ * dispatch loop instead of walking the tree.
+ *
+ * Registers 0..variableCount-1 hold the variables, in the slots of the
+ * symbol table of the program, the following registers hold the literal
+ * constants of the program and the rest hold intermediate values. Every
+ * instruction is an opcode followed by its register operands; jump targets
+ * are absolute indexes into the instruction stream. Tables stay in the
+ * context, where GETTABLE and SETTABLE reach them by slot, so the register
+ * of a table variable is never used.
+ *
+ * The code of the functions of the program follows the code of the
+ * program. Every function has its own registers laid out the same way, its
+ * parameters first, and a call runs the callee in a register window of its
+ * own: one int[] per depth of calls, allocated the first time a call
+ * reaches that depth and reused by every later call at the same depth, so
+ * recursion allocates nothing once the deepest call has been reached. CALL
+ * copies the arguments into the window and RET copies the value returned
+ * back into the window of the caller. The windows are not on the Java
+ * stack, so calls nest up to ExecutionContext.MAX_CALL_DEPTH deep, with
+ * the arrays holding the windows doubled as the calls get deeper.
+ *
+ * Besides running to completion with execute, a program can be run in
+ * slices through an Execution, which charges one unit of fuel for every
+ * jump backwards and every call, and returns once its fuel runs out. Every
+ * loop iteration takes a backward jump, every recursion a call, and code
+ * with neither runs at most once, so a slice ends in time bounded by its
+ * fuel even if the program never terminates.
+ *
+ * Between slices an Execution can take a Snapshot of its state: where it
+ * is in the code, the registers of the calls in progress and the variables
+ * and tables of its context. Any number of independent executions can then
+ * be forked from the snapshot, each continuing from that point in a context
+ * of its own. The windows of the calls in progress, the variables and the
+ * tables are all shared copy-on-write: a window is copied when the
+ * execution enters it or returns into it, so a fork only pays for the calls
+ * it returns from, the tables it writes and the depth of the calls in
+ * progress, whose return addresses are copied.
+ */
+public class BytecodeProgram implements CompiledProgram
+{
+	/** HALT - stop execution */
+	public static final int HALT = 0;
+	/** MOVE d s - r[d] = r[s] */
+	public static final int MOVE = 1;
+	/** ADD d a b - r[d] = r[a] + r[b], likewise SUB, MUL and DIV */
+	public static final int ADD = 2;
+	public static final int SUB = 3;
+	public static final int MUL = 4;
+	public static final int DIV = 5;
+	/** PRINT s - print r[s] */
+	public static final int PRINT = 6;
+	/** JMP t - continue at t */
+	public static final int JMP = 7;
+	/** JEQ a b t - continue at t if r[a] == r[b], likewise JNE, JLT, JLE, JGT and JGE */
+	public static final int JEQ = 8;
+	public static final int JNE = 9;
+	public static final int JLT = 10;
+	public static final int JLE = 11;
+	public static final int JGT = 12;
+	public static final int JGE = 13;
+	/** GETTABLE d t k - r[d] = element r[k] of the table in slot t */
+	public static final int GETTABLE = 14;
+	/** SETTABLE t k s - element r[k] of the table in slot t = r[s] */
+	public static final int SETTABLE = 15;
+	/**
+	 * CALL d f a - call function f with its arguments in r[a] and on, then
+	 * r[d] = the value it returns
+	 */
+	public static final int CALL = 16;
+	/** RET s - return r[s] to the caller */
+	public static final int RET = 17;
+
+	private final int[] code;
+	private final int variableCount;
+	private final int[] constants;
+	private final int registerCount;
+	// {entry, parameter count, variable count, register count, constants...}
+	private final int[][] functions;
+	// number of registers of the largest window
+	private final int windowSize;
+	/**
+	 * @param code cannot be null
+	 * @param variableCount >= 0 - number of variable registers
+	 * @param constants cannot be null - values of the constant registers
+	 * @param registerCount total number of registers used by code
+	 * @throws IllegalArgumentException if any argument is invalid
+	 */
+	public BytecodeProgram(int[] code, int variableCount, int[] constants, int registerCount)
+	{
+		this(code, variableCount, constants, registerCount, new int[0][]);
+	}
+	/**
+	 * @param code cannot be null
+	 * @param variableCount >= 0 - number of variable registers
+	 * @param constants cannot be null - values of the constant registers
+	 * @param registerCount total number of registers used by code
+	 * @param functions cannot be null - for every function CALL can call,
+	 *        {index of its first instruction, number of parameters, number
+	 *        of variable registers, total number of registers, values of the
+	 *        constant registers...}
+	 * @throws IllegalArgumentException if any argument is invalid
+	 */
+	public BytecodeProgram(int[] code, int variableCount, int[] constants, int registerCount, int[][] functions)
+	{
+		if (code == null)
+			throw new IllegalArgumentException ("null code argument");
+		if (variableCount < 0)
+			throw new IllegalArgumentException ("invalid variable count argument");
+		if (constants == null)
+			throw new IllegalArgumentException ("null constants argument");
+		if (registerCount < variableCount + constants.length)
+			throw new IllegalArgumentException ("invalid register count argument");
+		if (functions == null)
+			throw new IllegalArgumentException ("null functions argument");
+		int windowSize = 0;
+		for (int[] function : functions)
+		{
+			if (function == null || function.length < 4 || function[0] < 0 || function[0] >= code.length ||
+					function[1] < 0 || function[2] < function[1] || function[3] < function[2] + function.length - 4)
+				throw new IllegalArgumentException ("invalid function argument");
+			windowSize = Math.max(windowSize, function[3]);
+		}
+		this.code = code;
+		this.variableCount = variableCount;
+		this.constants = constants;
+		this.registerCount = registerCount;
+		this.functions = functions.clone();
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * @return copy of the instruction stream
+	 */
+	public int[] getCode()
+	{
+		return Arrays.copyOf(code, code.length);
+	}
+
+	@Override
+	public void execute(ExecutionContext context)
+	{
+		if (context == null)
+			throw new IllegalArgumentException ("null context argument");
+		Frames frames = new Frames (load (context));
+		try
+		{
+			run(frames, context, 0, Long.MAX_VALUE);
+		}
+		finally
+		{
+			context.copyFrom(frames.windows[0], variableCount);
+			context.getOutput().flush();
+		}
+	}
+
+	/**
+	 * @param context cannot be null - context the program is executed in
+	 * @return execution of this program in context that has not run yet
+	 * @throws IllegalArgumentException if context is null
+	 */
+	public Execution start(ExecutionContext context)
+	{
+		if (context == null)
+			throw new IllegalArgumentException ("null context argument");
+		return new Execution (context);
+	}
+
+	/**
+	 * execution of the program that runs in slices of limited fuel; not
+	 * thread-safe, but its slices may be run by different threads one after
+	 * another
+	 */
+	public final class Execution
+	{
+		private final ExecutionContext context;
+		private Frames frames;
+		private int pc;
+		private boolean finished;
+		private int slices;
+
+		private Execution(ExecutionContext context)
+		{
+			this.context = context;
+		}
+		private Execution(ExecutionContext context, Frames frames, int pc)
+		{
+			this.context = context;
+			this.frames = frames;
+			this.pc = pc;
+		}
+		/**
+		 * @param fuel > 0 - number of backward jumps and calls the slice may
+		 *        take
+		 * @return whether the program has finished
+		 * @throws IllegalArgumentException if fuel is not positive
+		 * @throws IllegalStateException if the program has already finished
+		 * postcondition: once the program finishes, normally or by throwing,
+		 *                its variables have been stored back to the context
+		 *                and its output sink has been flushed
+		 */
+		public boolean resume(long fuel)
+		{
+			if (fuel <= 0)
+				throw new IllegalArgumentException ("invalid fuel argument");
+			if (finished)
+				throw new IllegalStateException ("execution has finished");
+			if (frames == null)
+				frames = new Frames (load (context));
+			slices++;
+			try
+			{
+				pc = run(frames, context, pc, fuel);
+			}
+			catch (RuntimeException | Error e)
+			{
+				finish();
+				throw e;
+			}
+			if (pc >= 0)
+				return false;
+			finish();
+			return true;
+		}
+		/**
+		 * postcondition: the execution has finished without running the rest
+		 *                of the program; its variables have been stored back
+		 *                to the context and its output sink has been flushed
+		 */
+		public void stop()
+		{
+			if (!finished)
+			{
+				if (frames == null)
+					frames = new Frames (load (context));
+				finish();
+			}
+		}
+		/**
+		 * @return whether the program has finished or has been stopped
+		 */
+		public boolean isFinished()
+		{
+			return finished;
+		}
+		/**
+		 * @return number of slices run so far
+		 */
+		public int getSlices()
+		{
+			return slices;
+		}
+		public ExecutionContext getContext()
+		{
+			return context;
+		}
+		/**
+		 * @param slot 0 <= slot < number of variables of the program
+		 * @return value of the variable in slot, as the last slice left it
+		 * @throws IllegalArgumentException if slot is out of range
+		 */
+		public int getVariable(int slot)
+		{
+			if (slot < 0 || slot >= variableCount)
+				throw new IllegalArgumentException ("invalid slot argument");
+			if (frames == null)
+				frames = new Frames (load (context));
+			return frames.windows[0][slot];
+		}
+		/**
+		 * @param slot 0 <= slot < number of variables of the program
+		 * @param value value to store
+		 * postcondition: the next slice continues with value in the variable
+		 *                in slot
+		 * @throws IllegalArgumentException if slot is out of range
+		 * @throws IllegalStateException if the execution has finished
+		 */
+		public void setVariable(int slot, int value)
+		{
+			if (slot < 0 || slot >= variableCount)
+				throw new IllegalArgumentException ("invalid slot argument");
+			if (finished)
+				throw new IllegalStateException ("execution has finished");
+			if (frames == null)
+				frames = new Frames (load (context));
+			// the windows of the calls above it may still be shared
+			if (frames.shared > 0 && frames.depth == 0)
+				frames.own(0);
+			else if (frames.shared > 0)
+				frames.windows[0] = frames.windows[0].clone();
+			frames.windows[0][slot] = value;
+		}
+		/**
+		 * @return snapshot of the execution as the last slice left it, which
+		 *         shares the windows of the calls in progress and the
+		 *         variables and tables of the context copy-on-write
+		 * @throws IllegalStateException if the execution has finished
+		 */
+		public Snapshot snapshot()
+		{
+			if (finished)
+				throw new IllegalStateException ("execution has finished");
+			if (frames == null)
+				frames = new Frames (load (context));
+			Frames copy = frames.copy();
+			frames.shared = frames.depth + 1;
+			// the sink of the snapshot is never written
+			return new Snapshot (context.fork(context.getOutput()), copy, pc);
+		}
+		private void finish()
+		{
+			finished = true;
+			context.copyFrom(frames.windows[0], variableCount);
+			context.getOutput().flush();
+		}
+	}
+
+	/**
+	 * state of an Execution between two slices, from which independent
+	 * executions are forked; it never changes, so executions may be forked
+	 * from it by any number of threads at once
+	 */
+	public final class Snapshot
+	{
+		private final ExecutionContext state;
+		private final Frames frames;
+		private final int pc;
+
+		private Snapshot(ExecutionContext state, Frames frames, int pc)
+		{
+			this.state = state;
+			this.frames = frames;
+			this.pc = pc;
+		}
+		/**
+		 * @param out cannot be null - sink the new execution prints to
+		 * @return execution continuing from the snapshot, in a new context
+		 *         whose variables and tables are shared copy-on-write with
+		 *         the snapshot, as are the windows of the calls in progress
+		 * @throws IllegalArgumentException if out is null
+		 */
+		public Execution fork(OutputSink out)
+		{
+			return new Execution (state.fork(out), frames.copy(), pc);
+		}
+	}
+
+	/**
+	 * register windows of the calls in progress, the registers of the
+	 * program at depth 0, and where every call returns to
+	 */
+	private final class Frames
+	{
+		private static final int MIN_LENGTH = 16;
+		private int[][] windows;
+		private int[] returnPcs;
+		private int[] returnRegisters;
+		private int depth;
+		// windows 0..shared-1 may be shared with other frames and must be
+		// copied before they are written
+		private int shared;
+
+		private Frames(int[] regs)
+		{
+			this(regs, functions.length == 0 ? 1 : MIN_LENGTH);
+		}
+
+		private Frames(int[] regs, int length)
+		{
+			windows = new int[length][];
+			returnPcs = new int[length];
+			returnRegisters = new int[length];
+			windows[0] = regs;
+		}
+
+		/**
+		 * @throws IllegalStateException if calls are nested
+		 *         ExecutionContext.MAX_CALL_DEPTH deep
+		 * postcondition: there is room for a call nested one deeper
+		 */
+		private void grow()
+		{
+			if (windows.length > ExecutionContext.MAX_CALL_DEPTH)
+				throw new IllegalStateException ("call stack overflow");
+			int length = (int) Math.min(2L * windows.length, ExecutionContext.MAX_CALL_DEPTH + 1);
+			windows = Arrays.copyOf(windows, length);
+			returnPcs = Arrays.copyOf(returnPcs, length);
+			returnRegisters = Arrays.copyOf(returnRegisters, length);
+		}
+
+		/**
+		 * @return frames of the calls in progress, sharing their windows
+		 *         with these frames; these frames must not write the windows
+		 *         either once the copy is made
+		 */
+		private Frames copy()
+		{
+			Frames copy = new Frames (windows[0], Math.max(depth + 1, functions.length == 0 ? 1 : MIN_LENGTH));
+			System.arraycopy(windows, 1, copy.windows, 1, depth);
+			System.arraycopy(returnPcs, 0, copy.returnPcs, 0, depth);
+			System.arraycopy(returnRegisters, 0, copy.returnRegisters, 0, depth);
+			copy.depth = depth;
+			copy.shared = depth + 1;
+			return copy;
+		}
+
+		/**
+		 * @param depth depth < shared - depth the execution enters or returns
+		 *        to
+		 * @return copy of the window at depth, which replaces it
+		 * postcondition: no window from depth on is shared
+		 */
+		private int[] own(int depth)
+		{
+			shared = depth;
+			return windows[depth] = windows[depth].clone();
+		}
+	}
+
+	/**
+	 * @return registers holding the variables of context and the constants
+	 * postcondition: context holds at least variableCount slots
+	 */
+	private int[] load(ExecutionContext context)
+	{
+		int[] regs = new int[registerCount];
+		context.reserve(variableCount);
+		context.copyTo(regs, variableCount);
+		System.arraycopy(constants, 0, regs, variableCount, constants.length);
+		return regs;
+	}
+
+	/**
+	 * @param frames calls in progress, updated when the fuel runs out
+	 * @param pc index of the instruction to continue at
+	 * @param fuel number of backward jumps and calls that may be taken
+	 * @return index of the instruction to continue at once the fuel has run
+	 *         out, or -1 if the program halted
+	 * @throws IllegalStateException if calls are nested deeper than
+	 *         ExecutionContext.MAX_CALL_DEPTH
+	 */
+	private int run(Frames frames, ExecutionContext context, int pc, long fuel)
+	{
+		final int[] code = this.code;
+		final OutputSink out = context.getOutput();
+		int[][] windows = frames.windows;
+		int[] returnPcs = frames.returnPcs;
+		int[] returnRegisters = frames.returnRegisters;
+		int depth = frames.depth;
+		int[] regs = depth < frames.shared ? frames.own(depth) : windows[depth];
+		int next;
+		int[] function;
+		int[] window;
+		while (true)
+		{
+			switch (code[pc])
+			{
+				case MOVE:
+					regs[code[pc + 1]] = regs[code[pc + 2]];
+					pc += 3;
+					break;
+				case ADD:
+					regs[code[pc + 1]] = regs[code[pc + 2]] + regs[code[pc + 3]];
+					pc += 4;
+					break;
+				case SUB:
+					regs[code[pc + 1]] = regs[code[pc + 2]] - regs[code[pc + 3]];
+					pc += 4;
+					break;
+				case MUL:
+					regs[code[pc + 1]] = regs[code[pc + 2]] * regs[code[pc + 3]];
+					pc += 4;
+					break;
+				case DIV:
+					regs[code[pc + 1]] = regs[code[pc + 2]] / regs[code[pc + 3]];
+					pc += 4;
+					break;
+				case GETTABLE:
+					regs[code[pc + 1]] = context.getTable(code[pc + 2]).get(regs[code[pc + 3]]);
+					pc += 4;
+					break;
+				case SETTABLE:
+					context.getTable(code[pc + 1]).set(regs[code[pc + 2]], regs[code[pc + 3]]);
+					pc += 4;
+					break;
+				case PRINT:
+					out.printInt (regs[code[pc + 1]]);
+					pc += 2;
+					break;
+				case JMP:
+					next = code[pc + 1];
+					if (next <= pc && --fuel == 0)
+					{
+						frames.depth = depth;
+						return next;
+					}
+					pc = next;
+					break;
+				case JEQ:
+					next = regs[code[pc + 1]] == regs[code[pc + 2]] ? code[pc + 3] : pc + 4;
+					if (next <= pc && --fuel == 0)
+					{
+						frames.depth = depth;
+						return next;
+					}
+					pc = next;
+					break;
+				case JNE:
+					next = regs[code[pc + 1]] != regs[code[pc + 2]] ? code[pc + 3] : pc + 4;
+					if (next <= pc && --fuel == 0)
+					{
+						frames.depth = depth;
+						return next;
+					}
+					pc = next;
+					break;
+				case JLT:
+					next = regs[code[pc + 1]] < regs[code[pc + 2]] ? code[pc + 3] : pc + 4;
+					if (next <= pc && --fuel == 0)
+					{
+						frames.depth = depth;
+						return next;
+					}
+					pc = next;
+					break;
+				case JLE:
+					next = regs[code[pc + 1]] <= regs[code[pc + 2]] ? code[pc + 3] : pc + 4;
+					if (next <= pc && --fuel == 0)
+					{
+						frames.depth = depth;
+						return next;
+					}
+					pc = next;
+					break;
+				case JGT:
+					next = regs[code[pc + 1]] > regs[code[pc + 2]] ? code[pc + 3] : pc + 4;
+					if (next <= pc && --fuel == 0)
+					{
+						frames.depth = depth;
+						return next;
+					}
+					pc = next;
+					break;
+				case JGE:
+					next = regs[code[pc + 1]] >= regs[code[pc + 2]] ? code[pc + 3] : pc + 4;
+					if (next <= pc && --fuel == 0)
+					{
+						frames.depth = depth;
+						return next;
+					}
+					pc = next;
+					break;
+				case CALL:
+					if (depth + 1 == windows.length)
+					{
+						frames.grow();
+						windows = frames.windows;
+						returnPcs = frames.returnPcs;
+						returnRegisters = frames.returnRegisters;
+					}
+					function = functions[code[pc + 2]];
+					window = windows[depth + 1];
+					if (window == null)
+						window = windows[depth + 1] = new int[windowSize];
+					// windows are a few registers long, too short for arraycopy
+					// to pay off
+					next = code[pc + 3];
+					for (int i = 0; i < function[1]; i++)
+						window[i] = regs[next + i];
+					for (int i = function[1]; i < function[2]; i++)
+						window[i] = 0;
+					for (int i = 4; i < function.length; i++)
+						window[function[2] + i - 4] = function[i];
+					returnPcs[depth] = pc + 4;
+					returnRegisters[depth] = code[pc + 1];
+					depth++;
+					regs = window;
+					pc = function[0];
+					if (--fuel == 0)
+					{
+						frames.depth = depth;
+						return pc;
+					}
+					break;
+				case RET:
+					next = regs[code[pc + 1]];
+					depth--;
+					regs = depth < frames.shared ? frames.own(depth) : windows[depth];
+					regs[returnRegisters[depth]] = next;
+					pc = returnPcs[depth];
+					break;
+				case HALT:
+					return -1;
+				default:
+					throw new IllegalStateException ("invalid opcode " + code[pc] + " at " + pc);
+			}
+		}
+	}
+}
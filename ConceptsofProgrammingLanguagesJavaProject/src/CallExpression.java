@@ -0,0 +1,51 @@
+/**
+ * CallExpression calls a Function with the values of its arguments, as in
+ * fib ( - n 1 ), and evaluates to the value the function returns.
+ */
+public class CallExpression implements ArithmeticExpression
+{
+	private Function function;
+	private ArithmeticExpression[] args;
+	/**
+	 * @param function cannot be null - function called, which may not be
+	 *        defined yet
+	 * @param args cannot be null and cannot contain null
+	 * @throws IllegalArgumentException if an argument is null
+	 */
+	public CallExpression(Function function, ArithmeticExpression[] args)
+	{
+		if (function == null)
+			throw new IllegalArgumentException ("null function argument");
+		if (args == null)
+			throw new IllegalArgumentException ("null argument array argument");
+		this.args = args.clone();
+		for (ArithmeticExpression arg : this.args)
+			if (arg == null)
+				throw new IllegalArgumentException ("null ArithmeticExpression argument");
+		this.function = function;
+	}
+	public Function getFunction()
+	{
+		return function;
+	}
+	/**
+	 * @return number of arguments
+	 */
+	public int size()
+	{
+		return args.length;
+	}
+	/**
+	 * @param i 0 <= i < size()
+	 * @return argument at position i
+	 */
+	public ArithmeticExpression getArgument(int i)
+	{
+		return args[i];
+	}
+	@Override
+	public int evaluate(ExecutionContext context)
+	{
+		return function.call(context, args);
+	}
+}
@@ -0,0 +1,27 @@
+/**
+ * CallStatement calls a function for what it does, as in show ( x ), and
+ * drops the value it returns.
+ */
+public class CallStatement implements Statement
+{
+	private CallExpression call;
+	/**
+	 * @param call cannot be null
+	 * @throws IllegalArgumentException if call is null
+	 */
+	public CallStatement(CallExpression call)
+	{
+		if (call == null)
+			throw new IllegalArgumentException ("null CallExpression argument");
+		this.call = call;
+	}
+	public CallExpression getCall()
+	{
+		return call;
+	}
+	@Override
+	public void execute(ExecutionContext context)
+	{
+		call.evaluate(context);
+	}
+}
@@ -0,0 +1,14 @@
+
+/**
+ * CompiledProgram is a Program translated into a form that runs without
+ * walking the tree, e.g. by BytecodeCompiler or JvmCompiler
+ */
+public interface CompiledProgram {
+	/**
+	 * @param context cannot be null - holds the variables of this execution
+	 * postcondition: program has been executed, context holds the final
+	 *                values of its variables and its output sink has been
+	 *                flushed
+	 */
+	public void execute(ExecutionContext context);
+}
@@ -0,0 +1,18 @@
+/**
+ * CompiledTrace is a Trace translated by JvmCompiler into a JVM method that
+ * runs iterations of the loop of the trace for as long as every guard of
+ * the trace holds
+ */
+public interface CompiledTrace {
+	/**
+	 * @param context cannot be null - context with the frame the loop runs
+	 *        in on top, at the start of an iteration of the loop
+	 * @return -1 if the loop has ended, otherwise the index of the guard of
+	 *         the trace that failed
+	 * postcondition: iterations of the loop have been executed until its
+	 *                condition ended it or a guard failed; in the latter
+	 *                case the iteration the guard failed in has run up to
+	 *                the guard and is to be finished by Trace.finish
+	 */
+	public int run(ExecutionContext context);
+}
@@ -0,0 +1,186 @@
+/**
+ * CountedLoopStatement is a while loop whose body only steps an induction
+ * variable by a loop-invariant amount and whose condition compares that
+ * variable with a loop-invariant bound, such as
+ *
+ *     while < x 10 do x = + x 1 end
+ *
+ * Its execute computes the number of iterations and stores the final value
+ * of the variable at once instead of running the body once per iteration.
+ * When the closed form does not apply at run time, because the step has the
+ * wrong sign for the loop to terminate or the variable would wrap around,
+ * it runs the loop as written. Backends that do not know the class compile
+ * it as the WhileStatement it extends.
+ */
+public class CountedLoopStatement extends WhileStatement
+{
+	private final Id var;
+	private final int slot;
+	private final BooleanExpression.RelationalOperator op;
+	private final ArithmeticExpression bound;
+	private final ArithmeticExpression step;
+
+	private CountedLoopStatement(BooleanExpression expr, Block blk, Id var,
+			BooleanExpression.RelationalOperator op, ArithmeticExpression bound, ArithmeticExpression step)
+	{
+		super(expr, blk);
+		this.var = var;
+		this.slot = var.getSlot();
+		this.op = op;
+		this.bound = bound;
+		this.step = step;
+	}
+
+	/**
+	 * @param expr cannot be null - condition of a while loop
+	 * @param blk cannot be null - body of the loop
+	 * @return counted loop equivalent to while expr do blk end, or null if
+	 *         the loop is not a counted loop
+	 * @throws IllegalArgumentException if either argument is null
+	 */
+	public static CountedLoopStatement recognize(BooleanExpression expr, Block blk)
+	{
+		if (expr == null)
+			throw new IllegalArgumentException ("null boolean expression argument");
+		if (blk == null)
+			throw new IllegalArgumentException ("null block argument");
+		if (blk.size() != 1 || !(blk.getStatement(0) instanceof AssignmentStatement))
+			return null;
+		AssignmentStatement assignment = (AssignmentStatement) blk.getStatement(0);
+		Id var = assignment.getVar();
+		if (!(assignment.getExpr() instanceof BinaryExpression))
+			return null;
+		BinaryExpression update = (BinaryExpression) assignment.getExpr();
+		ArithmeticExpression step;
+		if (update.getOp() == BinaryExpression.ArithmeticOperator.ADD_OP && isVar (update.getExpr1(), var))
+			step = update.getExpr2();
+		else if (update.getOp() == BinaryExpression.ArithmeticOperator.ADD_OP && isVar (update.getExpr2(), var))
+			step = update.getExpr1();
+		else if (update.getOp() == BinaryExpression.ArithmeticOperator.SUB_OP && isVar (update.getExpr1(), var))
+			// x - s wraps exactly like x + (0 - s)
+			step = BinaryExpression.create (BinaryExpression.ArithmeticOperator.SUB_OP,
+				new LiteralInteger (0), update.getExpr2());
+		else
+			return null;
+		if (references (step, var))
+			return null;
+		BooleanExpression.RelationalOperator op = expr.getOp();
+		ArithmeticExpression bound;
+		if (isVar (expr.getExpr1(), var))
+			bound = expr.getExpr2();
+		else if (isVar (expr.getExpr2(), var))
+		{
+			bound = expr.getExpr1();
+			op = swap (op);
+		}
+		else
+			return null;
+		if (op == BooleanExpression.RelationalOperator.EQ_OP || references (bound, var))
+			return null;
+		return new CountedLoopStatement (expr, blk, var, op, bound, step);
+	}
+
+	public Id getVar()
+	{
+		return var;
+	}
+
+	/**
+	 * @param blk cannot be null - body that does what the body of this loop
+	 *        does, such as the body instrumented by a Profiler
+	 * @return counted loop with the closed form of this one, running blk
+	 *         whenever it runs the loop as written
+	 * @throws IllegalArgumentException if blk is null
+	 */
+	public CountedLoopStatement withBlock(Block blk)
+	{
+		if (blk == null)
+			throw new IllegalArgumentException ("null block argument");
+		return new CountedLoopStatement (getExpr(), blk, var, op, bound, step);
+	}
+
+	@Override
+	public void execute(ExecutionContext context)
+	{
+		long value = context.fetchAt(slot);
+		long limit = bound.evaluate(context);
+		long result;
+		switch (op) {
+			case NE_OP:
+				if (value == limit)
+					return;
+				// an odd step is invertible modulo 2^32, so the variable
+				// reaches the bound after wrapping around if need be
+				if ((step.evaluate(context) & 1) == 0)
+				{
+					super.execute(context);
+					return;
+				}
+				result = limit;
+				break;
+			case LT_OP:
+			case LE_OP:
+				if (op == BooleanExpression.RelationalOperator.LE_OP)
+					limit++;
+				if (value >= limit)
+					return;
+				long up = step.evaluate(context);
+				result = up <= 0 ? Long.MAX_VALUE : value + ((limit - 1 - value) / up + 1) * up;
+				break;
+			default:
+				if (op == BooleanExpression.RelationalOperator.GE_OP)
+					limit--;
+				if (value <= limit)
+					return;
+				long down = step.evaluate(context);
+				result = down >= 0 ? Long.MIN_VALUE : value + ((value - limit - 1) / -down + 1) * down;
+				break;
+		}
+		if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE)
+			super.execute(context);
+		else
+			context.storeAt(slot, (int) result);
+	}
+
+	private static boolean isVar(ArithmeticExpression expr, Id var)
+	{
+		return expr instanceof Id && ((Id) expr).getSlot() == var.getSlot();
+	}
+
+	/**
+	 * @return whether evaluating expr reads var, or calls a function, which
+	 *         may print and so must be called once per iteration
+	 */
+	private static boolean references(ArithmeticExpression expr, Id var)
+	{
+		if (expr instanceof BinaryExpression)
+			return references (((BinaryExpression) expr).getExpr1(), var) ||
+				references (((BinaryExpression) expr).getExpr2(), var);
+		if (expr instanceof PostfixExpression)
+			return ((PostfixExpression) expr).reads(var.getSlot());
+		if (expr instanceof IndexExpression)
+			return references (((IndexExpression) expr).getIndex(), var);
+		if (expr instanceof CallExpression)
+			return true;
+		return isVar (expr, var);
+	}
+
+	/**
+	 * @return op' such that a op b equals b op' a
+	 */
+	private static BooleanExpression.RelationalOperator swap(BooleanExpression.RelationalOperator op)
+	{
+		switch (op) {
+			case LT_OP:
+				return BooleanExpression.RelationalOperator.GT_OP;
+			case LE_OP:
+				return BooleanExpression.RelationalOperator.GE_OP;
+			case GT_OP:
+				return BooleanExpression.RelationalOperator.LT_OP;
+			case GE_OP:
+				return BooleanExpression.RelationalOperator.LE_OP;
+			default:
+				return op;
+		}
+	}
+}
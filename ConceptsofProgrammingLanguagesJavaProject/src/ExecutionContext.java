@@ -0,0 +1,380 @@
+import java.util.Arrays;
+
+/**
+ * ExecutionContext holds the state of one execution of a Program: a slot for
+ * every variable, indexed by the slots of the SymbolTable of the program,
+ * the IntTable of every table variable, created when it is first used, and
+ * the sink print statements write to. A new context has no slots; a
+ * program reserves the slots it needs before it runs, and every fetch and
+ * store then indexes the array directly. The nodes of a Program keep no
+ * state of their own, except what a Tracer learns about its loops, so one
+ * Program can be executed by any number of threads at once as long as each
+ * of them uses its own context.
+ *
+ * The slots form a stack of frames. The variables of the program are the
+ * frame at the bottom, and every call of a Function pushes a frame holding
+ * its parameters and locals on top of the frame of its caller; fetchAt and
+ * storeAt index the frame on top. The stack is one int[] that grows by
+ * doubling and is reused by every later call, so once it has grown to the
+ * deepest call of a program, calls allocate nothing.
+ *
+ * No backend nests calls deeper than MAX_CALL_DEPTH. The tree walker and
+ * the JVM backend also recurse on the Java stack with every call, so they
+ * stop at the recursion limit of the context instead, which is
+ * DEFAULT_RECURSION_LIMIT unless set to what the thread stack allows.
+ */
+public class ExecutionContext
+{
+	/** calls nested deeper than this throw IllegalStateException */
+	public static final int MAX_CALL_DEPTH = 1000000;
+	/** recursion limit of a new context, safe with the default thread stack */
+	public static final int DEFAULT_RECURSION_LIMIT = 200;
+	private static final int MIN_STACK_LENGTH = 64;
+	private int[] slots = new int[0];
+	private IntTable[] tables = new IntTable[0];
+	// set when slots and tables may be shared with a fork and must be copied
+	// before either is written
+	private boolean shared;
+	private final OutputSink out;
+	// first slot of the frame on top and first slot past it
+	private int frame;
+	private int top;
+	private int callDepth;
+	// set by a return statement until the call it ends takes the value
+	private boolean returning;
+	private int returnValue;
+	private Tracer tracer;
+	private int recursionLimit = DEFAULT_RECURSION_LIMIT;
+	// operand stack of every PostfixExpression evaluated in this context
+	private int[] operandStack = new int[0];
+
+	/**
+	 * postcondition: print statements executed in this context write to a
+	 *                buffered sink over System.out
+	 */
+	public ExecutionContext()
+	{
+		this(new StreamOutputSink (System.out));
+	}
+
+	/**
+	 * @param out cannot be null - sink print statements write to
+	 * @throws IllegalArgumentException if out is null
+	 */
+	public ExecutionContext(OutputSink out)
+	{
+		if (out == null)
+			throw new IllegalArgumentException ("null output sink argument");
+		this.out = out;
+	}
+
+	/**
+	 * @return sink print statements executed in this context write to
+	 */
+	public OutputSink getOutput()
+	{
+		return out;
+	}
+
+	/**
+	 * @return tracer the loops executed in this context run under, or null
+	 *         if they are only interpreted
+	 */
+	public Tracer getTracer()
+	{
+		return tracer;
+	}
+
+	/**
+	 * @param tracer tracer for the loops executed in this context to run
+	 *        under, or null to only interpret them
+	 */
+	public void setTracer(Tracer tracer)
+	{
+		this.tracer = tracer;
+	}
+
+	/**
+	 * @return number of calls the backends that recurse on the Java stack
+	 *         nest at most in this context
+	 */
+	public int getRecursionLimit()
+	{
+		return recursionLimit;
+	}
+
+	/**
+	 * @param limit 0 < limit <= MAX_CALL_DEPTH - number of calls the
+	 *        backends that recurse on the Java stack nest at most in this
+	 *        context; a limit the thread stack cannot hold ends in a
+	 *        StackOverflowError
+	 * @throws IllegalArgumentException if limit is out of range
+	 */
+	public void setRecursionLimit(int limit)
+	{
+		if (limit <= 0 || limit > MAX_CALL_DEPTH)
+			throw new IllegalArgumentException ("invalid recursion limit argument");
+		recursionLimit = limit;
+	}
+
+	/**
+	 * @param depth >= 0 - number of values needed
+	 * @return operand stack of at least depth values, the same array every
+	 *         time unless it has to grow, so that evaluating an expression in
+	 *         a loop allocates nothing; it is only valid until the next call
+	 */
+	public int[] getOperandStack(int depth)
+	{
+		if (depth > operandStack.length)
+			operandStack = new int[depth];
+		return operandStack;
+	}
+
+	/**
+	 * @param out cannot be null - sink print statements executed in the new
+	 *        context write to
+	 * @return new context holding the slots of the bottom frame of this
+	 *         context and its tables, which it shares with this context
+	 *         until either of them writes a slot or uses a table; the new
+	 *         context has the recursion limit of this one and no tracer
+	 * @throws IllegalArgumentException if out is null
+	 * @throws IllegalStateException if a call is in progress
+	 */
+	public ExecutionContext fork(OutputSink out)
+	{
+		if (callDepth > 0)
+			throw new IllegalStateException ("call in progress");
+		ExecutionContext fork = new ExecutionContext (out);
+		fork.slots = slots;
+		fork.tables = tables;
+		shared = fork.shared = true;
+		fork.top = tables.length;
+		fork.recursionLimit = recursionLimit;
+		return fork;
+	}
+
+	/**
+	 * @param count >= 0 - number of slots needed
+	 * postcondition: the bottom frame holds at least count slots; new slots
+	 *                hold 0 and existing slots keep their values
+	 * @throws IllegalArgumentException if count is negative
+	 */
+	public void reserve(int count)
+	{
+		if (count < 0)
+			throw new IllegalArgumentException ("invalid slot count argument");
+		if (shared && (count > slots.length || count > tables.length))
+			unshare ();
+		if (count > slots.length)
+			slots = Arrays.copyOf(slots, count);
+		if (count > tables.length)
+			tables = Arrays.copyOf(tables, count);
+		top = Math.max(top, count);
+	}
+
+	/**
+	 * @return number of slots of the bottom frame
+	 */
+	public int getSlotCount()
+	{
+		return tables.length;
+	}
+
+	/**
+	 * @return number of slots of the frame on top
+	 */
+	public int getFrameSize()
+	{
+		return top - frame;
+	}
+
+	/**
+	 * @param index 0 <= index < size of the frame on top - slot of a variable
+	 * @return value stored in slot index of the frame on top
+	 */
+	public int fetchAt(int index)
+	{
+		return slots[frame + index];
+	}
+
+	/**
+	 * @param index 0 <= index < size of the frame on top - slot of a variable
+	 * @param value to be stored
+	 * postcondition: value has been stored in slot index of the frame on top
+	 */
+	public void storeAt(int index, int value)
+	{
+		if (shared)
+			unshare ();
+		slots[frame + index] = value;
+	}
+
+	/**
+	 * @param size >= 0 - number of slots of the frame
+	 * @return first slot of a new frame of size slots holding 0, pushed
+	 *         above the frame on top without becoming the frame on top
+	 * @throws IllegalStateException if calls are nested as deep as the
+	 *         recursion limit, since the tree walker recurses with every call
+	 */
+	public int pushFrame(int size)
+	{
+		if (callDepth >= recursionLimit)
+			throw new IllegalStateException ("call stack overflow");
+		if (shared)
+			unshare ();
+		int base = top;
+		if (base + size > slots.length)
+			slots = Arrays.copyOf(slots, Math.max(base + size, Math.max(MIN_STACK_LENGTH, 2 * slots.length)));
+		Arrays.fill(slots, base, base + size, 0);
+		top = base + size;
+		callDepth++;
+		return base;
+	}
+
+	/**
+	 * Called by compiled code that keeps its frames on the JVM stack rather
+	 * than in a context.
+	 * @param depth number of calls nested, counting the one being made
+	 * @throws IllegalStateException if depth is above the recursion limit
+	 */
+	public void checkCallDepth(int depth)
+	{
+		if (depth > recursionLimit)
+			throw new IllegalStateException ("call stack overflow");
+	}
+
+	/**
+	 * @param base first slot of a frame returned by pushFrame
+	 * @param index slot within the frame
+	 * @param value to be stored
+	 * postcondition: value has been stored in slot index of the frame
+	 */
+	public void storeInFrame(int base, int index, int value)
+	{
+		if (shared)
+			unshare ();
+		slots[base + index] = value;
+	}
+
+	/**
+	 * @param base first slot of a frame returned by pushFrame
+	 * @return first slot of the frame that was on top
+	 * postcondition: the frame at base is on top
+	 */
+	public int enterFrame(int base)
+	{
+		int caller = frame;
+		frame = base;
+		return caller;
+	}
+
+	/**
+	 * @param caller value returned by enterFrame, or the frame on top if
+	 *        the frame at base was never entered
+	 * @param base first slot of the frame returned by the matching pushFrame
+	 * postcondition: the frame at base and every frame above it have been
+	 *                popped, the frame at caller is on top and no return is
+	 *                pending
+	 */
+	public void popFrame(int caller, int base)
+	{
+		frame = caller;
+		top = base;
+		callDepth--;
+		returning = false;
+	}
+
+	/**
+	 * @return first slot of the frame on top
+	 */
+	public int getFrame()
+	{
+		return frame;
+	}
+
+	/**
+	 * @param value value returned
+	 * postcondition: a return is pending, so that the blocks and loops of
+	 *                the frame on top stop executing
+	 */
+	public void setReturnValue(int value)
+	{
+		returning = true;
+		returnValue = value;
+	}
+
+	/**
+	 * @return whether a return statement has been executed in the frame on
+	 *         top and the call it ends has not taken its value yet
+	 */
+	public boolean isReturning()
+	{
+		return returning;
+	}
+
+	/**
+	 * @return value of the pending return, 0 if none is pending
+	 * postcondition: no return is pending
+	 */
+	public int takeReturnValue()
+	{
+		int value = returning ? returnValue : 0;
+		returning = false;
+		return value;
+	}
+
+	/**
+	 * @param index 0 <= index < getSlotCount() - slot of a table variable in
+	 *        the bottom frame, whatever frame is on top
+	 * @return table held by the variable in slot index, a new empty table
+	 *         if it has not been used yet
+	 */
+	public IntTable getTable(int index)
+	{
+		// the table is written through what this returns
+		if (shared)
+			unshare ();
+		IntTable table = tables[index];
+		if (table == null)
+			tables[index] = table = new IntTable();
+		return table;
+	}
+
+	/**
+	 * @param values array with at least count elements
+	 * @param count 0 <= count <= getSlotCount() - number of slots copied
+	 * postcondition: values[0..count) holds a copy of slots 0..count-1 of
+	 *                the bottom frame
+	 */
+	public void copyTo(int[] values, int count)
+	{
+		System.arraycopy(slots, 0, values, 0, count);
+	}
+
+	/**
+	 * @param values array with at least count elements
+	 * @param count 0 <= count <= getSlotCount() - number of slots set
+	 * postcondition: slots 0..count-1 of the bottom frame have been set from
+	 *                values[0..count)
+	 */
+	public void copyFrom(int[] values, int count)
+	{
+		if (shared)
+			unshare ();
+		System.arraycopy(values, 0, slots, 0, count);
+	}
+
+	/**
+	 * postcondition: this context holds its own copy of the slots and of
+	 *                every table, which shares the table copy-on-write
+	 */
+	private void unshare()
+	{
+		slots = slots.clone();
+		tables = tables.clone();
+		for (int i = 0; i < tables.length; i++)
+			if (tables[i] != null)
+				tables[i] = tables[i].copy();
+		shared = false;
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * Function is a function a program defines besides the function it runs,
+ * as in
+ *
+ *     function fib ( n ) if < n 2 then return n else return + fib ( - n 1 ) fib ( - n 2 ) end end
+ *
+ * Its parameters and locals have the slots of a SymbolTable of its own, the
+ * parameters first, and every call executes its body in a new frame of the
+ * ExecutionContext holding them. A call can be parsed before the function
+ * is defined, so a Function is created when its name is first seen and
+ * defined once its definition has been parsed.
+ */
+public class Function
+{
+	private final String name;
+	private int parameterCount;
+	private SymbolTable locals;
+	private int frameSize;
+	private Block body;
+
+	/**
+	 * @param name - must be a valid identifier
+	 * @throws IllegalArgumentException if name is not a valid identifier
+	 * postcondition: the function is not defined yet
+	 */
+	public Function(String name)
+	{
+		if (!Id.isIdentifier(name))
+			throw new IllegalArgumentException ("invalid identifier argument");
+		this.name = name;
+	}
+
+	/**
+	 * @param parameterCount 0 <= parameterCount <= locals.size() - number of
+	 *        parameters, which have the first slots of locals
+	 * @param locals cannot be null - table the parameters and locals of the
+	 *        body have their slots in
+	 * @param body cannot be null
+	 * @throws IllegalArgumentException if an argument is invalid
+	 * @throws IllegalStateException if the function is already defined
+	 * postcondition: the function is defined, with a frame of locals.size()
+	 *                slots
+	 */
+	public void define(int parameterCount, SymbolTable locals, Block body)
+	{
+		if (locals == null)
+			throw new IllegalArgumentException ("null symbol table argument");
+		if (body == null)
+			throw new IllegalArgumentException ("null block argument");
+		if (parameterCount < 0 || parameterCount > locals.size())
+			throw new IllegalArgumentException ("invalid parameter count argument");
+		if (isDefined())
+			throw new IllegalStateException ("function " + name + " is already defined");
+		this.parameterCount = parameterCount;
+		this.locals = locals;
+		this.body = body;
+		frameSize = locals.size();
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public boolean isDefined()
+	{
+		return body != null;
+	}
+
+	public int getParameterCount()
+	{
+		return parameterCount;
+	}
+
+	public SymbolTable getLocals()
+	{
+		return locals;
+	}
+
+	/**
+	 * @return number of slots of a frame of the function, the size of its
+	 *         symbol table when it was defined
+	 */
+	public int getFrameSize()
+	{
+		return frameSize;
+	}
+
+	public Block getBody()
+	{
+		return body;
+	}
+
+	/**
+	 * @param context cannot be null - holds the frame of the caller on top
+	 * @param args getParameterCount() arguments, evaluated in the frame of
+	 *        the caller from left to right
+	 * @return value returned by the body, 0 if it ends without a return
+	 * @throws IllegalStateException if the function is not defined or calls
+	 *         are nested too deep
+	 * postcondition: the frame of the caller is on top of context again
+	 */
+	public int call(ExecutionContext context, ArithmeticExpression[] args)
+	{
+		if (body == null)
+			throw new IllegalStateException ("function " + name + " is not defined");
+		int base = context.pushFrame(frameSize);
+		int caller = context.getFrame();
+		try
+		{
+			for (int i = 0; i < args.length; i++)
+				context.storeInFrame(base, i, args[i].evaluate(context));
+			context.enterFrame(base);
+			body.execute(context);
+			return context.takeReturnValue();
+		}
+		finally
+		{
+			context.popFrame(caller, base);
+		}
+	}
+}
@@ -1,22 +1,49 @@
 public class Id implements ArithmeticExpression
 {
-	private char ch;
+	private String name;
+	private int slot;
 	/**
-	 * @param ch - must be a valid identifier
-	 * @throws IllegalArgument exception if ch if not a valid identifier
+	 * @param name - must be a valid identifier
+	 * @param slot >= 0 - slot of name in the SymbolTable of its program
+	 * @throws IllegalArgumentException if name is not a valid identifier or
+	 *         slot is negative
 	 */
-	public Id(char ch) {
-		if (!Character.isLetter(ch))
+	public Id(String name, int slot) {
+		if (!isIdentifier(name))
 			throw new IllegalArgumentException ("invalid identifier argument");
-		this.ch = ch;
+		if (slot < 0)
+			throw new IllegalArgumentException ("invalid slot argument");
+		this.name = name;
+		this.slot = slot;
 	}
-	public char getChar()
+	/**
+	 * @return whether name is a letter or underscore followed by any number
+	 *         of letters, digits and underscores
+	 */
+	public static boolean isIdentifier(String name)
+	{
+		if (name == null || name.isEmpty())
+			return false;
+		for (int i = 0; i < name.length(); i++)
+		{
+			char ch = name.charAt(i);
+			boolean letter = ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch == '_';
+			if (!letter && (i == 0 || ch < '0' || ch > '9'))
+				return false;
+		}
+		return true;
+	}
+	public String getName()
+	{
+		return name;
+	}
+	public int getSlot()
 	{
-		return ch;
+		return slot;
 	}
 	@Override
-	public int evaluate()
+	public int evaluate(ExecutionContext context)
 	{
-		return Memory.fetch (ch);
+		return context.fetchAt(slot);
 	}
 }
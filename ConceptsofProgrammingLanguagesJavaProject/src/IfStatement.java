@@ -16,11 +16,20 @@ public class IfStatement implements Statement {
 		this.blk1 = blk1;
 		this.blk2 = blk2;
 	}
+	public BooleanExpression getExpr() {
+		return expr;
+	}
+	public Block getBlock1() {
+		return blk1;
+	}
+	public Block getBlock2() {
+		return blk2;
+	}
 	@Override
-	public void execute() {
-		if (expr.evaluate())
-			blk1.execute();
+	public void execute(ExecutionContext context) {
+		if (expr.evaluate(context))
+			blk1.execute(context);
 		else
-			blk2.execute();		
+			blk2.execute(context);		
 	}
 }
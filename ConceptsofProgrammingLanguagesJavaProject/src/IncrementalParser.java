@@ -0,0 +1,770 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * IncrementalParser keeps the source of a program as a list of lines, each
+ * with the tokens it was lexed into, together with the token range of every
+ * block and statement of the last Program parsed from it, so that an edit
+ * replacing some lines is handled without lexing or parsing the whole
+ * source again. Only the new lines are lexed. The edited tokens are then
+ * located in the innermost block that contains all of them, and only the
+ * statements of that block they touch are parsed again, as a sequence of
+ * statements spliced into the block. Every other statement of the Program
+ * is reused as it was; only the blocks and statements enclosing the edit
+ * are rebuilt.
+ *
+ * If the statements touched no longer parse on their own, e.g. because the
+ * edit removed an end, the enclosing statement is parsed again instead, up
+ * to the whole source. Parsing the whole source is also how errors are
+ * reported, so they are the errors Parser would report, except that lexical
+ * errors are reported before syntax errors. After a failed edit the text is
+ * kept and the next edit parses the whole source again.
+ *
+ * Only the block of the function the program runs is parsed incrementally:
+ * statements parsed again may call the functions of the last Program, which
+ * are reused as they are, and an edit touching the definition of a function
+ * parses the whole source again.
+ *
+ * Lines and the statements of every block are kept in chunked lists, each
+ * element weighed by its number of tokens, and a statement only records the
+ * tokens between it and the statement before it. An edit therefore replaces
+ * the elements of one or two chunks and moves nothing after them, so it
+ * takes time in the number of chunks and the size of the edit rather than
+ * in the size of the source. The one exception is that every Block enclosing
+ * the edit is copied, which copies its statement array without inspecting
+ * the statements.
+ */
+public class IncrementalParser
+{
+	// weighed by their tokens, so the index of the first token of line i is
+	// lines.weightBefore(i)
+	private final WeightedList<Line> lines = new WeightedList<Line>();
+	private final TokenBuffer scratch = new TokenBuffer();
+	// shared by every reparse since the last parse, so that reused statements
+	// keep their slots and a variable keeps its kind
+	private SymbolTable symbols;
+	private Program program;
+	private BlockNode root;
+	private boolean valid;
+	private int linesLexed;
+	private int tokensParsed;
+
+	/**
+	 * @param source cannot be null - bytes of the source program
+	 * @throws IllegalArgumentException if source is null
+	 * postcondition: the parser holds source, which has not been parsed yet
+	 */
+	public IncrementalParser(byte[] source)
+	{
+		if (source == null)
+			throw new IllegalArgumentException ("null source argument");
+		char[] chars = new char[source.length];
+		for (int i = 0; i < source.length; i++)
+			chars[i] = (char) (source[i] & 0xFF);
+		lines.replace(0, 0, split (chars));
+	}
+
+	/**
+	 * @return Program parsed from the whole source
+	 * @throws ParserException if the source is not a valid program
+	 */
+	public Program parse() throws ParserException
+	{
+		valid = false;
+		linesLexed = 0;
+		List<Line> all = lines.elements(0, lines.size());
+		for (int i = 0; i < all.size(); i++)
+			if (all.get(i).tokens == null)
+				all.get(i).tokens = lex (all.get(i).chars, i + 1);
+		// weighed again, now that every line has been lexed
+		lines.replace(0, lines.size(), all);
+		Map<Object, int[]> spans = new IdentityHashMap<Object, int[]>();
+		Parser parser = new Parser (tokens (0, lines.total()));
+		// a fresh table, so that a variable whose uses as one kind have all
+		// been edited away can be used as the other
+		symbols = new SymbolTable();
+		parser.setSymbols(symbols);
+		parser.setSpans(spans);
+		Program parsed = parser.parse();
+		tokensParsed = lines.total();
+		root = build (parsed.getBlock(), 0, spans);
+		program = parsed;
+		valid = true;
+		return program;
+	}
+
+	/**
+	 * @param firstLine 1 <= firstLine <= getLineCount() + 1 - first line replaced
+	 * @param lineCount >= 0 - number of lines replaced, 0 to insert text
+	 *        before firstLine
+	 * @param text cannot be null - new lines separated by '\n', a final '\n'
+	 *        being optional, or "" to delete the lines
+	 * @return Program parsed from the edited source
+	 * @throws ParserException if the edited source is not a valid program
+	 * @throws IllegalArgumentException if any argument is invalid
+	 * postcondition: the lines have been replaced, even if the edited source
+	 *                is not a valid program
+	 */
+	public Program edit(int firstLine, int lineCount, String text) throws ParserException
+	{
+		if (text == null)
+			throw new IllegalArgumentException ("null text argument");
+		if (firstLine < 1 || lineCount < 0 || firstLine - 1 + lineCount > lines.size())
+			throw new IllegalArgumentException ("invalid line range argument");
+		int start = firstLine - 1;
+		int end = start + lineCount;
+		List<Line> replacement = split (text.toCharArray());
+		if (!valid)
+		{
+			lines.replace(start, end, replacement);
+			return parse();
+		}
+		// token range of the replaced lines, before the edit
+		int first = lines.weightBefore(start);
+		int last = lines.weightBefore(end);
+		int oldTokenCount = lines.total();
+		linesLexed = 0;
+		boolean lexed = true;
+		try
+		{
+			for (int i = 0; i < replacement.size(); i++)
+				replacement.get(i).tokens = lex (replacement.get(i).chars, start + i + 1);
+		}
+		catch (ParserException e)
+		{
+			lexed = false;
+		}
+		lines.replace(start, end, replacement);
+		if (!lexed)
+			return parse();
+		int delta = lines.total() - oldTokenCount;
+		return reparse (first, last, delta);
+	}
+
+	/**
+	 * @return Program parsed last, or null if the source has never parsed
+	 */
+	public Program getProgram()
+	{
+		return program;
+	}
+
+	/**
+	 * @return whether the current source is the source of getProgram()
+	 */
+	public boolean isValid()
+	{
+		return valid;
+	}
+
+	public int getLineCount()
+	{
+		return lines.size();
+	}
+
+	/**
+	 * @return number of lines lexed by the last parse or edit
+	 */
+	public int getLinesLexed()
+	{
+		return linesLexed;
+	}
+
+	/**
+	 * @return number of tokens parsed by the last parse or edit, counting
+	 *         every attempt
+	 */
+	public int getTokensParsed()
+	{
+		return tokensParsed;
+	}
+
+	/**
+	 * @param first index of the first token replaced, before the edit
+	 * @param last index past the last token replaced, before the edit
+	 * @param delta number of tokens added by the edit, negative if removed
+	 * @return Program with the statements enclosing the replaced tokens
+	 *         parsed again
+	 * @throws ParserException if the edited source is not a valid program
+	 */
+	private Program reparse(int first, int last, int delta) throws ParserException
+	{
+		tokensParsed = 0;
+		if (first == last && delta == 0)
+			// only lines without tokens changed
+			return program;
+		if (first < root.offset || last > root.offset + root.length)
+			return parse();
+		// blocks from the root to the innermost block holding the edit, with
+		// the statements holding them, the index of those in the block before
+		// and the index of the first token of every block
+		List<BlockNode> blocks = new ArrayList<BlockNode>();
+		List<StatementNode> owners = new ArrayList<StatementNode>();
+		List<Integer> indices = new ArrayList<Integer>();
+		List<Integer> starts = new ArrayList<Integer>();
+		BlockNode blk = root;
+		int blkStart = root.offset;
+		while (blk != null)
+		{
+			blocks.add(blk);
+			starts.add(blkStart);
+			BlockNode inner = null;
+			int innerStart = 0;
+			int i = blk.lastStartingAt(first - blkStart);
+			if (i >= 0)
+			{
+				StatementNode stmt = blk.stmts.get(i);
+				int stmtStart = blkStart + blk.start(i);
+				if (last <= stmtStart + stmt.length)
+					for (BlockNode candidate : stmt.blocks)
+					{
+						int candidateStart = stmtStart + candidate.offset;
+						if (first >= candidateStart && last <= candidateStart + candidate.length)
+						{
+							inner = candidate;
+							innerStart = candidateStart;
+							owners.add(stmt);
+							indices.add(i);
+						}
+					}
+			}
+			blk = inner;
+			blkStart = innerStart;
+		}
+		for (int level = blocks.size() - 1; level >= 0; level--)
+		{
+			blk = blocks.get(level);
+			blkStart = starts.get(level);
+			// the statements ending after first and starting before last
+			int from = blk.stmts.indexAt(first - blkStart);
+			int to = Math.max(from, blk.lastStartingAt(last - blkStart - 1) + 1);
+			int runStart = from < to ? Math.min(first, blkStart + blk.start(from)) : first;
+			int runEnd = from < to ? Math.max(last, blkStart + blk.end(to - 1)) : last;
+			Map<Object, int[]> spans = new IdentityHashMap<Object, int[]>();
+			Block parsed;
+			try
+			{
+				Parser parser = new Parser (tokens (runStart, runEnd + delta));
+				parser.setSymbols(symbols);
+				parser.setFunctions(program);
+				parser.setSpans(spans);
+				tokensParsed += runEnd + delta - runStart;
+				parsed = parser.parseBlock();
+			}
+			catch (ParserException e)
+			{
+				parsed = null;
+			}
+			// a return ends its block, so no statement can follow one
+			if (parsed != null && parsed.size() > 0 &&
+				(from > 0 && blk.stmts.get(from - 1).stmt instanceof ReturnStatement ||
+					parsed.getStatement(parsed.size() - 1) instanceof ReturnStatement && to < blk.stmts.size()))
+				parsed = null;
+			if (parsed == null)
+			{
+				if (level == 0)
+					break;
+				// parse the statement holding this block instead
+				StatementNode owner = owners.get(level - 1);
+				first = starts.get(level - 1) + blocks.get(level - 1).start(indices.get(level - 1));
+				last = first + owner.length;
+				continue;
+			}
+			splice (blocks, owners, indices, level, from, to, parsed, spans, runStart - blkStart, delta);
+			program = new Program (root.blk, symbols, program.getFunctions());
+			return program;
+		}
+		return parse();
+	}
+
+	/**
+	 * @param offset index of the first token parsed, relative to the block
+	 *        at level
+	 * postcondition: statements from..to of the block at level have been
+	 *                replaced by the statements of parsed, and every block
+	 *                and statement enclosing them rebuilt and lengthened by
+	 *                delta
+	 */
+	private void splice(List<BlockNode> blocks, List<StatementNode> owners, List<Integer> indices, int level,
+			int from, int to, Block parsed, Map<Object, int[]> spans, int offset, int delta)
+	{
+		BlockNode blk = blocks.get(level);
+		List<Statement> replaced = new ArrayList<Statement>();
+		List<StatementNode> stmts = new ArrayList<StatementNode>();
+		// end of the statement before, relative to the first token parsed
+		int end = (from > 0 ? blk.end(from - 1) : 0) - offset;
+		for (int i = 0; i < parsed.size(); i++)
+		{
+			StatementNode stmt = build (parsed.getStatement(i), spans, end);
+			end += stmt.weight();
+			replaced.add(stmt.stmt);
+			stmts.add(stmt);
+		}
+		int replacedTo = to;
+		if (to < blk.stmts.size())
+		{
+			// the statement after keeps its tokens, but not necessarily the
+			// number of tokens before it
+			StatementNode next = blk.stmts.get(to);
+			next.lead = blk.start(to) + delta - offset - end;
+			stmts.add(next);
+			replacedTo++;
+		}
+		blk.stmts.replace(from, replacedTo, stmts);
+		blk.length += delta;
+		blk.blk = blk.blk.replace(from, to, replaced);
+		for (int i = level - 1; i >= 0; i--)
+		{
+			StatementNode owner = owners.get(i);
+			owner.length += delta;
+			boolean after = false;
+			for (BlockNode candidate : owner.blocks)
+			{
+				if (after)
+					candidate.offset += delta;
+				after |= candidate == blocks.get(i + 1);
+			}
+			owner.rebuild();
+			// weighed again; the statements after it keep their leads
+			BlockNode parent = blocks.get(i);
+			int index = indices.get(i);
+			parent.stmts.replace(index, index + 1, Collections.singletonList(owner));
+			parent.length += delta;
+			parent.blk = parent.blk.replace(index, index + 1, Collections.singletonList(owner.stmt));
+		}
+	}
+
+	/**
+	 * @return tokens of chars, a single line, packed as type ordinal, offset
+	 *         and length triples
+	 * @throws ParserException if the line contains an invalid lexeme
+	 */
+	private int[] lex(char[] chars, int lineNumber) throws ParserException
+	{
+		scratch.reset(chars);
+		try
+		{
+			LexicalAnalyzer.processLine(chars, 0, chars.length, lineNumber, scratch);
+		}
+		catch (LexicalException e)
+		{
+			throw new ParserException (e.getMessage());
+		}
+		linesLexed++;
+		int[] packed = new int[scratch.size() * 3];
+		for (int i = 0; i < scratch.size(); i++)
+		{
+			packed[i * 3] = scratch.getType(i).ordinal();
+			packed[i * 3 + 1] = scratch.getOffset(i);
+			packed[i * 3 + 2] = scratch.getLength(i);
+		}
+		return packed;
+	}
+
+	/**
+	 * @return buffer holding tokens first..last of the source followed by an
+	 *         EOS_TOK, with the rows and columns they have in the source
+	 */
+	private TokenBuffer tokens(int first, int last)
+	{
+		int total = lines.total();
+		int firstLine = lines.indexAt(first);
+		int lastLine = last > first ? lines.indexAt(last - 1) : firstLine - 1;
+		List<Line> range = lines.elements(firstLine, lastLine + 1);
+		int length = 0;
+		for (Line line : range)
+			length += line.chars.length;
+		char[] source = new char[length];
+		TokenBuffer buffer = new TokenBuffer();
+		buffer.reset(source);
+		TokenType[] types = TokenType.values();
+		int base = 0;
+		// index of the first token of the line
+		int firstToken = lines.weightBefore(firstLine);
+		for (int i = 0; i < range.size(); i++)
+		{
+			Line line = range.get(i);
+			System.arraycopy(line.chars, 0, source, base, line.chars.length);
+			int[] packed = line.tokens;
+			int from = Math.max(first, firstToken) - firstToken;
+			int to = Math.min(last, firstToken + line.weight()) - firstToken;
+			for (int j = from; j < to; j++)
+				buffer.add(types[packed[j * 3]], base + packed[j * 3 + 1], packed[j * 3 + 2], firstLine + i + 1,
+					packed[j * 3 + 1] + 1);
+			base += line.chars.length;
+			firstToken += line.weight();
+		}
+		if (last < total)
+		{
+			// end the tokens where the next token of the source starts
+			int next = lines.indexAt(last);
+			buffer.add(TokenType.EOS_TOK, 0, 0, next + 1,
+				lines.get(next).tokens[(last - lines.weightBefore(next)) * 3 + 1] + 1);
+		}
+		else
+			buffer.add(TokenType.EOS_TOK, 0, 0, Math.max(lines.size(), 1), 1);
+		return buffer;
+	}
+
+	/**
+	 * @return lines of chars, separated by '\n', ignoring a final '\n', none
+	 *         of which has been lexed
+	 */
+	private static List<Line> split(char[] chars)
+	{
+		List<Line> split = new ArrayList<Line>();
+		int start = 0;
+		for (int i = 0; i < chars.length; i++)
+			if (chars[i] == '\n')
+			{
+				split.add(new Line (Arrays.copyOfRange(chars, start, i)));
+				start = i + 1;
+			}
+		if (start < chars.length)
+			split.add(new Line (Arrays.copyOfRange(chars, start, chars.length)));
+		return split;
+	}
+
+	/**
+	 * @param base index of the first token of the statement holding blk, or
+	 *        0 for the block of a program
+	 * @return node of blk and every statement in it, at the token ranges
+	 *         recorded in spans
+	 */
+	private static BlockNode build(Block blk, int base, Map<Object, int[]> spans)
+	{
+		int[] span = spans.get(blk);
+		BlockNode node = new BlockNode (blk, span[0] - base, span[1] - span[0]);
+		List<StatementNode> stmts = new ArrayList<StatementNode>();
+		int end = span[0];
+		for (int i = 0; i < blk.size(); i++)
+		{
+			StatementNode stmt = build (blk.getStatement(i), spans, end);
+			end += stmt.weight();
+			stmts.add(stmt);
+		}
+		node.stmts.replace(0, 0, stmts);
+		return node;
+	}
+
+	/**
+	 * @param end index past the last token of the statement before stmt, or
+	 *        of the first token of the block holding stmt if there is none
+	 */
+	private static StatementNode build(Statement stmt, Map<Object, int[]> spans, int end)
+	{
+		int[] span = spans.get(stmt);
+		Block[] blks;
+		if (stmt instanceof IfStatement)
+			blks = new Block[] {((IfStatement) stmt).getBlock1(), ((IfStatement) stmt).getBlock2()};
+		else if (stmt instanceof WhileStatement)
+			blks = new Block[] {((WhileStatement) stmt).getBlock()};
+		else if (stmt instanceof RepeatStatement)
+			blks = new Block[] {((RepeatStatement) stmt).getBlock()};
+		else
+			blks = new Block[0];
+		BlockNode[] blocks = new BlockNode[blks.length];
+		for (int i = 0; i < blks.length; i++)
+			blocks[i] = build (blks[i], span[0], spans);
+		return new StatementNode (stmt, span[0] - end, span[1] - span[0], blocks);
+	}
+
+	/**
+	 * element of a WeightedList
+	 */
+	private interface Weighted
+	{
+		/**
+		 * @return weight of the element, read when it is put in a list
+		 */
+		int weight();
+	}
+
+	/**
+	 * list of weighted elements split into chunks, each with the sum of its
+	 * weights, so that replacing elements only rebuilds the chunks holding
+	 * them, and the weight before an element is the sum of the chunks before
+	 * it and of the elements before it in its chunk
+	 */
+	private static final class WeightedList<T extends Weighted>
+	{
+		// every chunk holds CHUNK to 2 * CHUNK - 1 elements, unless the list
+		// holds fewer than CHUNK
+		private static final int CHUNK = 128;
+		private final List<Chunk<T>> chunks = new ArrayList<Chunk<T>>();
+		private int size;
+		private int total;
+
+		int size()
+		{
+			return size;
+		}
+		/**
+		 * @return sum of the weights of the elements
+		 */
+		int total()
+		{
+			return total;
+		}
+		/**
+		 * @param i 0 <= i < size()
+		 */
+		T get(int i)
+		{
+			int c = 0;
+			while (i >= chunks.get(c).items.size())
+				i -= chunks.get(c++).items.size();
+			return chunks.get(c).items.get(i);
+		}
+		/**
+		 * @param i 0 <= i <= size()
+		 * @return sum of the weights of elements 0..i
+		 */
+		int weightBefore(int i)
+		{
+			int weight = 0;
+			for (Chunk<T> chunk : chunks)
+			{
+				if (i < chunk.items.size())
+				{
+					for (int j = 0; j < i; j++)
+						weight += chunk.weights[j];
+					return weight;
+				}
+				i -= chunk.items.size();
+				weight += chunk.total;
+			}
+			return weight;
+		}
+		/**
+		 * @param weight >= 0
+		 * @return index of the element whose weight covers weight, i.e. the i
+		 *         with weightBefore(i) <= weight < weightBefore(i + 1), or
+		 *         size() if weight >= total()
+		 */
+		int indexAt(int weight)
+		{
+			int index = 0;
+			for (Chunk<T> chunk : chunks)
+			{
+				if (weight < chunk.total)
+				{
+					int j = 0;
+					while (weight >= chunk.weights[j])
+						weight -= chunk.weights[j++];
+					return index + j;
+				}
+				weight -= chunk.total;
+				index += chunk.items.size();
+			}
+			return size;
+		}
+		/**
+		 * @param from 0 <= from
+		 * @param to to <= size()
+		 * @return new list of elements from..to, empty if to <= from
+		 */
+		List<T> elements(int from, int to)
+		{
+			List<T> elements = new ArrayList<T>(Math.max(to - from, 0));
+			int base = 0;
+			for (int c = 0; c < chunks.size() && base < to; c++)
+			{
+				List<T> items = chunks.get(c).items;
+				if (base + items.size() > from)
+					elements.addAll(items.subList(Math.max(from - base, 0), Math.min(to - base, items.size())));
+				base += items.size();
+			}
+			return elements;
+		}
+		/**
+		 * @param start 0 <= start <= end - first element replaced
+		 * @param end end <= size() - element after the last one replaced
+		 * @param replacement elements replacing them
+		 * postcondition: elements start..end have been replaced by
+		 *                replacement, rebuilding only the chunks that held
+		 *                them and at most one chunk next to those
+		 */
+		void replace(int start, int end, List<T> replacement)
+		{
+			// chunks c0..c1 hold elements base..limit, which include start..end
+			int c0 = 0;
+			int base = 0;
+			while (c0 < chunks.size() - 1 && start >= base + chunks.get(c0).items.size())
+				base += chunks.get(c0++).items.size();
+			int c1 = c0;
+			int limit = base;
+			while (c1 < chunks.size() && (c1 == c0 || limit < end))
+				limit += chunks.get(c1++).items.size();
+			int count = limit - base - (end - start) + replacement.size();
+			// too few elements for a chunk take those of the chunk after or
+			// before them
+			if (count < CHUNK && c1 < chunks.size())
+			{
+				count += chunks.get(c1).items.size();
+				limit += chunks.get(c1++).items.size();
+			}
+			else if (count < CHUNK && c0 > 0)
+			{
+				count += chunks.get(--c0).items.size();
+				base -= chunks.get(c0).items.size();
+			}
+			List<T> items = new ArrayList<T>(count);
+			int index = base;
+			for (int c = c0; c < c1; c++)
+			{
+				Chunk<T> chunk = chunks.get(c);
+				total -= chunk.total;
+				for (T item : chunk.items)
+				{
+					if (index == start)
+						items.addAll(replacement);
+					if (index < start || index >= end)
+						items.add(item);
+					index++;
+				}
+			}
+			if (start == limit)
+				items.addAll(replacement);
+			List<Chunk<T>> rebuilt = new ArrayList<Chunk<T>>();
+			int pieces = count < CHUNK ? Math.min(count, 1) : count / CHUNK;
+			for (int i = 0; i < pieces; i++)
+			{
+				Chunk<T> chunk = new Chunk<T>(items.subList((int) ((long) count * i / pieces),
+					(int) ((long) count * (i + 1) / pieces)));
+				total += chunk.total;
+				rebuilt.add(chunk);
+			}
+			chunks.subList(c0, c1).clear();
+			chunks.addAll(c0, rebuilt);
+			size += replacement.size() - (end - start);
+		}
+	}
+
+	/**
+	 * elements of a WeightedList with their weights and the sum of those
+	 */
+	private static final class Chunk<T extends Weighted>
+	{
+		private final List<T> items;
+		private final int[] weights;
+		private final int total;
+
+		Chunk(List<T> items)
+		{
+			this.items = new ArrayList<T>(items);
+			weights = new int[items.size()];
+			int total = 0;
+			for (int i = 0; i < weights.length; i++)
+			{
+				weights[i] = items.get(i).weight();
+				total += weights[i];
+			}
+			this.total = total;
+		}
+	}
+
+	/**
+	 * line of the source, weighed by its number of tokens
+	 */
+	private static final class Line implements Weighted
+	{
+		private final char[] chars;
+		// tokens as type ordinal, offset and length triples, or null if the
+		// line has not been lexed
+		private int[] tokens;
+
+		Line(char[] chars)
+		{
+			this.chars = chars;
+		}
+		public int weight()
+		{
+			return tokens == null ? 0 : tokens.length / 3;
+		}
+	}
+
+	/**
+	 * block with the token range of its statements; offset is relative to the
+	 * first token of the statement holding the block, or of the source
+	 */
+	private static final class BlockNode
+	{
+		private Block blk;
+		private int offset;
+		private int length;
+		// statement i starts stmts.weightBefore(i) plus its lead tokens after
+		// the first token of the block
+		private final WeightedList<StatementNode> stmts = new WeightedList<StatementNode>();
+
+		BlockNode(Block blk, int offset, int length)
+		{
+			this.blk = blk;
+			this.offset = offset;
+			this.length = length;
+		}
+		/**
+		 * @return first token of statement i, relative to the block
+		 */
+		int start(int i)
+		{
+			return stmts.weightBefore(i) + stmts.get(i).lead;
+		}
+		/**
+		 * @return token after statement i, relative to the block
+		 */
+		int end(int i)
+		{
+			return stmts.weightBefore(i + 1);
+		}
+		/**
+		 * @return index of the last statement starting at or before token,
+		 *         relative to the block, or -1 if there is none
+		 */
+		int lastStartingAt(int token)
+		{
+			if (token < 0 || stmts.size() == 0)
+				return -1;
+			int i = Math.min(stmts.indexAt(token), stmts.size() - 1);
+			return start (i) <= token ? i : i - 1;
+		}
+	}
+
+	/**
+	 * statement with its token range: lead is the number of tokens between
+	 * the statement before it, or the first token of its block, and its first
+	 * token; it is weighed by both
+	 */
+	private static final class StatementNode implements Weighted
+	{
+		private Statement stmt;
+		private int lead;
+		private int length;
+		private final BlockNode[] blocks;
+
+		StatementNode(Statement stmt, int lead, int length, BlockNode[] blocks)
+		{
+			this.stmt = stmt;
+			this.lead = lead;
+			this.length = length;
+			this.blocks = blocks;
+		}
+		public int weight()
+		{
+			return lead + length;
+		}
+		void rebuild()
+		{
+			if (stmt instanceof IfStatement)
+				stmt = new IfStatement (((IfStatement) stmt).getExpr(), blocks[0].blk, blocks[1].blk);
+			else if (stmt instanceof WhileStatement)
+				stmt = new WhileStatement (((WhileStatement) stmt).getExpr(), blocks[0].blk);
+			else if (stmt instanceof RepeatStatement)
+				stmt = new RepeatStatement (blocks[0].blk, ((RepeatStatement) stmt).getExpr());
+		}
+	}
+}
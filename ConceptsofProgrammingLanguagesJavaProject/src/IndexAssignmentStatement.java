@@ -0,0 +1,38 @@
+/**
+ * IndexAssignmentStatement stores a value in an element of a table
+ * variable, as in t [ i ] = + t [ i ] 1. The index is evaluated before the
+ * value.
+ */
+public class IndexAssignmentStatement implements Statement {
+	private IndexExpression target;
+	private ArithmeticExpression expr;
+
+	/**
+	 * @param target cannot be null - element assigned
+	 * @param expr cannot be null - value assigned
+	 * @throws IllegalArgumentException if either argument is null
+	 */
+	public IndexAssignmentStatement(IndexExpression target, ArithmeticExpression expr)
+	{
+		if (target == null)
+			throw new IllegalArgumentException ("null IndexExpression argument");
+		if (expr == null)
+			throw new IllegalArgumentException ("null ArithmeticExpression argument");
+		this.target = target;
+		this.expr = expr;
+	}
+	public IndexExpression getTarget()
+	{
+		return target;
+	}
+	public ArithmeticExpression getExpr()
+	{
+		return expr;
+	}
+	@Override
+	public void execute(ExecutionContext context)
+	{
+		int key = target.getIndex().evaluate(context);
+		context.getTable(target.getSlot()).set(key, expr.evaluate(context));
+	}
+}
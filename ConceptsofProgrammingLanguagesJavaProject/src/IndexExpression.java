@@ -0,0 +1,45 @@
+/**
+ * IndexExpression reads the element of a table variable at an index, as in
+ * t [ + i 1 ]; an element that has never been set reads as 0.
+ */
+public class IndexExpression implements ArithmeticExpression
+{
+	private String name;
+	private int slot;
+	private ArithmeticExpression index;
+	/**
+	 * @param name - must be a valid identifier, the name of the table
+	 * @param slot >= 0 - slot of name in the SymbolTable of its program
+	 * @param index - cannot be null
+	 * @throws IllegalArgumentException if any argument is invalid
+	 */
+	public IndexExpression(String name, int slot, ArithmeticExpression index) {
+		if (!Id.isIdentifier(name))
+			throw new IllegalArgumentException ("invalid identifier argument");
+		if (slot < 0)
+			throw new IllegalArgumentException ("invalid slot argument");
+		if (index == null)
+			throw new IllegalArgumentException ("null index argument");
+		this.name = name;
+		this.slot = slot;
+		this.index = index;
+	}
+	public String getName()
+	{
+		return name;
+	}
+	public int getSlot()
+	{
+		return slot;
+	}
+	public ArithmeticExpression getIndex()
+	{
+		return index;
+	}
+	@Override
+	public int evaluate(ExecutionContext context)
+	{
+		int key = index.evaluate(context);
+		return context.getTable(slot).get(key);
+	}
+}
@@ -0,0 +1,262 @@
+import java.util.Arrays;
+
+/**
+ * IntTable is the value of a table variable: a map from int keys to int
+ * values that boxes neither. Like a Lua table it has two parts. The array
+ * part is a plain int[] holding the keys from 0 up to its length, indexed
+ * by the key itself. Every other key is kept in the hash part, an open
+ * addressing table with linear probing over parallel key and value arrays.
+ * A key that has never been set reads as 0, like a variable never assigned.
+ *
+ * Setting the key just past the end of the array part doubles the array
+ * part, so a table filled with consecutive keys from 0 or 1 only ever
+ * writes to an int[], at amortized constant cost per key. When the hash
+ * part is full the table is rehashed the way Lua rehashes: the array part
+ * grows to the largest power of two n for which more than half of the keys
+ * 0..n-1 are in use, and the keys below n move out of the hash part.
+ *
+ * copy makes a table that shares both parts with the original until one of
+ * the two writes them: the first write to a shared part copies that part
+ * only, so copies that are only read, or only written in one part, cost
+ * little more than the object.
+ */
+public class IntTable
+{
+	private static final int[] EMPTY = new int[0];
+	private static final int MIN_ARRAY_LENGTH = 4;
+	private static final int MIN_HASH_CAPACITY = 4;
+	// marks a free bucket of the hash part; the key itself is kept apart
+	private static final int FREE = Integer.MIN_VALUE;
+	// 2^32 / golden ratio, which spreads consecutive keys over the buckets
+	private static final int PHI = 0x9E3779B9;
+
+	private int[] array = EMPTY;
+	private int[] keys = EMPTY;
+	private int[] values = EMPTY;
+	// 32 - log2 of the capacity of the hash part
+	private int shift = 32;
+	// number of keys in the hash part, not counting FREE
+	private int hashCount;
+	private boolean hasFreeKey;
+	private int freeKeyValue;
+	// whether the array part, or the keys and values of the hash part, may
+	// be shared with a copy and must be copied before they are written
+	private boolean arrayShared;
+	private boolean hashShared;
+
+	/**
+	 * @param key any int
+	 * @return value stored at key, 0 if none has been
+	 */
+	public int get(int key)
+	{
+		if (key >= 0 && key < array.length)
+			return array[key];
+		return getHash (key);
+	}
+
+	/**
+	 * @param key any int
+	 * @param value value to store
+	 * postcondition: get(key) returns value
+	 */
+	public void set(int key, int value)
+	{
+		if (key >= 0 && key < array.length)
+		{
+			if (arrayShared)
+				unshareArray ();
+			array[key] = value;
+		}
+		else if (key == array.length)
+		{
+			resizeArray (Math.max(MIN_ARRAY_LENGTH, 2 * array.length));
+			array[key] = value;
+		}
+		else
+			setHash (key, value);
+	}
+
+	/**
+	 * @return table holding the same keys and values as this table, sharing
+	 *         its parts with this table until either of them writes them
+	 */
+	public IntTable copy()
+	{
+		IntTable copy = new IntTable();
+		copy.array = array;
+		copy.keys = keys;
+		copy.values = values;
+		copy.shift = shift;
+		copy.hashCount = hashCount;
+		copy.hasFreeKey = hasFreeKey;
+		copy.freeKeyValue = freeKeyValue;
+		// the empty parts are never written
+		arrayShared = copy.arrayShared = array.length > 0;
+		hashShared = copy.hashShared = keys.length > 0;
+		return copy;
+	}
+
+	/**
+	 * @return number of keys held by the array part
+	 */
+	public int getArrayLength()
+	{
+		return array.length;
+	}
+
+	/**
+	 * @return number of keys held by the hash part
+	 */
+	public int getHashCount()
+	{
+		return hasFreeKey ? hashCount + 1 : hashCount;
+	}
+
+	private int getHash(int key)
+	{
+		if (key == FREE)
+			return hasFreeKey ? freeKeyValue : 0;
+		if (hashCount == 0)
+			return 0;
+		int mask = keys.length - 1;
+		for (int i = (key * PHI) >>> shift; keys[i] != FREE; i = (i + 1) & mask)
+			if (keys[i] == key)
+				return values[i];
+		return 0;
+	}
+
+	/**
+	 * precondition: key is not in the array part
+	 */
+	private void setHash(int key, int value)
+	{
+		if (key == FREE)
+		{
+			hasFreeKey = true;
+			freeKeyValue = value;
+			return;
+		}
+		if (keys.length > 0)
+		{
+			int mask = keys.length - 1;
+			int i = (key * PHI) >>> shift;
+			for (; keys[i] != FREE; i = (i + 1) & mask)
+				if (keys[i] == key)
+				{
+					if (hashShared)
+						unshareHash ();
+					values[i] = value;
+					return;
+				}
+			// keep the hash part at most half full
+			if (2 * (hashCount + 1) <= keys.length)
+			{
+				if (hashShared)
+					unshareHash ();
+				keys[i] = key;
+				values[i] = value;
+				hashCount++;
+				return;
+			}
+		}
+		rehash (key);
+		set (key, value);
+	}
+
+	private void unshareArray()
+	{
+		array = array.clone();
+		arrayShared = false;
+	}
+
+	private void unshareHash()
+	{
+		keys = keys.clone();
+		values = values.clone();
+		hashShared = false;
+	}
+
+	/**
+	 * @param key key about to be added to the hash part
+	 * postcondition: the array part has the length computed from the keys
+	 *                in use and key, and the hash part has room for key
+	 */
+	private void rehash(int key)
+	{
+		// counts[b] counts the keys k of the hash part with 2^(b-1) <= k < 2^b,
+		// and counts[0] key 0
+		int[] counts = new int[32];
+		for (int k : keys)
+			if (k != FREE && k >= 0)
+				counts[32 - Integer.numberOfLeadingZeros(k)]++;
+		if (key >= 0)
+			counts[32 - Integer.numberOfLeadingZeros(key)]++;
+		int length = array.length;
+		int below = 0;
+		for (int b = 0; b < 31; b++)
+		{
+			below += counts[b];
+			int n = 1 << b;
+			// every key of the array part counts as in use
+			if (n > array.length && array.length + below > n / 2)
+				length = n;
+		}
+		if (length > array.length)
+			resizeArray (length);
+		else
+			rebuildHash (hashCount + 1);
+	}
+
+	/**
+	 * postcondition: the array part holds length keys, those from the hash
+	 *                part below length having moved into it
+	 */
+	private void resizeArray(int length)
+	{
+		array = Arrays.copyOf(array, length);
+		arrayShared = false;
+		if (hashCount > 0)
+			rebuildHash (hashCount);
+	}
+
+	/**
+	 * @param count number of keys the hash part must have room for
+	 * postcondition: the keys of the hash part beyond the array part have
+	 *                been reinserted in a hash part with room for count keys
+	 */
+	private void rebuildHash(int count)
+	{
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		int capacity = MIN_HASH_CAPACITY;
+		while (capacity < 2 * count)
+			capacity *= 2;
+		keys = new int[capacity];
+		Arrays.fill(keys, FREE);
+		values = new int[capacity];
+		hashShared = false;
+		shift = 32 - Integer.numberOfTrailingZeros(capacity);
+		hashCount = 0;
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++)
+		{
+			int key = oldKeys[j];
+			if (key == FREE)
+				continue;
+			if (key >= 0 && key < array.length)
+			{
+				if (arrayShared)
+					unshareArray ();
+				array[key] = oldValues[j];
+				continue;
+			}
+			int i = (key * PHI) >>> shift;
+			while (keys[i] != FREE)
+				i = (i + 1) & mask;
+			keys[i] = key;
+			values[i] = oldValues[j];
+			hashCount++;
+		}
+	}
+}
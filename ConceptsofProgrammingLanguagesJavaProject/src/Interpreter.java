@@ -1,32 +1,69 @@
 import java.io.FileNotFoundException;
+import java.io.PrintStream;
 
 public class Interpreter
 {
+	/**
+	 * @param args backend option as accepted by execute, "-O0" to turn the
+	 *        Optimizer off, "-stats" to report what it removed on stderr and
+	 *        "-profile" to walk the tree under a Profiler, reporting the
+	 *        hottest statements on stderr and writing their collapsed stacks
+	 *        to profile.folded, and "-depth n" to let the tree walker and the
+	 *        JVM backend nest n calls rather than
+	 *        ExecutionContext.DEFAULT_RECURSION_LIMIT
+	 */
 	public static void main(String[] args) {
+		String backend = "";
+		boolean optimize = true;
+		boolean stats = false;
+		Profiler profiler = null;
+		int depth = ExecutionContext.DEFAULT_RECURSION_LIMIT;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-O0"))
+				optimize = false;
+			else if (args[i].equals("-stats"))
+				stats = true;
+			else if (args[i].equals("-profile"))
+				profiler = new Profiler();
+			else if (args[i].equals("-depth") && i + 1 < args.length) {
+				// anything but a number is left to setRecursionLimit to reject
+				String value = args[++i];
+				depth = value.matches("[0-9]{1,9}") ? Integer.parseInt(value) : 0;
+			}
+			else
+				backend = args[i];
+		}
+		Optimizer optimizer = new Optimizer (optimize);
+		if (profiler != null)
+			backend = "";
 		try {
 
 			System.out.print("FIrst Program Output: ");
-			Parser p = new Parser ("src/test1.lua");
-			Program program1 = p.parse();
-			program1.execute();
+			Program program1 = load ("src/test1.lua", optimizer, profiler);
+			execute (program1, backend, newContext (depth));
 			System.out.println();
 
 			System.out.print("Second Program Output: ");
-			Parser p1 = new Parser ("src/test2.lua");
-			Program program2 = p1.parse();
-			program2.execute();
+			Program program2 = load ("src/test2.lua", optimizer, profiler);
+			execute (program2, backend, newContext (depth));
 			System.out.println();
 
 			System.out.print("Third Program Output: ");
-			Parser p2 = new Parser ("src/test3.lua");
-			Program program3 = p2.parse();
-			program3.execute();
+			Program program3 = load ("src/test3.lua", optimizer, profiler);
+			execute (program3, backend, newContext (depth));
 			System.out.println();
 
 			System.out.print("Fourth Program Output: ");
-			Parser p3 = new Parser ("src/test4.lua");
-			Program program4 = p3.parse();
-			program4.execute();
+			Program program4 = load ("src/test4.lua", optimizer, profiler);
+			execute (program4, backend, newContext (depth));
+			if (stats)
+				System.err.println (optimizer);
+			if (profiler != null) {
+				profiler.writeReport(System.err, 20);
+				try (PrintStream folded = new PrintStream ("profile.folded")) {
+					profiler.writeCollapsedStacks(folded);
+				}
+			}
 		}
 		catch (ParserException e) {
 			System.out.println (e.getMessage());
@@ -44,4 +81,55 @@ public class Interpreter
 			System.out.println ("unknown error occurred - terminating");
 		}
 	}
+
+	/**
+	 * @param depth recursion limit of the context
+	 * @return context writing to System.out with the given recursion limit
+	 * @throws IllegalArgumentException if depth is not a valid recursion limit
+	 */
+	private static ExecutionContext newContext(int depth) {
+		ExecutionContext context = new ExecutionContext();
+		context.setRecursionLimit(depth);
+		return context;
+	}
+
+	/**
+	 * @param fileName cannot be null
+	 * @param optimizer cannot be null
+	 * @param profiler profiler to instrument the program for, or null
+	 * @return optimized program parsed from fileName
+	 * @throws FileNotFoundException if the file cannot be found
+	 * @throws LexicalException if a lexical error occurs
+	 * @throws ParserException if a syntax error occurs
+	 */
+	private static Program load(String fileName, Optimizer optimizer, Profiler profiler)
+			throws FileNotFoundException, LexicalException, ParserException {
+		Parser p = new Parser (fileName);
+		if (profiler == null)
+			return optimizer.optimize(p.parse());
+		SourceMap sourceMap = new SourceMap();
+		p.setSourceMap(sourceMap);
+		return profiler.instrument(optimizer.optimize(p.parse(), sourceMap), fileName, sourceMap);
+	}
+
+	/**
+	 * @param program cannot be null
+	 * @param backend "-vm" to run the program on the bytecode VM, "-jvm" to
+	 *        compile it to a JVM class, "-trace" to walk the tree under a
+	 *        Tracer that compiles its hot loops, anything else to walk the
+	 *        tree
+	 * @param context cannot be null - context the program is executed in
+	 */
+	static void execute(Program program, String backend, ExecutionContext context) {
+		if (backend.equals("-vm"))
+			new BytecodeCompiler().compile(program).execute(context);
+		else if (backend.equals("-jvm"))
+			new JvmCompiler().compile(program).execute(context);
+		else if (backend.equals("-trace")) {
+			context.setTracer(new Tracer());
+			program.execute(context);
+		}
+		else
+			program.execute(context);
+	}
 }
\ No newline at end of file
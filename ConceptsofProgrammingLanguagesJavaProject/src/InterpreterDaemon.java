@@ -0,0 +1,494 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InterpreterDaemon stays resident and runs scripts on request, so that a
+ * script pays neither JVM startup and class loading nor a cold JIT. Before
+ * it serves anything the daemon runs a built-in script exercising loops,
+ * tables and calls until HotSpot has compiled the interpreter, and every
+ * script is parsed and optimized once, through a ProgramCache shared by all
+ * clients. The bytecode and JVM backends also keep the code they compile
+ * for every cached Program, and under -trace the traces of the loops of a
+ * cached Program stay compiled from one request to the next.
+ *
+ * usage: InterpreterDaemon [-socket path] [-threads n] [-cache n] [-warmup n]
+ *        [-timeout ms] [-vm|-jvm|-trace] [-O0]
+ *
+ * Without -socket the daemon serves the requests read from standard input
+ * and answers on standard output. With -socket it listens on a Unix-domain
+ * socket created at path and serves every client that connects on a thread
+ * of its own. Scripts run on the bytecode VM in slices, on a Scheduler of n
+ * workers (-threads, by default the number of processors), so a script that
+ * never ends only delays the others by a slice per round, and it is stopped
+ * once it has run for the timeout (-timeout, DEFAULT_TIMEOUT ms unless
+ * given). Only the VM can stop a script between slices, so the tree walker,
+ * -jvm and -trace are used with -timeout 0, which runs every script to
+ * completion, at most n of them at once. Requests are lines:
+ *
+ *     RUN path      run the script at path; .luac files are loaded as
+ *                   precompiled ProgramFiles, cached like sources
+ *     SOURCE n      run the source held by the n bytes after the line
+ *     STATS         report the requests served and their latency
+ *     QUIT          end the session
+ *     SHUTDOWN      end the session and stop the daemon
+ *
+ * What a script prints is streamed back as it is printed, and every
+ * response ends with a line
+ *
+ *     == name: STATUS (t ms)
+ *
+ * followed by a message if the status is not OK, where STATUS is one of
+ * BatchRunner.Status or BAD_REQUEST and t is the latency of the request.
+ * Only printed values, which are numbers, precede it, so a client reads up
+ * to the first line starting with "==".
+ */
+public class InterpreterDaemon
+{
+	/** number of most recent requests latency percentiles are taken over */
+	public static final int LATENCY_WINDOW = 10000;
+	/** default number of milliseconds a script may run */
+	public static final long DEFAULT_TIMEOUT = 10000;
+	private static final String WARMUP_SOURCE = "function a ( )\n\ti = 0\n\ts = 0\n" +
+		"\twhile < i 2000 do\n\t\tt [ i ] = * i i\n\t\tif == - i * / i 2 2 0 then\n" +
+		"\t\t\ts = + s t [ i ]\n\t\telse\n\t\t\ts = - s f ( i )\n\t\tend\n\t\ti = + i 1\n\tend\n" +
+		"\trepeat\n\t\ti = - i 7\n\tuntil < i 0\n\tprint ( s )\nend\n" +
+		"function f ( n )\n\treturn * n 3\nend\n";
+	private final String backend;
+	private final ProgramCache cache;
+	// runs the scripts if they have a deadline, or else null
+	private final Scheduler scheduler;
+	// nanoseconds a script may run, 0 without a deadline
+	private final long timeout;
+	// scripts executing without a deadline
+	private final Semaphore executions;
+	// code compiled for the programs of the cache, dropped with them
+	private final Map<Program, CompiledProgram> compiled =
+		Collections.synchronizedMap(new WeakHashMap<Program, CompiledProgram>());
+	// latencies of the last LATENCY_WINDOW requests, oldest overwritten first
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	private long requests;
+	private volatile boolean stopped;
+
+	/**
+	 * @param backend cannot be null - backend as accepted by Interpreter, ""
+	 *        to walk the tree
+	 * @param optimize whether scripts are optimized before they are executed
+	 * @param capacity > 0 - number of programs kept by the cache
+	 * @param threads > 0 - number of scripts executed at once
+	 * @throws IllegalArgumentException if any argument is invalid
+	 * postcondition: scripts run to completion, however long they take
+	 */
+	public InterpreterDaemon(String backend, boolean optimize, int capacity, int threads)
+	{
+		this(backend, optimize, capacity, threads, 0);
+	}
+
+	/**
+	 * @param backend cannot be null - backend as accepted by Interpreter, ""
+	 *        to walk the tree; "" or "-vm" if timeout is not 0
+	 * @param optimize whether scripts are optimized before they are executed
+	 * @param capacity > 0 - number of programs kept by the cache
+	 * @param threads > 0 - number of scripts executed at once, or of workers
+	 *        they are run on in slices if timeout is not 0
+	 * @param timeout >= 0 - milliseconds a script may run on the bytecode VM
+	 *        before it is stopped, 0 to run scripts to completion on backend
+	 * @throws IllegalArgumentException if any argument is invalid
+	 */
+	public InterpreterDaemon(String backend, boolean optimize, int capacity, int threads, long timeout)
+	{
+		if (backend == null)
+			throw new IllegalArgumentException ("null backend argument");
+		if (threads <= 0)
+			throw new IllegalArgumentException ("invalid thread count argument");
+		if (timeout < 0)
+			throw new IllegalArgumentException ("invalid timeout argument");
+		if (timeout > 0 && !backend.isEmpty() && !backend.equals("-vm"))
+			throw new IllegalArgumentException ("only the bytecode VM stops scripts - use -timeout 0 with " + backend);
+		this.backend = backend;
+		this.cache = new ProgramCache (capacity, program -> new Optimizer (optimize).optimize(program));
+		this.scheduler = timeout > 0 ? new Scheduler (threads, Scheduler.DEFAULT_FUEL) : null;
+		this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+		this.executions = new Semaphore (threads);
+	}
+
+	/**
+	 * @param iterations >= 0 - number of runs of the warm-up script
+	 * postcondition: the warm-up script has been executed iterations times on
+	 *                the backend of the daemon, without being counted as
+	 *                requests
+	 */
+	public void warmUp(int iterations)
+	{
+		Program program;
+		try
+		{
+			program = cache.get(WARMUP_SOURCE.getBytes(StandardCharsets.ISO_8859_1));
+		}
+		catch (ParserException e)
+		{
+			throw new IllegalStateException ("invalid warm-up script", e);
+		}
+		for (int i = 0; i < iterations; i++)
+			execute (program, new ExecutionContext (new MemoryOutputSink())).join();
+	}
+
+	/**
+	 * @param in cannot be null - requests of one client
+	 * @param out cannot be null - where the responses to the client go
+	 * @return whether the client asked the daemon to shut down
+	 * postcondition: the requests of in have been answered on out up to the
+	 *                end of in, QUIT or SHUTDOWN
+	 * @throws IOException if in cannot be read or out cannot be written
+	 * @throws IllegalArgumentException if in or out is null
+	 */
+	public boolean serve(InputStream in, OutputStream out) throws IOException
+	{
+		if (in == null)
+			throw new IllegalArgumentException ("null input stream argument");
+		if (out == null)
+			throw new IllegalArgumentException ("null output stream argument");
+		InputStream input = new BufferedInputStream (in);
+		OutputStream output = new BufferedOutputStream (out, 1 << 16);
+		String line;
+		while ((line = readLine (input)) != null)
+		{
+			line = line.trim();
+			if (line.isEmpty())
+				continue;
+			long start = System.nanoTime();
+			int space = line.indexOf(' ');
+			String request = space < 0 ? line : line.substring(0, space);
+			String argument = space < 0 ? "" : line.substring(space + 1).trim();
+			if (request.equals("RUN") && !argument.isEmpty())
+				run (argument, null, start, output);
+			else if (request.equals("SOURCE") && argument.matches("[0-9]{1,9}"))
+			{
+				int length = Integer.parseInt(argument);
+				byte[] source = input.readNBytes(length);
+				if (source.length < length)
+					break;
+				run ("source", source, start, output);
+			}
+			else if (request.equals("STATS"))
+			{
+				output.write((this + System.lineSeparator() + cache + System.lineSeparator())
+					.getBytes(StandardCharsets.UTF_8));
+				respond (output, "STATS", "OK", null, System.nanoTime() - start);
+			}
+			else if (request.equals("QUIT"))
+				break;
+			else if (request.equals("SHUTDOWN"))
+				return true;
+			else
+				respond (output, request, "BAD_REQUEST", "usage: RUN path | SOURCE n | STATS | QUIT | SHUTDOWN",
+					System.nanoTime() - start);
+		}
+		output.flush();
+		return false;
+	}
+
+	/**
+	 * @param path cannot be null - path of the socket, which must not exist
+	 * postcondition: every client that connected to the socket has been
+	 *                served on a thread of its own until one of them asked
+	 *                the daemon to shut down, and the socket has been removed
+	 * @throws IOException if the socket cannot be created
+	 * @throws IllegalArgumentException if path is null
+	 */
+	public void listen(Path path) throws IOException
+	{
+		if (path == null)
+			throw new IllegalArgumentException ("null path argument");
+		ExecutorService sessions = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread (runnable, "daemon-session");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX))
+		{
+			server.bind(UnixDomainSocketAddress.of(path));
+			while (!stopped)
+			{
+				SocketChannel client;
+				try
+				{
+					client = server.accept();
+				}
+				catch (ClosedChannelException e)
+				{
+					// closed by the session that was asked to shut down
+					break;
+				}
+				sessions.execute(() -> session (client, server));
+			}
+		}
+		finally
+		{
+			sessions.shutdownNow();
+			Files.deleteIfExists(path);
+		}
+	}
+
+	/**
+	 * @return number of requests served
+	 */
+	public synchronized long getRequestCount()
+	{
+		return requests;
+	}
+
+	/**
+	 * @param fraction 0 <= fraction <= 1 - e.g. 0.99 for the 99th percentile
+	 * @return latency in nanoseconds that the given fraction of the last
+	 *         LATENCY_WINDOW requests did not exceed, 0 if none was served
+	 * @throws IllegalArgumentException if fraction is out of range
+	 */
+	public synchronized long getLatencyPercentile(double fraction)
+	{
+		if (!(fraction >= 0 && fraction <= 1))
+			throw new IllegalArgumentException ("invalid fraction argument");
+		int count = (int) Math.min(requests, LATENCY_WINDOW);
+		if (count == 0)
+			return 0;
+		long[] sorted = Arrays.copyOf(latencies, count);
+		Arrays.sort(sorted);
+		return sorted[(int) ((count - 1) * fraction)];
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("daemon: %d requests, latency p50 %.3f ms, p99 %.3f ms", getRequestCount(),
+			getLatencyPercentile(0.5) / 1e6, getLatencyPercentile(0.99) / 1e6);
+	}
+
+	/**
+	 * postcondition: the requests of client have been served, and the daemon
+	 *                stopped if it asked for a shutdown
+	 */
+	private void session(SocketChannel client, ServerSocketChannel server)
+	{
+		try (client)
+		{
+			if (serve (Channels.newInputStream(client), Channels.newOutputStream(client)))
+			{
+				stopped = true;
+				server.close();
+			}
+		}
+		catch (IOException | UncheckedIOException e)
+		{
+			// the client went away
+		}
+	}
+
+	/**
+	 * @param name script path, or the name reported for source
+	 * @param source source of the script, or null to read it from name
+	 * @param start time the request was read at
+	 * postcondition: the script has been executed, its output streamed to
+	 *                output and the response ended
+	 */
+	private void run(String name, byte[] source, long start, OutputStream output) throws IOException
+	{
+		StreamOutputSink sink = new StreamOutputSink (output);
+		BatchRunner.Status status = BatchRunner.Status.OK;
+		String message = null;
+		// scripts with a deadline share the workers of the scheduler instead
+		if (scheduler == null)
+			executions.acquireUninterruptibly();
+		try
+		{
+			Program program;
+			if (source != null)
+				program = cache.get(source);
+			else if (name.endsWith(".luac"))
+				program = cache.load(Paths.get(name));
+			else
+				program = cache.get(name);
+			execute (program, new ExecutionContext (sink)).join();
+		}
+		catch (UncheckedIOException e)
+		{
+			// the output cannot be written, so neither can the response
+			throw e.getCause();
+		}
+		catch (CompletionException e)
+		{
+			// thrown by the script on a worker of the scheduler, or its deadline
+			if (e.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			status = BatchRunner.statusOf (e.getCause());
+			message = BatchRunner.messageOf (e.getCause());
+		}
+		catch (IOException | ParserException | ProgramFormatException | RuntimeException | StackOverflowError e)
+		{
+			status = BatchRunner.statusOf (e);
+			message = BatchRunner.messageOf (e);
+		}
+		finally
+		{
+			if (scheduler == null)
+				executions.release();
+		}
+		try
+		{
+			sink.flush();
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+		long nanos = System.nanoTime() - start;
+		synchronized (this)
+		{
+			latencies[(int) (requests++ % LATENCY_WINDOW)] = nanos;
+		}
+		respond (output, name, status.name(), message, nanos);
+	}
+
+	/**
+	 * @return future completed once program has been executed in context,
+	 *         with the code compiled for it reused, either on the scheduler
+	 *         or already on the backend of the daemon; failed with what the
+	 *         program threw, or a TimeoutException once its deadline passed
+	 */
+	private CompletableFuture<ExecutionContext> execute(Program program, ExecutionContext context)
+	{
+		if (scheduler != null)
+			return scheduler.submit((BytecodeProgram) compile (program), context, timeout);
+		if (backend.equals("-vm") || backend.equals("-jvm"))
+			compile (program).execute(context);
+		else
+			Interpreter.execute (program, backend, context);
+		return CompletableFuture.completedFuture(context);
+	}
+
+	/**
+	 * @return code compiled for program by the compiler of the daemon, the
+	 *         bytecode VM's if scripts have a deadline
+	 */
+	private CompiledProgram compile(Program program)
+	{
+		CompiledProgram code = compiled.get(program);
+		if (code == null)
+		{
+			code = scheduler != null || backend.equals("-vm") ? new BytecodeCompiler().compile(program) :
+				new JvmCompiler().compile(program);
+			compiled.put(program, code);
+		}
+		return code;
+	}
+
+	/**
+	 * postcondition: the line ending a response has been written to output
+	 *                and output flushed
+	 */
+	private static void respond(OutputStream output, String name, String status, String message, long nanos)
+			throws IOException
+	{
+		String line = String.format("== %s: %s (%.3f ms)%n", name, status, nanos / 1e6);
+		if (message != null)
+			line += message + System.lineSeparator();
+		output.write(line.getBytes(StandardCharsets.UTF_8));
+		output.flush();
+	}
+
+	/**
+	 * @return next line of input without its line terminator, or null at
+	 *         the end of input
+	 */
+	private static String readLine(InputStream input) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = input.read()) != '\n')
+		{
+			if (b < 0)
+				return line.size() > 0 ? line.toString(StandardCharsets.UTF_8) : null;
+			if (b != '\r')
+				line.write(b);
+		}
+		return line.toString(StandardCharsets.UTF_8);
+	}
+
+	public static void main(String[] args)
+	{
+		String socket = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int capacity = 1024;
+		int warmup = 200;
+		long timeout = DEFAULT_TIMEOUT;
+		String backend = "";
+		boolean optimize = true;
+		try
+		{
+			for (int i = 0; i < args.length; i++)
+			{
+				if (args[i].equals("-socket") && i + 1 < args.length)
+					socket = args[++i];
+				else if (args[i].equals("-threads") && i + 1 < args.length)
+					threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-cache") && i + 1 < args.length)
+					capacity = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-warmup") && i + 1 < args.length)
+					warmup = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-timeout") && i + 1 < args.length)
+					timeout = Long.parseLong(args[++i]);
+				else if (args[i].equals("-O0"))
+					optimize = false;
+				else if (args[i].equals("-vm") || args[i].equals("-jvm") || args[i].equals("-trace"))
+					backend = args[i];
+				else
+					throw new IllegalArgumentException ("usage: InterpreterDaemon [-socket path] " +
+						"[-threads n] [-cache n] [-warmup n] [-timeout ms] [-vm|-jvm|-trace] [-O0]");
+			}
+			InterpreterDaemon daemon = new InterpreterDaemon (backend, optimize, capacity, threads, timeout);
+			long start = System.nanoTime();
+			daemon.warmUp(Math.max(warmup, 0));
+			System.err.printf("warmed up in %.3f ms%n", (System.nanoTime() - start) / 1e6);
+			if (socket == null)
+				daemon.serve(System.in, System.out);
+			else
+				daemon.listen(Paths.get(socket));
+			System.err.println(daemon);
+		}
+		catch (NumberFormatException e)
+		{
+			System.out.println ("invalid thread count, cache capacity, warm-up count or timeout");
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.out.println (e.getMessage());
+		}
+		catch (IOException e)
+		{
+			System.out.println ("unable to serve: " + e.getMessage());
+		}
+	}
+}
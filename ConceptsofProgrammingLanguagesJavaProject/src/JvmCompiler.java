@@ -0,0 +1,1162 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * JvmCompiler translates a Program into the execute method of a JVM class
+ * implementing CompiledProgram and defines it as a hidden class.
+ *
+ * Every variable the program uses becomes an int local of execute, loaded
+ * from the ExecutionContext on entry and stored back on exit (also when an
+ * exception such as division by zero escapes), so HotSpot can keep them in
+ * registers. Tables stay in the context and every element access fetches
+ * its table from there by slot, which HotSpot inlines to an array load.
+ * The output sink of the context is flushed on both exits.
+ *
+ * Every function of the program becomes a private static method taking the
+ * context, the depth of the call and the arguments and returning an int,
+ * with its parameters and locals in int locals of the method, so a call is
+ * a plain invokestatic and the frames of the calls are the frames of the
+ * JVM. A method checks the depth it is called at against the recursion
+ * limit of the context before anything else.
+ *
+ * The class is written by a minimal class file writer; since all locals
+ * are set before the first branch and the operand stack is empty at every
+ * branch target, every stack map frame of a method is the same full frame.
+ * The hidden class is not strongly linked to its defining loader, so it is
+ * unloaded once the CompiledProgram is no longer reachable.
+ *
+ * compileTrace compiles the Trace a Tracer recorded for a hot loop the same
+ * way, into the run method of a class implementing CompiledTrace: the
+ * statements of the path run one after the other and every guard branches
+ * to a side exit that stores the locals back and returns the index of the
+ * guard. Calls on the path are made through the CallExpression, whose
+ * function the interpreter runs, after the locals have been stored back.
+ */
+public class JvmCompiler
+{
+	private static final int MAGIC = 0xCAFEBABE;
+	private static final int CLASS_VERSION = 52;
+	private static final int ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002, ACC_STATIC = 0x0008,
+		ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+	// constant pool tags
+	private static final int CONSTANT_UTF8 = 1, CONSTANT_INTEGER = 3, CONSTANT_CLASS = 7,
+		CONSTANT_FIELDREF = 9, CONSTANT_METHODREF = 10, CONSTANT_INTERFACE_METHODREF = 11, CONSTANT_NAME_AND_TYPE = 12;
+	// opcodes
+	private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13,
+		ILOAD = 0x15, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, AALOAD = 0x32, ISTORE = 0x36, POP = 0x57, SWAP = 0x5f, IADD = 0x60,
+		ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c, IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1,
+		IF_ICMPGE = 0xa2, IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4, GOTO = 0xa7, IRETURN = 0xac, RETURN = 0xb1,
+		GETFIELD = 0xb4, PUTFIELD = 0xb5, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, INVOKEINTERFACE = 0xb9,
+		ATHROW = 0xbf, WIDE = 0xc4;
+	// stack map verification types
+	private static final int ITEM_INTEGER = 1, ITEM_OBJECT = 7;
+	private static final int FULL_FRAME = 255;
+	private static final String CLASS_NAME = "CompiledLuaProgram";
+	private static final String TRACE_CLASS_NAME = "CompiledLuaTrace";
+	private static final String CALLS_DESCRIPTOR = "[LCallExpression;";
+	private static final String CONTEXT_NAME = "ExecutionContext";
+	private static final String SINK_NAME = "OutputSink";
+	private static final String TABLE_NAME = "IntTable";
+
+	// constant pool
+	private ByteArray pool;
+	private int poolCount;
+	private Map<String, Integer> poolIndexes;
+	// code of the execute method
+	private ByteArray code;
+	private int stackDepth;
+	private int maxStack;
+	private TreeSet<Integer> branchTargets;
+	private int[] locals;
+	private int localCount;
+	// whether a function is being compiled, whose context is local 0 and
+	// depth local 1, rather than execute, whose context is local 1
+	private boolean inFunction;
+	private int thisClass;
+	private int tableCount;
+	// jumps of the return statements of the program, to its exit
+	private List<Integer> exits;
+	// calls of the trace being compiled, in the order of the calls field of
+	// the compiled trace; null unless a trace is being compiled
+	private List<CallExpression> calls;
+
+	/**
+	 * @param program cannot be null
+	 * @return new instance of a hidden class running program
+	 * @throws IllegalArgumentException if program is null, contains a node
+	 *         the compiler does not know or is too large for a JVM method
+	 */
+	public CompiledProgram compile(Program program)
+	{
+		if (program == null)
+			throw new IllegalArgumentException ("null program argument");
+		byte[] classBytes = generate (program);
+		try
+		{
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+			return (CompiledProgram) lookup.findConstructor(lookup.lookupClass(),
+				MethodType.methodType(void.class)).invoke();
+		}
+		catch (RuntimeException | Error e)
+		{
+			throw e;
+		}
+		catch (Throwable e)
+		{
+			throw new IllegalStateException ("unable to define compiled program", e);
+		}
+	}
+
+	/**
+	 * @param program cannot be null
+	 * @return class file bytes of a class implementing CompiledProgram
+	 */
+	public byte[] generate(Program program)
+	{
+		pool = new ByteArray();
+		poolCount = 1;
+		poolIndexes = new HashMap<String, Integer>();
+		thisClass = classRef (CLASS_NAME);
+		int superClass = classRef ("java/lang/Object");
+		int programInterface = classRef ("CompiledProgram");
+		int codeName = utf8 ("Code");
+		int stackMapName = utf8 ("StackMapTable");
+		tableCount = program.getVariableCount();
+		calls = null;
+
+		ByteArray methods = new ByteArray();
+		methods.u2(2 + program.getFunctionCount());
+		writeConstructor (methods, codeName, superClass);
+		writeExecute (methods, program, codeName, stackMapName);
+		for (int i = 0; i < program.getFunctionCount(); i++)
+			writeFunction (methods, program.getFunction(i), codeName, stackMapName);
+		ByteArray fields = new ByteArray();
+		fields.u2(0);
+		return writeClass (superClass, programInterface, fields, methods);
+	}
+
+	/**
+	 * @param trace cannot be null - trace of a while or repeat loop
+	 * @param slotCount number of slots of the frame the loop runs in
+	 * @param tableCount number of slots of the variables of the program
+	 * @return new instance of a hidden class running iterations of the loop
+	 *         along trace
+	 * @throws IllegalArgumentException if trace is null, contains a node the
+	 *         compiler does not know or a return statement, or is too large
+	 *         for a JVM method
+	 */
+	public CompiledTrace compileTrace(Trace trace, int slotCount, int tableCount)
+	{
+		if (trace == null)
+			throw new IllegalArgumentException ("null trace argument");
+		byte[] classBytes = generateTrace (trace, slotCount, tableCount);
+		CallExpression[] callArray = calls.toArray(new CallExpression[calls.size()]);
+		try
+		{
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+			return (CompiledTrace) lookup.findConstructor(lookup.lookupClass(),
+				MethodType.methodType(void.class, CallExpression[].class)).invoke(callArray);
+		}
+		catch (RuntimeException | Error e)
+		{
+			throw e;
+		}
+		catch (Throwable e)
+		{
+			throw new IllegalStateException ("unable to define compiled trace", e);
+		}
+	}
+
+	/**
+	 * @param trace cannot be null - trace of a while or repeat loop
+	 * @param slotCount number of slots of the frame the loop runs in
+	 * @param tableCount number of slots of the variables of the program
+	 * @return class file bytes of a class implementing CompiledTrace, whose
+	 *         constructor takes the calls the trace makes
+	 */
+	public byte[] generateTrace(Trace trace, int slotCount, int tableCount)
+	{
+		pool = new ByteArray();
+		poolCount = 1;
+		poolIndexes = new HashMap<String, Integer>();
+		thisClass = classRef (TRACE_CLASS_NAME);
+		int superClass = classRef ("java/lang/Object");
+		int traceInterface = classRef ("CompiledTrace");
+		int codeName = utf8 ("Code");
+		int stackMapName = utf8 ("StackMapTable");
+		this.tableCount = tableCount;
+		calls = new ArrayList<CallExpression>();
+
+		ByteArray fields = new ByteArray();
+		fields.u2(1);
+		fields.u2(ACC_PRIVATE | ACC_FINAL);
+		fields.u2(utf8 ("calls"));
+		fields.u2(utf8 (CALLS_DESCRIPTOR));
+		fields.u2(0);
+		ByteArray methods = new ByteArray();
+		methods.u2(2);
+		writeTraceConstructor (methods, codeName, superClass);
+		writeRun (methods, trace, slotCount, codeName, stackMapName);
+		return writeClass (superClass, traceInterface, fields, methods);
+	}
+
+	/**
+	 * @param fields field count and fields of the class
+	 * @param methods method count and methods of the class
+	 * @return class file bytes of the class compiled last, implementing
+	 *         interfaceClass
+	 */
+	private byte[] writeClass(int superClass, int interfaceClass, ByteArray fields, ByteArray methods)
+	{
+		ByteArray out = new ByteArray();
+		out.u4(MAGIC);
+		out.u2(0);
+		out.u2(CLASS_VERSION);
+		out.u2(poolCount);
+		out.append(pool);
+		out.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+		out.u2(thisClass);
+		out.u2(superClass);
+		out.u2(1);
+		out.u2(interfaceClass);
+		out.append(fields);
+		out.append(methods);
+		out.u2(0);
+		return out.toByteArray();
+	}
+
+	private void writeConstructor(ByteArray methods, int codeName, int superClass)
+	{
+		methods.u2(ACC_PUBLIC);
+		methods.u2(utf8 ("<init>"));
+		methods.u2(utf8 ("()V"));
+		methods.u2(1);
+		methods.u2(codeName);
+		methods.u4(17);
+		methods.u2(1);
+		methods.u2(1);
+		methods.u4(5);
+		methods.u1(ALOAD_0);
+		methods.u1(INVOKESPECIAL);
+		methods.u2(methodRef (superClass, "<init>", "()V"));
+		methods.u1(RETURN);
+		methods.u2(0);
+		methods.u2(0);
+	}
+
+	/**
+	 * postcondition: a constructor setting the calls field from its argument
+	 *                has been written to methods
+	 */
+	private void writeTraceConstructor(ByteArray methods, int codeName, int superClass)
+	{
+		methods.u2(ACC_PUBLIC);
+		methods.u2(utf8 ("<init>"));
+		methods.u2(utf8 ("(" + CALLS_DESCRIPTOR + ")V"));
+		methods.u2(1);
+		methods.u2(codeName);
+		methods.u4(22);
+		methods.u2(2);
+		methods.u2(2);
+		methods.u4(10);
+		methods.u1(ALOAD_0);
+		methods.u1(INVOKESPECIAL);
+		methods.u2(methodRef (superClass, "<init>", "()V"));
+		methods.u1(ALOAD_0);
+		methods.u1(ALOAD_1);
+		methods.u1(PUTFIELD);
+		methods.u2(fieldRef (thisClass, "calls", CALLS_DESCRIPTOR));
+		methods.u1(RETURN);
+		methods.u2(0);
+		methods.u2(0);
+	}
+
+	private void writeExecute(ByteArray methods, Program program, int codeName, int stackMapName)
+	{
+		code = new ByteArray();
+		stackDepth = 0;
+		maxStack = 0;
+		branchTargets = new TreeSet<Integer>();
+		inFunction = false;
+		exits = new ArrayList<Integer>();
+		locals = new int[program.getVariableCount()];
+		Arrays.fill(locals, -1);
+		// local 0 is this and local 1 the context
+		localCount = 2;
+		collectLocals (program.getBlock());
+
+		emit (ALOAD_1, 1);
+		pushInt (locals.length);
+		invoke (INVOKEVIRTUAL, methodRef (classRef (CONTEXT_NAME), "reserve", "(I)V"), -2);
+		fetchLocals ();
+		int bodyStart = code.length();
+		compileBlock (program.getBlock());
+		int bodyEnd = code.length();
+		for (int exit : exits)
+			patch (exit, bodyEnd);
+		storeLocals ();
+		flushOutput ();
+		emit (RETURN, 0);
+		int handler = code.length();
+		if (bodyEnd > bodyStart)
+		{
+			stackDepth = 1;
+			storeLocals ();
+			flushOutput ();
+			emit (ATHROW, -1);
+		}
+		if (code.length() > 65535)
+			throw new IllegalArgumentException ("program too large for the JVM backend");
+
+		ByteArray frames = new ByteArray();
+		int frameCount = 0;
+		int previous = -1;
+		for (int target : branchTargets)
+		{
+			writeFullFrame (frames, target - previous - 1, 0);
+			previous = target;
+			frameCount++;
+		}
+		if (bodyEnd > bodyStart)
+		{
+			writeFullFrame (frames, handler - previous - 1, classRef ("java/lang/Throwable"));
+			frameCount++;
+		}
+
+		methods.u2(ACC_PUBLIC);
+		methods.u2(utf8 ("execute"));
+		methods.u2(utf8 ("(L" + CONTEXT_NAME + ";)V"));
+		int exceptionTableLength = bodyEnd > bodyStart ? 1 : 0;
+		writeCode (methods, codeName, stackMapName, frames, frameCount, exceptionTableLength == 0 ? null :
+			new int[] {bodyStart, bodyEnd, handler});
+	}
+
+	/**
+	 * postcondition: a run method executing iterations of the loop of trace
+	 *                along its path has been written to methods
+	 * @throws IllegalArgumentException if the trace contains a node the
+	 *         compiler does not know or a return statement, or is too large
+	 *         for a JVM method
+	 */
+	private void writeRun(ByteArray methods, Trace trace, int slotCount, int codeName, int stackMapName)
+	{
+		code = new ByteArray();
+		stackDepth = 0;
+		maxStack = 0;
+		branchTargets = new TreeSet<Integer>();
+		inFunction = false;
+		exits = null;
+		locals = new int[Math.max(slotCount, 0)];
+		Arrays.fill(locals, -1);
+		// local 0 is this and local 1 the context, as in execute
+		localCount = 2;
+		BooleanExpression condition = trace.getLoop() instanceof WhileStatement ?
+			((WhileStatement) trace.getLoop()).getExpr() : ((RepeatStatement) trace.getLoop()).getExpr();
+		for (int i = 0; i < trace.size(); i++)
+			if (trace.isGuard(i))
+				collectLocals (((IfStatement) trace.getStatement(i)).getExpr());
+			else
+				collectStatementLocals (trace.getStatement(i));
+		collectLocals (condition);
+
+		fetchLocals ();
+		int bodyStart = code.length();
+		List<Integer> guards = new ArrayList<Integer>();
+		for (int i = 0; i < trace.size(); i++)
+			if (trace.isGuard(i))
+				guards.add(compileBranch (((IfStatement) trace.getStatement(i)).getExpr(), !trace.isTaken(i)));
+			else
+				compileStatement (trace.getStatement(i));
+		// the next iteration runs the trace again
+		patch (compileBranch (condition, trace.getLoop() instanceof WhileStatement), bodyStart);
+		int bodyEnd = code.length();
+		storeLocals ();
+		pushInt (-1);
+		emit (IRETURN, -1);
+		for (int k = 0; k < guards.size(); k++)
+		{
+			patch (guards.get(k), code.length());
+			storeLocals ();
+			pushInt (k);
+			emit (IRETURN, -1);
+		}
+		int handler = code.length();
+		stackDepth = 1;
+		storeLocals ();
+		emit (ATHROW, -1);
+		if (code.length() > 65535)
+			throw new IllegalArgumentException ("trace too large for the JVM backend");
+
+		ByteArray frames = new ByteArray();
+		int previous = -1;
+		for (int target : branchTargets)
+		{
+			writeFullFrame (frames, target - previous - 1, 0);
+			previous = target;
+		}
+		writeFullFrame (frames, handler - previous - 1, classRef ("java/lang/Throwable"));
+
+		methods.u2(ACC_PUBLIC);
+		methods.u2(utf8 ("run"));
+		methods.u2(utf8 ("(L" + CONTEXT_NAME + ";)I"));
+		writeCode (methods, codeName, stackMapName, frames, branchTargets.size() + 1,
+			new int[] {bodyStart, bodyEnd, handler});
+	}
+
+	/**
+	 * postcondition: a private static method running function, taking the
+	 *                context, the depth of the call and the arguments and
+	 *                returning the value returned, has been written to
+	 *                methods
+	 * @throws IllegalArgumentException if the function contains a node the
+	 *         compiler does not know or is too large for a JVM method
+	 */
+	private void writeFunction(ByteArray methods, Function function, int codeName, int stackMapName)
+	{
+		code = new ByteArray();
+		stackDepth = 0;
+		maxStack = 0;
+		branchTargets = new TreeSet<Integer>();
+		inFunction = true;
+		locals = new int[function.getFrameSize()];
+		Arrays.fill(locals, -1);
+		// local 0 is the context, local 1 the depth and the parameters follow
+		localCount = 2;
+		for (int slot = 0; slot < function.getParameterCount(); slot++)
+			locals[slot] = localCount++;
+		collectLocals (function.getBody());
+
+		loadContext ();
+		loadLocal (1);
+		invoke (INVOKEVIRTUAL, methodRef (classRef (CONTEXT_NAME), "checkCallDepth", "(I)V"), -2);
+		// every other local starts at 0, set before the first branch
+		for (int local = 2 + function.getParameterCount(); local < localCount; local++)
+		{
+			pushInt (0);
+			storeLocal (local);
+		}
+		compileBlock (function.getBody());
+		pushInt (0);
+		emit (IRETURN, -1);
+		if (code.length() > 65535)
+			throw new IllegalArgumentException ("program too large for the JVM backend");
+
+		ByteArray frames = new ByteArray();
+		int previous = -1;
+		for (int target : branchTargets)
+		{
+			writeFullFrame (frames, target - previous - 1, 0);
+			previous = target;
+		}
+		methods.u2(ACC_PRIVATE | ACC_STATIC);
+		methods.u2(utf8 (methodName (function)));
+		methods.u2(utf8 (descriptor (function)));
+		writeCode (methods, codeName, stackMapName, frames, branchTargets.size(), null);
+	}
+
+	private static String methodName(Function function)
+	{
+		return "lua_" + function.getName();
+	}
+
+	private static String descriptor(Function function)
+	{
+		return "(L" + CONTEXT_NAME + ";I" + "I".repeat(function.getParameterCount()) + ")I";
+	}
+
+	/**
+	 * @param handler null, or the start and end of the code covered by a
+	 *        handler catching everything and the start of the handler
+	 * postcondition: the attributes of a method with the code compiled last
+	 *                have been written to methods
+	 */
+	private void writeCode(ByteArray methods, int codeName, int stackMapName, ByteArray frames,
+			int frameCount, int[] handler)
+	{
+		methods.u2(1);
+		methods.u2(codeName);
+		int exceptionTableLength = handler != null ? 1 : 0;
+		int stackMapLength = frameCount > 0 ? 6 + 2 + frames.length() : 0;
+		methods.u4(2 + 2 + 4 + code.length() + 2 + 8 * exceptionTableLength + 2 + stackMapLength);
+		methods.u2(maxStack);
+		methods.u2(localCount);
+		methods.u4(code.length());
+		methods.append(code);
+		methods.u2(exceptionTableLength);
+		if (exceptionTableLength > 0)
+		{
+			methods.u2(handler[0]);
+			methods.u2(handler[1]);
+			methods.u2(handler[2]);
+			methods.u2(0);
+		}
+		if (frameCount > 0)
+		{
+			methods.u2(1);
+			methods.u2(stackMapName);
+			methods.u4(2 + frames.length());
+			methods.u2(frameCount);
+			methods.append(frames);
+		}
+		else
+			methods.u2(0);
+	}
+
+	/**
+	 * postcondition: a full frame with the context, every variable local
+	 *                typed int and an operand stack holding either nothing
+	 *                or one instance of exceptionClass has been written to
+	 *                frames
+	 */
+	private void writeFullFrame(ByteArray frames, int offsetDelta, int exceptionClass)
+	{
+		frames.u1(FULL_FRAME);
+		frames.u2(offsetDelta);
+		frames.u2(localCount);
+		if (!inFunction)
+		{
+			frames.u1(ITEM_OBJECT);
+			frames.u2(thisClass);
+		}
+		frames.u1(ITEM_OBJECT);
+		frames.u2(classRef (CONTEXT_NAME));
+		for (int i = inFunction ? 1 : 2; i < localCount; i++)
+			frames.u1(ITEM_INTEGER);
+		if (exceptionClass == 0)
+			frames.u2(0);
+		else
+		{
+			frames.u2(1);
+			frames.u1(ITEM_OBJECT);
+			frames.u2(exceptionClass);
+		}
+	}
+
+	/**
+	 * postcondition: code flushing the output sink of the context has been
+	 *                emitted
+	 */
+	private void flushOutput()
+	{
+		emit (ALOAD_1, 1);
+		invoke (INVOKEVIRTUAL, methodRef (classRef (CONTEXT_NAME), "getOutput",
+			"()L" + SINK_NAME + ";"), 0);
+		invokeInterface (interfaceMethodRef (classRef (SINK_NAME), "flush", "()V"), 1, -1);
+	}
+
+	/**
+	 * postcondition: code loading every variable local from the context
+	 *                has been emitted
+	 */
+	private void fetchLocals()
+	{
+		int fetch = methodRef (classRef (CONTEXT_NAME), "fetchAt", "(I)I");
+		for (int slot = 0; slot < locals.length; slot++)
+			if (locals[slot] >= 0)
+			{
+				emit (ALOAD_1, 1);
+				pushInt (slot);
+				invoke (INVOKEVIRTUAL, fetch, -1);
+				storeLocal (locals[slot]);
+			}
+	}
+
+	/**
+	 * postcondition: code storing every variable local back into the
+	 *                context has been emitted
+	 */
+	private void storeLocals()
+	{
+		int store = methodRef (classRef (CONTEXT_NAME), "storeAt", "(II)V");
+		for (int slot = 0; slot < locals.length; slot++)
+			if (locals[slot] >= 0)
+			{
+				emit (ALOAD_1, 1);
+				pushInt (slot);
+				loadLocal (locals[slot]);
+				invoke (INVOKEVIRTUAL, store, -3);
+			}
+	}
+
+	private void collectLocals(Block blk)
+	{
+		for (int i = 0; i < blk.size(); i++)
+			collectStatementLocals (blk.getStatement(i));
+	}
+
+	private void collectStatementLocals(Statement stmt)
+	{
+		if (stmt instanceof AssignmentStatement)
+		{
+			collectLocals (((AssignmentStatement) stmt).getVar());
+			collectLocals (((AssignmentStatement) stmt).getExpr());
+		}
+		else if (stmt instanceof IndexAssignmentStatement)
+		{
+			collectLocals (((IndexAssignmentStatement) stmt).getTarget());
+			collectLocals (((IndexAssignmentStatement) stmt).getExpr());
+		}
+		else if (stmt instanceof PrintStatement)
+			collectLocals (((PrintStatement) stmt).getExpr());
+		else if (stmt instanceof ReturnStatement)
+			collectLocals (((ReturnStatement) stmt).getExpr());
+		else if (stmt instanceof CallStatement)
+			collectLocals (((CallStatement) stmt).getCall());
+		else if (stmt instanceof IfStatement)
+		{
+			IfStatement ifStmt = (IfStatement) stmt;
+			collectLocals (ifStmt.getExpr());
+			collectLocals (ifStmt.getBlock1());
+			collectLocals (ifStmt.getBlock2());
+		}
+		else if (stmt instanceof WhileStatement)
+		{
+			collectLocals (((WhileStatement) stmt).getExpr());
+			collectLocals (((WhileStatement) stmt).getBlock());
+		}
+		else if (stmt instanceof RepeatStatement)
+		{
+			collectLocals (((RepeatStatement) stmt).getBlock());
+			collectLocals (((RepeatStatement) stmt).getExpr());
+		}
+	}
+
+	private void collectLocals(BooleanExpression expr)
+	{
+		collectLocals (expr.getExpr1());
+		collectLocals (expr.getExpr2());
+	}
+
+	private void collectLocals(ArithmeticExpression expr)
+	{
+		if (expr instanceof Id)
+			collectLocal (((Id) expr).getSlot());
+		else if (expr instanceof IndexExpression)
+		{
+			checkTable (((IndexExpression) expr).getSlot());
+			collectLocals (((IndexExpression) expr).getIndex());
+		}
+		else if (expr instanceof CallExpression)
+		{
+			CallExpression call = (CallExpression) expr;
+			if (call.size() != call.getFunction().getParameterCount())
+				throw new IllegalArgumentException ("wrong number of arguments to " + call.getFunction().getName());
+			for (int i = 0; i < call.size(); i++)
+				collectLocals (call.getArgument(i));
+		}
+		else if (expr instanceof BinaryExpression)
+		{
+			collectLocals (((BinaryExpression) expr).getExpr1());
+			collectLocals (((BinaryExpression) expr).getExpr2());
+		}
+		else if (expr instanceof PostfixExpression)
+		{
+			PostfixExpression postfix = (PostfixExpression) expr;
+			for (int i = 0; i < postfix.size(); i++)
+				if (postfix.getOpcode(i) == PostfixExpression.VAR)
+					collectLocal (postfix.getOperand(i));
+				else if (postfix.getOpcode(i) == PostfixExpression.ELEMENT)
+					checkTable (postfix.getOperand(i));
+		}
+	}
+
+	/**
+	 * postcondition: the variable in slot has been given a local
+	 * @throws IllegalArgumentException if slot is not in the symbol table
+	 */
+	private void collectLocal(int slot)
+	{
+		checkSlot (slot);
+		if (locals[slot] < 0)
+			locals[slot] = localCount++;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if slot is not in the symbol table
+	 */
+	private void checkSlot(int slot)
+	{
+		if (slot >= locals.length)
+			throw new IllegalArgumentException ("variable slot " + slot + " not in the symbol table");
+	}
+
+	/**
+	 * @throws IllegalArgumentException if slot is not the slot of a variable
+	 *         of the program
+	 */
+	private void checkTable(int slot)
+	{
+		if (slot >= tableCount)
+			throw new IllegalArgumentException ("variable slot " + slot + " not in the symbol table");
+	}
+
+	private void compileBlock(Block blk)
+	{
+		for (int i = 0; i < blk.size(); i++)
+			compileStatement (blk.getStatement(i));
+	}
+
+	private void compileStatement(Statement stmt)
+	{
+		if (stmt instanceof AssignmentStatement)
+		{
+			AssignmentStatement assignment = (AssignmentStatement) stmt;
+			compileExpression (assignment.getExpr());
+			storeLocal (locals[assignment.getVar().getSlot()]);
+		}
+		else if (stmt instanceof IndexAssignmentStatement)
+		{
+			IndexAssignmentStatement assignment = (IndexAssignmentStatement) stmt;
+			loadTable (assignment.getTarget().getSlot());
+			compileExpression (assignment.getTarget().getIndex());
+			compileExpression (assignment.getExpr());
+			invoke (INVOKEVIRTUAL, methodRef (classRef (TABLE_NAME), "set", "(II)V"), -3);
+		}
+		else if (stmt instanceof PrintStatement)
+		{
+			loadContext ();
+			invoke (INVOKEVIRTUAL, methodRef (classRef (CONTEXT_NAME), "getOutput",
+				"()L" + SINK_NAME + ";"), 0);
+			compileExpression (((PrintStatement) stmt).getExpr());
+			invokeInterface (interfaceMethodRef (classRef (SINK_NAME), "printInt", "(I)V"), 2, -2);
+		}
+		else if (stmt instanceof CallStatement)
+		{
+			compileExpression (((CallStatement) stmt).getCall());
+			emit (POP, -1);
+		}
+		else if (stmt instanceof ReturnStatement)
+		{
+			if (calls != null)
+				throw new IllegalArgumentException ("return statement in a trace");
+			compileExpression (((ReturnStatement) stmt).getExpr());
+			if (inFunction)
+				emit (IRETURN, -1);
+			else
+			{
+				// a return in the program ends it
+				emit (POP, -1);
+				exits.add(jump (GOTO, 0));
+			}
+			// the code up to the end of the block is never run, but needs a
+			// frame all the same
+			branchTargets.add(code.length());
+		}
+		else if (stmt instanceof IfStatement)
+		{
+			IfStatement ifStmt = (IfStatement) stmt;
+			int toElse = compileBranch (ifStmt.getExpr(), false);
+			compileBlock (ifStmt.getBlock1());
+			int toEnd = jump (GOTO, 0);
+			patch (toElse, code.length());
+			compileBlock (ifStmt.getBlock2());
+			patch (toEnd, code.length());
+		}
+		else if (stmt instanceof WhileStatement)
+		{
+			WhileStatement whileStmt = (WhileStatement) stmt;
+			int toTest = jump (GOTO, 0);
+			int body = code.length();
+			compileBlock (whileStmt.getBlock());
+			patch (toTest, code.length());
+			patch (compileBranch (whileStmt.getExpr(), true), body);
+		}
+		else if (stmt instanceof RepeatStatement)
+		{
+			RepeatStatement repeatStmt = (RepeatStatement) stmt;
+			int body = code.length();
+			compileBlock (repeatStmt.getBlock());
+			patch (compileBranch (repeatStmt.getExpr(), false), body);
+		}
+		else
+			throw new IllegalArgumentException ("unsupported statement " + stmt.getClass().getName());
+	}
+
+	/**
+	 * @param expr condition to test
+	 * @param jumpIfTrue whether the branch is taken when expr is true or false
+	 * @return offset of the branch instruction, to be patched by the caller
+	 */
+	private int compileBranch(BooleanExpression expr, boolean jumpIfTrue)
+	{
+		compileExpression (expr.getExpr1());
+		compileExpression (expr.getExpr2());
+		int opcode = 0;
+		switch (expr.getOp()) {
+			case EQ_OP:
+				opcode = jumpIfTrue ? IF_ICMPEQ : IF_ICMPNE;
+				break;
+			case NE_OP:
+				opcode = jumpIfTrue ? IF_ICMPNE : IF_ICMPEQ;
+				break;
+			case LT_OP:
+				opcode = jumpIfTrue ? IF_ICMPLT : IF_ICMPGE;
+				break;
+			case LE_OP:
+				opcode = jumpIfTrue ? IF_ICMPLE : IF_ICMPGT;
+				break;
+			case GT_OP:
+				opcode = jumpIfTrue ? IF_ICMPGT : IF_ICMPLE;
+				break;
+			case GE_OP:
+				opcode = jumpIfTrue ? IF_ICMPGE : IF_ICMPLT;
+				break;
+		}
+		return jump (opcode, -2);
+	}
+
+	private void compileExpression(ArithmeticExpression expr)
+	{
+		if (expr instanceof Id)
+			loadLocal (locals[((Id) expr).getSlot()]);
+		else if (expr instanceof LiteralInteger)
+			pushInt (((LiteralInteger) expr).getValue());
+		else if (expr instanceof IndexExpression)
+		{
+			loadTable (((IndexExpression) expr).getSlot());
+			compileExpression (((IndexExpression) expr).getIndex());
+			invoke (INVOKEVIRTUAL, methodRef (classRef (TABLE_NAME), "get", "(I)I"), -1);
+		}
+		else if (expr instanceof CallExpression)
+		{
+			CallExpression call = (CallExpression) expr;
+			if (calls != null)
+			{
+				// the call evaluates its arguments in the frame of the
+				// context, which cannot change the locals of the trace
+				storeLocals ();
+				emit (ALOAD_0, 1);
+				emit (GETFIELD, 0);
+				code.u2(fieldRef (thisClass, "calls", CALLS_DESCRIPTOR));
+				pushInt (calls.size());
+				emit (AALOAD, -1);
+				emit (ALOAD_1, 1);
+				invoke (INVOKEVIRTUAL, methodRef (classRef ("CallExpression"), "evaluate",
+					"(L" + CONTEXT_NAME + ";)I"), -1);
+				calls.add(call);
+				return;
+			}
+			loadContext ();
+			if (inFunction)
+			{
+				loadLocal (1);
+				pushInt (1);
+				emit (IADD, -1);
+			}
+			else
+				pushInt (1);
+			for (int i = 0; i < call.size(); i++)
+				compileExpression (call.getArgument(i));
+			invoke (INVOKESTATIC, methodRef (thisClass, methodName (call.getFunction()),
+				descriptor (call.getFunction())), -1 - call.size());
+		}
+		else if (expr instanceof BinaryExpression)
+		{
+			BinaryExpression binary = (BinaryExpression) expr;
+			compileExpression (binary.getExpr1());
+			compileExpression (binary.getExpr2());
+			switch (binary.getOp()) {
+				case ADD_OP:
+					emit (IADD, -1);
+					break;
+				case SUB_OP:
+					emit (ISUB, -1);
+					break;
+				case MUL_OP:
+					emit (IMUL, -1);
+					break;
+				case DIV_OP:
+					emit (IDIV, -1);
+					break;
+			}
+		}
+		else if (expr instanceof PostfixExpression)
+		{
+			// postfix code maps directly onto the JVM operand stack
+			PostfixExpression postfix = (PostfixExpression) expr;
+			for (int i = 0; i < postfix.size(); i++)
+			{
+				switch (postfix.getOpcode(i)) {
+					case PostfixExpression.VAR:
+						loadLocal (locals[postfix.getOperand(i)]);
+						break;
+					case PostfixExpression.LITERAL:
+						pushInt (postfix.getOperand(i));
+						break;
+					case PostfixExpression.ADD:
+						emit (IADD, -1);
+						break;
+					case PostfixExpression.SUB:
+						emit (ISUB, -1);
+						break;
+					case PostfixExpression.MUL:
+						emit (IMUL, -1);
+						break;
+					case PostfixExpression.DIV:
+						emit (IDIV, -1);
+						break;
+					case PostfixExpression.RSUB:
+						emit (SWAP, 0);
+						emit (ISUB, -1);
+						break;
+					case PostfixExpression.ELEMENT:
+						// the table goes under the key
+						loadTable (postfix.getOperand(i));
+						emit (SWAP, 0);
+						invoke (INVOKEVIRTUAL, methodRef (classRef (TABLE_NAME), "get", "(I)I"), -1);
+						break;
+					default:
+						emit (SWAP, 0);
+						emit (IDIV, -1);
+						break;
+				}
+			}
+		}
+		else
+			throw new IllegalArgumentException ("unsupported expression " + expr.getClass().getName());
+	}
+
+	/**
+	 * postcondition: code pushing the table in slot of the context has been
+	 *                emitted
+	 */
+	private void loadTable(int slot)
+	{
+		loadContext ();
+		pushInt (slot);
+		invoke (INVOKEVIRTUAL, methodRef (classRef (CONTEXT_NAME), "getTable",
+			"(I)L" + TABLE_NAME + ";"), -1);
+	}
+
+	private void loadContext()
+	{
+		emit (inFunction ? ALOAD_0 : ALOAD_1, 1);
+	}
+
+	private void pushInt(int value)
+	{
+		if (value >= -1 && value <= 5)
+			emit (ICONST_0 + value, 1);
+		else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+		{
+			emit (BIPUSH, 1);
+			code.u1(value);
+		}
+		else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+		{
+			emit (SIPUSH, 1);
+			code.u2(value);
+		}
+		else
+		{
+			int index = constant ("I" + value, CONSTANT_INTEGER, value);
+			if (index <= 255)
+			{
+				emit (LDC, 1);
+				code.u1(index);
+			}
+			else
+			{
+				emit (LDC_W, 1);
+				code.u2(index);
+			}
+		}
+	}
+
+	private void loadLocal(int local)
+	{
+		if (local > 255)
+			code.u1(WIDE);
+		emit (ILOAD, 1);
+		localIndex (local);
+	}
+
+	private void storeLocal(int local)
+	{
+		if (local > 255)
+			code.u1(WIDE);
+		emit (ISTORE, -1);
+		localIndex (local);
+	}
+
+	/**
+	 * postcondition: the index of local has been emitted, in two bytes after
+	 *                a WIDE prefix
+	 */
+	private void localIndex(int local)
+	{
+		if (local > 255)
+			code.u2(local);
+		else
+			code.u1(local);
+	}
+
+	private void invoke(int opcode, int methodRef, int stackChange)
+	{
+		emit (opcode, stackChange);
+		code.u2(methodRef);
+	}
+
+	/**
+	 * @param argumentCount number of operand stack slots taken by the
+	 *        arguments, including the receiver
+	 */
+	private void invokeInterface(int methodRef, int argumentCount, int stackChange)
+	{
+		emit (INVOKEINTERFACE, stackChange);
+		code.u2(methodRef);
+		code.u1(argumentCount);
+		code.u1(0);
+	}
+
+	/**
+	 * @return offset of the emitted jump instruction
+	 */
+	private int jump(int opcode, int stackChange)
+	{
+		int offset = code.length();
+		emit (opcode, stackChange);
+		code.u2(0);
+		return offset;
+	}
+
+	/**
+	 * postcondition: the jump instruction at offset continues at target
+	 */
+	private void patch(int offset, int target)
+	{
+		int delta = target - offset;
+		if (delta < Short.MIN_VALUE || delta > Short.MAX_VALUE)
+			throw new IllegalArgumentException ("program too large for the JVM backend");
+		code.set(offset + 1, delta >> 8);
+		code.set(offset + 2, delta);
+		branchTargets.add(target);
+	}
+
+	private void emit(int opcode, int stackChange)
+	{
+		code.u1(opcode);
+		stackDepth += stackChange;
+		maxStack = Math.max(maxStack, stackDepth);
+	}
+
+	private int utf8(String value)
+	{
+		Integer index = poolIndexes.get("U" + value);
+		if (index == null)
+		{
+			pool.u1(CONSTANT_UTF8);
+			pool.utf8(value);
+			index = poolCount++;
+			poolIndexes.put("U" + value, index);
+		}
+		return index;
+	}
+
+	private int classRef(String internalName)
+	{
+		return constant ("C" + internalName, CONSTANT_CLASS, utf8 (internalName));
+	}
+
+	private int fieldRef(int owner, String name, String descriptor)
+	{
+		return memberRef (CONSTANT_FIELDREF, owner, name, descriptor);
+	}
+
+	private int methodRef(int owner, String name, String descriptor)
+	{
+		return memberRef (CONSTANT_METHODREF, owner, name, descriptor);
+	}
+
+	private int interfaceMethodRef(int owner, String name, String descriptor)
+	{
+		return memberRef (CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+	}
+
+	private int memberRef(int tag, int owner, String name, String descriptor)
+	{
+		int nameAndType = constant ("N" + name + ":" + descriptor, CONSTANT_NAME_AND_TYPE,
+			utf8 (name), utf8 (descriptor));
+		return constant ("M" + tag + ":" + owner + ":" + nameAndType, tag, owner, nameAndType);
+	}
+
+	/**
+	 * @param key identifies the constant among all constants of the pool
+	 * @param tag constant pool tag
+	 * @param operands one four byte value for CONSTANT_Integer, otherwise
+	 *        one or two constant pool indexes
+	 * @return index of the constant in the pool
+	 */
+	private int constant(String key, int tag, int... operands)
+	{
+		Integer index = poolIndexes.get(key);
+		if (index == null)
+		{
+			pool.u1(tag);
+			for (int operand : operands)
+				if (tag == CONSTANT_INTEGER)
+					pool.u4(operand);
+				else
+					pool.u2(operand);
+			index = poolCount++;
+			poolIndexes.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * growable big-endian byte array used to assemble the class file
+	 */
+	private static class ByteArray
+	{
+		private byte[] bytes = new byte[256];
+		private int length;
+
+		public int length()
+		{
+			return length;
+		}
+		public void u1(int value)
+		{
+			if (length == bytes.length)
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			bytes[length++] = (byte) value;
+		}
+		public void u2(int value)
+		{
+			u1(value >> 8);
+			u1(value);
+		}
+		public void u4(int value)
+		{
+			u2(value >> 16);
+			u2(value);
+		}
+		public void set(int index, int value)
+		{
+			bytes[index] = (byte) value;
+		}
+		public void utf8(String value)
+		{
+			// constant pool names used here are plain ASCII
+			u2(value.length());
+			for (int i = 0; i < value.length(); i++)
+				u1(value.charAt(i));
+		}
+		public void append(ByteArray other)
+		{
+			for (int i = 0; i < other.length; i++)
+				u1(other.bytes[i]);
+		}
+		public byte[] toByteArray()
+		{
+			return Arrays.copyOf(bytes, length);
+		}
+	}
+}
@@ -1,11 +1,80 @@
-import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
 
+/**
+ * LexicalAnalyzer pulls source lines from a byte channel through a fixed size
+ * buffer and tokenizes them only when the parser asks for the next token, so
+ * memory use does not depend on the length of the source file. Lines are
+ * scanned in a single pass by a table driven DFA over character classes, so
+ * tokens need not be separated by white space. Tokens are kept in a packed
+ * TokenBuffer and only turned into Token objects when a caller asks for one
+ */
 public class LexicalAnalyzer {
-	private List<Token> tokenList;
+	private static final int BUFFER_SIZE = 8192;
+	// character classes
+	private static final int C_WS = 0, C_LETTER = 1, C_DIGIT = 2, C_LT = 3, C_GT = 4,
+		C_EQ = 5, C_TILDE = 6, C_SINGLE = 7, C_OTHER = 8;
+	// scanner states; S_STOP means the current lexeme ends before the character
+	private static final int S_STOP = -1, S_START = 0, S_WORD = 1, S_INT = 2, S_BAD_INT = 3,
+		S_LT = 4, S_LE = 5, S_GT = 6, S_GE = 7, S_ASSIGN = 8, S_EQ = 9, S_TILDE = 10,
+		S_NE = 11, S_SINGLE = 12;
+	/**
+	 * next state indexed by current state and character class, columns in the
+	 * order WS, LETTER, DIGIT, LT, GT, EQ, TILDE, SINGLE, OTHER
+	 */
+	private static final int[][] TRANSITIONS = {
+		/* START  */ {S_STOP, S_WORD, S_INT, S_LT, S_GT, S_ASSIGN, S_TILDE, S_SINGLE, S_STOP},
+		/* WORD   */ {S_STOP, S_WORD, S_WORD, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP},
+		/* INT    */ {S_STOP, S_BAD_INT, S_INT, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP},
+		/* BADINT */ {S_STOP, S_BAD_INT, S_BAD_INT, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP},
+		/* LT     */ {S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_LE, S_STOP, S_STOP, S_STOP},
+		/* LE     */ {S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP},
+		/* GT     */ {S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_GE, S_STOP, S_STOP, S_STOP},
+		/* GE     */ {S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP},
+		/* ASSIGN */ {S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_EQ, S_STOP, S_STOP, S_STOP},
+		/* EQ     */ {S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP},
+		/* TILDE  */ {S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_NE, S_STOP, S_STOP, S_STOP},
+		/* NE     */ {S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP},
+		/* SINGLE */ {S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP, S_STOP}
+	};
+	private static final byte[] CHAR_CLASS = new byte[128];
+	private static final TokenType[] SINGLE_TYPES = new TokenType[128];
+	static {
+		Arrays.fill(CHAR_CLASS, (byte) C_OTHER);
+		for (char ch = 'a'; ch <= 'z'; ch++)
+			CHAR_CLASS[ch] = C_LETTER;
+		for (char ch = 'A'; ch <= 'Z'; ch++)
+			CHAR_CLASS[ch] = C_LETTER;
+		CHAR_CLASS['_'] = C_LETTER;
+		for (char ch = '0'; ch <= '9'; ch++)
+			CHAR_CLASS[ch] = C_DIGIT;
+		for (char ch : new char[] {' ', '\t', '\r', '\f', '\u000B'})
+			CHAR_CLASS[ch] = C_WS;
+		CHAR_CLASS['<'] = C_LT;
+		CHAR_CLASS['>'] = C_GT;
+		CHAR_CLASS['='] = C_EQ;
+		CHAR_CLASS['~'] = C_TILDE;
+		TokenType[] singles = {TokenType.LEFT_PAREN_TOK, TokenType.RIGHT_PAREN_TOK,
+			TokenType.ADD_TOK, TokenType.SUB_TOK, TokenType.MUL_TOK, TokenType.DIV_TOK,
+			TokenType.LEFT_BRACKET_TOK, TokenType.RIGHT_BRACKET_TOK, TokenType.COMMA_TOK};
+		for (TokenType tokType : singles) {
+			char ch = tokType.getLexeme().charAt(0);
+			CHAR_CLASS[ch] = C_SINGLE;
+			SINGLE_TYPES[ch] = tokType;
+		}
+	}
+	private TokenBuffer tokens;
+	private ReadableByteChannel channel;
+	private ByteBuffer buffer;
+	private char[] line;
+	private int lineLength;
+	private int lineNumber;
+	private boolean endOfInput;
+	private int tokenIndex;
 	/**
 	 * @param fileName- cannot be null
 	 * @throws FileNotFoundException
@@ -15,178 +84,367 @@ public class LexicalAnalyzer {
 	public LexicalAnalyzer(String fileName) throws FileNotFoundException, LexicalException {
 		if (fileName == null)
 			throw new IllegalArgumentException ("null file name argument");
-		tokenList = new ArrayList<Token>();
-		Scanner input = new Scanner (new File(fileName));
-		int lineNumber = 0;
-		while (input.hasNext())
+		init (new FileInputStream (fileName).getChannel());
+	}
+
+	/**
+	 * @param channel cannot be null - source to be analyzed, closed once
+	 *        it has been read to the end or the analyzer is closed
+	 * @throws IllegalArgumentException if channel is null
+	 */
+	public LexicalAnalyzer(ReadableByteChannel channel) {
+		if (channel == null)
+			throw new IllegalArgumentException ("null channel argument");
+		init (channel);
+	}
+
+	/**
+	 * @param tokens cannot be null - tokens of a whole source, ending with
+	 *        an EOS_TOK, with the cursor on the first one
+	 * @throws IllegalArgumentException if tokens is null
+	 */
+	public LexicalAnalyzer(TokenBuffer tokens) {
+		if (tokens == null)
+			throw new IllegalArgumentException ("null token buffer argument");
+		this.tokens = tokens;
+		endOfInput = true;
+	}
+
+	private void init(ReadableByteChannel channel) {
+		tokens = new TokenBuffer();
+		this.channel = channel;
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		buffer.flip();
+		line = new char[256];
+		lineNumber = 0;
+		endOfInput = false;
+	}
+
+	/**
+	 * @return token buffer with its cursor on the next token
+	 * @throws LexicalException if there is not another token, the source
+	 *         cannot be read or it contains an invalid lexeme
+	 * the buffer only ever holds the tokens of one line; it is refilled from
+	 * the next line once the parser has consumed all of them
+	 */
+	private TokenBuffer fillTokenBuffer() throws LexicalException {
+		while (!tokens.hasNext() && !endOfInput)
+		{
+			if (readLine())
+			{
+				lineNumber++;
+				tokens.reset(line);
+				processLine (line, 0, lineLength, lineNumber, tokens);
+			}
+			else
+			{
+				endOfInput = true;
+				close();
+				tokens.reset(line);
+				tokens.add(TokenType.EOS_TOK, 0, 0, Math.max(lineNumber, 1), 1);
+			}
+		}
+		if (!tokens.hasNext())
+			throw new LexicalException ("no more tokens");
+		return tokens;
+	}
+
+	/**
+	 * @return whether a line was read into the line buffer
+	 * @throws LexicalException if the source cannot be read
+	 * postcondition: line holds the next source line without its terminator
+	 */
+	private boolean readLine() throws LexicalException {
+		lineLength = 0;
+		boolean readAny = false;
+		while (true)
 		{
-			String line = input.nextLine();
-			lineNumber++;
-			processLine (line, lineNumber);
+			if (!buffer.hasRemaining())
+			{
+				buffer.clear();
+				int count;
+				try
+				{
+					count = channel.read(buffer);
+				}
+				catch (IOException e)
+				{
+					throw new LexicalException ("unable to read source: " + e.getMessage());
+				}
+				buffer.flip();
+				if (count < 0)
+					return readAny;
+			}
+			readAny = true;
+			char ch = (char) (buffer.get() & 0xFF);
+			if (ch == '\n')
+				return true;
+			if (lineLength == line.length)
+				line = Arrays.copyOf(line, line.length * 2);
+			line[lineLength++] = ch;
 		}
-		input.close();
-		tokenList.add(new Token (TokenType.EOS_TOK, "EOS", lineNumber, 1));
 	}
+
 	/**
-	 * @param line cannot be null
+	 * postcondition: the underlying source channel has been closed
+	 */
+	public void close() {
+		if (channel == null)
+			return;
+		try
+		{
+			channel.close();
+		}
+		catch (IOException e)
+		{
+			// nothing useful can be done if closing a read-only source fails
+		}
+	}
+
+	/**
+	 * @param chars cannot be null
+	 * @param start index in chars of the first character of the line
+	 * @param end index in chars just past the last character of the line
 	 * @param lineNumber > 0
-	 * @throws LexicalException 
-	 * @throws IllegalArgumentException if line is null or lineNumber <= 0
+	 * @param tokens cannot be null - buffer whose source is chars
+	 * @throws LexicalException if the line contains an invalid lexeme
+	 * @throws IllegalArgumentException if chars or tokens is null or lineNumber <= 0
 	 * postcondition: source code line has been processed with all tokens
-	 * 				  placed in the token list
+	 * 				  appended to tokens, their offsets indexing chars and their
+	 * 				  columns counted from start
 	 */
-	private void processLine(String line, int lineNumber) throws LexicalException {
-		if (line == null)
+	static void processLine(char[] chars, int start, int end, int lineNumber, TokenBuffer tokens)
+			throws LexicalException {
+		if (chars == null)
 			throw new IllegalArgumentException ("null line argument");
+		if (tokens == null)
+			throw new IllegalArgumentException ("null token buffer argument");
 		if (lineNumber <= 0)
 			throw new IllegalArgumentException ("invalid line number argument");
-		int index = skipWhiteSpace(line, 0);
-		while (index < line.length()) {
-			String lexeme = getLexeme (line, index);
-			TokenType tokType = getTokenType (lexeme, lineNumber, index + 1);
-			tokenList.add(new Token (tokType, lexeme, lineNumber, index + 1));
-			index += lexeme.length();
-			index = skipWhiteSpace(line, index);
-		}		
-	}
-
-	/**
-	 * @param lexeme cannot be null & cannot be empty
-	 * @return type of token representing lexeme
-	 * @throws IllegalArgumentException if lexeme is null
-	 * @throws LexicalException if lexeme is not a valid representation
-	 *         of a token
-	 */
-	private TokenType getTokenType(String lexeme, int rowNumber, int columnNumber) throws LexicalException {
-		if (lexeme == null || lexeme.length() == 0)
-			throw new IllegalArgumentException ("invalid string argument");
-		TokenType tokType = TokenType.EOS_TOK;
-		if (Character.isDigit(lexeme.charAt(0)))
-			if (allDigits (lexeme))
+		int index = skipWhiteSpace(chars, end, start);
+		while (index < end) {
+			int state = S_START;
+			int i = index;
+			while (i < end) {
+				int next = TRANSITIONS[state][classOf(chars[i])];
+				if (next == S_STOP)
+					break;
+				state = next;
+				i++;
+			}
+			int column = index - start + 1;
+			TokenType tokType = getTokenType (state, chars, index, i - index, lineNumber, column);
+			tokens.add(tokType, index, i - index, lineNumber, column);
+			index = skipWhiteSpace(chars, end, i);
+		}
+	}
+
+	/**
+	 * @param state state the scanner stopped in
+	 * @param chars cannot be null
+	 * @param start index of the first character of the lexeme
+	 * @param length length of the lexeme
+	 * @return type of token representing the lexeme
+	 * @throws LexicalException if state is not an accepting state or the
+	 *         lexeme is not a valid representation of a token
+	 */
+	private static TokenType getTokenType(int state, char[] chars, int start, int length,
+			int rowNumber, int columnNumber) throws LexicalException {
+		TokenType tokType;
+		switch (state) {
+			case S_WORD:
+				tokType = getWordType (chars, start, length);
+				break;
+			case S_INT:
 				tokType = TokenType.LITERAL_INTEGER_TOK;
-			else	
+				break;
+			case S_BAD_INT:
 				throw new LexicalException ("literal integer expecated "+ " at row " +
 					rowNumber  + " and column " + columnNumber);
-		else if (Character.isLetter(lexeme.charAt(0)))
-		{
-			if (lexeme.length() == 1)
-				tokType = TokenType.ID_TOK;
-			else if (lexeme.equals("if"))
-				tokType = TokenType.IF_TOK;
-			else if (lexeme.equals("function"))
-				tokType = TokenType.FUNCTION_TOK;
-			else if (lexeme.equals("then"))
-				tokType = TokenType.THEN_TOK;
-			else if (lexeme.equals("end"))
-				tokType = TokenType.END_TOK;
-			else if (lexeme.equals("else"))
-				tokType = TokenType.ELSE_TOK;
-			else if (lexeme.equals("while"))
-				tokType = TokenType.WHILE_TOK;
-			else if (lexeme.equals("do"))
-				tokType = TokenType.DO_TOK;
-			else if (lexeme.equals("print"))
-				tokType = TokenType.PRINT_TOK;
-			else if (lexeme.equals("repeat"))
-				tokType = TokenType.REPEAT_TOK;
-			else if (lexeme.equals("until"))
-				tokType = TokenType.UNTIL_TOK;
-			else
+			case S_SINGLE:
+				tokType = SINGLE_TYPES[chars[start]];
+				break;
+			case S_LT:
+				tokType = TokenType.LT_TOK;
+				break;
+			case S_LE:
+				tokType = TokenType.LE_TOK;
+				break;
+			case S_GT:
+				tokType = TokenType.GT_TOK;
+				break;
+			case S_GE:
+				tokType = TokenType.GE_TOK;
+				break;
+			case S_ASSIGN:
+				tokType = TokenType.ASSIGN_TOK;
+				break;
+			case S_EQ:
+				tokType = TokenType.EQ_TOK;
+				break;
+			case S_NE:
+				tokType = TokenType.NE_TOK;
+				break;
+			default:
 				throw new LexicalException ("invalid lexeme "+ " at row " +
 					rowNumber  + " and column " + columnNumber);
 		}
-		else if (lexeme.equals("("))
-			tokType = TokenType.LEFT_PAREN_TOK;
-		else if (lexeme.equals(")"))
-			tokType = TokenType.RIGHT_PAREN_TOK;
-		else if (lexeme.equals(">="))
-			tokType = TokenType.GE_TOK;
-		else if (lexeme.equals(">"))
-			tokType = TokenType.GT_TOK;
-		else if (lexeme.equals("<="))
-			tokType = TokenType.LE_TOK;
-		else if (lexeme.equals("<"))
-			tokType = TokenType.LT_TOK;
-		else if (lexeme.equals("=="))
-			tokType = TokenType.EQ_TOK;
-		else if (lexeme.equals("~="))
-			tokType = TokenType.NE_TOK;
-		else if (lexeme.equals("+"))
-			tokType = TokenType.ADD_TOK;
-		else if (lexeme.equals("-"))
-			tokType = TokenType.SUB_TOK;
-		else if (lexeme.equals("*"))
-			tokType = TokenType.MUL_TOK;
-		else if (lexeme.equals("/"))
-			tokType = TokenType.DIV_TOK;
-		else if (lexeme.equals ("="))
-			tokType = TokenType.ASSIGN_TOK;
-		else
-			throw new LexicalException ("invalid lexeme "+ " at row " +
-					rowNumber  + " and column " + columnNumber);			
 		return tokType;
 	}
 
 	/**
-	 * @param lexeme cannot be null
-	 * @return whether all characters in lexeme are digits
-	 * @throws IllegalArgumertException if lexeme is null
+	 * @param chars cannot be null
+	 * @param start index of the first character of the word
+	 * @param length length of the word, > 0
+	 * @return the keyword spelled by the word, or ID_TOK if it is not a
+	 *         keyword
+	 * keywords are told apart by length and first character alone, and
+	 * return from repeat by the third, so at most one candidate is compared
+	 * against the source characters
+	 */
+	private static TokenType getWordType(char[] chars, int start, int length) {
+		TokenType candidate = null;
+		char first = chars[start];
+		switch (length) {
+			case 1:
+				return TokenType.ID_TOK;
+			case 2:
+				candidate = first == 'i' ? TokenType.IF_TOK : TokenType.DO_TOK;
+				break;
+			case 3:
+				candidate = TokenType.END_TOK;
+				break;
+			case 4:
+				candidate = first == 't' ? TokenType.THEN_TOK : TokenType.ELSE_TOK;
+				break;
+			case 5:
+				if (first == 'w')
+					candidate = TokenType.WHILE_TOK;
+				else if (first == 'p')
+					candidate = TokenType.PRINT_TOK;
+				else
+					candidate = TokenType.UNTIL_TOK;
+				break;
+			case 6:
+				if (chars[start + 2] == 't')
+					candidate = TokenType.RETURN_TOK;
+				else
+					candidate = TokenType.REPEAT_TOK;
+				break;
+			case 8:
+				candidate = TokenType.FUNCTION_TOK;
+				break;
+		}
+		if (candidate == null || !spells (chars, start, candidate.getLexeme()))
+			return TokenType.ID_TOK;
+		return candidate;
+	}
+
+	/**
+	 * @return whether the characters of chars starting at start spell word
 	 */
-	private boolean allDigits(String lexeme) {
-		if (lexeme == null)
-			throw new IllegalArgumentException ("null string argument");
-		int i = 0;
-		while (i < lexeme.length() && Character.isDigit(lexeme.charAt(i)))
-			i++;
-		return i == lexeme.length();
+	private static boolean spells(char[] chars, int start, String word) {
+		for (int i = 0; i < word.length(); i++)
+			if (chars[start + i] != word.charAt(i))
+				return false;
+		return true;
 	}
 
 	/**
-	 * @param line - cannot be null
-	 * @param index >= 0
-	 * @return next lexeme
-	 * @throws IllegalArgumentExceptio if line is null or line < 0
+	 * @return character class of ch used to index the transition table
 	 */
-	private String getLexeme(String line, int index) {
-		if (line == null)
-			throw new IllegalArgumentException ("null string argument");
-		if (index < 0)
-			throw new IllegalArgumentException ("invalid index argument");
-		int i = index;
-		while (i < line.length() && !Character.isWhitespace(line.charAt(i)))
-			i++;
-		return line.substring(index, i);
+	private static int classOf(char ch) {
+		return ch < CHAR_CLASS.length ? CHAR_CLASS[ch] : C_OTHER;
 	}
 
 	/**
-	 * @param line
+	 * @param chars
+	 * @param length
 	 * @param index
 	 * @return index of the first non white space character following position index
 	 */
-	private int skipWhiteSpace(String line, int index) {
-		while (index < line.length() && Character.isWhitespace(line.charAt(index)))
+	private static int skipWhiteSpace(char[] chars, int length, int index) {
+		while (index < length && classOf(chars[index]) == C_WS)
 			index++;
 		return index;
 	}
 
 	/**
-	 * @return copy of the next token
+	 * @return type of the next token
+	 * @throws LexicalException if there is not another token
+	 */
+	public TokenType getLookaheadType() throws LexicalException {
+		return fillTokenBuffer().getType();
+	}
+
+	/**
+	 * @return row number of the next token
+	 * @throws LexicalException if there is not another token
+	 */
+	public int getLookaheadRowNumber() throws LexicalException {
+		return fillTokenBuffer().getRowNumber();
+	}
+
+	/**
+	 * @return column number of the next token
+	 * @throws LexicalException if there is not another token
+	 */
+	public int getLookaheadColumnNumber() throws LexicalException {
+		return fillTokenBuffer().getColumnNumber();
+	}
+
+	/**
+	 * @param symbols cannot be null - table the name is interned in
+	 * @return slot of the name of the next token, which must be an identifier
+	 * @throws LexicalException if there is not another token
+	 */
+	public int getLookaheadSlot(SymbolTable symbols) throws LexicalException {
+		return fillTokenBuffer().intern(symbols);
+	}
+
+	/**
+	 * @return value of the next token, which must be a literal integer
+	 * @throws LexicalException if there is not another token
+	 * @throws NumberFormatException if the literal does not fit in an int
+	 */
+	public int getLookaheadIntValue() throws LexicalException {
+		return fillTokenBuffer().getIntValue();
+	}
+
+	/**
+	 * @throws LexicalException if there is not another token
+	 * postcondition: the next token has been consumed
+	 */
+	public void skipToken() throws LexicalException {
+		fillTokenBuffer().advance();
+		tokenIndex++;
+	}
+
+	/**
+	 * @return copy of the next token, built on demand
 	 * @throws LexicalException if there is not another token
 	 */
 	public Token getLookaheadToken() throws LexicalException {
-		if (tokenList.isEmpty())
-			throw new LexicalException ("no more tokens");
-		return tokenList.get(0);
+		return fillTokenBuffer().getToken();
 	}
 
 	/**
-	 * @return next token (token is removed)
+	 * @return next token, built on demand (token is removed)
 	 * @throws LexicalException if there is not another token
 	 */
 	public Token getNextToken() throws LexicalException {
-		if (tokenList.isEmpty())
-			throw new LexicalException ("no more tokens");
-		return tokenList.remove(0);
+		TokenBuffer pending = fillTokenBuffer();
+		Token tok = pending.getToken();
+		pending.advance();
+		tokenIndex++;
+		return tok;
+	}
+
+	/**
+	 * @return number of tokens consumed so far
+	 */
+	public int getTokenIndex() {
+		return tokenIndex;
 	}
 
 }
@@ -6,8 +6,12 @@ public class LiteralInteger implements ArithmeticExpression
 	{
 		this.value = value;
 	}
+	public int getValue()
+	{
+		return value;
+	}
 	@Override
-	public int evaluate()
+	public int evaluate(ExecutionContext context)
 	{
 		return value;
 	}
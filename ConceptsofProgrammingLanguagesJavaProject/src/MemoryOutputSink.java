@@ -0,0 +1,43 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * MemoryOutputSink keeps everything printed to it in a growable buffer, for
+ * callers that capture the output of a program, e.g. BatchRunner.
+ */
+public class MemoryOutputSink extends ByteOutputSink
+{
+	public MemoryOutputSink()
+	{
+		super(256);
+	}
+
+	@Override
+	protected void overflow()
+	{
+		buffer = Arrays.copyOf(buffer, buffer.length * 2);
+	}
+
+	@Override
+	public void flush()
+	{
+		// the output stays in memory
+	}
+
+	/**
+	 * @return copy of everything printed so far
+	 */
+	public byte[] toByteArray()
+	{
+		return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * @return everything printed so far
+	 */
+	@Override
+	public String toString()
+	{
+		return new String (buffer, 0, length, StandardCharsets.US_ASCII);
+	}
+}
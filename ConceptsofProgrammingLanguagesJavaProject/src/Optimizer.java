@@ -0,0 +1,475 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optimizer rewrites a parsed Program before it is executed: arithmetic and
+ * boolean expressions whose operands are all literals are folded, if
+ * statements with a constant condition are replaced by the taken block,
+ * while loops whose condition is constant false are dropped and repeat loops
+ * whose condition is constant true are replaced by their body. Loops that
+ * only step an induction variable towards a bound are replaced by a
+ * CountedLoopStatement, which computes the final value in closed form.
+ *
+ * A division whose divisor folds to zero is left in place so that it still
+ * fails at run time. Nodes that do not change are shared with the original
+ * program rather than copied. The bodies of the functions of a program are
+ * optimized too; since a call holds the Function it calls, every function is
+ * then rebuilt, and every call with it.
+ */
+public class Optimizer
+{
+	private boolean enabled;
+	private int nodesRemoved;
+	private int expressionsFolded;
+	private int branchesEliminated;
+	private int loopsEliminated;
+	private int loopsCounted;
+	// context folded expressions are evaluated in; they read no variables
+	private final ExecutionContext constants = new ExecutionContext();
+	// positions of the program being optimized, or null if not tracked
+	private SourceMap sourceMap;
+	// function of the optimized program for each function of the program
+	// being optimized
+	private Map<Function, Function> functions = new HashMap<Function, Function>();
+
+	/**
+	 * @param enabled whether optimize rewrites programs or returns them unchanged
+	 */
+	public Optimizer(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * @param program cannot be null
+	 * @return program equivalent to program, optimized if the optimizer is enabled
+	 * @throws IllegalArgumentException if program is null
+	 */
+	public Program optimize(Program program)
+	{
+		if (program == null)
+			throw new IllegalArgumentException ("null program argument");
+		if (!enabled)
+			return program;
+		if (program.getFunctionCount() > 0)
+			return optimizeFunctions (program);
+		Block blk = optimizeBlock (program.getBlock());
+		if (blk == program.getBlock())
+			return program;
+		nodesRemoved += countNodes (program.getBlock()) - countNodes (blk);
+		return new Program (blk, program.getSymbols());
+	}
+
+	/**
+	 * @return program with its block and the bodies of its functions
+	 *         optimized, calling the rebuilt functions
+	 */
+	private Program optimizeFunctions(Program program)
+	{
+		List<Function> optimized = new ArrayList<Function>();
+		for (int i = 0; i < program.getFunctionCount(); i++)
+		{
+			Function function = program.getFunction(i);
+			functions.put(function, new Function (function.getName()));
+		}
+		try
+		{
+			Block blk = optimizeBlock (program.getBlock());
+			nodesRemoved += countNodes (program.getBlock()) - countNodes (blk);
+			for (int i = 0; i < program.getFunctionCount(); i++)
+			{
+				Function function = program.getFunction(i);
+				Block body = optimizeBlock (function.getBody());
+				nodesRemoved += countNodes (function.getBody()) - countNodes (body);
+				Function rebuilt = functions.get(function);
+				rebuilt.define(function.getParameterCount(), function.getLocals(), body);
+				optimized.add(rebuilt);
+			}
+			return new Program (blk, program.getSymbols(), optimized);
+		}
+		finally
+		{
+			functions.clear();
+		}
+	}
+
+	/**
+	 * @param program cannot be null
+	 * @param sourceMap positions of the statements of program, or null
+	 * @return program equivalent to program, optimized if the optimizer is enabled
+	 * @throws IllegalArgumentException if program is null
+	 * postcondition: every statement rebuilt from a statement in sourceMap
+	 *                has been recorded at the same position
+	 */
+	public Program optimize(Program program, SourceMap sourceMap)
+	{
+		this.sourceMap = sourceMap;
+		try
+		{
+			return optimize(program);
+		}
+		finally
+		{
+			this.sourceMap = null;
+		}
+	}
+
+	/**
+	 * @return total number of AST nodes removed by all calls to optimize
+	 */
+	public int getNodesRemoved()
+	{
+		return nodesRemoved;
+	}
+
+	/**
+	 * @return number of binary and boolean expressions replaced by a constant
+	 */
+	public int getExpressionsFolded()
+	{
+		return expressionsFolded;
+	}
+
+	/**
+	 * @return number of if statements replaced by the block they always take
+	 */
+	public int getBranchesEliminated()
+	{
+		return branchesEliminated;
+	}
+
+	/**
+	 * @return number of while loops that never run and repeat loops that run
+	 *         exactly once which have been removed
+	 */
+	public int getLoopsEliminated()
+	{
+		return loopsEliminated;
+	}
+
+	/**
+	 * @return number of loops replaced by a CountedLoopStatement
+	 */
+	public int getLoopsCounted()
+	{
+		return loopsCounted;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "optimizer: " + nodesRemoved + " nodes removed, " + expressionsFolded +
+			" expressions folded, " + branchesEliminated + " branches and " +
+			loopsEliminated + " loops eliminated, " + loopsCounted + " loops counted";
+	}
+
+	/**
+	 * @return optimized block, or blk itself if nothing in it changed
+	 */
+	private Block optimizeBlock(Block blk)
+	{
+		List<Statement> stmts = new ArrayList<Statement>();
+		boolean changed = false;
+		for (int i = 0; i < blk.size(); i++)
+			if (optimizeStatement (blk.getStatement(i), stmts))
+				changed = true;
+		return changed ? new Block (stmts) : blk;
+	}
+
+	/**
+	 * @param stmt statement to optimize
+	 * @param stmts list the optimized form of stmt, which may be any number
+	 *        of statements, is appended to
+	 * @return whether the optimized form differs from stmt
+	 */
+	private boolean optimizeStatement(Statement stmt, List<Statement> stmts)
+	{
+		if (stmt instanceof AssignmentStatement)
+		{
+			AssignmentStatement assignment = (AssignmentStatement) stmt;
+			ArithmeticExpression expr = fold (assignment.getExpr());
+			if (expr == assignment.getExpr())
+				stmts.add(stmt);
+			else
+				stmts.add(rebuilt (stmt, new AssignmentStatement (assignment.getVar(), expr)));
+			return expr != assignment.getExpr();
+		}
+		if (stmt instanceof IndexAssignmentStatement)
+		{
+			IndexAssignmentStatement assignment = (IndexAssignmentStatement) stmt;
+			IndexExpression target = (IndexExpression) fold (assignment.getTarget());
+			ArithmeticExpression expr = fold (assignment.getExpr());
+			boolean changed = target != assignment.getTarget() || expr != assignment.getExpr();
+			stmts.add(changed ? rebuilt (stmt, new IndexAssignmentStatement (target, expr)) : stmt);
+			return changed;
+		}
+		if (stmt instanceof PrintStatement)
+		{
+			PrintStatement print = (PrintStatement) stmt;
+			ArithmeticExpression expr = fold (print.getExpr());
+			stmts.add(expr == print.getExpr() ? stmt : rebuilt (stmt, new PrintStatement (expr)));
+			return expr != print.getExpr();
+		}
+		if (stmt instanceof ReturnStatement)
+		{
+			ReturnStatement returnStmt = (ReturnStatement) stmt;
+			ArithmeticExpression expr = fold (returnStmt.getExpr());
+			stmts.add(expr == returnStmt.getExpr() ? stmt : rebuilt (stmt, new ReturnStatement (expr)));
+			return expr != returnStmt.getExpr();
+		}
+		if (stmt instanceof CallStatement)
+		{
+			CallStatement callStmt = (CallStatement) stmt;
+			ArithmeticExpression call = fold (callStmt.getCall());
+			stmts.add(call == callStmt.getCall() ? stmt : rebuilt (stmt, new CallStatement ((CallExpression) call)));
+			return call != callStmt.getCall();
+		}
+		if (stmt instanceof IfStatement)
+		{
+			IfStatement ifStmt = (IfStatement) stmt;
+			BooleanExpression expr = fold (ifStmt.getExpr());
+			if (isConstant (expr))
+			{
+				expressionsFolded++;
+				branchesEliminated++;
+				Block taken = optimizeBlock (expr.evaluate(constants) ? ifStmt.getBlock1() : ifStmt.getBlock2());
+				for (int i = 0; i < taken.size(); i++)
+					stmts.add(taken.getStatement(i));
+				return true;
+			}
+			Block blk1 = optimizeBlock (ifStmt.getBlock1());
+			Block blk2 = optimizeBlock (ifStmt.getBlock2());
+			boolean changed = expr != ifStmt.getExpr() || blk1 != ifStmt.getBlock1() ||
+				blk2 != ifStmt.getBlock2();
+			stmts.add(changed ? rebuilt (stmt, new IfStatement (expr, blk1, blk2)) : stmt);
+			return changed;
+		}
+		if (stmt instanceof WhileStatement)
+		{
+			WhileStatement whileStmt = (WhileStatement) stmt;
+			BooleanExpression expr = fold (whileStmt.getExpr());
+			if (isConstant (expr) && !expr.evaluate(constants))
+			{
+				expressionsFolded++;
+				loopsEliminated++;
+				return true;
+			}
+			Block blk = optimizeBlock (whileStmt.getBlock());
+			boolean changed = expr != whileStmt.getExpr() || blk != whileStmt.getBlock();
+			if (!changed && stmt instanceof CountedLoopStatement)
+			{
+				stmts.add(stmt);
+				return false;
+			}
+			CountedLoopStatement counted = CountedLoopStatement.recognize(expr, blk);
+			if (counted != null)
+			{
+				loopsCounted++;
+				stmts.add(rebuilt (stmt, counted));
+				return true;
+			}
+			stmts.add(changed ? rebuilt (stmt, new WhileStatement (expr, blk)) : stmt);
+			return changed;
+		}
+		if (stmt instanceof RepeatStatement)
+		{
+			RepeatStatement repeatStmt = (RepeatStatement) stmt;
+			Block blk = optimizeBlock (repeatStmt.getBlock());
+			BooleanExpression expr = fold (repeatStmt.getExpr());
+			if (isConstant (expr) && expr.evaluate(constants))
+			{
+				expressionsFolded++;
+				loopsEliminated++;
+				for (int i = 0; i < blk.size(); i++)
+					stmts.add(blk.getStatement(i));
+				return true;
+			}
+			// repeat blk until expr runs blk once, then loops while not expr
+			CountedLoopStatement counted = CountedLoopStatement.recognize(negate (expr), blk);
+			if (counted != null)
+			{
+				loopsCounted++;
+				stmts.add(blk.getStatement(0));
+				stmts.add(rebuilt (stmt, counted));
+				return true;
+			}
+			boolean changed = expr != repeatStmt.getExpr() || blk != repeatStmt.getBlock();
+			stmts.add(changed ? rebuilt (stmt, new RepeatStatement (blk, expr)) : stmt);
+			return changed;
+		}
+		stmts.add(stmt);
+		return false;
+	}
+
+	/**
+	 * @return replacement, recorded at the position of stmt if it is known
+	 */
+	private Statement rebuilt(Statement stmt, Statement replacement)
+	{
+		if (sourceMap != null && sourceMap.contains(stmt))
+			sourceMap.put(replacement, sourceMap.getRowNumber(stmt), sourceMap.getColumnNumber(stmt));
+		return replacement;
+	}
+
+	/**
+	 * @return expr with its operands folded, or expr itself if they did not change
+	 */
+	private BooleanExpression fold(BooleanExpression expr)
+	{
+		ArithmeticExpression expr1 = fold (expr.getExpr1());
+		ArithmeticExpression expr2 = fold (expr.getExpr2());
+		if (expr1 == expr.getExpr1() && expr2 == expr.getExpr2())
+			return expr;
+		return BooleanExpression.create (expr.getOp(), expr1, expr2);
+	}
+
+	/**
+	 * @return condition that holds exactly when expr does not
+	 */
+	private static BooleanExpression negate(BooleanExpression expr)
+	{
+		BooleanExpression.RelationalOperator op = null;
+		switch (expr.getOp()) {
+			case EQ_OP:
+				op = BooleanExpression.RelationalOperator.NE_OP;
+				break;
+			case NE_OP:
+				op = BooleanExpression.RelationalOperator.EQ_OP;
+				break;
+			case LT_OP:
+				op = BooleanExpression.RelationalOperator.GE_OP;
+				break;
+			case LE_OP:
+				op = BooleanExpression.RelationalOperator.GT_OP;
+				break;
+			case GT_OP:
+				op = BooleanExpression.RelationalOperator.LE_OP;
+				break;
+			case GE_OP:
+				op = BooleanExpression.RelationalOperator.LT_OP;
+				break;
+		}
+		return BooleanExpression.create (op, expr.getExpr1(), expr.getExpr2());
+	}
+
+	/**
+	 * @return whether expr compares two literals, so that evaluating it does
+	 *         not depend on the variables
+	 */
+	private static boolean isConstant(BooleanExpression expr)
+	{
+		return expr.getExpr1() instanceof LiteralInteger && expr.getExpr2() instanceof LiteralInteger;
+	}
+
+	/**
+	 * @return expr with every constant subexpression replaced by a literal,
+	 *         or expr itself if nothing could be folded
+	 */
+	private ArithmeticExpression fold(ArithmeticExpression expr)
+	{
+		if (expr instanceof IndexExpression)
+		{
+			IndexExpression element = (IndexExpression) expr;
+			ArithmeticExpression index = fold (element.getIndex());
+			if (index == element.getIndex())
+				return expr;
+			return new IndexExpression (element.getName(), element.getSlot(), index);
+		}
+		if (expr instanceof CallExpression)
+		{
+			CallExpression call = (CallExpression) expr;
+			Function function = functions.getOrDefault(call.getFunction(), call.getFunction());
+			boolean changed = function != call.getFunction();
+			ArithmeticExpression[] args = new ArithmeticExpression[call.size()];
+			for (int i = 0; i < args.length; i++)
+			{
+				args[i] = fold (call.getArgument(i));
+				changed |= args[i] != call.getArgument(i);
+			}
+			return changed ? new CallExpression (function, args) : expr;
+		}
+		if (!(expr instanceof BinaryExpression))
+			return expr;
+		BinaryExpression binary = (BinaryExpression) expr;
+		ArithmeticExpression expr1 = fold (binary.getExpr1());
+		ArithmeticExpression expr2 = fold (binary.getExpr2());
+		if (expr1 instanceof LiteralInteger && expr2 instanceof LiteralInteger &&
+			!(binary.getOp() == BinaryExpression.ArithmeticOperator.DIV_OP &&
+				((LiteralInteger) expr2).getValue() == 0))
+		{
+			expressionsFolded++;
+			return new LiteralInteger (BinaryExpression.create (binary.getOp(), expr1, expr2).evaluate(constants));
+		}
+		if (expr1 == binary.getExpr1() && expr2 == binary.getExpr2())
+			return expr;
+		return BinaryExpression.create (binary.getOp(), expr1, expr2);
+	}
+
+	private int countNodes(Block blk)
+	{
+		int count = 1;
+		for (int i = 0; i < blk.size(); i++)
+			count += countStatementNodes (blk.getStatement(i));
+		return count;
+	}
+
+	private int countStatementNodes(Statement stmt)
+	{
+		if (stmt instanceof AssignmentStatement)
+			return 2 + countNodes (((AssignmentStatement) stmt).getExpr());
+		if (stmt instanceof IndexAssignmentStatement)
+			return 1 + countNodes (((IndexAssignmentStatement) stmt).getTarget()) +
+				countNodes (((IndexAssignmentStatement) stmt).getExpr());
+		if (stmt instanceof PrintStatement)
+			return 1 + countNodes (((PrintStatement) stmt).getExpr());
+		if (stmt instanceof ReturnStatement)
+			return 1 + countNodes (((ReturnStatement) stmt).getExpr());
+		if (stmt instanceof CallStatement)
+			return 1 + countNodes (((CallStatement) stmt).getCall());
+		if (stmt instanceof IfStatement)
+		{
+			IfStatement ifStmt = (IfStatement) stmt;
+			return 1 + countNodes (ifStmt.getExpr()) + countNodes (ifStmt.getBlock1()) +
+				countNodes (ifStmt.getBlock2());
+		}
+		if (stmt instanceof WhileStatement)
+			return 1 + countNodes (((WhileStatement) stmt).getExpr()) +
+				countNodes (((WhileStatement) stmt).getBlock());
+		if (stmt instanceof RepeatStatement)
+			return 1 + countNodes (((RepeatStatement) stmt).getBlock()) +
+				countNodes (((RepeatStatement) stmt).getExpr());
+		return 1;
+	}
+
+	private int countNodes(BooleanExpression expr)
+	{
+		return 1 + countNodes (expr.getExpr1()) + countNodes (expr.getExpr2());
+	}
+
+	private int countNodes(ArithmeticExpression expr)
+	{
+		if (expr instanceof BinaryExpression)
+			return 1 + countNodes (((BinaryExpression) expr).getExpr1()) +
+				countNodes (((BinaryExpression) expr).getExpr2());
+		if (expr instanceof PostfixExpression)
+			return ((PostfixExpression) expr).size();
+		if (expr instanceof IndexExpression)
+			return 1 + countNodes (((IndexExpression) expr).getIndex());
+		if (expr instanceof CallExpression)
+		{
+			CallExpression call = (CallExpression) expr;
+			int count = 1;
+			for (int i = 0; i < call.size(); i++)
+				count += countNodes (call.getArgument(i));
+			return count;
+		}
+		return 1;
+	}
+}
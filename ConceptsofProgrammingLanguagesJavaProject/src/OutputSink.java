@@ -0,0 +1,21 @@
+
+/**
+ * OutputSink receives the values written by print statements. Sinks may
+ * buffer what they are given until they are flushed; every execution of a
+ * program flushes the sink of its ExecutionContext when it ends, also when
+ * it ends with an exception.
+ */
+public interface OutputSink {
+	/**
+	 * @param value value to be printed
+	 * postcondition: the decimal form of value followed by a line separator
+	 *                has been written to the sink
+	 */
+	public void printInt(int value);
+
+	/**
+	 * postcondition: everything written to the sink has been passed on to
+	 *                its destination
+	 */
+	public void flush();
+}
@@ -0,0 +1,247 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelLexer tokenizes a whole source at once on a fork-join pool. No
+ * lexer state carries over from one line to the next, so the source is cut
+ * into chunks of about the same size that end at a line terminator, and
+ * every chunk is decoded and lexed by its own task with rows counted from
+ * the start of the chunk. The chunk buffers are then concatenated in order,
+ * again by one task per chunk, each copying its tokens to where they go in
+ * the whole buffer with rows moved down by the lines of the chunks before.
+ *
+ * The tokens are those a LexicalAnalyzer reading the same source produces,
+ * with the same rows and columns, and can be parsed by new Parser (tokens).
+ * Unlike the LexicalAnalyzer, which only lexes a line once the parser has
+ * reached it, the whole source is lexed before parsing, so a lexical error
+ * is reported even if it follows a syntax error.
+ *
+ * usage: ParallelLexer [-threads n] [-chunk bytes] file
+ *
+ * lexes file sequentially and in parallel and reports both times
+ */
+public class ParallelLexer
+{
+	/** default number of bytes per chunk */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 18;
+
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+
+	/**
+	 * @param pool cannot be null - pool the chunks are lexed on
+	 * @param chunkSize > 0 - number of bytes after which a chunk ends at the
+	 *        next line terminator
+	 * @throws IllegalArgumentException if any argument is invalid
+	 */
+	public ParallelLexer(ForkJoinPool pool, int chunkSize)
+	{
+		if (pool == null)
+			throw new IllegalArgumentException ("null pool argument");
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException ("invalid chunk size argument");
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @param source cannot be null - bytes of the source program
+	 * @return tokens of source, ending with an EOS_TOK, with the cursor on
+	 *         the first one
+	 * @throws LexicalException if source contains an invalid lexeme; the
+	 *         first one in the source is reported
+	 * @throws IllegalArgumentException if source is null
+	 */
+	public TokenBuffer lex(byte[] source) throws LexicalException
+	{
+		if (source == null)
+			throw new IllegalArgumentException ("null source argument");
+		char[] chars = new char[source.length];
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		int start = 0;
+		do
+		{
+			int end = start + chunkSize;
+			if (end >= source.length)
+				end = source.length;
+			else
+			{
+				while (end < source.length && source[end] != '\n')
+					end++;
+				if (end < source.length)
+					end++;
+			}
+			chunks.add(new Chunk (source, chars, start, end));
+			start = end;
+		} while (start < source.length);
+		invokeAll (chunks);
+		int count = 0;
+		int lines = 0;
+		for (Chunk chunk : chunks)
+		{
+			if (chunk.errorStart >= 0)
+				// lex the line again with its row in the whole source to
+				// throw the exception a LexicalAnalyzer would have thrown
+				LexicalAnalyzer.processLine (chars, chunk.errorStart, chunk.errorEnd,
+					lines + chunk.lines, new TokenBuffer());
+			count += chunk.tokens.size();
+			lines += chunk.lines;
+		}
+		TokenBuffer tokens = new TokenBuffer (count + 1);
+		tokens.reset(chars);
+		tokens.setSize(count);
+		List<ForkJoinTask<?>> copies = new ArrayList<ForkJoinTask<?>>();
+		int index = 0;
+		int rowOffset = 0;
+		for (Chunk chunk : chunks)
+		{
+			int chunkIndex = index;
+			int chunkRowOffset = rowOffset;
+			copies.add(ForkJoinTask.adapt(() -> tokens.setAll(chunkIndex, chunk.tokens, chunkRowOffset)));
+			index += chunk.tokens.size();
+			rowOffset += chunk.lines;
+		}
+		invokeAll (copies);
+		tokens.add(TokenType.EOS_TOK, 0, 0, Math.max(lines, 1), 1);
+		return tokens;
+	}
+
+	/**
+	 * postcondition: all tasks have been run on the pool, or in the calling
+	 *                thread if there is only one
+	 */
+	private void invokeAll(List<? extends ForkJoinTask<?>> tasks)
+	{
+		if (tasks.size() == 1)
+			tasks.get(0).invoke();
+		else
+			pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+	}
+
+	/**
+	 * line-aligned part of the source, lexed by one task
+	 */
+	private static final class Chunk extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final byte[] source;
+		private final char[] chars;
+		private final int start;
+		private final int end;
+		private final TokenBuffer tokens;
+		// number of lines lexed, including a line with an invalid lexeme
+		private int lines;
+		// bounds of the line with an invalid lexeme, -1 if there is none
+		private int errorStart = -1;
+		private int errorEnd;
+
+		Chunk(byte[] source, char[] chars, int start, int end)
+		{
+			this.source = source;
+			this.chars = chars;
+			this.start = start;
+			this.end = end;
+			// most tokens are separated by a blank
+			tokens = new TokenBuffer ((end - start) / 3 + 16);
+		}
+
+		@Override
+		protected void compute()
+		{
+			for (int i = start; i < end; i++)
+				chars[i] = (char) (source[i] & 0xFF);
+			tokens.reset(chars);
+			int lineStart = start;
+			while (lineStart < end)
+			{
+				int lineEnd = lineStart;
+				while (lineEnd < end && chars[lineEnd] != '\n')
+					lineEnd++;
+				lines++;
+				try
+				{
+					LexicalAnalyzer.processLine (chars, lineStart, lineEnd, lines, tokens);
+				}
+				catch (LexicalException e)
+				{
+					errorStart = lineStart;
+					errorEnd = lineEnd;
+					return;
+				}
+				lineStart = lineEnd + 1;
+			}
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		int chunkSize = DEFAULT_CHUNK_SIZE;
+		String fileName = null;
+		try
+		{
+			for (int i = 0; i < args.length; i++)
+			{
+				if (args[i].equals("-threads") && i + 1 < args.length)
+					threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-chunk") && i + 1 < args.length)
+					chunkSize = Integer.parseInt(args[++i]);
+				else
+					fileName = args[i];
+			}
+			if (fileName == null)
+				throw new IllegalArgumentException ("usage: ParallelLexer [-threads n] [-chunk bytes] file");
+			byte[] source = Files.readAllBytes(Paths.get(fileName));
+			ForkJoinPool pool = new ForkJoinPool (threads);
+			ParallelLexer lexer = new ParallelLexer (pool, chunkSize);
+			try
+			{
+				for (int round = 1; round <= 5; round++)
+				{
+					long start = System.nanoTime();
+					LexicalAnalyzer lex = new LexicalAnalyzer (Channels.newChannel(new ByteArrayInputStream (source)));
+					int sequential = 0;
+					while (lex.getLookaheadType() != TokenType.EOS_TOK)
+					{
+						lex.skipToken();
+						sequential++;
+					}
+					long middle = System.nanoTime();
+					int parallel = lexer.lex(source).size() - 1;
+					long end = System.nanoTime();
+					System.out.printf("round %d: %d tokens sequential %.3f ms, %d tokens parallel %.3f ms " +
+						"on %d threads (%.2fx)%n", round, sequential, (middle - start) / 1e6, parallel,
+						(end - middle) / 1e6, threads, (double) (middle - start) / (end - middle));
+				}
+			}
+			finally
+			{
+				pool.shutdown();
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			System.out.println ("invalid thread count or chunk size");
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.out.println (e.getMessage());
+		}
+		catch (LexicalException e)
+		{
+			System.out.println (e.getMessage());
+		}
+		catch (IOException e)
+		{
+			System.out.println ("unable to read " + fileName);
+		}
+	}
+}
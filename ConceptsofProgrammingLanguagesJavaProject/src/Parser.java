@@ -1,11 +1,53 @@
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Parser class implements a recursive descent parsing algorithm
  * for the given grammar of a subset of Lua
  */
 public class Parser {
+	// operands missing of an ELEMENT whose key is complete, which is then
+	// closed by ]
+	private static final int CLOSE_BRACKET = 1 << 16;
+	// arithmetic operators in the order of their PostfixExpression opcodes
+	private static final BinaryExpression.ArithmeticOperator[] OPERATORS = {
+		BinaryExpression.ArithmeticOperator.ADD_OP, BinaryExpression.ArithmeticOperator.SUB_OP,
+		BinaryExpression.ArithmeticOperator.MUL_OP, BinaryExpression.ArithmeticOperator.DIV_OP};
 	private LexicalAnalyzer lex;
+	private SymbolTable symbols = new SymbolTable();
+	// table the names of the function being parsed are interned in, symbols
+	// itself in the function the program runs
+	private SymbolTable scope = symbols;
+	// Id nodes hold no state, so the parser shares one per slot of scope
+	private Id[] ids = new Id[16];
+	// functions by name, created when first called or defined
+	private Map<String, Function> functions = new HashMap<String, Function>();
+	private List<Function> definitions = new ArrayList<Function>();
+	private String mainName;
+	// calls parsed before the function called was defined, with their
+	// positions, checked once every function has been parsed
+	private List<CallExpression> forwardCalls = new ArrayList<CallExpression>();
+	private List<int[]> forwardPositions = new ArrayList<int[]>();
+	// number of operators and calls enclosing the arguments being parsed
+	private int enclosingDepth;
+	// position of the identifier last read by getSlot
+	private int slotRow;
+	private int slotColumn;
+	private SourceMap sourceMap;
+	private Map<Object, int[]> spans;
+	// prefix code of the arithmetic expression being parsed, reused
+	private byte[] prefixOpcodes = new byte[16];
+	private int[] prefixOperands = new int[16];
+	private ArithmeticExpression[] prefixLeaves = new ArithmeticExpression[16];
+	private int[] missingOperands = new int[16];
+	private ArithmeticExpression[] operandStack = new ArithmeticExpression[16];
 	/**
 	 * @param fileName cannot be null - checked in LexicalAnalyzer
 	 * @throws FileNotFoundException if file cannot be found
@@ -15,79 +57,300 @@ public class Parser {
 	public Parser (String fileName) throws FileNotFoundException, LexicalException {
 		lex = new LexicalAnalyzer (fileName);
 	}
+	/**
+	 * @param channel cannot be null - checked in LexicalAnalyzer
+	 * postcondition: parser object reading its source from channel has been created
+	 */
+	public Parser (ReadableByteChannel channel) {
+		lex = new LexicalAnalyzer (channel);
+	}
+	/**
+	 * @param source cannot be null - bytes of the source program
+	 * @throws IllegalArgumentException if source is null
+	 * postcondition: parser object reading its source from source has been created
+	 */
+	public Parser (byte[] source) {
+		if (source == null)
+			throw new IllegalArgumentException ("null source argument");
+		lex = new LexicalAnalyzer (Channels.newChannel(new ByteArrayInputStream (source)));
+	}
+	/**
+	 * @param tokens cannot be null - checked in LexicalAnalyzer; tokens of
+	 *        the whole source, ending with an EOS_TOK
+	 * postcondition: parser object reading its tokens from tokens has been created
+	 */
+	public Parser (TokenBuffer tokens) {
+		lex = new LexicalAnalyzer (tokens);
+	}
+	/**
+	 * @param sourceMap map the position of every statement parsed is to be
+	 *        recorded in, or null not to record positions
+	 */
+	public void setSourceMap(SourceMap sourceMap) {
+		this.sourceMap = sourceMap;
+	}
+	/**
+	 * @param symbols cannot be null - table the names of the variables are
+	 *        interned in, which may already hold names
+	 * @throws IllegalArgumentException if symbols is null
+	 */
+	void setSymbols(SymbolTable symbols) {
+		if (symbols == null)
+			throw new IllegalArgumentException ("null symbol table argument");
+		this.symbols = symbols;
+		scope = symbols;
+		ids = new Id[16];
+	}
+	/**
+	 * @param program cannot be null - program whose functions calls in the
+	 *        source may call
+	 * @throws IllegalArgumentException if program is null
+	 */
+	void setFunctions(Program program) {
+		if (program == null)
+			throw new IllegalArgumentException ("null program argument");
+		for (Function function : program.getFunctions())
+			functions.put(function.getName(), function);
+	}
 	/**
 	 * @return Program object containing an intermediate representation of the program
 	 * @throws ParserException if a parsing error occurred
-	 * implements the production <program> → function id ( ) <block> end
+	 * implements the production <program> → function id ( ) <block> end { <function> }
+	 * the first function is the one the program runs, and its variables
+	 * are the variables of the program
 	 */
 	public Program parse () throws ParserException {
-		Token tok = getNextToken();
-		match (tok, TokenType.FUNCTION_TOK);
-		Id functionName = getId();
-		tok = getNextToken ();
-		match (tok, TokenType.LEFT_PAREN_TOK);
-		tok = getNextToken ();
-		match (tok, TokenType.RIGHT_PAREN_TOK);
-		Block blk = getBlock();
-		tok = getNextToken ();
-		match (tok, TokenType.END_TOK);
-		tok = getNextToken();
-		if (tok.getTokType() != TokenType.EOS_TOK)
-			throw new ParserException ("garbage at end of file");
-		return new Program (blk);
+		try
+		{
+			match (TokenType.FUNCTION_TOK);
+			mainName = getFunctionName().getLexeme();
+			match (TokenType.LEFT_PAREN_TOK);
+			match (TokenType.RIGHT_PAREN_TOK);
+			Block blk = getBlock();
+			match (TokenType.END_TOK);
+			while (getLookaheadType() == TokenType.FUNCTION_TOK)
+				getFunction();
+			if (getLookaheadType() != TokenType.EOS_TOK)
+				throw new ParserException ("garbage at end of file");
+			checkCalls();
+			return new Program (blk, symbols, definitions);
+		}
+		catch (StackOverflowError e)
+		{
+			// the descent recurses with every nested block
+			throw errorAtLookahead ("statements nested too deeply");
+		}
+		finally
+		{
+			lex.close();
+		}
+	}
+
+	/**
+	 * @param spans map the token range of every block and statement parsed
+	 *        is to be recorded in, as {index of the first token, index past
+	 *        the last token}, or null not to record ranges
+	 */
+	void setSpans(Map<Object, int[]> spans) {
+		this.spans = spans;
+	}
+	/**
+	 * @return Block of all statements of the source, which must be a
+	 *         sequence of statements rather than a whole program
+	 * @throws ParserException if a parsing error occurred
+	 */
+	Block parseBlock () throws ParserException {
+		try
+		{
+			Block blk = getBlock();
+			if (getLookaheadType() != TokenType.EOS_TOK)
+				throw errorAtLookahead ("statement expected");
+			checkCalls();
+			return blk;
+		}
+		finally
+		{
+			lex.close();
+		}
+	}
+
+	/**
+	 * implements the production <function> → function id ( [ id { , id } ] ) <block> end
+	 * @throws ParserException if a parsing error occurred
+	 * postcondition: the function has been defined and added to definitions
+	 */
+	private void getFunction() throws ParserException {
+		match (TokenType.FUNCTION_TOK);
+		Token tok = getFunctionName();
+		String name = tok.getLexeme();
+		Function function = functions.get(name);
+		if (name.equals(mainName) || function != null && function.isDefined())
+			throw new ParserException ("function " + name + " is already defined at row " +
+				tok.getRowNumber() + " and column " + tok.getColumnNumber());
+		if (function == null)
+		{
+			function = new Function (name);
+			functions.put(name, function);
+		}
+		SymbolTable locals = new SymbolTable();
+		Id[] programIds = ids;
+		scope = locals;
+		ids = new Id[16];
+		try
+		{
+			match (TokenType.LEFT_PAREN_TOK);
+			int parameterCount = 0;
+			if (getLookaheadType() != TokenType.RIGHT_PAREN_TOK)
+				while (true)
+				{
+					// parameters have the first slots of the frame
+					int slot = getSlot();
+					if (slot < parameterCount)
+						throw new ParserException ("duplicate parameter " + locals.getName(slot) +
+							" at row " + slotRow + " and column " + slotColumn);
+					locals.use(slot, SymbolTable.SCALAR);
+					parameterCount++;
+					if (getLookaheadType() != TokenType.COMMA_TOK)
+						break;
+					skipToken();
+				}
+			match (TokenType.RIGHT_PAREN_TOK);
+			Block body = getBlock();
+			match (TokenType.END_TOK);
+			function.define(parameterCount, locals, body);
+			definitions.add(function);
+		}
+		finally
+		{
+			scope = symbols;
+			ids = programIds;
+		}
+	}
+
+	/**
+	 * @return the identifier naming a function, which is not a variable
+	 * @throws ParserException if the next token is not an identifier
+	 * postcondition: the identifier has been consumed
+	 */
+	private Token getFunctionName() throws ParserException {
+		if (getLookaheadType() != TokenType.ID_TOK)
+			throw errorAtLookahead ("identifier expected");
+		Token tok = getLookaheadToken();
+		skipToken();
+		return tok;
+	}
+
+	/**
+	 * @throws ParserException if a call parsed before the function it calls
+	 *         was defined calls a function that is not defined, or passes
+	 *         the wrong number of arguments
+	 */
+	private void checkCalls() throws ParserException {
+		for (int i = 0; i < forwardCalls.size(); i++)
+			checkCall (forwardCalls.get(i), forwardPositions.get(i)[0], forwardPositions.get(i)[1]);
+		forwardCalls.clear();
+		forwardPositions.clear();
+	}
+
+	/**
+	 * @throws ParserException if call, at row and column, calls a function
+	 *         that is not defined or passes the wrong number of arguments
+	 */
+	private void checkCall(CallExpression call, int row, int column) throws ParserException {
+		Function function = call.getFunction();
+		if (!function.isDefined())
+			throw new ParserException ("function " + function.getName() + " is not defined" +
+				" at row " + row + " and column " + column);
+		if (call.size() != function.getParameterCount())
+			throw new ParserException ("function " + function.getName() + " takes " +
+				function.getParameterCount() + " arguments at row " + row + " and column " + column);
 	}
 
 	/**
 	 * @return Block object
 	 * @throws ParserException if a parsing error occurred
 	 * implements the production <block> → <statement> | <statement> <block>
+	 * a return statement can only be the last statement of a block
 	 */
 	private Block getBlock() throws ParserException {
-		Block blk = new Block();
-		Token tok = getLookaheadToken();
-		while (isValidStartOfStatement (tok))
+		int start = lex.getTokenIndex();
+		List<Statement> stmts = new ArrayList<Statement>();
+		while (isValidStartOfStatement (getLookaheadType()))
 		{
 			Statement stmt = getStatement();
-			blk.add (stmt);
-			tok = getLookaheadToken();
+			stmts.add (stmt);
+			if (stmt instanceof ReturnStatement)
+				break;
 		}
+		Block blk = new Block (stmts);
+		if (spans != null)
+			spans.put(blk, new int[] {start, lex.getTokenIndex()});
 		return blk;
 	}
 
 	/**
 	 * @return statement object
 	 * @throws ParserException if a parsing error occurred
-	 * implements the production <statement> → <if_statement> | <assignment_statement> | <while_statement> | <print_statement> | <repeat_statement> 
+	 * implements the production <statement> → <if_statement> | <assignment_statement> | <while_statement> | <print_statement> | <repeat_statement> | <call_statement> | <return_statement>
 	 */
 	private Statement getStatement() throws ParserException {
 		Statement stmt;
-		Token tok = getLookaheadToken();
-		if (tok.getTokType() == TokenType.IF_TOK)
+		int first = lex.getTokenIndex();
+		Token start = sourceMap != null ? getLookaheadToken() : null;
+		TokenType tokType = getLookaheadType();
+		if (tokType == TokenType.IF_TOK)
 			stmt = getIfStatement();
-		else if (tok.getTokType() == TokenType.WHILE_TOK)
+		else if (tokType == TokenType.WHILE_TOK)
 			stmt = getWhileStatement();
-		else if (tok.getTokType() == TokenType.PRINT_TOK)
+		else if (tokType == TokenType.PRINT_TOK)
 			stmt = getPrintStatement();
-		else if (tok.getTokType() == TokenType.REPEAT_TOK)
+		else if (tokType == TokenType.REPEAT_TOK)
 			stmt = getRepeatStatement();
-		else if (tok.getTokType() == TokenType.ID_TOK)
+		else if (tokType == TokenType.ID_TOK)
 			stmt = getAssignmentStatement();
+		else if (tokType == TokenType.RETURN_TOK)
+			stmt = getReturnStatement();
 		else 
-			throw new ParserException ("invalid statement at row " +
-				tok.getRowNumber()  + " and column " + tok.getColumnNumber());
+			throw errorAtLookahead ("invalid statement");
+		if (start != null)
+			sourceMap.put(stmt, start.getRowNumber(), start.getColumnNumber());
+		if (spans != null)
+			spans.put(stmt, new int[] {first, lex.getTokenIndex()});
 		return stmt;
 	}
 	/**
-	 * @return assignment statement
+	 * @return assignment statement, index assignment statement if the
+	 *         variable assigned is an element of a table, or call statement
+	 *         if the identifier is followed by (
 	 * @throws ParserException if a parsing error occurred
-	 * implements the production <assignment_statement> -> id <assignment_operator> <arithmetic_expression>
+	 * implements the productions <assignment_statement> -> <variable> <assignment_operator> <arithmetic_expression>
+	 * and <call_statement> -> <call>
 	 */
 	private Statement getAssignmentStatement() throws ParserException {
-		Id var = getId();
-		Token tok = getNextToken();
-		match (tok, TokenType.ASSIGN_TOK);
+		int slot = getSlot();
+		if (getLookaheadType() == TokenType.LEFT_PAREN_TOK)
+			return new CallStatement (getCall(slot, 0));
+		ArithmeticExpression var = getVariable(slot);
+		match (TokenType.ASSIGN_TOK);
 		ArithmeticExpression expr = getArithmeticExpression();
-		return new AssignmentStatement (var, expr);
+		if (var instanceof IndexExpression)
+			return new IndexAssignmentStatement ((IndexExpression) var, expr);
+		return new AssignmentStatement ((Id) var, expr);
+	}
+
+	/**
+	 * @return return statement, returning 0 if no expression follows return
+	 * @throws ParserException if a parsing error occurred
+	 * implements the production <return_statement> -> return [ <arithmetic_expression> ]
+	 */
+	private Statement getReturnStatement() throws ParserException {
+		match (TokenType.RETURN_TOK);
+		TokenType tokType = getLookaheadType();
+		if (tokType == TokenType.ID_TOK || tokType == TokenType.LITERAL_INTEGER_TOK ||
+				tokType == TokenType.ADD_TOK || tokType == TokenType.SUB_TOK ||
+				tokType == TokenType.MUL_TOK || tokType == TokenType.DIV_TOK)
+			return new ReturnStatement (getArithmeticExpression());
+		return new ReturnStatement (new LiteralInteger (0));
 	}
 
 	/**
@@ -96,11 +359,9 @@ public class Parser {
 	 * implements the production <repeat_statement> -> repeat <block> until <boolean_expression>
 	 */
 	private Statement getRepeatStatement() throws ParserException {
-		Token tok = getNextToken();
-		match (tok, TokenType.REPEAT_TOK);
+		match (TokenType.REPEAT_TOK);
 		Block blk = getBlock();
-		tok = getNextToken();
-		match (tok, TokenType.UNTIL_TOK);
+		match (TokenType.UNTIL_TOK);
 		BooleanExpression expr = getBooleanExpression();
 		return new RepeatStatement (blk, expr);
 	}
@@ -110,13 +371,10 @@ public class Parser {
 	 * implements the production <print_statement> → print ( <arithmetic_expression> )
 	 */
 	private Statement getPrintStatement() throws ParserException {
-		Token tok = getNextToken();
-		match (tok, TokenType.PRINT_TOK);
-		tok = getNextToken ();
-		match (tok, TokenType.LEFT_PAREN_TOK);
+		match (TokenType.PRINT_TOK);
+		match (TokenType.LEFT_PAREN_TOK);
 		ArithmeticExpression expr = getArithmeticExpression();
-		tok = getNextToken ();
-		match (tok, TokenType.RIGHT_PAREN_TOK);
+		match (TokenType.RIGHT_PAREN_TOK);
 		return new PrintStatement (expr);
 	}
 	/**
@@ -125,14 +383,11 @@ public class Parser {
 	 * implements the production <while_statement> → while <boolean_expression> do <block> end
 	 */
 	private Statement getWhileStatement() throws ParserException {
-		Token tok = getNextToken ();
-		match (tok, TokenType.WHILE_TOK);
+		match (TokenType.WHILE_TOK);
 		BooleanExpression expr = getBooleanExpression();
-		tok = getNextToken ();
-		match (tok, TokenType.DO_TOK);
+		match (TokenType.DO_TOK);
 		Block blk = getBlock();
-		tok = getNextToken();
-		match (tok, TokenType.END_TOK);
+		match (TokenType.END_TOK);
 		return new WhileStatement (expr, blk);
 	}
 	/**
@@ -141,62 +396,169 @@ public class Parser {
 	 * implements the production <if_statement> → if <boolean_expression> then <block> else <block> end
 	 */
 	private Statement getIfStatement() throws ParserException {
-		Token tok = getNextToken ();
-		match (tok, TokenType.IF_TOK);
+		match (TokenType.IF_TOK);
 		BooleanExpression expr = getBooleanExpression();
-		tok = getNextToken ();
-		match (tok, TokenType.THEN_TOK);
+		match (TokenType.THEN_TOK);
 		Block blk1 = getBlock();
-		tok = getNextToken ();
-		match (tok, TokenType.ELSE_TOK);
+		match (TokenType.ELSE_TOK);
 		Block blk2 = getBlock();
-		tok = getNextToken();
-		match (tok, TokenType.END_TOK);
+		match (TokenType.END_TOK);
 		return new IfStatement (expr, blk1, blk2);
 	}
 
 	/**
-	 * @param tok cannot be null - checked with assertion
-	 * @return whether tok can be the start of a statement
+	 * @param tokType cannot be null - checked with assertion
+	 * @return whether a token of type tokType can be the start of a statement
 	 */
-	private boolean isValidStartOfStatement(Token tok) {
-		assert (tok != null);
-		return tok.getTokType() == TokenType.ID_TOK ||
-			tok.getTokType() == TokenType.IF_TOK ||
-			tok.getTokType() == TokenType.WHILE_TOK ||
-			tok.getTokType() == TokenType.PRINT_TOK ||
-			tok.getTokType() == TokenType.REPEAT_TOK;
+	private boolean isValidStartOfStatement(TokenType tokType) {
+		assert (tokType != null);
+		return tokType == TokenType.ID_TOK ||
+			tokType == TokenType.IF_TOK ||
+			tokType == TokenType.WHILE_TOK ||
+			tokType == TokenType.PRINT_TOK ||
+			tokType == TokenType.REPEAT_TOK ||
+			tokType == TokenType.RETURN_TOK;
 	}
 
 	/**
-	 * @return arithmetic expression
-	 * @throws ParserException if a parsing error occurred
-	 * implements the production <arithmetic_expression> → <id> | <literal_integer> | <arithmetic_op> <arithmetic_expression> <arithmetic_expression>
+	 * @return arithmetic expression; a tree of BinaryExpression,
+	 *         IndexExpression and CallExpression nodes, or a
+	 *         PostfixExpression if it is nested deeper than
+	 *         PostfixExpression.MAX_TREE_DEPTH and calls no function
+	 * @throws ParserException if a parsing error occurred, or the expression
+	 *         calls a function and is nested, with the expressions its
+	 *         arguments are in, deeper than PostfixExpression.MAX_TREE_DEPTH
+	 * implements the production <arithmetic_expression> → <variable> | <literal_integer> | <arithmetic_op> <arithmetic_expression> <arithmetic_expression>
+	 * without recursion: the expression is read in prefix order into arrays,
+	 * keeping on a stack how many operands each enclosing operator still
+	 * needs; the key of a table element counts as the one operand of an
+	 * ELEMENT operator, followed by ], and a call is read as a leaf
 	 */
 	private ArithmeticExpression getArithmeticExpression() throws ParserException {
-		ArithmeticExpression expr;
-		Token tok = getLookaheadToken();
-		if (tok.getTokType() == TokenType.ID_TOK)
-			expr = getId();
-		else if (tok.getTokType() == TokenType.LITERAL_INTEGER_TOK)
-			expr = getLiteralInteger();
-		else
-			expr = getBinaryExpression();
+		TokenType tokType = getLookaheadType();
+		if (tokType == TokenType.LITERAL_INTEGER_TOK)
+			return getLiteralInteger();
+		int length = 0;
+		int open = 0;
+		int depth = 0;
+		boolean calls = false;
+		int callRow = 0;
+		int callColumn = 0;
+		do
+		{
+			if (length == prefixOpcodes.length)
+			{
+				prefixOpcodes = Arrays.copyOf(prefixOpcodes, length * 2);
+				prefixOperands = Arrays.copyOf(prefixOperands, length * 2);
+				prefixLeaves = Arrays.copyOf(prefixLeaves, length * 2);
+			}
+			tokType = getLookaheadType();
+			if (tokType == TokenType.ID_TOK)
+			{
+				int slot = getSlot();
+				tokType = getLookaheadType();
+				if (tokType == TokenType.LEFT_PAREN_TOK)
+				{
+					if (!calls)
+					{
+						callRow = slotRow;
+						callColumn = slotColumn;
+					}
+					CallExpression call = getCall(slot, open);
+					if (length == 0)
+						return call;
+					calls = true;
+					prefixOpcodes[length] = PostfixExpression.VAR;
+					prefixLeaves[length++] = call;
+				}
+				else if (tokType != TokenType.LEFT_BRACKET_TOK)
+				{
+					Id id = getId(slot);
+					if (length == 0)
+						return id;
+					prefixOpcodes[length] = PostfixExpression.VAR;
+					prefixOperands[length] = slot;
+					prefixLeaves[length++] = id;
+				}
+				else
+				{
+					int table = getTableSlot(slot);
+					skipToken();
+					prefixOpcodes[length] = PostfixExpression.ELEMENT;
+					prefixOperands[length] = table;
+					prefixLeaves[length++] = null;
+					if (open == missingOperands.length)
+						missingOperands = Arrays.copyOf(missingOperands, open * 2);
+					missingOperands[open++] = CLOSE_BRACKET + 1;
+					depth = Math.max(depth, open);
+					continue;
+				}
+			}
+			else if (tokType == TokenType.LITERAL_INTEGER_TOK)
+			{
+				LiteralInteger literal = getLiteralInteger();
+				prefixOpcodes[length] = PostfixExpression.LITERAL;
+				prefixOperands[length] = literal.getValue();
+				prefixLeaves[length++] = literal;
+			}
+			else
+			{
+				prefixOpcodes[length] = (byte) PostfixExpression.opcodeOf(getArithmeticOperator());
+				prefixLeaves[length++] = null;
+				if (open == missingOperands.length)
+					missingOperands = Arrays.copyOf(missingOperands, open * 2);
+				missingOperands[open++] = 2;
+				depth = Math.max(depth, open);
+				continue;
+			}
+			// an operand completes every operator whose last operand it is
+			while (open > 0)
+			{
+				int missing = --missingOperands[open - 1];
+				if (missing == CLOSE_BRACKET)
+					match (TokenType.RIGHT_BRACKET_TOK);
+				else if (missing != 0)
+					break;
+				open--;
+			}
+		} while (open > 0);
+		// an expression calling a function stays a tree, which has to be
+		// kept shallow, like Lua limits nesting to 200 levels
+		if (calls && enclosingDepth + depth > PostfixExpression.MAX_TREE_DEPTH)
+			throw tooDeep (callRow, callColumn);
+		if (depth > PostfixExpression.MAX_TREE_DEPTH)
+		{
+			Arrays.fill(prefixLeaves, 0, length, null);
+			return PostfixExpression.fromPrefix(prefixOpcodes, prefixOperands, length);
+		}
+		// scanning backwards, the operands of an operator are the expressions
+		// last built, its left operand on top
+		if (depth >= operandStack.length)
+			operandStack = new ArithmeticExpression[depth + 1];
+		int top = 0;
+		for (int i = length - 1; i >= 0; i--)
+		{
+			if (prefixLeaves[i] != null)
+			{
+				operandStack[top++] = prefixLeaves[i];
+				prefixLeaves[i] = null;
+			}
+			else if (prefixOpcodes[i] == PostfixExpression.ELEMENT)
+				operandStack[top - 1] = new IndexExpression (symbols.getName(prefixOperands[i]),
+					prefixOperands[i], operandStack[top - 1]);
+			else
+			{
+				ArithmeticExpression expr1 = operandStack[--top];
+				operandStack[top - 1] = BinaryExpression.create (OPERATORS[prefixOpcodes[i] - PostfixExpression.ADD],
+					expr1, operandStack[top - 1]);
+				operandStack[top] = null;
+			}
+		}
+		ArithmeticExpression expr = operandStack[0];
+		operandStack[0] = null;
 		return expr;
 	}
 
-	/**
-	 * @return binary expression
-	 * @throws ParserException if a parsing error occurred
-	 * implements the grammar expression <arithmetic_op> <arithmetic_expression> <arithmetic_expression>
-	 */
-	private BinaryExpression getBinaryExpression() throws ParserException {
-		BinaryExpression.ArithmeticOperator op = getArithmeticOperator();
-		ArithmeticExpression expr1 = getArithmeticExpression();
-		ArithmeticExpression expr2 = getArithmeticExpression();
-		return new BinaryExpression (op, expr1, expr2);
-	}
-
 	/**
 	 * @return arithmetic operator
 	 * @throws ParserException if a parsing error occurred
@@ -204,18 +566,18 @@ public class Parser {
 	 */
 	private BinaryExpression.ArithmeticOperator getArithmeticOperator() throws ParserException {
 		BinaryExpression.ArithmeticOperator op;
-		Token tok = getNextToken();
-		if (tok.getTokType() == TokenType.ADD_TOK)
+		TokenType tokType = getLookaheadType();
+		if (tokType == TokenType.ADD_TOK)
 			op = BinaryExpression.ArithmeticOperator.ADD_OP;
-		else if (tok.getTokType() == TokenType.SUB_TOK)
+		else if (tokType == TokenType.SUB_TOK)
 			op = BinaryExpression.ArithmeticOperator.SUB_OP;
-		else if (tok.getTokType() == TokenType.MUL_TOK)
+		else if (tokType == TokenType.MUL_TOK)
 			op = BinaryExpression.ArithmeticOperator.MUL_OP;
-		else if (tok.getTokType() == TokenType.DIV_TOK)
+		else if (tokType == TokenType.DIV_TOK)
 			op = BinaryExpression.ArithmeticOperator.DIV_OP;
 		else 
-			throw new ParserException ("arithmetic operator expected at row " +
-				tok.getRowNumber()  + " and column " + tok.getColumnNumber());
+			throw errorAtLookahead ("arithmetic operator expected");
+		skipToken();
 		return op;
 	}
 
@@ -224,24 +586,186 @@ public class Parser {
 	 * @throws ParserException if a parsing error occurred
 	 */
 	private LiteralInteger getLiteralInteger() throws ParserException {
-		Token tok = getNextToken ();
-		if (tok.getTokType() != TokenType.LITERAL_INTEGER_TOK)
-			throw new ParserException ("literal integer expected at row " +
-				tok.getRowNumber()  + " and column " + tok.getColumnNumber());
-		int value = Integer.parseInt(tok.getLexeme());
+		if (getLookaheadType() != TokenType.LITERAL_INTEGER_TOK)
+			throw errorAtLookahead ("literal integer expected");
+		int value;
+		try
+		{
+			value = lex.getLookaheadIntValue();
+		}
+		catch (LexicalException e)
+		{
+			throw new ParserException (e.getMessage());
+		}
+		catch (NumberFormatException e)
+		{
+			throw errorAtLookahead ("literal integer out of range");
+		}
+		skipToken();
 		return new LiteralInteger (value);
 	}
 
 	/**
-	 * @return an id
+	 * @param slot slot of the identifier last read by getSlot
+	 * @return an id, or an index expression if the id is followed by [
+	 * @throws ParserException if a parsing error occurred
+	 * implements the production <variable> → id | id [ <arithmetic_expression> ]
+	 */
+	private ArithmeticExpression getVariable(int slot) throws ParserException {
+		if (getLookaheadType() != TokenType.LEFT_BRACKET_TOK)
+			return getId(slot);
+		int table = getTableSlot(slot);
+		skipToken();
+		ArithmeticExpression index = getArithmeticExpression();
+		match (TokenType.RIGHT_BRACKET_TOK);
+		return new IndexExpression (symbols.getName(table), table, index);
+	}
+
+	/**
+	 * @param slot slot of the identifier last read by getSlot
+	 * @param open number of operators of the enclosing expression whose
+	 *        operands are being read, 0 if the call is the whole expression;
+	 *        otherwise the prefix code of the enclosing expression is being
+	 *        read, so that the arguments need arrays of their own
+	 * @return call of the function named by the identifier
 	 * @throws ParserException if a parsing error occurred
+	 * implements the production <call> → id ( [ <arithmetic_expression> { , <arithmetic_expression> } ] )
+	 */
+	private CallExpression getCall(int slot, int open) throws ParserException {
+		checkKind (scope, slot, SymbolTable.FUNCTION);
+		int row = slotRow;
+		int column = slotColumn;
+		if (enclosingDepth + open >= PostfixExpression.MAX_TREE_DEPTH)
+			throw tooDeep (row, column);
+		boolean nested = open > 0;
+		String name = scope.getName(slot);
+		Function function = functions.get(name);
+		if (function == null)
+		{
+			function = new Function (name);
+			functions.put(name, function);
+		}
+		byte[] opcodes = prefixOpcodes;
+		int[] operands = prefixOperands;
+		ArithmeticExpression[] leaves = prefixLeaves;
+		int[] missing = missingOperands;
+		ArithmeticExpression[] stack = operandStack;
+		if (nested)
+		{
+			prefixOpcodes = new byte[16];
+			prefixOperands = new int[16];
+			prefixLeaves = new ArithmeticExpression[16];
+			missingOperands = new int[16];
+			operandStack = new ArithmeticExpression[16];
+		}
+		List<ArithmeticExpression> args = new ArrayList<ArithmeticExpression>();
+		enclosingDepth += open + 1;
+		try
+		{
+			match (TokenType.LEFT_PAREN_TOK);
+			if (getLookaheadType() != TokenType.RIGHT_PAREN_TOK)
+			{
+				args.add(getArithmeticExpression());
+				while (getLookaheadType() == TokenType.COMMA_TOK)
+				{
+					skipToken();
+					args.add(getArithmeticExpression());
+				}
+			}
+			match (TokenType.RIGHT_PAREN_TOK);
+		}
+		finally
+		{
+			enclosingDepth -= open + 1;
+			prefixOpcodes = opcodes;
+			prefixOperands = operands;
+			prefixLeaves = leaves;
+			missingOperands = missing;
+			operandStack = stack;
+		}
+		CallExpression call = new CallExpression (function, args.toArray(new ArithmeticExpression[args.size()]));
+		if (function.isDefined())
+			checkCall (call, row, column);
+		else
+		{
+			forwardCalls.add(call);
+			forwardPositions.add(new int[] {row, column});
+		}
+		return call;
+	}
+
+	/**
+	 * @param slot slot of the identifier last read by getSlot, which names
+	 *        a table
+	 * @return slot of the table in symbols; tables are variables of the
+	 *         program whatever function uses them
+	 * @throws ParserException if the name has been used as another kind
 	 */
-	private Id getId() throws ParserException {
-		Token tok = getNextToken();
-		if (tok.getTokType() != TokenType.ID_TOK)
-			throw new ParserException ("identifier expected at row " +
-				tok.getRowNumber()  + " and column " + tok.getColumnNumber());
-		return new Id (tok.getLexeme().charAt(0));
+	private int getTableSlot(int slot) throws ParserException {
+		checkKind (scope, slot, SymbolTable.TABLE);
+		if (scope == symbols)
+			return slot;
+		int table = symbols.intern(scope.getName(slot));
+		checkKind (symbols, table, SymbolTable.TABLE);
+		return table;
+	}
+
+	/**
+	 * @param slot slot of the identifier last read by getSlot
+	 * @return the id of the scalar variable in slot
+	 * @throws ParserException if the variable is a table
+	 */
+	private Id getId(int slot) throws ParserException {
+		checkKind (scope, slot, SymbolTable.SCALAR);
+		if (slot >= ids.length)
+			ids = Arrays.copyOf(ids, Math.max(slot + 1, ids.length * 2));
+		if (ids[slot] == null)
+			ids[slot] = new Id (scope.getName(slot), slot);
+		return ids[slot];
+	}
+
+	/**
+	 * @return slot of the identifier in the function being parsed
+	 * @throws ParserException if a parsing error occurred
+	 * postcondition: the identifier has been consumed and its position
+	 *                recorded in slotRow and slotColumn
+	 */
+	private int getSlot() throws ParserException {
+		if (getLookaheadType() != TokenType.ID_TOK)
+			throw errorAtLookahead ("identifier expected");
+		int slot;
+		try
+		{
+			slot = lex.getLookaheadSlot(scope);
+			slotRow = lex.getLookaheadRowNumber();
+			slotColumn = lex.getLookaheadColumnNumber();
+		}
+		catch (LexicalException e)
+		{
+			throw new ParserException (e.getMessage());
+		}
+		skipToken();
+		return slot;
+	}
+
+	/**
+	 * @param table symbols or scope
+	 * @param kind SymbolTable.SCALAR, SymbolTable.TABLE or SymbolTable.FUNCTION
+	 * @throws ParserException if the name in slot of table, last read by
+	 *         getSlot, has been used as another kind
+	 */
+	private void checkKind(SymbolTable table, int slot, int kind) throws ParserException {
+		if (table.use(slot, kind))
+			return;
+		String what;
+		if (kind == SymbolTable.FUNCTION)
+			what = " is a variable";
+		else if (table.getKind(slot) == SymbolTable.FUNCTION)
+			what = " is a function";
+		else
+			what = kind == SymbolTable.TABLE ? " is not a table" : " is a table";
+		throw new ParserException (table.getName(slot) + what +
+			" at row " + slotRow + " and column " + slotColumn);
 	}
 
 	/**
@@ -253,7 +777,7 @@ public class Parser {
 		BooleanExpression.RelationalOperator op = getRelationalOperator();
 		ArithmeticExpression expr1 = getArithmeticExpression();
 		ArithmeticExpression expr2 = getArithmeticExpression ();
-		return new BooleanExpression (op, expr1, expr2);
+		return BooleanExpression.create (op, expr1, expr2);
 	}
 
 	/**
@@ -263,42 +787,63 @@ public class Parser {
 	 */
 	private BooleanExpression.RelationalOperator getRelationalOperator() throws ParserException {
 		BooleanExpression.RelationalOperator op;
-		Token tok = getNextToken();
-		if (tok.getTokType() == TokenType.EQ_TOK)
+		TokenType tokType = getLookaheadType();
+		if (tokType == TokenType.EQ_TOK)
 			op = BooleanExpression.RelationalOperator.EQ_OP;
-		else if (tok.getTokType() == TokenType.NE_TOK)
+		else if (tokType == TokenType.NE_TOK)
 			op = BooleanExpression.RelationalOperator.NE_OP;
-		else if (tok.getTokType() == TokenType.GT_TOK)
+		else if (tokType == TokenType.GT_TOK)
 			op = BooleanExpression.RelationalOperator.GT_OP;
-		else if (tok.getTokType() == TokenType.GE_TOK)
+		else if (tokType == TokenType.GE_TOK)
 			op = BooleanExpression.RelationalOperator.GE_OP;
-		else if (tok.getTokType() == TokenType.LT_TOK)
+		else if (tokType == TokenType.LT_TOK)
 			op = BooleanExpression.RelationalOperator.LT_OP;
-		else if (tok.getTokType() == TokenType.LE_TOK)
+		else if (tokType == TokenType.LE_TOK)
 			op = BooleanExpression.RelationalOperator.LE_OP;
 		else 
-			throw new ParserException ("relational operator expected at row " +
-				tok.getRowNumber()  + " and column " + tok.getColumnNumber());
+			throw errorAtLookahead ("relational operator expected");
+		skipToken();
 		return op;
 	}
 
 	/**
-	 * @param tok cannot be null - checked by assertion
 	 * @param tokType cannot be null - checked by assertion
-	 * @throws ParserException if type of tok is not tokType
+	 * @throws ParserException if the type of the next token is not tokType
+	 * postcondition: the matched token has been consumed
 	 */
-	private void match(Token tok, TokenType tokType) throws ParserException {
-		assert (tok != null);
+	private void match(TokenType tokType) throws ParserException {
 		assert (tokType != null);
-		if (tok.getTokType() != tokType)
-			throw new ParserException (tokType + " expected at row " +
-				tok.getRowNumber()  + " and column " + tok.getColumnNumber());
+		if (getLookaheadType() != tokType)
+			throw errorAtLookahead (tokType + " expected");
+		skipToken();
 	}
 
 	/**
-	 * @return copy of next token
+	 * @param row row of the call the error is reported at
+	 * @param column column of the call the error is reported at
+	 * @return exception reporting an expression that nests too deeply below
+	 *         the call at row and column
+	 */
+	private static ParserException tooDeep(int row, int column) {
+		return new ParserException ("expression calling a function nested too deeply at row " + row +
+			" and column " + column);
+	}
+
+	/**
+	 * @param message description of the error
+	 * @return exception reporting message at the position of the next token
 	 * @throws ParserException if there are no more tokens
 	 */
+	private ParserException errorAtLookahead(String message) throws ParserException {
+		Token tok = getLookaheadToken();
+		return new ParserException (message + " at row " +
+			tok.getRowNumber()  + " and column " + tok.getColumnNumber());
+	}
+
+	/**
+	 * @return next token, built on demand
+	 * @throws ParserException if a lexical error occurred
+	 */
 	private Token getLookaheadToken() throws ParserException {
 		Token tok = null;
 		try
@@ -307,25 +852,42 @@ public class Parser {
 		}
 		catch (LexicalException e)
 		{
-			throw new ParserException ("no more tokens");
+			throw new ParserException (e.getMessage());
 		}
 		return tok;
 	}
 
 	/**
-	 * @return next token
-	 * @throws ParserException if there are no more tokens
+	 * @return type of the next token
+	 * @throws ParserException if there are no more tokens or the source
+	 *         contains an invalid lexeme
 	 */
-	private Token getNextToken() throws ParserException {
-		Token tok = null;
+	private TokenType getLookaheadType() throws ParserException {
+		TokenType tokType = null;
 		try
 		{
-			tok = lex.getNextToken();
+			tokType = lex.getLookaheadType();
 		}
 		catch (LexicalException e)
 		{
-			throw new ParserException ("no more tokens");
+			throw new ParserException (e.getMessage());
+		}
+		return tokType;
+	}
+
+	/**
+	 * @throws ParserException if there are no more tokens or the source
+	 *         contains an invalid lexeme
+	 * postcondition: the next token has been consumed
+	 */
+	private void skipToken() throws ParserException {
+		try
+		{
+			lex.skipToken();
+		}
+		catch (LexicalException e)
+		{
+			throw new ParserException (e.getMessage());
 		}
-		return tok;
 	}
 }
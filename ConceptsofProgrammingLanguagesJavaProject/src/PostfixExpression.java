@@ -0,0 +1,341 @@
+import java.util.Arrays;
+
+/**
+ * PostfixExpression is an arithmetic expression flattened into postfix code
+ * that evaluate runs in a loop over a primitive operand stack, so evaluating
+ * it takes no Java stack however deeply it is nested. Parser builds one in
+ * place of a tree of BinaryExpression nodes for expressions nested deeper
+ * than MAX_TREE_DEPTH, which would otherwise take one Java frame per level
+ * to build, to evaluate and to walk in every later pass.
+ *
+ * The code is a sequence of instructions, each an opcode and an operand:
+ * VAR pushes the variable in the operand's slot, LITERAL pushes the operand,
+ * ELEMENT replaces the key on top of the stack by the element at that key
+ * of the table in the operand's slot and every other opcode pops its right
+ * and then its left operand and pushes the result. RSUB and RDIV take their
+ * operands the other way round, so that fromPrefix can compute the operand
+ * needing the deeper stack first (Sethi-Ullman order). A chain such as
+ * + x + x + x ... then needs a stack of two values whatever its length, and
+ * no expression that fits in memory needs more than 32. Since most operators
+ * then follow the push of their right operand, evaluate runs every such pair
+ * as one instruction.
+ */
+public class PostfixExpression implements ArithmeticExpression {
+	/** nesting depth above which Parser builds a PostfixExpression */
+	public static final int MAX_TREE_DEPTH = 32;
+	// opcodes
+	public static final int VAR = 0, LITERAL = 1, ADD = 2, SUB = 3, MUL = 4, DIV = 5,
+		RSUB = 6, RDIV = 7, ELEMENT = 8;
+	// operators applied to a variable or literal pushed just before them,
+	// which evaluate runs as one instruction
+	private static final int ADD_VAR = 9, SUB_VAR = 10, MUL_VAR = 11, DIV_VAR = 12, RSUB_VAR = 13,
+		RDIV_VAR = 14, ADD_LITERAL = 15, SUB_LITERAL = 16, MUL_LITERAL = 17, DIV_LITERAL = 18,
+		RSUB_LITERAL = 19, RDIV_LITERAL = 20;
+	private final byte[] opcodes;
+	private final int[] operands;
+	private final int maxDepth;
+	// code run by evaluate, with the fused instructions
+	private final byte[] fusedOpcodes;
+	private final int[] fusedOperands;
+
+	/**
+	 * @param opcodes cannot be null - opcode of every instruction
+	 * @param operands cannot be null - operand of every instruction: the slot
+	 *        of a VAR or ELEMENT, the value of a LITERAL and ignored otherwise
+	 * @throws IllegalArgumentException if an argument is null, the arrays
+	 *         differ in length, an opcode or slot is invalid or the code does
+	 *         not leave exactly one value on the stack
+	 */
+	public PostfixExpression(byte[] opcodes, int[] operands) {
+		if (opcodes == null || operands == null)
+			throw new IllegalArgumentException ("null postfix code argument");
+		if (opcodes.length != operands.length)
+			throw new IllegalArgumentException ("invalid postfix code argument");
+		int depth = 0;
+		int maxDepth = 0;
+		for (int i = 0; i < opcodes.length; i++)
+		{
+			if ((opcodes[i] == VAR || opcodes[i] == ELEMENT) && operands[i] < 0)
+				throw new IllegalArgumentException ("invalid slot argument");
+			if (opcodes[i] == VAR || opcodes[i] == LITERAL)
+				maxDepth = Math.max(maxDepth, ++depth);
+			else if (opcodes[i] >= ADD && opcodes[i] <= RDIV && depth >= 2)
+				depth--;
+			else if (opcodes[i] == ELEMENT && depth >= 1)
+				continue;
+			else
+				throw new IllegalArgumentException ("invalid postfix code argument");
+		}
+		if (depth != 1)
+			throw new IllegalArgumentException ("invalid postfix code argument");
+		this.opcodes = opcodes.clone();
+		this.operands = operands.clone();
+		this.maxDepth = maxDepth;
+		int length = 0;
+		byte[] fusedOpcodes = new byte[opcodes.length];
+		int[] fusedOperands = new int[opcodes.length];
+		for (int i = 0; i < opcodes.length; i++)
+		{
+			int opcode = opcodes[i];
+			if ((opcode == VAR || opcode == LITERAL) && i + 1 < opcodes.length &&
+				opcodes[i + 1] >= ADD && opcodes[i + 1] <= RDIV)
+			{
+				opcode = (opcode == VAR ? ADD_VAR : ADD_LITERAL) + opcodes[++i] - ADD;
+				fusedOperands[length] = operands[i - 1];
+			}
+			else
+				fusedOperands[length] = operands[i];
+			fusedOpcodes[length++] = (byte) opcode;
+		}
+		this.fusedOpcodes = Arrays.copyOf(fusedOpcodes, length);
+		this.fusedOperands = Arrays.copyOf(fusedOperands, length);
+	}
+
+	/**
+	 * @param opcodes cannot be null - opcodes of an expression in prefix
+	 *        order, ADD, SUB, MUL, DIV, VAR, LITERAL or ELEMENT, an ELEMENT
+	 *        coming before its key
+	 * @param operands cannot be null - operand of every opcode: the slot
+	 *        of a VAR or ELEMENT, the value of a LITERAL and ignored otherwise
+	 * @param length number of instructions of the expression
+	 * @return expression equivalent to the prefix code, with the operand of
+	 *         every operator that needs the deeper stack computed first
+	 * @throws IllegalArgumentException if the code is not a valid expression
+	 */
+	public static PostfixExpression fromPrefix(byte[] opcodes, int[] operands, int length) {
+		if (opcodes == null || operands == null)
+			throw new IllegalArgumentException ("null prefix code argument");
+		if (length <= 0 || length > opcodes.length || length > operands.length)
+			throw new IllegalArgumentException ("invalid length argument");
+		// scanning backwards, the operands of an operator are found on top of
+		// the stack, its left operand above its right one
+		int[] size = new int[length];
+		int[] need = new int[length];
+		int[] stack = new int[length];
+		int top = 0;
+		for (int i = length - 1; i >= 0; i--)
+		{
+			if (opcodes[i] == VAR || opcodes[i] == LITERAL)
+			{
+				size[i] = 1;
+				need[i] = 1;
+			}
+			else if (opcodes[i] == ELEMENT)
+			{
+				if (top < 1)
+					throw new IllegalArgumentException ("invalid prefix code argument");
+				int key = stack[--top];
+				size[i] = 1 + size[key];
+				need[i] = need[key];
+			}
+			else
+			{
+				if (top < 2)
+					throw new IllegalArgumentException ("invalid prefix code argument");
+				int left = stack[--top];
+				int right = stack[--top];
+				size[i] = 1 + size[left] + size[right];
+				need[i] = need[left] == need[right] ? need[left] + 1 : Math.max(need[left], need[right]);
+			}
+			stack[top++] = i;
+		}
+		if (top != 1)
+			throw new IllegalArgumentException ("invalid prefix code argument");
+		byte[] postfixOpcodes = new byte[length];
+		int[] postfixOperands = new int[length];
+		int count = 0;
+		// an entry i >= 0 emits the subexpression starting at i, an entry
+		// -1 - (2 * i + reversed) emits the operator at i
+		int[] work = new int[2 * length + 1];
+		top = 0;
+		work[top++] = 0;
+		while (top > 0)
+		{
+			int entry = work[--top];
+			if (entry < 0)
+			{
+				int i = (-1 - entry) >> 1;
+				postfixOpcodes[count] = (byte) (((-1 - entry) & 1) != 0 ? reverse (opcodes[i]) : opcodes[i]);
+				postfixOperands[count++] = operands[i];
+				continue;
+			}
+			if (opcodes[entry] == VAR || opcodes[entry] == LITERAL)
+			{
+				postfixOpcodes[count] = opcodes[entry];
+				postfixOperands[count++] = operands[entry];
+				continue;
+			}
+			if (opcodes[entry] == ELEMENT)
+			{
+				work[top++] = -1 - 2 * entry;
+				work[top++] = entry + 1;
+				continue;
+			}
+			int left = entry + 1;
+			int right = left + size[left];
+			boolean reversed = need[right] > need[left];
+			work[top++] = -1 - (2 * entry + (reversed ? 1 : 0));
+			work[top++] = reversed ? left : right;
+			work[top++] = reversed ? right : left;
+		}
+		return new PostfixExpression (postfixOpcodes, postfixOperands);
+	}
+
+	/**
+	 * @return opcode computing op with its operands taken the other way round
+	 */
+	private static int reverse(int op) {
+		switch (op) {
+			case SUB:
+				return RSUB;
+			case DIV:
+				return RDIV;
+			default:
+				return op;
+		}
+	}
+
+	/**
+	 * @param op cannot be null
+	 * @return opcode of op
+	 */
+	public static int opcodeOf(BinaryExpression.ArithmeticOperator op) {
+		if (op == null)
+			throw new IllegalArgumentException ("null arithmetic operator argument");
+		switch (op) {
+			case ADD_OP:
+				return ADD;
+			case SUB_OP:
+				return SUB;
+			case MUL_OP:
+				return MUL;
+			default:
+				return DIV;
+		}
+	}
+
+	/**
+	 * @return number of instructions
+	 */
+	public int size() {
+		return opcodes.length;
+	}
+
+	/**
+	 * @param index 0 <= index < size()
+	 * @return opcode of the instruction at index
+	 */
+	public int getOpcode(int index) {
+		return opcodes[index];
+	}
+
+	/**
+	 * @param index 0 <= index < size()
+	 * @return operand of the instruction at index
+	 */
+	public int getOperand(int index) {
+		return operands[index];
+	}
+
+	/**
+	 * @return number of values on the operand stack at its deepest
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @param slot slot of a variable
+	 * @return whether evaluating the expression reads the variable or table
+	 *         in slot
+	 */
+	public boolean reads(int slot) {
+		for (int i = 0; i < opcodes.length; i++)
+			if ((opcodes[i] == VAR || opcodes[i] == ELEMENT) && operands[i] == slot)
+				return true;
+		return false;
+	}
+
+	@Override
+	public int evaluate(ExecutionContext context) {
+		// no function is called while it runs, so the stack of the context is free
+		int[] stack = context.getOperandStack(maxDepth);
+		int top = -1;
+		byte[] opcodes = fusedOpcodes;
+		int[] operands = fusedOperands;
+		for (int i = 0; i < opcodes.length; i++) {
+			switch (opcodes[i]) {
+				case VAR:
+					stack[++top] = context.fetchAt(operands[i]);
+					break;
+				case LITERAL:
+					stack[++top] = operands[i];
+					break;
+				case ADD:
+					top--;
+					stack[top] += stack[top + 1];
+					break;
+				case SUB:
+					top--;
+					stack[top] -= stack[top + 1];
+					break;
+				case MUL:
+					top--;
+					stack[top] *= stack[top + 1];
+					break;
+				case DIV:
+					top--;
+					stack[top] /= stack[top + 1];
+					break;
+				case RSUB:
+					top--;
+					stack[top] = stack[top + 1] - stack[top];
+					break;
+				case RDIV:
+					top--;
+					stack[top] = stack[top + 1] / stack[top];
+					break;
+				case ELEMENT:
+					stack[top] = context.getTable(operands[i]).get(stack[top]);
+					break;
+				case ADD_VAR:
+					stack[top] += context.fetchAt(operands[i]);
+					break;
+				case SUB_VAR:
+					stack[top] -= context.fetchAt(operands[i]);
+					break;
+				case MUL_VAR:
+					stack[top] *= context.fetchAt(operands[i]);
+					break;
+				case DIV_VAR:
+					stack[top] /= context.fetchAt(operands[i]);
+					break;
+				case RSUB_VAR:
+					stack[top] = context.fetchAt(operands[i]) - stack[top];
+					break;
+				case RDIV_VAR:
+					stack[top] = context.fetchAt(operands[i]) / stack[top];
+					break;
+				case ADD_LITERAL:
+					stack[top] += operands[i];
+					break;
+				case SUB_LITERAL:
+					stack[top] -= operands[i];
+					break;
+				case MUL_LITERAL:
+					stack[top] *= operands[i];
+					break;
+				case DIV_LITERAL:
+					stack[top] /= operands[i];
+					break;
+				case RSUB_LITERAL:
+					stack[top] = operands[i] - stack[top];
+					break;
+				default:
+					stack[top] = operands[i] / stack[top];
+					break;
+			}
+		}
+		return stack[0];
+	}
+}
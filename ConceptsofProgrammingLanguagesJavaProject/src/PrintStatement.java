@@ -11,8 +11,11 @@ public class PrintStatement implements Statement
 			throw new IllegalArgumentException ("null arithmetic expression argument");
 		this.expr = expr;
 	}
+	public ArithmeticExpression getExpr() {
+		return expr;
+	}
 	@Override
-	public void execute() {
-		System.out.println (expr.evaluate());
+	public void execute(ExecutionContext context) {
+		context.getOutput().printInt (expr.evaluate(context));
 	}
 }
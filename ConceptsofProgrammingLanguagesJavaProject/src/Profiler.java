@@ -0,0 +1,214 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Profiler counts how often every statement of a program is executed and
+ * how many nanoseconds it takes, including the statements nested in it.
+ * Profiling is opt-in: instrument returns a copy of the program in which
+ * every statement is wrapped in a node recording its execution, so programs
+ * that are not instrumented run exactly as before. Statements are named by
+ * the row and column the SourceMap filled in by the Parser records for them.
+ * Only the block of the function the program runs is instrumented; the time
+ * spent in a call is counted in the statement making it.
+ *
+ * Results can be written as collapsed stacks, one line per statement with
+ * the chain of enclosing statements and its self time, as read by flame
+ * graph tools, or as a report of the statements with the most self time.
+ * Instrumented programs can only be run by the tree walking interpreter, and
+ * by one thread at a time.
+ */
+public class Profiler
+{
+	private final List<Frame> frames = new ArrayList<Frame>();
+
+	/**
+	 * @param program cannot be null
+	 * @param name name of the program, the root of its stacks
+	 * @param sourceMap positions of the statements of program, or null if
+	 *        they are not known
+	 * @return copy of program whose statements record their executions in
+	 *         this profiler
+	 * @throws IllegalArgumentException if program or name is null
+	 */
+	public Program instrument(Program program, String name, SourceMap sourceMap)
+	{
+		if (program == null)
+			throw new IllegalArgumentException ("null program argument");
+		if (name == null)
+			throw new IllegalArgumentException ("null name argument");
+		Frame root = new Frame (name, null);
+		frames.add(root);
+		return new Program (instrument (program.getBlock(), root, sourceMap), program.getSymbols(),
+			program.getFunctions());
+	}
+
+	/**
+	 * @param out cannot be null
+	 * postcondition: one line "name;enclosing statements;statement nanos"
+	 *                per executed statement has been written to out
+	 */
+	public void writeCollapsedStacks(PrintStream out)
+	{
+		for (Frame frame : frames)
+			if (frame.parent != null && frame.count > 0)
+				out.println(frame.stack() + " " + frame.selfNanos());
+	}
+
+	/**
+	 * @param out cannot be null
+	 * @param n maximum number of statements to report
+	 * postcondition: the n statements with the most self time have been
+	 *                written to out, most expensive first
+	 */
+	public void writeReport(PrintStream out, int n)
+	{
+		List<Frame> hot = new ArrayList<Frame>();
+		long total = 0;
+		for (Frame frame : frames)
+			if (frame.parent != null && frame.count > 0)
+			{
+				hot.add(frame);
+				total += frame.selfNanos();
+			}
+		hot.sort(Comparator.comparingLong(Frame::selfNanos).reversed());
+		out.printf("%-6s %12s %7s %12s %12s  %s%n", "rank", "self ms", "self %", "total ms",
+			"count", "statement");
+		for (int i = 0; i < Math.min(n, hot.size()); i++)
+		{
+			Frame frame = hot.get(i);
+			out.printf("%-6d %12.3f %6.1f%% %12.3f %12d  %s%n", i + 1, frame.selfNanos() / 1e6,
+				total == 0 ? 0.0 : 100.0 * frame.selfNanos() / total, frame.nanos / 1e6,
+				frame.count, frame.stack());
+		}
+	}
+
+	private Block instrument(Block blk, Frame parent, SourceMap sourceMap)
+	{
+		List<Statement> stmts = new ArrayList<Statement>();
+		for (int i = 0; i < blk.size(); i++)
+			stmts.add(instrument (blk.getStatement(i), parent, sourceMap));
+		return new Block (stmts);
+	}
+
+	private Statement instrument(Statement stmt, Frame parent, SourceMap sourceMap)
+	{
+		Frame frame = new Frame (describe (stmt, sourceMap), parent);
+		frames.add(frame);
+		Statement instrumented = stmt;
+		if (stmt instanceof IfStatement)
+		{
+			IfStatement ifStmt = (IfStatement) stmt;
+			instrumented = new IfStatement (ifStmt.getExpr(), instrument (ifStmt.getBlock1(), frame, sourceMap),
+				instrument (ifStmt.getBlock2(), frame, sourceMap));
+		}
+		else if (stmt instanceof CountedLoopStatement)
+		{
+			// keeps the closed form, so the profile is of the program that runs
+			CountedLoopStatement counted = (CountedLoopStatement) stmt;
+			instrumented = counted.withBlock(instrument (counted.getBlock(), frame, sourceMap));
+		}
+		else if (stmt instanceof WhileStatement)
+		{
+			WhileStatement whileStmt = (WhileStatement) stmt;
+			instrumented = new WhileStatement (whileStmt.getExpr(),
+				instrument (whileStmt.getBlock(), frame, sourceMap));
+		}
+		else if (stmt instanceof RepeatStatement)
+		{
+			RepeatStatement repeatStmt = (RepeatStatement) stmt;
+			instrumented = new RepeatStatement (instrument (repeatStmt.getBlock(), frame, sourceMap),
+				repeatStmt.getExpr());
+		}
+		return new ProfiledStatement (instrumented, frame);
+	}
+
+	/**
+	 * @return name of stmt for reports, e.g. "while@3:2" or "assign x@4:3"
+	 */
+	private static String describe(Statement stmt, SourceMap sourceMap)
+	{
+		String kind;
+		if (stmt instanceof AssignmentStatement)
+			kind = "assign " + ((AssignmentStatement) stmt).getVar().getName();
+		else if (stmt instanceof IndexAssignmentStatement)
+			kind = "assign " + ((IndexAssignmentStatement) stmt).getTarget().getName() + "[]";
+		else if (stmt instanceof IfStatement)
+			kind = "if";
+		else if (stmt instanceof WhileStatement)
+			kind = "while";
+		else if (stmt instanceof RepeatStatement)
+			kind = "repeat";
+		else if (stmt instanceof PrintStatement)
+			kind = "print";
+		else
+			kind = stmt.getClass().getSimpleName();
+		if (sourceMap == null || !sourceMap.contains(stmt))
+			return kind + "@?";
+		return kind + "@" + sourceMap.getRowNumber(stmt) + ":" + sourceMap.getColumnNumber(stmt);
+	}
+
+	/**
+	 * statistics of one statement, or of a whole program if parent is null
+	 */
+	private static final class Frame
+	{
+		private final String name;
+		private final Frame parent;
+		private final List<Frame> children = new ArrayList<Frame>();
+		private long count;
+		private long nanos;
+
+		Frame(String name, Frame parent)
+		{
+			this.name = name;
+			this.parent = parent;
+			if (parent != null)
+				parent.children.add(this);
+		}
+		/**
+		 * @return time spent in the statement itself, outside nested statements
+		 */
+		long selfNanos()
+		{
+			long self = nanos;
+			for (Frame child : children)
+				self -= child.nanos;
+			return Math.max(self, 0);
+		}
+		String stack()
+		{
+			return parent == null ? name : parent.stack() + ";" + name;
+		}
+	}
+
+	/**
+	 * statement recording every execution of the statement it wraps
+	 */
+	private static final class ProfiledStatement implements Statement
+	{
+		private final Statement stmt;
+		private final Frame frame;
+
+		ProfiledStatement(Statement stmt, Frame frame)
+		{
+			this.stmt = stmt;
+			this.frame = frame;
+		}
+		@Override
+		public void execute(ExecutionContext context)
+		{
+			long start = System.nanoTime();
+			try
+			{
+				stmt.execute(context);
+			}
+			finally
+			{
+				frame.count++;
+				frame.nanos += System.nanoTime() - start;
+			}
+		}
+	}
+}
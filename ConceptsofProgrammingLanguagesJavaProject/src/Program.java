@@ -1,22 +1,120 @@
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 public class Program
 {
 	private Block blk;
+	private SymbolTable symbols;
+	private int variableCount;
+	private Function[] functions;
 	/**
 	 * @param blk cannot be null
-	 * @throws IllegalArgumentException if blk is null
+	 * @param symbols cannot be null - table every variable of blk has its
+	 *        slot in
+	 * @throws IllegalArgumentException if either argument is null
+	 */
+	public Program(Block blk, SymbolTable symbols)
+	{
+		this(blk, symbols, Collections.<Function>emptyList());
+	}
+	/**
+	 * @param blk cannot be null - body of the function the program runs
+	 * @param symbols cannot be null - table every variable of blk, and every
+	 *        table variable of the functions, has its slot in
+	 * @param functions cannot be null - the other functions the program
+	 *        defines, which must all be defined and include every function
+	 *        they and blk call
+	 * @throws IllegalArgumentException if an argument is null or a function
+	 *         is not defined
 	 */
-	public Program(Block blk)
+	public Program(Block blk, SymbolTable symbols, List<Function> functions)
 	{
 		if (blk == null)
 			throw new IllegalArgumentException ("null block argument");
+		if (symbols == null)
+			throw new IllegalArgumentException ("null symbol table argument");
+		if (functions == null)
+			throw new IllegalArgumentException ("null function list argument");
+		this.functions = functions.toArray(new Function[functions.size()]);
+		for (Function function : this.functions)
+			if (function == null || !function.isDefined())
+				throw new IllegalArgumentException ("undefined function argument");
 		this.blk = blk;
+		this.symbols = symbols;
+		variableCount = symbols.size();
+	}
+	public Block getBlock()
+	{
+		return blk;
+	}
+	public SymbolTable getSymbols()
+	{
+		return symbols;
+	}
+	/**
+	 * @return number of functions the program defines besides the one it runs
+	 */
+	public int getFunctionCount()
+	{
+		return functions.length;
+	}
+	/**
+	 * @param i 0 <= i < getFunctionCount()
+	 * @return function at position i, in the order of their definitions
+	 */
+	public Function getFunction(int i)
+	{
+		return functions[i];
+	}
+	/**
+	 * @return unmodifiable list of the functions, in the order of their
+	 *         definitions
+	 */
+	public List<Function> getFunctions()
+	{
+		return Collections.unmodifiableList(Arrays.asList(functions));
+	}
+	/**
+	 * @return number of variable slots an execution of the program uses,
+	 *         the size of its symbol table when it was created
+	 */
+	public int getVariableCount()
+	{
+		return variableCount;
+	}
+	/**
+	 * @return new context holding the final values of the variables
+	 * postcondition: program has been executed in a new context
+	 */
+	public ExecutionContext execute ()
+	{
+		ExecutionContext context = new ExecutionContext();
+		execute (context);
+		return context;
 	}
 	/**
-	 * postcondition: program has been executed
+	 * @param context cannot be null - holds the variables of this execution
+	 * postcondition: context holds at least getVariableCount() slots, the
+	 *                program has been executed in it and the output sink of
+	 *                context has been flushed
+	 * @throws IllegalArgumentException if context is null
 	 */
-	public void execute ()
+	public void execute (ExecutionContext context)
 	{
-		blk.execute();
+		if (context == null)
+			throw new IllegalArgumentException ("null context argument");
+		context.reserve(variableCount);
+		try
+		{
+			blk.execute(context);
+			// a return in the program only ends it
+			context.takeReturnValue();
+		}
+		finally
+		{
+			context.getOutput().flush();
+		}
 	}
 }
\ No newline at end of file
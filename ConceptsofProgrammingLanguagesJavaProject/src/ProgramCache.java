@@ -0,0 +1,294 @@
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * ProgramCache keeps parsed Programs keyed by the SHA-256 hash of their
+ * source bytes, so a script that is run again, under any path, is only read
+ * and hashed instead of lexed and parsed. Since a Program keeps no state of
+ * its own, a cached Program can be executed by many threads at once.
+ *
+ * The cache is split into segments selected by the hash, each an access
+ * ordered LinkedHashMap guarded by its own lock and evicting its least
+ * recently used entry once it is full, so lookups of different scripts
+ * rarely contend and eviction is least recently used per segment. Sources
+ * are parsed outside the lock; if two threads miss on the same source at
+ * once, both parse it and the first Program stored is kept.
+ *
+ * A cache can also prepare every Program it parses before storing it, e.g.
+ * optimize it, so that what a hit returns is ready to execute and keeps
+ * whatever the nodes of the program learn across executions, such as the
+ * traces a Tracer compiles for its loops.
+ */
+public class ProgramCache
+{
+	private static final int MAX_SEGMENTS = 16;
+	private final Segment[] segments;
+	private final UnaryOperator<Program> prepare;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param capacity > 0 - maximum number of Programs kept
+	 * @throws IllegalArgumentException if capacity is not positive
+	 */
+	public ProgramCache(int capacity)
+	{
+		this(capacity, UnaryOperator.identity());
+	}
+
+	/**
+	 * @param capacity > 0 - maximum number of Programs kept
+	 * @param prepare cannot be null - applied to every Program parsed before
+	 *        it is stored; it may be called by several threads at once
+	 * @throws IllegalArgumentException if capacity is not positive or
+	 *         prepare is null
+	 */
+	public ProgramCache(int capacity, UnaryOperator<Program> prepare)
+	{
+		if (capacity <= 0)
+			throw new IllegalArgumentException ("invalid capacity argument");
+		if (prepare == null)
+			throw new IllegalArgumentException ("null prepare argument");
+		this.prepare = prepare;
+		int count = 1;
+		while (count < MAX_SEGMENTS && count * 2 <= capacity)
+			count *= 2;
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++)
+			segments[i] = new Segment (capacity / count + (i < capacity % count ? 1 : 0));
+	}
+
+	/**
+	 * @param fileName cannot be null
+	 * @return Program parsed from the current contents of fileName and
+	 *         prepared
+	 * @throws FileNotFoundException if the file cannot be found
+	 * @throws IOException if the file cannot be read
+	 * @throws ParserException if the file is not a valid program
+	 * @throws IllegalArgumentException if fileName is null
+	 */
+	public Program get(String fileName) throws IOException, ParserException
+	{
+		if (fileName == null)
+			throw new IllegalArgumentException ("null file name argument");
+		byte[] source;
+		try (FileInputStream in = new FileInputStream (fileName))
+		{
+			source = in.readAllBytes();
+		}
+		return get(source);
+	}
+
+	/**
+	 * @param source cannot be null - bytes of the source program
+	 * @return Program parsed from source and prepared
+	 * @throws ParserException if source is not a valid program
+	 * @throws IllegalArgumentException if source is null
+	 */
+	public Program get(byte[] source) throws ParserException
+	{
+		if (source == null)
+			throw new IllegalArgumentException ("null source argument");
+		Key key = new Key (hash (source));
+		Program program = lookup (key);
+		if (program != null)
+			return program;
+		return store (key, prepare.apply(new Parser (source).parse()));
+	}
+
+	/**
+	 * A program file is keyed by the hash of the source it was compiled
+	 * from, stored in its header, so a file is loaded only once however
+	 * often it is asked for, and it shares its Program with its source.
+	 * @param file cannot be null - program file to load
+	 * @return Program stored in file, or parsed from the source it was
+	 *         compiled from, and prepared
+	 * @throws FileNotFoundException if the file cannot be found
+	 * @throws IOException if the file cannot be read
+	 * @throws ProgramFormatException if file is not a program file of this
+	 *         version, or was rewritten from another source while it was
+	 *         loaded
+	 * @throws IllegalArgumentException if file is null
+	 */
+	public Program load(Path file) throws IOException, ProgramFormatException
+	{
+		if (file == null)
+			throw new IllegalArgumentException ("null file argument");
+		byte[] sourceHash;
+		try
+		{
+			sourceHash = ProgramFile.readSourceHash(file);
+		}
+		catch (NoSuchFileException e)
+		{
+			throw new FileNotFoundException (file.toString());
+		}
+		if (sourceHash.length < 4)
+		{
+			// too short to key on, so load it every time
+			misses.increment();
+			return prepare.apply(ProgramFile.load(file));
+		}
+		Key key = new Key (sourceHash);
+		Program program = lookup (key);
+		if (program != null)
+			return program;
+		return store (key, prepare.apply(ProgramFile.load(file, sourceHash)));
+	}
+
+	/**
+	 * @return number of lookups answered from the cache
+	 */
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * @return number of lookups that had to parse the source or load the
+	 *         program file
+	 */
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * @return number of Programs evicted to stay within the capacity
+	 */
+	public long getEvictions()
+	{
+		return evictions.sum();
+	}
+
+	/**
+	 * @return number of Programs currently cached
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (Segment segment : segments)
+			synchronized (segment)
+			{
+				size += segment.size();
+			}
+		return size;
+	}
+
+	/**
+	 * @return Program cached under key, null if none is
+	 * postcondition: the lookup has been counted as a hit or a miss
+	 */
+	private Program lookup(Key key)
+	{
+		Segment segment = segments[key.hashCode() & (segments.length - 1)];
+		Program program;
+		synchronized (segment)
+		{
+			program = segment.get(key);
+		}
+		if (program != null)
+			hits.increment();
+		else
+			misses.increment();
+		return program;
+	}
+
+	/**
+	 * @return Program cached under key, program if none was cached yet
+	 * postcondition: a Program is cached under key
+	 */
+	private Program store(Key key, Program program)
+	{
+		Segment segment = segments[key.hashCode() & (segments.length - 1)];
+		synchronized (segment)
+		{
+			Program cached = segment.putIfAbsent(key, program);
+			return cached != null ? cached : program;
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "program cache: " + size() + " programs, " + getHits() + " hits, " +
+			getMisses() + " misses, " + getEvictions() + " evictions";
+	}
+
+	/**
+	 * @param source cannot be null
+	 * @return SHA-256 hash of source, which also stamps ProgramFile artifacts
+	 */
+	static byte[] hash(byte[] source)
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256").digest(source);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException (e);
+		}
+	}
+
+	/**
+	 * content hash of a source, compared by value
+	 */
+	private static final class Key
+	{
+		private final byte[] digest;
+		private final int hashCode;
+
+		Key(byte[] digest)
+		{
+			this.digest = digest;
+			hashCode = (digest[0] & 0xFF) | (digest[1] & 0xFF) << 8 |
+				(digest[2] & 0xFF) << 16 | digest[3] << 24;
+		}
+		@Override
+		public boolean equals(Object other)
+		{
+			return other instanceof Key && Arrays.equals(digest, ((Key) other).digest);
+		}
+		@Override
+		public int hashCode()
+		{
+			return hashCode;
+		}
+	}
+
+	/**
+	 * least recently used map of one segment; callers hold its lock
+	 */
+	private final class Segment extends LinkedHashMap<Key, Program>
+	{
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+
+		Segment(int capacity)
+		{
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Program> eldest)
+		{
+			if (size() <= capacity)
+				return false;
+			evictions.increment();
+			return true;
+		}
+	}
+}
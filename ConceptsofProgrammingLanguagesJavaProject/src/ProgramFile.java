@@ -0,0 +1,656 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ProgramFile stores a parsed Program in a compact binary form (.luac) that
+ * is loaded with a single memory mapped read and rebuilt directly into
+ * nodes, without going through LexicalAnalyzer or Parser.
+ *
+ * A file starts with a header: the magic number "LUAC", a two byte format
+ * version, a one byte length followed by the SHA-256 hash of the source the
+ * program was parsed from, and the symbol table of the program: a count
+ * followed by every slot in order, each a two byte length, the ASCII
+ * characters of its name and a one byte kind. The functions of the program
+ * follow: a count, then for every function its name, its parameter count and
+ * its own symbol table in the same form, so that every call can be resolved
+ * before any body is read. The tree of the program follows, then the body of
+ * every function in order, in prefix order, each node a one byte tag
+ * followed by its operands:
+ *
+ *   BLOCK count stmt*          ASSIGN slot expr      PRINT expr
+ *   IF bool block block        WHILE bool block      REPEAT block bool
+ *   ID slot                    LITERAL int           BINARY op expr expr
+ *   BOOL op expr expr          POSTFIX count instr*  INDEX slot expr
+ *   INDEX_ASSIGN slot expr expr                      RETURN expr
+ *   CALL function count expr*  CALL_STATEMENT call
+ *
+ * where count, slot, function and int are four bytes, slot being the slot of
+ * a variable in the symbol table of the program or function the node is in,
+ * or of a table in the symbol table of the program, function the index of a
+ * function, and op is the ordinal of the operator. An instr of a
+ * PostfixExpression is its one byte opcode, followed by the slot of a VAR
+ * or ELEMENT or the int of a LITERAL. Files of another version
+ * are rejected, and so are files whose hash does not match the source when
+ * the caller supplies it.
+ *
+ * usage: ProgramFile source.lua [program.luac]   compiles a source file
+ *        ProgramFile -bench source.lua [n]       times parsing against loading
+ */
+public class ProgramFile
+{
+	public static final int MAGIC = 0x4C554143;
+	public static final int VERSION = 4;
+	private static final int BLOCK = 1, ASSIGN = 2, PRINT = 3, IF = 4, WHILE = 5, REPEAT = 6,
+		ID = 7, LITERAL = 8, BINARY = 9, BOOL = 10, POSTFIX = 11, INDEX = 12, INDEX_ASSIGN = 13,
+		CALL = 14, RETURN = 15, CALL_STATEMENT = 16;
+	private static final BinaryExpression.ArithmeticOperator[] ARITHMETIC_OPERATORS =
+		BinaryExpression.ArithmeticOperator.values();
+	private static final BooleanExpression.RelationalOperator[] RELATIONAL_OPERATORS =
+		BooleanExpression.RelationalOperator.values();
+
+	/**
+	 * @param program cannot be null
+	 * @param sourceHash cannot be null - hash of the source program was parsed from
+	 * @return bytes of the program file
+	 * @throws IllegalArgumentException if an argument is null or program
+	 *         contains a node the format does not know
+	 */
+	public static byte[] toBytes(Program program, byte[] sourceHash)
+	{
+		if (program == null)
+			throw new IllegalArgumentException ("null program argument");
+		if (sourceHash == null || sourceHash.length > 255)
+			throw new IllegalArgumentException ("invalid source hash argument");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream (bytes);
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeByte(sourceHash.length);
+			out.write(sourceHash);
+			writeSymbols (out, program.getSymbols());
+			Map<Function, Integer> functions = new HashMap<Function, Integer>();
+			out.writeInt(program.getFunctionCount());
+			for (int i = 0; i < program.getFunctionCount(); i++)
+			{
+				Function function = program.getFunction(i);
+				functions.put(function, i);
+				writeName (out, function.getName());
+				out.writeInt(function.getParameterCount());
+				writeSymbols (out, function.getLocals());
+			}
+			writeBlock (out, program.getBlock(), functions);
+			for (int i = 0; i < program.getFunctionCount(); i++)
+				writeBlock (out, program.getFunction(i).getBody(), functions);
+		}
+		catch (IOException e)
+		{
+			// writing to a ByteArrayOutputStream cannot fail
+			throw new IllegalStateException (e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param source cannot be null - source file to compile
+	 * @param target cannot be null - program file to write
+	 * @throws FileNotFoundException if source cannot be found
+	 * @throws IOException if source cannot be read or target cannot be written
+	 * @throws ParserException if source is not a valid program
+	 * postcondition: target holds the program parsed from source
+	 */
+	public static void compile(Path source, Path target) throws IOException, ParserException
+	{
+		if (source == null || target == null)
+			throw new IllegalArgumentException ("null path argument");
+		byte[] bytes = readSource (source);
+		Program program = new Parser (bytes).parse();
+		Files.write(target, toBytes (program, ProgramCache.hash(bytes)));
+	}
+
+	/**
+	 * @param file cannot be null - program file to load
+	 * @return program stored in file
+	 * @throws IOException if file cannot be read
+	 * @throws ProgramFormatException if file is not a program file of this version
+	 */
+	public static Program load(Path file) throws IOException, ProgramFormatException
+	{
+		return load(file, null);
+	}
+
+	/**
+	 * @param file cannot be null - program file to load
+	 * @param sourceHash hash the file must have been compiled from, or null
+	 *        to accept any source
+	 * @return program stored in file
+	 * @throws IOException if file cannot be read
+	 * @throws ProgramFormatException if file is not a program file of this
+	 *         version or was compiled from another source
+	 */
+	public static Program load(Path file, byte[] sourceHash) throws IOException, ProgramFormatException
+	{
+		if (file == null)
+			throw new IllegalArgumentException ("null file argument");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return fromBytes (buffer, sourceHash);
+		}
+	}
+
+	/**
+	 * @param file cannot be null - program file
+	 * @return hash of the source the file was compiled from, read from its
+	 *         header without loading the program
+	 * @throws IOException if file cannot be read
+	 * @throws ProgramFormatException if file is not a program file of this
+	 *         version
+	 * @throws IllegalArgumentException if file is null
+	 */
+	public static byte[] readSourceHash(Path file) throws IOException, ProgramFormatException
+	{
+		if (file == null)
+			throw new IllegalArgumentException ("null file argument");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			// magic, version, hash length and the longest hash
+			long length = Math.min(channel.size(), 4 + 2 + 1 + 255);
+			return readHeader (channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new ProgramFormatException ("truncated program file");
+		}
+	}
+
+	/**
+	 * @param buffer cannot be null - program file positioned at its start
+	 * @param sourceHash hash the file must have been compiled from, or null
+	 *        to accept any source
+	 * @return program stored in buffer
+	 * @throws ProgramFormatException if buffer does not hold a program of this
+	 *         version or it was compiled from another source
+	 */
+	public static Program fromBytes(ByteBuffer buffer, byte[] sourceHash) throws ProgramFormatException
+	{
+		if (buffer == null)
+			throw new IllegalArgumentException ("null buffer argument");
+		try
+		{
+			byte[] hash = readHeader (buffer);
+			if (sourceHash != null && !Arrays.equals(hash, sourceHash))
+				throw new ProgramFormatException ("program file is stale");
+			SymbolTable symbols = new SymbolTable();
+			Id[] globals = readSymbols (buffer, symbols);
+			int count = buffer.getInt();
+			if (count < 0 || count > buffer.remaining())
+				throw new ProgramFormatException ("corrupt program file");
+			Function[] functions = new Function[count];
+			int[] parameterCounts = new int[count];
+			SymbolTable[] locals = new SymbolTable[count];
+			Scope[] scopes = new Scope[count];
+			for (int i = 0; i < count; i++)
+			{
+				functions[i] = new Function (readName (buffer));
+				parameterCounts[i] = buffer.getInt();
+				locals[i] = new SymbolTable();
+				scopes[i] = new Scope (readSymbols (buffer, locals[i]), globals, functions);
+			}
+			Block blk = readBlock (buffer, new Scope (globals, globals, functions));
+			for (int i = 0; i < count; i++)
+				functions[i].define(parameterCounts[i], locals[i], readBlock (buffer, scopes[i]));
+			Program program = new Program (blk, symbols, Arrays.asList(functions));
+			if (buffer.hasRemaining())
+				throw new ProgramFormatException ("garbage at end of program file");
+			return program;
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new ProgramFormatException ("truncated program file");
+		}
+		catch (IllegalArgumentException | IllegalStateException | IndexOutOfBoundsException e)
+		{
+			throw new ProgramFormatException ("corrupt program file");
+		}
+	}
+
+	/**
+	 * @return hash of the source stored in the header at the start of buffer
+	 * @throws ProgramFormatException if the header is not one of a program
+	 *         file of this version
+	 * postcondition: buffer is positioned after the hash
+	 */
+	private static byte[] readHeader(ByteBuffer buffer) throws ProgramFormatException
+	{
+		if (buffer.getInt() != MAGIC)
+			throw new ProgramFormatException ("not a program file");
+		int version = buffer.getShort() & 0xFFFF;
+		if (version != VERSION)
+			throw new ProgramFormatException ("unsupported program file version " + version);
+		byte[] hash = new byte[buffer.get() & 0xFF];
+		buffer.get(hash);
+		return hash;
+	}
+
+	/**
+	 * The nodes a slot or function index read refers to: the variables of
+	 * the program or function being read, the tables of the program and the
+	 * functions of the program. Id nodes hold no state, so the loader shares
+	 * one per variable.
+	 */
+	private static class Scope
+	{
+		final Id[] ids;
+		final Id[] tables;
+		final Function[] functions;
+
+		Scope(Id[] ids, Id[] tables, Function[] functions)
+		{
+			this.ids = ids;
+			this.tables = tables;
+			this.functions = functions;
+		}
+	}
+
+	private static void writeName(DataOutputStream out, String name) throws IOException
+	{
+		out.writeShort(name.length());
+		out.writeBytes(name);
+	}
+
+	private static void writeSymbols(DataOutputStream out, SymbolTable symbols) throws IOException
+	{
+		out.writeInt(symbols.size());
+		for (int slot = 0; slot < symbols.size(); slot++)
+		{
+			writeName (out, symbols.getName(slot));
+			out.writeByte(symbols.getKind(slot));
+		}
+	}
+
+	private static String readName(ByteBuffer in)
+	{
+		char[] name = new char[in.getShort() & 0xFFFF];
+		for (int i = 0; i < name.length; i++)
+			name[i] = (char) (in.get() & 0xFF);
+		return new String (name);
+	}
+
+	/**
+	 * @return an Id for every slot of the symbol table that follows in in,
+	 *         which has been read into symbols
+	 */
+	private static Id[] readSymbols(ByteBuffer in, SymbolTable symbols) throws ProgramFormatException
+	{
+		int count = in.getInt();
+		if (count < 0 || count > in.remaining())
+			throw new ProgramFormatException ("corrupt program file");
+		Id[] ids = new Id[count];
+		for (int slot = 0; slot < count; slot++)
+		{
+			String name = readName (in);
+			if (symbols.intern(name) != slot)
+				throw new ProgramFormatException ("corrupt program file");
+			int kind = in.get();
+			if (kind != SymbolTable.UNUSED && !symbols.use(slot, kind))
+				throw new ProgramFormatException ("corrupt program file");
+			ids[slot] = new Id (name, slot);
+		}
+		return ids;
+	}
+
+	private static byte[] readSource(Path source) throws IOException
+	{
+		try
+		{
+			return Files.readAllBytes(source);
+		}
+		catch (NoSuchFileException e)
+		{
+			throw new FileNotFoundException (source.toString());
+		}
+	}
+
+	private static void writeBlock(DataOutputStream out, Block blk, Map<Function, Integer> functions)
+		throws IOException
+	{
+		out.writeByte(BLOCK);
+		out.writeInt(blk.size());
+		for (int i = 0; i < blk.size(); i++)
+			writeStatement (out, blk.getStatement(i), functions);
+	}
+
+	private static void writeStatement(DataOutputStream out, Statement stmt, Map<Function, Integer> functions)
+		throws IOException
+	{
+		if (stmt instanceof AssignmentStatement)
+		{
+			out.writeByte(ASSIGN);
+			out.writeInt(((AssignmentStatement) stmt).getVar().getSlot());
+			writeExpression (out, ((AssignmentStatement) stmt).getExpr(), functions);
+		}
+		else if (stmt instanceof IndexAssignmentStatement)
+		{
+			IndexExpression target = ((IndexAssignmentStatement) stmt).getTarget();
+			out.writeByte(INDEX_ASSIGN);
+			out.writeInt(target.getSlot());
+			writeExpression (out, target.getIndex(), functions);
+			writeExpression (out, ((IndexAssignmentStatement) stmt).getExpr(), functions);
+		}
+		else if (stmt instanceof PrintStatement)
+		{
+			out.writeByte(PRINT);
+			writeExpression (out, ((PrintStatement) stmt).getExpr(), functions);
+		}
+		else if (stmt instanceof IfStatement)
+		{
+			IfStatement ifStmt = (IfStatement) stmt;
+			out.writeByte(IF);
+			writeExpression (out, ifStmt.getExpr(), functions);
+			writeBlock (out, ifStmt.getBlock1(), functions);
+			writeBlock (out, ifStmt.getBlock2(), functions);
+		}
+		else if (stmt instanceof WhileStatement)
+		{
+			// a CountedLoopStatement is written as the loop it replaced, and
+			// is recognized again when the loaded program is optimized
+			out.writeByte(WHILE);
+			writeExpression (out, ((WhileStatement) stmt).getExpr(), functions);
+			writeBlock (out, ((WhileStatement) stmt).getBlock(), functions);
+		}
+		else if (stmt instanceof RepeatStatement)
+		{
+			out.writeByte(REPEAT);
+			writeBlock (out, ((RepeatStatement) stmt).getBlock(), functions);
+			writeExpression (out, ((RepeatStatement) stmt).getExpr(), functions);
+		}
+		else if (stmt instanceof ReturnStatement)
+		{
+			out.writeByte(RETURN);
+			writeExpression (out, ((ReturnStatement) stmt).getExpr(), functions);
+		}
+		else if (stmt instanceof CallStatement)
+		{
+			out.writeByte(CALL_STATEMENT);
+			writeExpression (out, ((CallStatement) stmt).getCall(), functions);
+		}
+		else
+			throw new IllegalArgumentException ("unsupported statement " + stmt.getClass().getName());
+	}
+
+	private static void writeExpression(DataOutputStream out, BooleanExpression expr,
+		Map<Function, Integer> functions) throws IOException
+	{
+		out.writeByte(BOOL);
+		out.writeByte(expr.getOp().ordinal());
+		writeExpression (out, expr.getExpr1(), functions);
+		writeExpression (out, expr.getExpr2(), functions);
+	}
+
+	private static void writeExpression(DataOutputStream out, ArithmeticExpression expr,
+		Map<Function, Integer> functions) throws IOException
+	{
+		if (expr instanceof Id)
+		{
+			out.writeByte(ID);
+			out.writeInt(((Id) expr).getSlot());
+		}
+		else if (expr instanceof LiteralInteger)
+		{
+			out.writeByte(LITERAL);
+			out.writeInt(((LiteralInteger) expr).getValue());
+		}
+		else if (expr instanceof IndexExpression)
+		{
+			out.writeByte(INDEX);
+			out.writeInt(((IndexExpression) expr).getSlot());
+			writeExpression (out, ((IndexExpression) expr).getIndex(), functions);
+		}
+		else if (expr instanceof BinaryExpression)
+		{
+			BinaryExpression binary = (BinaryExpression) expr;
+			out.writeByte(BINARY);
+			out.writeByte(binary.getOp().ordinal());
+			writeExpression (out, binary.getExpr1(), functions);
+			writeExpression (out, binary.getExpr2(), functions);
+		}
+		else if (expr instanceof PostfixExpression)
+		{
+			PostfixExpression postfix = (PostfixExpression) expr;
+			out.writeByte(POSTFIX);
+			out.writeInt(postfix.size());
+			for (int i = 0; i < postfix.size(); i++)
+			{
+				int opcode = postfix.getOpcode(i);
+				out.writeByte(opcode);
+				if (opcode == PostfixExpression.VAR || opcode == PostfixExpression.ELEMENT ||
+						opcode == PostfixExpression.LITERAL)
+					out.writeInt(postfix.getOperand(i));
+			}
+		}
+		else if (expr instanceof CallExpression)
+		{
+			CallExpression call = (CallExpression) expr;
+			Integer function = functions.get(call.getFunction());
+			if (function == null)
+				throw new IllegalArgumentException ("call to " + call.getFunction().getName() + " not in the program");
+			out.writeByte(CALL);
+			out.writeInt(function);
+			out.writeInt(call.size());
+			for (int i = 0; i < call.size(); i++)
+				writeExpression (out, call.getArgument(i), functions);
+		}
+		else
+			throw new IllegalArgumentException ("unsupported expression " + expr.getClass().getName());
+	}
+
+	private static Block readBlock(ByteBuffer in, Scope scope) throws ProgramFormatException
+	{
+		expect (in, BLOCK);
+		int count = in.getInt();
+		if (count < 0 || count > in.remaining())
+			throw new ProgramFormatException ("corrupt program file");
+		List<Statement> stmts = new ArrayList<Statement>(count);
+		for (int i = 0; i < count; i++)
+			stmts.add(readStatement (in, scope));
+		return new Block (stmts);
+	}
+
+	private static Statement readStatement(ByteBuffer in, Scope scope) throws ProgramFormatException
+	{
+		int tag = in.get();
+		switch (tag) {
+			case ASSIGN:
+				Id var = scope.ids[in.getInt()];
+				return new AssignmentStatement (var, readExpression (in, scope));
+			case INDEX_ASSIGN:
+				IndexExpression target = readIndex (in, scope);
+				return new IndexAssignmentStatement (target, readExpression (in, scope));
+			case PRINT:
+				return new PrintStatement (readExpression (in, scope));
+			case IF:
+				BooleanExpression expr = readBooleanExpression (in, scope);
+				Block blk1 = readBlock (in, scope);
+				return new IfStatement (expr, blk1, readBlock (in, scope));
+			case WHILE:
+				BooleanExpression condition = readBooleanExpression (in, scope);
+				return new WhileStatement (condition, readBlock (in, scope));
+			case REPEAT:
+				Block blk = readBlock (in, scope);
+				return new RepeatStatement (blk, readBooleanExpression (in, scope));
+			case RETURN:
+				return new ReturnStatement (readExpression (in, scope));
+			case CALL_STATEMENT:
+				expect (in, CALL);
+				return new CallStatement (readCall (in, scope));
+			default:
+				throw new ProgramFormatException ("invalid statement tag " + tag);
+		}
+	}
+
+	private static BooleanExpression readBooleanExpression(ByteBuffer in, Scope scope) throws ProgramFormatException
+	{
+		expect (in, BOOL);
+		BooleanExpression.RelationalOperator op = RELATIONAL_OPERATORS[in.get()];
+		ArithmeticExpression expr1 = readExpression (in, scope);
+		return BooleanExpression.create (op, expr1, readExpression (in, scope));
+	}
+
+	private static ArithmeticExpression readExpression(ByteBuffer in, Scope scope) throws ProgramFormatException
+	{
+		int tag = in.get();
+		switch (tag) {
+			case ID:
+				return scope.ids[in.getInt()];
+			case LITERAL:
+				return new LiteralInteger (in.getInt());
+			case INDEX:
+				return readIndex (in, scope);
+			case BINARY:
+				BinaryExpression.ArithmeticOperator op = ARITHMETIC_OPERATORS[in.get()];
+				ArithmeticExpression expr1 = readExpression (in, scope);
+				return BinaryExpression.create (op, expr1, readExpression (in, scope));
+			case POSTFIX:
+				int count = in.getInt();
+				if (count < 0 || count > in.remaining())
+					throw new ProgramFormatException ("corrupt program file");
+				byte[] opcodes = new byte[count];
+				int[] operands = new int[count];
+				for (int i = 0; i < count; i++)
+				{
+					opcodes[i] = in.get();
+					if (opcodes[i] == PostfixExpression.VAR)
+						operands[i] = scope.ids[in.getInt()].getSlot();
+					else if (opcodes[i] == PostfixExpression.ELEMENT)
+						operands[i] = scope.tables[in.getInt()].getSlot();
+					else if (opcodes[i] == PostfixExpression.LITERAL)
+						operands[i] = in.getInt();
+				}
+				return new PostfixExpression (opcodes, operands);
+			case CALL:
+				return readCall (in, scope);
+			default:
+				throw new ProgramFormatException ("invalid expression tag " + tag);
+		}
+	}
+
+	/**
+	 * @return call whose function and arguments follow in in
+	 */
+	private static CallExpression readCall(ByteBuffer in, Scope scope) throws ProgramFormatException
+	{
+		Function function = scope.functions[in.getInt()];
+		int count = in.getInt();
+		if (count < 0 || count > in.remaining())
+			throw new ProgramFormatException ("corrupt program file");
+		ArithmeticExpression[] args = new ArithmeticExpression[count];
+		for (int i = 0; i < count; i++)
+			args[i] = readExpression (in, scope);
+		return new CallExpression (function, args);
+	}
+
+	/**
+	 * @return index expression whose slot and index follow in in
+	 */
+	private static IndexExpression readIndex(ByteBuffer in, Scope scope) throws ProgramFormatException
+	{
+		Id table = scope.tables[in.getInt()];
+		return new IndexExpression (table.getName(), table.getSlot(), readExpression (in, scope));
+	}
+
+	private static void expect(ByteBuffer in, int tag) throws ProgramFormatException
+	{
+		int actual = in.get();
+		if (actual != tag)
+			throw new ProgramFormatException ("invalid tag " + actual + ", expected " + tag);
+	}
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			if (args.length >= 2 && args[0].equals("-bench"))
+				bench (Paths.get(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : 200);
+			else if (args.length >= 1 && !args[0].startsWith("-"))
+			{
+				String source = args[0];
+				String target = args.length > 1 ? args[1] :
+					(source.endsWith(".lua") ? source.substring(0, source.length() - 4) : source) + ".luac";
+				compile (Paths.get(source), Paths.get(target));
+			}
+			else
+				System.out.println ("usage: ProgramFile source.lua [program.luac] | -bench source.lua [n]");
+		}
+		catch (ParserException | ProgramFormatException e)
+		{
+			System.out.println (e.getMessage());
+		}
+		catch (FileNotFoundException e)
+		{
+			System.out.println ("source file is not found");
+		}
+		catch (IOException e)
+		{
+			System.out.println ("unable to read or write program file");
+		}
+		catch (NumberFormatException e)
+		{
+			System.out.println ("invalid iteration count");
+		}
+	}
+
+	/**
+	 * postcondition: the mean time to parse source and to load it from a
+	 *                program file over n runs, after as many warm-up runs,
+	 *                has been printed
+	 */
+	private static void bench(Path source, int n) throws IOException, ParserException, ProgramFormatException
+	{
+		Path compiled = Files.createTempFile("bench", ".luac");
+		try
+		{
+			compile (source, compiled);
+			byte[] hash = ProgramCache.hash(readSource (source));
+			long parseNanos = 0, loadNanos = 0;
+			for (int run = 0; run < 2 * n; run++)
+			{
+				long start = System.nanoTime();
+				new Parser (readSource (source)).parse();
+				long parsed = System.nanoTime();
+				load (compiled, hash);
+				long loaded = System.nanoTime();
+				if (run >= n)
+				{
+					parseNanos += parsed - start;
+					loadNanos += loaded - parsed;
+				}
+			}
+			System.out.printf("%s: %d bytes of source, %d bytes compiled%n", source,
+				Files.size(source), Files.size(compiled));
+			System.out.printf("parse %.3f ms, load %.3f ms, %.1fx faster%n", parseNanos / 1e6 / n,
+				loadNanos / 1e6 / n, (double) parseNanos / loadNanos);
+		}
+		finally
+		{
+			Files.delete(compiled);
+		}
+	}
+}
@@ -0,0 +1,12 @@
+
+public class ProgramFormatException extends Exception
+{
+
+	private static final long serialVersionUID = -3349172519405387811L;
+
+	public ProgramFormatException(String message)
+	{
+		super (message);
+	}
+
+}
@@ -3,6 +3,7 @@ public class RepeatStatement implements Statement
 {
 	private Block blk;
 	private BooleanExpression expr;
+	private final TraceState traceState = new TraceState();
 	/**
 	 * @param blk  cannot be null
 	 * @param expr cannot be null
@@ -16,12 +17,36 @@ public class RepeatStatement implements Statement
 		this.blk = blk;
 		this.expr = expr;
 	}
+	public Block getBlock() {
+		return blk;
+	}
+	public BooleanExpression getExpr() {
+		return expr;
+	}
+	/**
+	 * @return what the tracers know about the loop
+	 */
+	public TraceState getTraceState() {
+		return traceState;
+	}
+	/**
+	 * postcondition: the loop has been executed, under the tracer of context
+	 *                if it has one
+	 */
 	@Override
-	public void execute() {
+	public void execute(ExecutionContext context) {
+		Tracer tracer = context.getTracer();
+		if (tracer != null)
+		{
+			tracer.execute(this, context);
+			return;
+		}
 		do
 		{
-			blk.execute();
+			blk.execute(context);
+			if (context.isReturning())
+				return;
 		}
-		while (!expr.evaluate());		
+		while (!expr.evaluate(context));		
 	}
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+/**
+ * ReturnStatement ends the function it is in with a value, as in
+ * return + a b; it is the last statement of its block. A return in the
+ * function a program runs ends the program.
+ */
+public class ReturnStatement implements Statement
+{
+	private ArithmeticExpression expr;
+	/**
+	 * @param expr cannot be null - value returned
+	 * @throws IllegalArgumentException if expr is null
+	 */
+	public ReturnStatement(ArithmeticExpression expr)
+	{
+		if (expr == null)
+			throw new IllegalArgumentException ("null ArithmeticExpression argument");
+		this.expr = expr;
+	}
+	public ArithmeticExpression getExpr()
+	{
+		return expr;
+	}
+	@Override
+	public void execute(ExecutionContext context)
+	{
+		context.setReturnValue(expr.evaluate(context));
+	}
+}
@@ -0,0 +1,291 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Scheduler runs many programs round-robin over a fixed pool of worker
+ * threads. Programs are compiled for the bytecode VM and run in slices of a
+ * fixed amount of fuel: a worker takes the program at the head of the run
+ * queue, runs one slice and, unless the program finished, appends it to the
+ * tail again. A program that loops forever therefore only delays the others
+ * by one slice per round instead of holding a worker, and is stopped once
+ * its deadline has passed.
+ *
+ * usage: Scheduler [-threads n] [-fuel n] [-timeout ms] [-O0] directory|manifest
+ *
+ * Scripts are listed, and their outcomes reported, as by BatchRunner.
+ */
+public class Scheduler
+{
+	/** default number of backward jumps per slice */
+	public static final long DEFAULT_FUEL = 10000;
+
+	private final long fuel;
+	private final BlockingQueue<Job> runQueue = new LinkedBlockingQueue<Job>();
+	private final ExecutorService workers;
+
+	/**
+	 * @param threads > 0 - number of worker threads
+	 * @param fuel > 0 - number of backward jumps a program may take per slice
+	 * @throws IllegalArgumentException if any argument is invalid
+	 */
+	public Scheduler(int threads, long fuel)
+	{
+		if (threads <= 0)
+			throw new IllegalArgumentException ("invalid thread count argument");
+		if (fuel <= 0)
+			throw new IllegalArgumentException ("invalid fuel argument");
+		this.fuel = fuel;
+		workers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread (runnable, "scheduler-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		for (int i = 0; i < threads; i++)
+			workers.execute(this::work);
+	}
+
+	/**
+	 * @param program cannot be null
+	 * @param context cannot be null - context the program is executed in
+	 * @param timeout > 0 - nanoseconds the program may take from now
+	 * @return future of context, completed once the program has finished, or
+	 *         failed with a TimeoutException once its deadline has passed or
+	 *         with the exception the program threw
+	 * @throws IllegalArgumentException if any argument is invalid
+	 */
+	public CompletableFuture<ExecutionContext> submit(Program program, ExecutionContext context, long timeout)
+	{
+		if (program == null)
+			throw new IllegalArgumentException ("null program argument");
+		return submit(new BytecodeCompiler().compile(program), context, timeout);
+	}
+
+	/**
+	 * @param code cannot be null - program compiled for the bytecode VM
+	 * @param context cannot be null - context the program is executed in
+	 * @param timeout > 0 - nanoseconds the program may take from now
+	 * @return future of context, as for a Program
+	 * @throws IllegalArgumentException if any argument is invalid
+	 */
+	public CompletableFuture<ExecutionContext> submit(BytecodeProgram code, ExecutionContext context, long timeout)
+	{
+		if (code == null)
+			throw new IllegalArgumentException ("null code argument");
+		if (context == null)
+			throw new IllegalArgumentException ("null context argument");
+		if (timeout <= 0)
+			throw new IllegalArgumentException ("invalid timeout argument");
+		Job job = new Job (code.start(context), System.nanoTime() + timeout);
+		runQueue.add(job);
+		return job.result;
+	}
+
+	/**
+	 * postcondition: the workers have stopped and every program not yet
+	 *                finished has been cancelled
+	 */
+	public void shutdown()
+	{
+		workers.shutdownNow();
+		try
+		{
+			workers.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		for (Job job : runQueue)
+			job.result.cancel(false);
+		runQueue.clear();
+	}
+
+	/**
+	 * loop of a worker thread, running one slice at a time until interrupted
+	 */
+	private void work()
+	{
+		try
+		{
+			while (true)
+			{
+				Job job = runQueue.take();
+				if (job.result.isDone())
+					continue;
+				BytecodeProgram.Execution execution = job.execution;
+				if (System.nanoTime() - job.deadline > 0)
+				{
+					execution.stop();
+					job.result.completeExceptionally(new TimeoutException ("deadline exceeded after " +
+						execution.getSlices() + " slices"));
+					continue;
+				}
+				try
+				{
+					if (execution.resume(fuel))
+						job.result.complete(execution.getContext());
+					else
+						runQueue.add(job);
+				}
+				catch (RuntimeException | StackOverflowError e)
+				{
+					// a worker that died would leave its program unfinished for good
+					job.result.completeExceptionally(e);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// shut down
+		}
+	}
+
+	/**
+	 * program waiting in the run queue
+	 */
+	private static final class Job
+	{
+		private final BytecodeProgram.Execution execution;
+		private final long deadline;
+		private final CompletableFuture<ExecutionContext> result = new CompletableFuture<ExecutionContext>();
+
+		Job(BytecodeProgram.Execution execution, long deadline)
+		{
+			this.execution = execution;
+			this.deadline = deadline;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		long fuel = DEFAULT_FUEL;
+		long timeout = 1000;
+		boolean optimize = true;
+		String source = null;
+		try
+		{
+			for (int i = 0; i < args.length; i++)
+			{
+				if (args[i].equals("-threads") && i + 1 < args.length)
+					threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-fuel") && i + 1 < args.length)
+					fuel = Long.parseLong(args[++i]);
+				else if (args[i].equals("-timeout") && i + 1 < args.length)
+					timeout = Long.parseLong(args[++i]);
+				else if (args[i].equals("-O0"))
+					optimize = false;
+				else
+					source = args[i];
+			}
+			if (source == null || timeout <= 0)
+				throw new IllegalArgumentException ("usage: Scheduler [-threads n] [-fuel n] " +
+					"[-timeout ms] [-O0] directory|manifest");
+			List<Path> scripts = BatchRunner.listScripts (Paths.get(source));
+			Scheduler scheduler = new Scheduler (threads, fuel);
+			Optimizer optimizer = new Optimizer (optimize);
+			PrintStream out = new PrintStream (new BufferedOutputStream (System.out, 1 << 16), false);
+			List<BatchRunner.Status> statuses = new ArrayList<BatchRunner.Status>();
+			List<String> messages = new ArrayList<String>();
+			List<MemoryOutputSink> outputs = new ArrayList<MemoryOutputSink>();
+			List<CompletableFuture<ExecutionContext>> results = new ArrayList<CompletableFuture<ExecutionContext>>();
+			List<CompletableFuture<Long>> finished = new ArrayList<CompletableFuture<Long>>();
+			long start = System.nanoTime();
+			for (Path script : scripts)
+			{
+				MemoryOutputSink output = new MemoryOutputSink();
+				outputs.add(output);
+				try
+				{
+					Program program = optimizer.optimize(new Parser (script.toString()).parse());
+					CompletableFuture<ExecutionContext> result = scheduler.submit(program,
+						new ExecutionContext (output), TimeUnit.MILLISECONDS.toNanos(timeout));
+					results.add(result);
+					finished.add(result.handle((context, e) -> System.nanoTime()));
+					statuses.add(BatchRunner.Status.OK);
+					messages.add(null);
+				}
+				catch (IOException | LexicalException | ParserException | RuntimeException | StackOverflowError e)
+				{
+					results.add(null);
+					finished.add(CompletableFuture.completedFuture(System.nanoTime()));
+					statuses.add(BatchRunner.statusOf (e));
+					messages.add(BatchRunner.messageOf (e));
+				}
+			}
+			long[] latencies = new long[scripts.size()];
+			int failed = 0;
+			try
+			{
+				for (int i = 0; i < scripts.size(); i++)
+				{
+					BatchRunner.Status status = statuses.get(i);
+					String message = messages.get(i);
+					if (results.get(i) != null)
+					{
+						try
+						{
+							results.get(i).get();
+						}
+						catch (ExecutionException e)
+						{
+							status = BatchRunner.statusOf (e.getCause());
+							message = BatchRunner.messageOf (e.getCause());
+						}
+					}
+					latencies[i] = finished.get(i).get() - start;
+					out.printf("== %s: %s (%.3f ms)%n", scripts.get(i), status, latencies[i] / 1e6);
+					out.print(outputs.get(i));
+					if (message != null)
+					{
+						out.println(message);
+						failed++;
+					}
+				}
+			}
+			finally
+			{
+				scheduler.shutdown();
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			Arrays.sort(latencies);
+			out.printf("%d scripts, %d ok, %d failed in %.3f s on %d workers, %d fuel per slice%n",
+				scripts.size(), scripts.size() - failed, failed, seconds, threads, fuel);
+			if (latencies.length > 0)
+				out.printf("completion p50 %.3f ms, p99 %.3f ms%n",
+					latencies[(latencies.length - 1) / 2] / 1e6,
+					latencies[(int) ((latencies.length - 1) * 0.99)] / 1e6);
+			out.flush();
+		}
+		catch (NumberFormatException e)
+		{
+			System.out.println ("invalid thread count, fuel or timeout");
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.out.println (e.getMessage());
+		}
+		catch (IOException e)
+		{
+			System.out.println ("unable to read " + source);
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			System.out.println ("scheduler interrupted - terminating");
+		}
+	}
+}
@@ -0,0 +1,63 @@
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * SourceMap is a side table recording where in the source the nodes built by
+ * a Parser start, so that tools such as the Profiler can report on nodes by
+ * row and column without the nodes themselves carrying positions. Nodes are
+ * compared by identity.
+ */
+public class SourceMap
+{
+	private final Map<Object, int[]> positions = new IdentityHashMap<Object, int[]>();
+
+	/**
+	 * @param node cannot be null
+	 * @param row > 0 - row of the first token of node
+	 * @param column > 0 - column of the first token of node
+	 * @throws IllegalArgumentException if any argument is invalid
+	 * postcondition: node has been recorded as starting at row and column
+	 */
+	public void put(Object node, int row, int column)
+	{
+		if (node == null)
+			throw new IllegalArgumentException ("null node argument");
+		if (row <= 0 || column <= 0)
+			throw new IllegalArgumentException ("invalid position argument");
+		positions.put(node, new int[] {row, column});
+	}
+
+	/**
+	 * @return whether the position of node has been recorded
+	 */
+	public boolean contains(Object node)
+	{
+		return positions.containsKey(node);
+	}
+
+	/**
+	 * @return row node starts at, or 0 if it has not been recorded
+	 */
+	public int getRowNumber(Object node)
+	{
+		int[] position = positions.get(node);
+		return position == null ? 0 : position[0];
+	}
+
+	/**
+	 * @return column node starts at, or 0 if it has not been recorded
+	 */
+	public int getColumnNumber(Object node)
+	{
+		int[] position = positions.get(node);
+		return position == null ? 0 : position[1];
+	}
+
+	/**
+	 * @return number of nodes recorded
+	 */
+	public int size()
+	{
+		return positions.size();
+	}
+}
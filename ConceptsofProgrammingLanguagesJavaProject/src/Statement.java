@@ -1,7 +1,8 @@
 
 public interface Statement {
 	/**
+	 * @param context holds the variables the statement reads and writes
 	 *  statement has been executed
 	 */
-	public void execute();
+	public void execute(ExecutionContext context);
 }
@@ -0,0 +1,95 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * StreamOutputSink buffers printed values and writes them in large chunks
+ * to an OutputStream or a channel such as a FileChannel, once the buffer is
+ * full and when the sink is flushed.
+ */
+public class StreamOutputSink extends ByteOutputSink
+{
+	private static final int BUFFER_SIZE = 65536;
+	private final OutputStream stream;
+	private final WritableByteChannel channel;
+
+	/**
+	 * @param stream cannot be null - destination of the output
+	 * @throws IllegalArgumentException if stream is null
+	 */
+	public StreamOutputSink(OutputStream stream)
+	{
+		super(BUFFER_SIZE);
+		if (stream == null)
+			throw new IllegalArgumentException ("null stream argument");
+		this.stream = stream;
+		this.channel = null;
+	}
+
+	/**
+	 * @param channel cannot be null - destination of the output
+	 * @throws IllegalArgumentException if channel is null
+	 */
+	public StreamOutputSink(WritableByteChannel channel)
+	{
+		super(BUFFER_SIZE);
+		if (channel == null)
+			throw new IllegalArgumentException ("null channel argument");
+		this.stream = null;
+		this.channel = channel;
+	}
+
+	@Override
+	protected void overflow()
+	{
+		drain();
+	}
+
+	/**
+	 * @throws UncheckedIOException if the output cannot be written
+	 */
+	@Override
+	public void flush()
+	{
+		drain();
+		if (stream != null)
+		{
+			try
+			{
+				stream.flush();
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException (e);
+			}
+		}
+	}
+
+	/**
+	 * postcondition: the buffer has been written to the destination and emptied
+	 */
+	private void drain()
+	{
+		try
+		{
+			if (stream != null)
+				stream.write(buffer, 0, length);
+			else
+			{
+				ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, length);
+				while (chunk.hasRemaining())
+					channel.write(chunk);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException (e);
+		}
+		finally
+		{
+			length = 0;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+import java.util.Arrays;
+
+/**
+ * SymbolTable gives every variable name of a program a dense slot, in the
+ * order the names are first seen: the first name gets slot 0, the next new
+ * name slot 1 and so on. Parser interns every identifier it reads, so the
+ * slots of the variables of a Program run from 0 to size() - 1 and an
+ * ExecutionContext holds them in an array of size() values that Id and
+ * AssignmentStatement index directly.
+ *
+ * Every variable also has a kind, set by the first use the parser makes of
+ * it: a scalar holds an int and a table an IntTable, and a variable cannot
+ * be used as both. A name that is called is the name of a function, and
+ * cannot be used as a variable in the same function.
+ *
+ * Names are kept in an open addressing hash table keyed by the same hash as
+ * String.hashCode, so a name can be looked up straight from the characters
+ * of the source, without creating a String unless the name is new.
+ */
+public class SymbolTable
+{
+	/**
+	 * kinds of name: not used yet, a variable holding an int, a variable
+	 * holding an IntTable, a function called
+	 */
+	public static final int UNUSED = 0, SCALAR = 1, TABLE = 2, FUNCTION = 3;
+	private String[] names = new String[16];
+	private byte[] kinds = new byte[16];
+	private int size;
+	// slot + 1 of the name hashed to each bucket, 0 for an empty bucket
+	private int[] buckets = new int[32];
+
+	/**
+	 * @return number of names, which is one more than the last slot
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @param slot 0 <= slot < size()
+	 * @return name of the variable in slot
+	 * @throws IllegalArgumentException if slot is out of range
+	 */
+	public String getName(int slot)
+	{
+		if (slot < 0 || slot >= size)
+			throw new IllegalArgumentException ("invalid slot argument");
+		return names[slot];
+	}
+
+	/**
+	 * @param slot 0 <= slot < size()
+	 * @return kind of the variable in slot, UNUSED, SCALAR, TABLE or FUNCTION
+	 * @throws IllegalArgumentException if slot is out of range
+	 */
+	public int getKind(int slot)
+	{
+		if (slot < 0 || slot >= size)
+			throw new IllegalArgumentException ("invalid slot argument");
+		return kinds[slot];
+	}
+
+	/**
+	 * @param slot 0 <= slot < size()
+	 * @param kind SCALAR, TABLE or FUNCTION - how the name in slot is used
+	 * @return whether the name had not been used as another kind
+	 * postcondition: if so, the kind of the name is kind
+	 * @throws IllegalArgumentException if an argument is out of range
+	 */
+	public boolean use(int slot, int kind)
+	{
+		if (slot < 0 || slot >= size)
+			throw new IllegalArgumentException ("invalid slot argument");
+		if (kind != SCALAR && kind != TABLE && kind != FUNCTION)
+			throw new IllegalArgumentException ("invalid kind argument");
+		if (kinds[slot] == UNUSED)
+			kinds[slot] = (byte) kind;
+		return kinds[slot] == kind;
+	}
+
+	/**
+	 * @param name cannot be null
+	 * @return slot of name, or -1 if name has not been interned
+	 * @throws IllegalArgumentException if name is null
+	 */
+	public int lookup(String name)
+	{
+		if (name == null)
+			throw new IllegalArgumentException ("null name argument");
+		int mask = buckets.length - 1;
+		for (int i = name.hashCode() & mask; buckets[i] != 0; i = (i + 1) & mask)
+			if (names[buckets[i] - 1].equals(name))
+				return buckets[i] - 1;
+		return -1;
+	}
+
+	/**
+	 * @param name cannot be null - must be a valid identifier
+	 * @return slot of name, a new slot if name had not been interned
+	 * @throws IllegalArgumentException if name is not a valid identifier
+	 */
+	public int intern(String name)
+	{
+		if (!Id.isIdentifier(name))
+			throw new IllegalArgumentException ("invalid identifier argument");
+		int slot = lookup (name);
+		return slot >= 0 ? slot : add (name, name.hashCode());
+	}
+
+	/**
+	 * @param chars cannot be null - characters holding the name
+	 * @param start index of the first character of the name
+	 * @param length > 0 - number of characters of the name
+	 * @return slot of the name, a new slot if it had not been interned
+	 * @throws IllegalArgumentException if the characters are out of range
+	 *         or do not spell a valid identifier
+	 */
+	public int intern(char[] chars, int start, int length)
+	{
+		if (chars == null)
+			throw new IllegalArgumentException ("null characters argument");
+		if (start < 0 || length <= 0 || start + length > chars.length || start + length < 0)
+			throw new IllegalArgumentException ("invalid range argument");
+		int hash = 0;
+		for (int i = start; i < start + length; i++)
+			hash = 31 * hash + chars[i];
+		int mask = buckets.length - 1;
+		for (int i = hash & mask; buckets[i] != 0; i = (i + 1) & mask)
+			if (spells (names[buckets[i] - 1], chars, start, length))
+				return buckets[i] - 1;
+		String name = new String (chars, start, length);
+		if (!Id.isIdentifier(name))
+			throw new IllegalArgumentException ("invalid identifier argument");
+		return add (name, hash);
+	}
+
+	/**
+	 * @return whether the characters of chars from start spell name
+	 */
+	private static boolean spells(String name, char[] chars, int start, int length)
+	{
+		if (name.length() != length)
+			return false;
+		for (int i = 0; i < length; i++)
+			if (name.charAt(i) != chars[start + i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return slot given to name, which has not been interned yet
+	 */
+	private int add(String name, int hash)
+	{
+		if (size == names.length)
+		{
+			names = Arrays.copyOf(names, size * 2);
+			kinds = Arrays.copyOf(kinds, size * 2);
+		}
+		names[size] = name;
+		size++;
+		if (2 * size > buckets.length)
+		{
+			// keep the table at most half full
+			buckets = new int[buckets.length * 2];
+			for (int slot = 0; slot < size; slot++)
+				insert (names[slot].hashCode(), slot);
+		}
+		else
+			insert (hash, size - 1);
+		return size - 1;
+	}
+
+	private void insert(int hash, int slot)
+	{
+		int mask = buckets.length - 1;
+		int i = hash & mask;
+		while (buckets[i] != 0)
+			i = (i + 1) & mask;
+		buckets[i] = slot + 1;
+	}
+}
@@ -0,0 +1,256 @@
+import java.util.Arrays;
+
+/**
+ * TokenBuffer stores tokens as parallel int columns (type ordinal, source
+ * offset, length, row and column) over a shared character source and hands
+ * them out through an advancing cursor. Token objects are only built on
+ * demand, e.g. for error messages.
+ */
+public class TokenBuffer {
+	private static final TokenType[] TYPES = TokenType.values();
+	private static final int INITIAL_CAPACITY = 64;
+	private char[] source;
+	private int[] types;
+	private int[] offsets;
+	private int[] lengths;
+	private int[] rows;
+	private int[] columns;
+	private int count;
+	private int cursor;
+
+	public TokenBuffer()
+	{
+		this (INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param capacity > 0 - number of tokens the buffer holds before it grows
+	 * @throws IllegalArgumentException if capacity <= 0
+	 */
+	public TokenBuffer(int capacity)
+	{
+		if (capacity <= 0)
+			throw new IllegalArgumentException ("invalid capacity argument");
+		types = new int[capacity];
+		offsets = new int[capacity];
+		lengths = new int[capacity];
+		rows = new int[capacity];
+		columns = new int[capacity];
+	}
+
+	/**
+	 * @param source characters the offsets of subsequently added tokens refer to
+	 * postcondition: the buffer is empty and its cursor is at the start
+	 */
+	public void reset(char[] source)
+	{
+		this.source = source;
+		count = 0;
+		cursor = 0;
+	}
+
+	/**
+	 * @param tokType cannot be null
+	 * @param offset index of the first character of the lexeme in the source
+	 * @param length number of characters in the lexeme
+	 * @param rowNumber - must be positive
+	 * @param columnNumber - must be positive
+	 * postcondition: the token has been appended after all previous tokens
+	 */
+	public void add(TokenType tokType, int offset, int length, int rowNumber, int columnNumber)
+	{
+		if (count == types.length)
+			grow();
+		types[count] = tokType.ordinal();
+		offsets[count] = offset;
+		lengths[count] = length;
+		rows[count] = rowNumber;
+		columns[count] = columnNumber;
+		count++;
+	}
+
+	/**
+	 * @param size >= size() - number of tokens the buffer is to hold
+	 * postcondition: size() == size; the tokens past the previous size are
+	 *                undefined until they are set by setAll
+	 */
+	public void setSize(int size)
+	{
+		if (size < count)
+			throw new IllegalArgumentException ("invalid size argument");
+		if (size > types.length)
+			grow (size);
+		count = size;
+	}
+
+	/**
+	 * @param index index the first token of tokens is to be stored at, with
+	 *        index + tokens.size() <= size()
+	 * @param tokens cannot be null - buffer over the same source as this one
+	 * @param rowOffset number added to the row of every token copied
+	 * @throws IllegalArgumentException if any argument is invalid
+	 * postcondition: the tokens of tokens have replaced the tokens from index
+	 *                on, their rows moved down by rowOffset; calls for
+	 *                disjoint ranges may run concurrently
+	 */
+	public void setAll(int index, TokenBuffer tokens, int rowOffset)
+	{
+		if (tokens == null)
+			throw new IllegalArgumentException ("null token buffer argument");
+		if (tokens.source != source)
+			throw new IllegalArgumentException ("token buffer over another source");
+		int n = tokens.count;
+		if (index < 0 || index + n > count)
+			throw new IllegalArgumentException ("invalid index argument");
+		System.arraycopy(tokens.types, 0, types, index, n);
+		System.arraycopy(tokens.offsets, 0, offsets, index, n);
+		System.arraycopy(tokens.lengths, 0, lengths, index, n);
+		System.arraycopy(tokens.columns, 0, columns, index, n);
+		for (int i = 0; i < n; i++)
+			rows[index + i] = tokens.rows[i] + rowOffset;
+	}
+
+	private void grow()
+	{
+		grow (types.length * 2);
+	}
+
+	private void grow(int capacity)
+	{
+		types = Arrays.copyOf(types, capacity);
+		offsets = Arrays.copyOf(offsets, capacity);
+		lengths = Arrays.copyOf(lengths, capacity);
+		rows = Arrays.copyOf(rows, capacity);
+		columns = Arrays.copyOf(columns, capacity);
+	}
+
+	/**
+	 * @return number of tokens in the buffer, consumed or not
+	 */
+	public int size()
+	{
+		return count;
+	}
+
+	/**
+	 * @param index 0 <= index < size()
+	 * @return type of the token at index
+	 */
+	public TokenType getType(int index)
+	{
+		return TYPES[types[index]];
+	}
+
+	/**
+	 * @param index 0 <= index < size()
+	 * @return index in the source of the first character of the token at index
+	 */
+	public int getOffset(int index)
+	{
+		return offsets[index];
+	}
+
+	/**
+	 * @param index 0 <= index < size()
+	 * @return number of characters in the lexeme of the token at index
+	 */
+	public int getLength(int index)
+	{
+		return lengths[index];
+	}
+
+	/**
+	 * @return whether any token remains after the cursor
+	 */
+	public boolean hasNext()
+	{
+		return cursor < count;
+	}
+
+	/**
+	 * precondition: hasNext()
+	 * postcondition: the cursor has moved past the current token
+	 */
+	public void advance()
+	{
+		cursor++;
+	}
+
+	/**
+	 * precondition: hasNext()
+	 * @return type of the token at the cursor
+	 */
+	public TokenType getType()
+	{
+		return TYPES[types[cursor]];
+	}
+
+	/**
+	 * precondition: hasNext()
+	 */
+	public int getRowNumber()
+	{
+		return rows[cursor];
+	}
+
+	/**
+	 * precondition: hasNext()
+	 */
+	public int getColumnNumber()
+	{
+		return columns[cursor];
+	}
+
+	/**
+	 * precondition: the token at the cursor is an identifier
+	 * @param symbols cannot be null - table the name is interned in
+	 * @return slot of the lexeme of the token at the cursor, looked up
+	 *         straight from the source characters
+	 */
+	public int intern(SymbolTable symbols)
+	{
+		if (symbols == null)
+			throw new IllegalArgumentException ("null symbol table argument");
+		return symbols.intern(source, offsets[cursor], lengths[cursor]);
+	}
+
+	/**
+	 * precondition: the token at the cursor is a literal integer
+	 * @return value of the literal, computed straight from the source characters
+	 * @throws NumberFormatException if the literal does not fit in an int
+	 */
+	public int getIntValue()
+	{
+		int offset = offsets[cursor];
+		int end = offset + lengths[cursor];
+		long value = 0;
+		for (int i = offset; i < end; i++)
+		{
+			value = value * 10 + (source[i] - '0');
+			if (value > Integer.MAX_VALUE)
+				throw new NumberFormatException ("literal integer out of range");
+		}
+		return (int) value;
+	}
+
+	/**
+	 * precondition: hasNext()
+	 * @return lexeme of the token at the cursor
+	 */
+	public String getLexeme()
+	{
+		String lexeme = getType().getLexeme();
+		if (lexeme == null)
+			lexeme = new String (source, offsets[cursor], lengths[cursor]);
+		return lexeme;
+	}
+
+	/**
+	 * precondition: hasNext()
+	 * @return newly built Token object describing the token at the cursor
+	 */
+	public Token getToken()
+	{
+		return new Token (getType(), getLexeme(), getRowNumber(), getColumnNumber());
+	}
+}
@@ -1,8 +1,26 @@
 
 public enum TokenType
 {
-	FUNCTION_TOK, LEFT_PAREN_TOK, RIGHT_PAREN_TOK, IF_TOK, THEN_TOK, END_TOK, 
-	ELSE_TOK, WHILE_TOK, DO_TOK, ID_TOK, PRINT_TOK, GE_TOK, GT_TOK, REPEAT_TOK,
-	UNTIL_TOK,LE_TOK, LT_TOK, EQ_TOK, NE_TOK, ADD_TOK, SUB_TOK, MUL_TOK, 
-	DIV_TOK, ASSIGN_TOK, EOS_TOK, LITERAL_INTEGER_TOK
+	FUNCTION_TOK("function"), LEFT_PAREN_TOK("("), RIGHT_PAREN_TOK(")"), IF_TOK("if"),
+	THEN_TOK("then"), END_TOK("end"), ELSE_TOK("else"), WHILE_TOK("while"), DO_TOK("do"),
+	ID_TOK(null), PRINT_TOK("print"), GE_TOK(">="), GT_TOK(">"), REPEAT_TOK("repeat"),
+	UNTIL_TOK("until"), LE_TOK("<="), LT_TOK("<"), EQ_TOK("=="), NE_TOK("~="), ADD_TOK("+"),
+	SUB_TOK("-"), MUL_TOK("*"), DIV_TOK("/"), ASSIGN_TOK("="), EOS_TOK("EOS"),
+	LITERAL_INTEGER_TOK(null), LEFT_BRACKET_TOK("["), RIGHT_BRACKET_TOK("]"),
+	RETURN_TOK("return"), COMMA_TOK(",");
+
+	private final String lexeme;
+
+	private TokenType(String lexeme)
+	{
+		this.lexeme = lexeme;
+	}
+	/**
+	 * @return the fixed spelling of tokens of this type, or null if the
+	 *         spelling varies (identifiers and literal integers)
+	 */
+	public String getLexeme()
+	{
+		return lexeme;
+	}
 }
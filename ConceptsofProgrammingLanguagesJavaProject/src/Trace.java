@@ -0,0 +1,190 @@
+/**
+ * Trace is the path one iteration of a hot loop took through the body of
+ * the loop, as recorded by a Tracer: the statements executed, in order,
+ * where a guard is an if statement together with the branch it took, and
+ * is followed by the statements of that branch rather than the if
+ * statement as a whole. Every other statement, inner loops and if
+ * statements the Tracer has stopped guarding on included, runs whole.
+ * JvmCompiler compiles the path into a CompiledTrace, a straight line of
+ * code that runs the next iteration as long as every guard takes the
+ * branch it took when the path was recorded.
+ *
+ * Every guard has an exit, the statements left to finish the iteration
+ * with when it fails: the branch not taken, then the rest of the block of
+ * the if statement and the rest of every block enclosing it, innermost
+ * first. The path and the exits never change once the trace is built;
+ * only the number of times each guard has failed does.
+ */
+public class Trace
+{
+	private final Statement loop;
+	private final Statement[] path;
+	private final boolean[] guards;
+	private final boolean[] taken;
+	// blocks of the exit of every guard, in the order of the guards on the
+	// path, and the statement each block is resumed at
+	private final Block[][] exitBlocks;
+	private final int[][] exitStarts;
+	private final int[] exitCounts;
+	private CompiledTrace code;
+
+	/**
+	 * @param loop cannot be null - WhileStatement or RepeatStatement traced
+	 * @param path cannot be null and cannot contain null - statements of the
+	 *        path, where every guard is an IfStatement
+	 * @param guards whether each statement of path is a guard
+	 * @param taken whether each guard of path took its first branch
+	 * @param exitBlocks blocks of the exit of every guard, in the order of
+	 *        the guards on path
+	 * @param exitStarts index of the statement every block of exitBlocks is
+	 *        resumed at
+	 * @throws IllegalArgumentException if an argument is null, loop is not a
+	 *         loop or the arrays do not match path
+	 */
+	public Trace(Statement loop, Statement[] path, boolean[] guards, boolean[] taken,
+			Block[][] exitBlocks, int[][] exitStarts)
+	{
+		if (!(loop instanceof WhileStatement) && !(loop instanceof RepeatStatement))
+			throw new IllegalArgumentException ("invalid loop argument");
+		if (path == null || guards == null || taken == null || exitBlocks == null || exitStarts == null)
+			throw new IllegalArgumentException ("null path argument");
+		if (guards.length != path.length || taken.length != path.length || exitStarts.length != exitBlocks.length)
+			throw new IllegalArgumentException ("invalid path argument");
+		int guardCount = 0;
+		for (int i = 0; i < path.length; i++)
+		{
+			if (path[i] == null)
+				throw new IllegalArgumentException ("null statement argument");
+			if (guards[i])
+			{
+				if (!(path[i] instanceof IfStatement))
+					throw new IllegalArgumentException ("invalid guard argument");
+				guardCount++;
+			}
+		}
+		if (exitBlocks.length != guardCount)
+			throw new IllegalArgumentException ("invalid exit argument");
+		for (int k = 0; k < guardCount; k++)
+			if (exitBlocks[k] == null || exitStarts[k] == null || exitBlocks[k].length != exitStarts[k].length)
+				throw new IllegalArgumentException ("invalid exit argument");
+		this.loop = loop;
+		this.path = path.clone();
+		this.guards = guards.clone();
+		this.taken = taken.clone();
+		this.exitBlocks = exitBlocks.clone();
+		this.exitStarts = exitStarts.clone();
+		this.exitCounts = new int[guardCount];
+	}
+
+	/**
+	 * @return WhileStatement or RepeatStatement traced
+	 */
+	public Statement getLoop()
+	{
+		return loop;
+	}
+
+	/**
+	 * @return number of statements of the path
+	 */
+	public int size()
+	{
+		return path.length;
+	}
+
+	/**
+	 * @param i 0 <= i < size()
+	 * @return statement at position i of the path
+	 */
+	public Statement getStatement(int i)
+	{
+		return path[i];
+	}
+
+	/**
+	 * @param i 0 <= i < size()
+	 * @return whether the statement at position i is a guard
+	 */
+	public boolean isGuard(int i)
+	{
+		return guards[i];
+	}
+
+	/**
+	 * @param i 0 <= i < size() - position of a guard
+	 * @return whether the guard at position i took its first branch
+	 */
+	public boolean isTaken(int i)
+	{
+		return taken[i];
+	}
+
+	/**
+	 * @return number of guards of the path
+	 */
+	public int getGuardCount()
+	{
+		return exitBlocks.length;
+	}
+
+	/**
+	 * @param guard 0 <= guard < getGuardCount()
+	 * @return if statement of the guard with index guard
+	 */
+	public IfStatement getGuard(int guard)
+	{
+		for (int i = 0; ; i++)
+			if (guards[i] && guard-- == 0)
+				return (IfStatement) path[i];
+	}
+
+	/**
+	 * @return code compiled for the trace, null if none has been set
+	 */
+	public CompiledTrace getCode()
+	{
+		return code;
+	}
+
+	/**
+	 * @param code cannot be null - code compiled for the trace
+	 * @throws IllegalArgumentException if code is null
+	 */
+	public void setCode(CompiledTrace code)
+	{
+		if (code == null)
+			throw new IllegalArgumentException ("null code argument");
+		this.code = code;
+	}
+
+	/**
+	 * @param guard 0 <= guard < getGuardCount() - index of a guard that failed
+	 * @param context cannot be null - context the guard failed in
+	 * postcondition: the iteration the guard failed in has been finished,
+	 *                up to a return statement if one was executed
+	 */
+	public void finish(int guard, ExecutionContext context)
+	{
+		for (int j = 0; j < exitBlocks[guard].length && !context.isReturning(); j++)
+			finish (exitBlocks[guard][j], exitStarts[guard][j], context);
+	}
+
+	/**
+	 * @param guard 0 <= guard < getGuardCount() - index of a guard that failed
+	 * @return number of times the guard has failed, counting this one
+	 */
+	public int countExit(int guard)
+	{
+		return ++exitCounts[guard];
+	}
+
+	/**
+	 * postcondition: the statements of blk from start on have been executed,
+	 *                up to a return statement if one was executed
+	 */
+	static void finish(Block blk, int start, ExecutionContext context)
+	{
+		for (int i = start; i < blk.size() && !context.isReturning(); i++)
+			blk.getStatement(i).execute(context);
+	}
+}
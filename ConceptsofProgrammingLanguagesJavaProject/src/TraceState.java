@@ -0,0 +1,115 @@
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * TraceState is what the tracers know about one loop: how many iterations
+ * it has run since a path was last recorded, how many paths have been
+ * recorded, the trace it runs and the if statements of its body that are
+ * no longer guarded on because they have taken both branches too often.
+ * Every WhileStatement and RepeatStatement has one, shared by every
+ * context that runs the loop under a Tracer.
+ *
+ * The trace and the set of if statements are replaced rather than
+ * changed, so a thread always sees a complete one; the counters are not
+ * synchronized, since a lost update can only delay or repeat a recording.
+ */
+public class TraceState
+{
+	private int backEdges;
+	private int recordings;
+	private volatile Trace trace;
+	private volatile boolean abandoned;
+	private volatile Set<Statement> widened = new HashSet<Statement>();
+
+	/**
+	 * @return trace the loop runs, null if it has none
+	 */
+	public Trace getTrace()
+	{
+		return trace;
+	}
+
+	/**
+	 * @return whether the loop is left to the interpreter for good
+	 */
+	public boolean isAbandoned()
+	{
+		return abandoned;
+	}
+
+	/**
+	 * @return number of paths recorded for the loop
+	 */
+	public int getRecordings()
+	{
+		return recordings;
+	}
+
+	/**
+	 * @return number of iterations run since the last recording, counting
+	 *         this one
+	 */
+	public int countBackEdge()
+	{
+		return ++backEdges;
+	}
+
+	/**
+	 * postcondition: a recording has been counted and the iterations since
+	 *                the last recording start over from 0
+	 */
+	public void startRecording()
+	{
+		recordings++;
+		backEdges = 0;
+	}
+
+	/**
+	 * @param trace cannot be null - compiled trace of the loop
+	 * postcondition: the loop runs trace
+	 * @throws IllegalArgumentException if trace is null
+	 */
+	public void install(Trace trace)
+	{
+		if (trace == null)
+			throw new IllegalArgumentException ("null trace argument");
+		this.trace = trace;
+	}
+
+	/**
+	 * postcondition: the loop has no trace and is never traced again
+	 */
+	public void abandon()
+	{
+		abandoned = true;
+		trace = null;
+	}
+
+	/**
+	 * @param stmt an if statement of the body of the loop
+	 * @return whether stmt runs whole rather than as a guard
+	 */
+	public boolean isWidened(Statement stmt)
+	{
+		return widened.contains(stmt);
+	}
+
+	/**
+	 * @param trace trace one of whose guards fails too often
+	 * @param guard cannot be null - if statement of the guard
+	 * postcondition: if trace is still the trace of the loop, the loop has
+	 *                no trace and guard runs whole in the next one recorded
+	 * @throws IllegalArgumentException if guard is null
+	 */
+	public synchronized void widen(Trace trace, IfStatement guard)
+	{
+		if (guard == null)
+			throw new IllegalArgumentException ("null if statement argument");
+		if (this.trace != trace)
+			return;
+		Set<Statement> next = new HashSet<Statement>(widened);
+		next.add(guard);
+		widened = next;
+		this.trace = null;
+	}
+}
@@ -0,0 +1,313 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tracer is a tracing just-in-time compiler for the loops the tree walking
+ * interpreter runs. A context runs its loops under a Tracer once one is set
+ * with ExecutionContext.setTracer; every loop then counts its iterations,
+ * and once it has run HOT_LOOP of them the next iteration is interpreted
+ * while the path it takes through the body is recorded as a Trace, which
+ * JvmCompiler compiles into a JVM method that HotSpot can in turn compile
+ * to machine code. The loop then runs the compiled trace instead of its
+ * body until the loop ends.
+ *
+ * Every if statement on the path becomes a guard that the condition takes
+ * the branch it took when the path was recorded. When a guard fails the
+ * compiled trace side exits: the iteration is finished by the interpreter
+ * from the branch not taken, and the next one enters the trace again. A
+ * guard that fails HOT_EXIT times is one whose if statement takes both
+ * branches, so the trace is dropped and the next one recorded compiles that
+ * if statement with both of its branches.
+ *
+ * A path is not compiled when the iteration executes a return statement,
+ * or a statement that may execute one, since only the interpreter unwinds
+ * a return; such a recording is abandoned and retried later. A loop whose
+ * trace fails to compile, or that has been recorded MAX_RECORDINGS times,
+ * is left to the interpreter for good.
+ *
+ * What is learned about a loop is kept in the TraceState of the loop and
+ * shared by every tracer; a Tracer itself only counts what it has done, so
+ * each context needs its own.
+ */
+public class Tracer
+{
+	/** iterations a loop runs before the path of the next one is recorded */
+	public static final int HOT_LOOP = 56;
+	/** failures of a guard after which its if statement runs whole */
+	public static final int HOT_EXIT = 64;
+	/** paths recorded for a loop before it is left to the interpreter */
+	public static final int MAX_RECORDINGS = 8;
+	private int tracesCompiled;
+	private int recordingsAborted;
+	private int loopsAbandoned;
+	private int sideExits;
+	private int guardsWidened;
+
+	/**
+	 * @param loop cannot be null - loop to be executed
+	 * @param context cannot be null - context the loop is executed in
+	 * postcondition: loop has been executed, its body through its trace
+	 *                whenever it has one
+	 */
+	public void execute(WhileStatement loop, ExecutionContext context)
+	{
+		if (loop.getExpr().evaluate(context))
+			run (loop, loop.getBlock(), loop.getExpr(), true, loop.getTraceState(), context);
+	}
+
+	/**
+	 * @param loop cannot be null - loop to be executed
+	 * @param context cannot be null - context the loop is executed in
+	 * postcondition: loop has been executed, its body through its trace
+	 *                whenever it has one
+	 */
+	public void execute(RepeatStatement loop, ExecutionContext context)
+	{
+		run (loop, loop.getBlock(), loop.getExpr(), false, loop.getTraceState(), context);
+	}
+
+	/**
+	 * @return number of traces compiled
+	 */
+	public int getTracesCompiled()
+	{
+		return tracesCompiled;
+	}
+
+	/**
+	 * @return number of recordings abandoned because the iteration executed
+	 *         a statement that may return
+	 */
+	public int getRecordingsAborted()
+	{
+		return recordingsAborted;
+	}
+
+	/**
+	 * @return number of loops left to the interpreter for good
+	 */
+	public int getLoopsAbandoned()
+	{
+		return loopsAbandoned;
+	}
+
+	/**
+	 * @return number of times a guard of a compiled trace has failed
+	 */
+	public int getSideExits()
+	{
+		return sideExits;
+	}
+
+	/**
+	 * @return number of if statements compiled whole after their guard
+	 *         failed HOT_EXIT times
+	 */
+	public int getGuardsWidened()
+	{
+		return guardsWidened;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "tracer: " + tracesCompiled + " traces compiled, " + recordingsAborted +
+			" recordings aborted, " + loopsAbandoned + " loops abandoned, " + sideExits +
+			" side exits, " + guardsWidened + " guards widened";
+	}
+
+	/**
+	 * @param whileLoop whether the loop ends when expr is false, as a while
+	 *        loop does, rather than true
+	 * postcondition: the loop has been executed from an iteration that is to
+	 *                run whatever the condition
+	 */
+	private void run(Statement loop, Block blk, BooleanExpression expr, boolean whileLoop,
+			TraceState state, ExecutionContext context)
+	{
+		do
+		{
+			Trace trace = state.getTrace();
+			if (trace != null)
+			{
+				int guard = trace.getCode().run(context);
+				if (guard < 0)
+					return;
+				sideExits++;
+				trace.finish(guard, context);
+				if (trace.countExit(guard) == HOT_EXIT)
+				{
+					state.widen(trace, trace.getGuard(guard));
+					guardsWidened++;
+				}
+			}
+			else if (!state.isAbandoned() && state.countBackEdge() >= HOT_LOOP)
+				record (loop, blk, state, context);
+			else
+				blk.execute(context);
+			if (context.isReturning())
+				return;
+		}
+		while (expr.evaluate(context) == whileLoop);
+	}
+
+	/**
+	 * postcondition: an iteration of the loop has been executed, and the
+	 *                path it took installed as the trace of the loop if it
+	 *                could be compiled
+	 */
+	private void record(Statement loop, Block blk, TraceState state, ExecutionContext context)
+	{
+		if (state.getRecordings() >= MAX_RECORDINGS)
+		{
+			state.abandon();
+			loopsAbandoned++;
+			blk.execute(context);
+			return;
+		}
+		state.startRecording();
+		Recording recording = new Recording();
+		if (!record (blk, recording, state, context))
+		{
+			recordingsAborted++;
+			return;
+		}
+		Trace trace = recording.toTrace(loop);
+		try
+		{
+			trace.setCode(new JvmCompiler().compileTrace(trace, context.getFrameSize(), context.getSlotCount()));
+		}
+		catch (IllegalArgumentException e)
+		{
+			state.abandon();
+			loopsAbandoned++;
+			return;
+		}
+		state.install(trace);
+		tracesCompiled++;
+	}
+
+	/**
+	 * @return whether the statements of blk that have been executed can all
+	 *         be compiled
+	 * postcondition: blk has been executed, up to a return statement if one
+	 *                was executed, and what it executed has been added to
+	 *                recording
+	 */
+	private boolean record(Block blk, Recording recording, TraceState state, ExecutionContext context)
+	{
+		for (int i = 0; i < blk.size(); i++)
+		{
+			Statement stmt = blk.getStatement(i);
+			boolean recorded;
+			if (stmt instanceof IfStatement && !state.isWidened(stmt))
+			{
+				IfStatement ifStmt = (IfStatement) stmt;
+				boolean taken = ifStmt.getExpr().evaluate(context);
+				recording.enter(blk, i + 1);
+				recording.guard(ifStmt, taken);
+				recorded = record (taken ? ifStmt.getBlock1() : ifStmt.getBlock2(), recording, state, context);
+				recording.leave();
+			}
+			else
+			{
+				stmt.execute(context);
+				recorded = !mayReturn (stmt);
+				recording.add(stmt);
+			}
+			if (!recorded)
+			{
+				Trace.finish(blk, i + 1, context);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether stmt is or may execute a return statement
+	 */
+	private static boolean mayReturn(Statement stmt)
+	{
+		if (stmt instanceof IfStatement)
+			return ((IfStatement) stmt).getBlock1().canReturn() || ((IfStatement) stmt).getBlock2().canReturn();
+		if (stmt instanceof WhileStatement)
+			return ((WhileStatement) stmt).getBlock().canReturn();
+		if (stmt instanceof RepeatStatement)
+			return ((RepeatStatement) stmt).getBlock().canReturn();
+		return stmt instanceof ReturnStatement;
+	}
+
+	/**
+	 * path being recorded, with the blocks enclosing the statement being
+	 * executed and the statement each of them resumes at
+	 */
+	private static class Recording
+	{
+		private final List<Statement> path = new ArrayList<Statement>();
+		private final List<Boolean> guards = new ArrayList<Boolean>();
+		private final List<Boolean> taken = new ArrayList<Boolean>();
+		private final List<Block[]> exitBlocks = new ArrayList<Block[]>();
+		private final List<int[]> exitStarts = new ArrayList<int[]>();
+		private final List<Block> blocks = new ArrayList<Block>();
+		private final List<Integer> starts = new ArrayList<Integer>();
+
+		public void add(Statement stmt)
+		{
+			path.add(stmt);
+			guards.add(false);
+			taken.add(false);
+		}
+
+		/**
+		 * postcondition: a guard that ifStmt takes its first branch if taken
+		 *                has been added, exiting to the other branch and then
+		 *                the rest of the enclosing blocks
+		 */
+		public void guard(IfStatement ifStmt, boolean taken)
+		{
+			path.add(ifStmt);
+			guards.add(true);
+			this.taken.add(taken);
+			Block[] exitBlocks = new Block[blocks.size() + 1];
+			int[] exitStarts = new int[blocks.size() + 1];
+			exitBlocks[0] = taken ? ifStmt.getBlock2() : ifStmt.getBlock1();
+			for (int j = 0; j < blocks.size(); j++)
+			{
+				exitBlocks[j + 1] = blocks.get(blocks.size() - 1 - j);
+				exitStarts[j + 1] = starts.get(blocks.size() - 1 - j);
+			}
+			this.exitBlocks.add(exitBlocks);
+			this.exitStarts.add(exitStarts);
+		}
+
+		/**
+		 * postcondition: blk, resuming at start, encloses the statements
+		 *                recorded until the matching leave
+		 */
+		public void enter(Block blk, int start)
+		{
+			blocks.add(blk);
+			starts.add(start);
+		}
+
+		public void leave()
+		{
+			blocks.remove(blocks.size() - 1);
+			starts.remove(starts.size() - 1);
+		}
+
+		public Trace toTrace(Statement loop)
+		{
+			boolean[] guardArray = new boolean[path.size()];
+			boolean[] takenArray = new boolean[path.size()];
+			for (int i = 0; i < path.size(); i++)
+			{
+				guardArray[i] = guards.get(i);
+				takenArray[i] = taken.get(i);
+			}
+			return new Trace (loop, path.toArray(new Statement[path.size()]), guardArray, takenArray,
+				exitBlocks.toArray(new Block[exitBlocks.size()][]), exitStarts.toArray(new int[exitStarts.size()][]));
+		}
+	}
+}
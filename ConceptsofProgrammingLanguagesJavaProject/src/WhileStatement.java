@@ -2,6 +2,7 @@ public class WhileStatement implements Statement
 {
 	private BooleanExpression expr;
 	private Block blk;
+	private final TraceState traceState = new TraceState();
 	/**
 	 * @param expr cannot be null
 	 * @param blk cannot be null
@@ -16,10 +17,39 @@ public class WhileStatement implements Statement
 		this.expr = expr;
 		this.blk = blk;
 	}
+	public BooleanExpression getExpr()
+	{
+		return expr;
+	}
+	public Block getBlock()
+	{
+		return blk;
+	}
+	/**
+	 * @return what the tracers know about the loop
+	 */
+	public TraceState getTraceState()
+	{
+		return traceState;
+	}
+	/**
+	 * postcondition: the loop has been executed, under the tracer of context
+	 *                if it has one
+	 */
 	@Override
-	public void execute()
+	public void execute(ExecutionContext context)
 	{
-		while (expr.evaluate())
-			blk.execute();
+		Tracer tracer = context.getTracer();
+		if (tracer != null)
+		{
+			tracer.execute(this, context);
+			return;
+		}
+		while (expr.evaluate(context))
+		{
+			blk.execute(context);
+			if (context.isReturning())
+				return;
+		}
 	}
 }
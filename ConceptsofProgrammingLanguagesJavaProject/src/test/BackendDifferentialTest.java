@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Runs generated programs on every backend, with and without the Optimizer,
+ * and checks that each prints the same output, ends with the same error
+ * if any, and leaves every variable and table as the tree walker does on
+ * the program as parsed.
+ */
+public class BackendDifferentialTest
+{
+	private static final int PROGRAMS = 300;
+	// description of the tree walker running every program as parsed, by
+	// seed, shared by the backends
+	private static final Map<Long, String> expected = new ConcurrentHashMap<Long, String>();
+
+	@ParameterizedTest (name = "backend \"{0}\", optimized {1}")
+	@CsvSource ({"'', false", "'', true", "-vm, false", "-vm, true", "-jvm, false", "-jvm, true",
+		"-trace, false", "-trace, true"})
+	public void matchesTreeWalker(String backend, boolean optimize) throws Exception
+	{
+		for (long seed = 0; seed < PROGRAMS; seed++)
+		{
+			// every eighth program has loops a Tracer may compile
+			String source = ProgramGenerator.generate (seed, seed % 8 == 7 ? 2 * Tracer.HOT_LOOP : 6);
+			Program program = parse (source);
+			String reference = expected.computeIfAbsent(seed,
+				key -> describe (program, context -> program.execute(context)));
+			Program executed = new Optimizer (optimize).optimize(program);
+			String actual = describe (program, context -> Interpreter.execute (executed, backend, context));
+			assertEquals(reference, actual, "seed " + seed + ":\n" + source);
+		}
+	}
+
+	/**
+	 * @param source source of a valid program
+	 * @return program parsed from source
+	 */
+	static Program parse(String source) throws ParserException
+	{
+		return new Parser (source.getBytes(StandardCharsets.ISO_8859_1)).parse();
+	}
+
+	/**
+	 * @param program program whose variables are described
+	 * @param execution executes program, or a program compiled or optimized
+	 *        from it, in the context it is given
+	 * @return what the execution printed, the class of the exception it
+	 *         ended with if any, and the value of every variable and of
+	 *         every table element with a small or negative key after it
+	 */
+	static String describe(Program program, Consumer<ExecutionContext> execution)
+	{
+		MemoryOutputSink output = new MemoryOutputSink();
+		ExecutionContext context = new ExecutionContext (output);
+		StringBuilder result = new StringBuilder();
+		try
+		{
+			execution.accept(context);
+		}
+		catch (RuntimeException e)
+		{
+			result.append("error ").append(e.getClass().getName()).append('\n');
+		}
+		SymbolTable symbols = program.getSymbols();
+		int[] values = new int[program.getVariableCount()];
+		context.reserve(values.length);
+		context.copyTo(values, values.length);
+		for (int i = 0; i < values.length; i++)
+		{
+			result.append(symbols.getName(i)).append(" =");
+			if (symbols.getKind(i) == SymbolTable.TABLE)
+			{
+				IntTable table = context.getTable(i);
+				for (int key = -3; key < 300; key++)
+					if (table.get(key) != 0)
+						result.append(' ').append(key).append(':').append(table.get(key));
+			}
+			else
+				result.append(' ').append(values[i]);
+			result.append('\n');
+		}
+		return output.toString() + result;
+	}
+}
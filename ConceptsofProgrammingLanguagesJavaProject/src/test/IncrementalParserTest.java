@@ -0,0 +1,305 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Applies random line edits to generated programs through an
+ * IncrementalParser and checks after every edit that it fails exactly when
+ * a Parser fails on the edited source, and otherwise returns the tree the
+ * Parser returns, with every variable in the slot its name has in the
+ * symbol table it is resolved in.
+ */
+public class IncrementalParserTest
+{
+	// lines an edit may insert that break the program or change its structure
+	private static final String[] BREAKING_LINES = {"end", "x = + x 1 $", "t = 1", "print ( + a [ 1 ] 2 )",
+		"arr [ 0 ] = t"};
+
+	@Test
+	public void editsMatchFullParse() throws Exception
+	{
+		for (long seed = 0; seed < 300; seed++)
+		{
+			Random random = new Random (seed);
+			List<String> lines = new ArrayList<String>(Arrays.asList(ProgramGenerator.generate (seed).split("\n")));
+			IncrementalParser parser = new IncrementalParser (bytes (lines));
+			parser.parse();
+			// lines to restore once an edit has broken the program
+			List<String> undo = null;
+			int undoFirst = 0;
+			int undoCount = 0;
+			for (int e = 0; e < 30; e++)
+			{
+				List<String> donor = Arrays.asList(ProgramGenerator.generate (random.nextLong()).split("\n"));
+				List<String> simple = new ArrayList<String>();
+				for (String line : donor)
+					if (isSimple (line))
+						simple.add(line);
+				int first;
+				int count;
+				List<String> replacement = new ArrayList<String>();
+				int kind = lines.size() < 4 || simple.isEmpty() ? 9 : random.nextInt(12);
+				if (undo != null)
+				{
+					first = undoFirst;
+					count = undoCount;
+					replacement.addAll(undo);
+					undo = null;
+				}
+				else if (kind < 4)
+				{
+					// replace a simple statement, or insert one before any other line
+					first = 1 + random.nextInt(lines.size() - 2);
+					count = isSimple (lines.get(first)) ? 1 : 0;
+					replacement.add(simple.get(random.nextInt(simple.size())));
+				}
+				else if (kind < 7)
+				{
+					first = 1 + random.nextInt(lines.size() - 1);
+					count = 0;
+					for (int k = 1 + random.nextInt(3); k > 0; k--)
+						replacement.add(simple.get(random.nextInt(simple.size())));
+				}
+				else if (kind < 9)
+				{
+					// delete a simple statement
+					first = 1 + random.nextInt(lines.size() - 2);
+					count = isSimple (lines.get(first)) ? 1 : 0;
+				}
+				else if (kind < 10)
+				{
+					// insert lines of another program, which may not nest
+					first = 1 + random.nextInt(lines.size() - 1);
+					count = 0;
+					int from = 1 + random.nextInt(donor.size() - 2);
+					for (int i = from; i < from + 6 && i < donor.size() - 1; i++)
+						replacement.add(donor.get(i));
+				}
+				else if (kind < 11)
+				{
+					first = 1 + random.nextInt(lines.size() - 1);
+					count = 0;
+					replacement.add("   ");
+				}
+				else
+				{
+					first = random.nextInt(lines.size());
+					count = random.nextInt(Math.min(3, lines.size() - first) + 1);
+					replacement.add(BREAKING_LINES[random.nextInt(BREAKING_LINES.length)]);
+				}
+				List<String> removed = new ArrayList<String>(lines.subList(first, first + count));
+				lines.subList(first, first + count).clear();
+				lines.addAll(first, replacement);
+				String where = "seed " + seed + " edit " + e + ":\n" + String.join("\n", lines);
+
+				Program expected = null;
+				try
+				{
+					expected = new Parser (bytes (lines)).parse();
+				}
+				catch (ParserException ex)
+				{
+					// the edit broke the program
+				}
+				Program actual = null;
+				try
+				{
+					actual = parser.edit(first + 1, count, String.join("\n", replacement));
+				}
+				catch (ParserException ex)
+				{
+					// the edit broke the program
+				}
+				assertEquals(lines.size(), parser.getLineCount(), where);
+				assertEquals(expected != null, actual != null, where);
+				if (expected == null)
+				{
+					undoFirst = first;
+					undoCount = replacement.size();
+					undo = removed;
+				}
+				else
+					assertEquals(describe (expected), describe (actual), where);
+			}
+		}
+	}
+
+	@Test
+	public void editParsesOnlyEnclosingStatements() throws Exception
+	{
+		StringBuilder source = new StringBuilder ("function f ( )\n");
+		for (int i = 0; i < 10000; i++)
+			source.append("\tx = + x ").append(i).append('\n');
+		source.append("\tprint ( x )\nend\n");
+		IncrementalParser parser = new IncrementalParser (source.toString().getBytes(StandardCharsets.ISO_8859_1));
+		int total = parser.parse().getBlock().size();
+		Program program = parser.edit(5001, 1, "\tprint ( * x 2 )");
+		assertEquals(total, program.getBlock().size());
+		assertTrue(program.getBlock().getStatement(4999) instanceof PrintStatement);
+		assertEquals(1, parser.getLinesLexed());
+		assertTrue(parser.getTokensParsed() < 100, parser.getTokensParsed() + " tokens parsed");
+	}
+
+	@Test
+	public void failedEditKeepsText() throws Exception
+	{
+		IncrementalParser parser = new IncrementalParser ("function f ( )\n\tx = 1\n\tprint ( x )\nend\n"
+			.getBytes(StandardCharsets.ISO_8859_1));
+		parser.parse();
+		assertThrows(ParserException.class, () -> parser.edit(4, 1, ""));
+		assertTrue(!parser.isValid());
+		Program program = parser.edit(4, 0, "end");
+		assertTrue(parser.isValid());
+		assertEquals(2, program.getBlock().size());
+	}
+
+	private static boolean isSimple(String line)
+	{
+		String trimmed = line.trim();
+		return trimmed.startsWith("print") || trimmed.contains(" = ");
+	}
+
+	private static byte[] bytes(List<String> lines)
+	{
+		return String.join("\n", lines).getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @return text of every node of program, in prefix order
+	 */
+	private static String describe(Program program)
+	{
+		StringBuilder text = new StringBuilder();
+		describe (program.getBlock(), program.getSymbols(), program.getSymbols(), text);
+		for (Function function : program.getFunctions())
+		{
+			text.append("function ").append(function.getName()).append(' ').append(function.getParameterCount())
+				.append(' ').append(function.getFrameSize());
+			describe (function.getBody(), function.getLocals(), program.getSymbols(), text);
+		}
+		return text.toString();
+	}
+
+	private static void describe(Block block, SymbolTable locals, SymbolTable globals, StringBuilder text)
+	{
+		text.append('{');
+		for (int i = 0; i < block.size(); i++)
+		{
+			Statement stmt = block.getStatement(i);
+			text.append(stmt.getClass().getSimpleName()).append('(');
+			if (stmt instanceof AssignmentStatement)
+			{
+				describe (((AssignmentStatement) stmt).getVar(), locals, globals, text);
+				text.append("= ");
+				describe (((AssignmentStatement) stmt).getExpr(), locals, globals, text);
+			}
+			else if (stmt instanceof IndexAssignmentStatement)
+			{
+				describe (((IndexAssignmentStatement) stmt).getTarget(), locals, globals, text);
+				text.append("= ");
+				describe (((IndexAssignmentStatement) stmt).getExpr(), locals, globals, text);
+			}
+			else if (stmt instanceof PrintStatement)
+				describe (((PrintStatement) stmt).getExpr(), locals, globals, text);
+			else if (stmt instanceof IfStatement)
+			{
+				describe (((IfStatement) stmt).getExpr(), locals, globals, text);
+				describe (((IfStatement) stmt).getBlock1(), locals, globals, text);
+				describe (((IfStatement) stmt).getBlock2(), locals, globals, text);
+			}
+			else if (stmt instanceof WhileStatement)
+			{
+				describe (((WhileStatement) stmt).getExpr(), locals, globals, text);
+				describe (((WhileStatement) stmt).getBlock(), locals, globals, text);
+			}
+			else if (stmt instanceof RepeatStatement)
+			{
+				describe (((RepeatStatement) stmt).getBlock(), locals, globals, text);
+				describe (((RepeatStatement) stmt).getExpr(), locals, globals, text);
+			}
+			else if (stmt instanceof ReturnStatement)
+				describe (((ReturnStatement) stmt).getExpr(), locals, globals, text);
+			else if (stmt instanceof CallStatement)
+				describe (((CallStatement) stmt).getCall(), locals, globals, text);
+			text.append(')');
+		}
+		text.append('}');
+	}
+
+	private static void describe(BooleanExpression expr, SymbolTable locals, SymbolTable globals,
+		StringBuilder text)
+	{
+		text.append(expr.getOp()).append('(');
+		describe (expr.getExpr1(), locals, globals, text);
+		describe (expr.getExpr2(), locals, globals, text);
+		text.append(')');
+	}
+
+	private static void describe(ArithmeticExpression expr, SymbolTable locals, SymbolTable globals,
+		StringBuilder text)
+	{
+		if (expr instanceof Id)
+		{
+			Id id = (Id) expr;
+			text.append(slotName (locals, id.getSlot(), id.getName())).append(' ');
+		}
+		else if (expr instanceof IndexExpression)
+		{
+			IndexExpression index = (IndexExpression) expr;
+			assertEquals(SymbolTable.TABLE, globals.getKind(index.getSlot()), index.getName());
+			text.append(slotName (globals, index.getSlot(), index.getName())).append('[');
+			describe (index.getIndex(), locals, globals, text);
+			text.append(']');
+		}
+		else if (expr instanceof CallExpression)
+		{
+			CallExpression call = (CallExpression) expr;
+			assertTrue(call.getFunction().isDefined(), call.getFunction().getName());
+			text.append(call.getFunction().getName()).append('(');
+			for (int i = 0; i < call.size(); i++)
+				describe (call.getArgument(i), locals, globals, text);
+			text.append(')');
+		}
+		else if (expr instanceof LiteralInteger)
+			text.append(((LiteralInteger) expr).getValue()).append(' ');
+		else if (expr instanceof BinaryExpression)
+		{
+			BinaryExpression binary = (BinaryExpression) expr;
+			text.append(binary.getOp()).append('(');
+			describe (binary.getExpr1(), locals, globals, text);
+			describe (binary.getExpr2(), locals, globals, text);
+			text.append(')');
+		}
+		else
+		{
+			PostfixExpression postfix = (PostfixExpression) expr;
+			for (int i = 0; i < postfix.size(); i++)
+			{
+				int opcode = postfix.getOpcode(i);
+				text.append(opcode).append(':');
+				if (opcode == PostfixExpression.VAR)
+					text.append(locals.getName(postfix.getOperand(i)));
+				else if (opcode == PostfixExpression.ELEMENT)
+					text.append(globals.getName(postfix.getOperand(i)));
+				else
+					text.append(postfix.getOperand(i));
+				text.append(' ');
+			}
+		}
+	}
+
+	// name of a variable, checked against the name of its slot
+	private static String slotName(SymbolTable symbols, int slot, String name)
+	{
+		assertEquals(name, symbols.getName(slot), "slot " + slot);
+		return name;
+	}
+}
@@ -0,0 +1,134 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks IntTable against a HashMap under random keys and values, and that
+ * copies sharing parts with a table never see what the table, or another
+ * copy, writes after they were made.
+ */
+public class IntTableTest
+{
+	@Test
+	public void unsetKeysReadAsZero()
+	{
+		IntTable table = new IntTable();
+		for (int key : new int[] {0, 1, -1, 4, Integer.MIN_VALUE, Integer.MAX_VALUE})
+			assertEquals(0, table.get(key));
+		table.set(Integer.MIN_VALUE, 7);
+		assertEquals(7, table.get(Integer.MIN_VALUE));
+		assertEquals(0, table.get(0));
+	}
+
+	@Test
+	public void consecutiveKeysStayInArrayPart()
+	{
+		for (int first = 0; first <= 1; first++)
+		{
+			IntTable table = new IntTable();
+			for (int key = first; key < 1000; key++)
+				table.set(key, key * 3);
+			for (int key = first; key < 1000; key++)
+				assertEquals(key * 3, table.get(key));
+			assertEquals(0, table.getHashCount());
+			assertTrue(table.getArrayLength() >= 1000);
+		}
+	}
+
+	@Test
+	public void rehashMovesDenseKeysToArrayPart()
+	{
+		IntTable table = new IntTable();
+		for (int key = 999; key >= 0; key--)
+			table.set(key, -key);
+		for (int key = 0; key < 1000; key++)
+			assertEquals(-key, table.get(key));
+		assertTrue(table.getArrayLength() >= 512, "array part of " + table.getArrayLength());
+	}
+
+	@Test
+	public void matchesHashMap()
+	{
+		Random random = new Random (0);
+		for (int round = 0; round < 200; round++)
+		{
+			IntTable table = new IntTable();
+			Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+			int range = 1 << random.nextInt(16);
+			for (int i = 0; i < 2000; i++)
+			{
+				int key = randomKey (random, range);
+				int value = random.nextInt(4) == 0 ? 0 : random.nextInt();
+				table.set(key, value);
+				expected.put(key, value);
+			}
+			for (int i = 0; i < 2000; i++)
+			{
+				int key = randomKey (random, range);
+				assertEquals(expected.getOrDefault(key, 0).intValue(), table.get(key), "round " + round + " key " + key);
+			}
+			for (Map.Entry<Integer, Integer> entry : expected.entrySet())
+				assertEquals(entry.getValue().intValue(), table.get(entry.getKey()), "round " + round);
+		}
+	}
+
+	@Test
+	public void copiesAreIndependent()
+	{
+		Random random = new Random (1);
+		for (int round = 0; round < 200; round++)
+		{
+			List<IntTable> tables = new ArrayList<IntTable>();
+			List<Map<Integer, Integer>> expected = new ArrayList<Map<Integer, Integer>>();
+			tables.add(new IntTable());
+			expected.add(new HashMap<Integer, Integer>());
+			int range = 1 << random.nextInt(10);
+			for (int i = 0; i < 500; i++)
+			{
+				int which = random.nextInt(tables.size());
+				if (random.nextInt(20) == 0)
+				{
+					tables.add(tables.get(which).copy());
+					expected.add(new HashMap<Integer, Integer>(expected.get(which)));
+				}
+				else
+				{
+					int key = randomKey (random, range);
+					int value = random.nextInt();
+					tables.get(which).set(key, value);
+					expected.get(which).put(key, value);
+				}
+			}
+			for (int i = 0; i < tables.size(); i++)
+			{
+				for (int key = -range; key <= range; key++)
+					assertEquals(expected.get(i).getOrDefault(key, 0).intValue(), tables.get(i).get(key),
+						"round " + round + " table " + i + " key " + key);
+				for (Map.Entry<Integer, Integer> entry : expected.get(i).entrySet())
+					assertEquals(entry.getValue().intValue(), tables.get(i).get(entry.getKey()),
+						"round " + round + " table " + i + " key " + entry.getKey());
+			}
+		}
+	}
+
+	// mostly small keys, some negative and a few anywhere
+	private static int randomKey(Random random, int range)
+	{
+		switch (random.nextInt(8))
+		{
+		case 0:
+			return -random.nextInt(range) - 1;
+		case 1:
+			return random.nextInt(4) == 0 ? Integer.MIN_VALUE : random.nextInt();
+		default:
+			return random.nextInt(range);
+		}
+	}
+}
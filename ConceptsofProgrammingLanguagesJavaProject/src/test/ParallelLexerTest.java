@@ -0,0 +1,130 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that ParallelLexer produces the tokens a LexicalAnalyzer produces
+ * from the same source, with the same rows and columns, whatever the size
+ * of its chunks, and that it reports the first invalid lexeme of a source
+ * with the message the LexicalAnalyzer reports.
+ */
+public class ParallelLexerTest
+{
+	private static final int[] CHUNK_SIZES = {1, 7, 64, 1000, ParallelLexer.DEFAULT_CHUNK_SIZE};
+	private static ForkJoinPool pool;
+
+	@BeforeAll
+	public static void createPool()
+	{
+		pool = new ForkJoinPool (4);
+	}
+
+	@AfterAll
+	public static void shutdownPool()
+	{
+		pool.shutdown();
+	}
+
+	@Test
+	public void matchesLexicalAnalyzer() throws Exception
+	{
+		Random random = new Random (0);
+		for (long seed = 0; seed < 200; seed++)
+		{
+			byte[] source = roughen (ProgramGenerator.generate (seed), random);
+			String expected = describe (sequential (source));
+			for (int chunkSize : CHUNK_SIZES)
+				assertEquals(expected, describe (new LexicalAnalyzer (new ParallelLexer (pool, chunkSize).lex(source))),
+					"seed " + seed + " chunk size " + chunkSize);
+		}
+	}
+
+	@Test
+	public void emptySourceHasOnlyEndOfStream() throws Exception
+	{
+		for (int chunkSize : CHUNK_SIZES)
+			assertEquals(describe (sequential (new byte[0])),
+				describe (new LexicalAnalyzer (new ParallelLexer (pool, chunkSize).lex(new byte[0]))));
+	}
+
+	@Test
+	public void reportsFirstInvalidLexeme() throws Exception
+	{
+		String program = ProgramGenerator.generate (3);
+		List<Integer> starts = new ArrayList<Integer>();
+		for (int i = 0; i < program.length(); i++)
+			if (i == 0 || program.charAt(i - 1) == '\n')
+				starts.add(i);
+		for (int line = starts.size() / 3; line < starts.size(); line += starts.size() / 3)
+		{
+			// an invalid lexeme on this line, and another one after it
+			StringBuilder text = new StringBuilder (program);
+			text.insert(starts.get(line), " $ ");
+			text.append("x = 1 #\n");
+			byte[] source = text.toString().getBytes(StandardCharsets.ISO_8859_1);
+			String expected = assertThrows(LexicalException.class, () -> describe (sequential (source)))
+				.getMessage();
+			for (int chunkSize : CHUNK_SIZES)
+				assertEquals(expected, assertThrows(LexicalException.class,
+					() -> new ParallelLexer (pool, chunkSize).lex(source)).getMessage(), "chunk size " + chunkSize);
+		}
+	}
+
+	private static LexicalAnalyzer sequential(byte[] source)
+	{
+		return new LexicalAnalyzer (Channels.newChannel(new ByteArrayInputStream (source)));
+	}
+
+	/**
+	 * @return bytes of program with blank lines, carriage returns and runs
+	 *         of blanks added at random, none inside a token
+	 */
+	private static byte[] roughen(String program, Random random)
+	{
+		StringBuilder text = new StringBuilder();
+		for (String token : program.split(" ", -1))
+		{
+			text.append(token);
+			switch (random.nextInt(8))
+			{
+			case 0:
+				text.append("  \t ");
+				break;
+			case 1:
+				text.append(" \r\n\n ");
+				break;
+			default:
+				text.append(' ');
+			}
+		}
+		return text.toString().getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @return every token lexer returns, with its row and column, up to and
+	 *         including the EOS_TOK
+	 */
+	private static String describe(LexicalAnalyzer lexer) throws LexicalException
+	{
+		StringBuilder text = new StringBuilder();
+		Token token;
+		do
+		{
+			token = lexer.getNextToken();
+			text.append(token.getTokType()).append(' ').append(token.getLexeme()).append(' ')
+				.append(token.getRowNumber()).append(':').append(token.getColumnNumber()).append('\n');
+		} while (token.getTokType() != TokenType.EOS_TOK);
+		return text.toString();
+	}
+}
@@ -0,0 +1,121 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that a program written by ProgramFile loads back into a program
+ * that is written to the same bytes and runs the same way, and that a
+ * damaged file is rejected with a ProgramFormatException rather than any
+ * other exception.
+ */
+public class ProgramFileTest
+{
+	private static final byte[] HASH = new byte[32];
+
+	@Test
+	public void roundTripKeepsProgram() throws Exception
+	{
+		for (long seed = 0; seed < 500; seed++)
+		{
+			String source = ProgramGenerator.generate (seed);
+			Program program = BackendDifferentialTest.parse (source);
+			byte[] bytes = ProgramFile.toBytes (program, HASH);
+			Program loaded = ProgramFile.fromBytes (ByteBuffer.wrap(bytes), HASH);
+			assertArrayEquals(bytes, ProgramFile.toBytes (loaded, HASH), "seed " + seed + ":\n" + source);
+			assertEquals(BackendDifferentialTest.describe (program, context -> program.execute(context)),
+				BackendDifferentialTest.describe (loaded, context -> loaded.execute(context)),
+				"seed " + seed + ":\n" + source);
+		}
+	}
+
+	@Test
+	public void compiledFileLoadsOnlyForItsSource(@TempDir Path directory) throws Exception
+	{
+		byte[] source = ProgramGenerator.generate (1).getBytes(StandardCharsets.ISO_8859_1);
+		Path script = Files.write(directory.resolve("program.lua"), source);
+		Path compiled = directory.resolve("program.luac");
+		ProgramFile.compile (script, compiled);
+		byte[] hash = ProgramCache.hash (source);
+		assertArrayEquals(hash, ProgramFile.readSourceHash (compiled));
+		ProgramFile.load (compiled, hash);
+		byte[] other = hash.clone();
+		other[0]++;
+		ProgramFormatException e = assertThrows(ProgramFormatException.class,
+			() -> ProgramFile.load (compiled, other));
+		assertEquals("program file is stale", e.getMessage());
+	}
+
+	@Test
+	public void rejectsBadHeader() throws Exception
+	{
+		byte[] bytes = ProgramFile.toBytes (BackendDifferentialTest.parse (ProgramGenerator.generate (2)), HASH);
+		byte[] magic = bytes.clone();
+		magic[0] ^= 1;
+		assertEquals("not a program file", assertThrows(ProgramFormatException.class,
+			() -> ProgramFile.fromBytes (ByteBuffer.wrap(magic), null)).getMessage());
+		byte[] version = bytes.clone();
+		version[5]++;
+		assertEquals("unsupported program file version " + (ProgramFile.VERSION + 1),
+			assertThrows(ProgramFormatException.class,
+				() -> ProgramFile.fromBytes (ByteBuffer.wrap(version), null)).getMessage());
+		byte[] garbage = Arrays.copyOf(bytes, bytes.length + 1);
+		assertEquals("garbage at end of program file", assertThrows(ProgramFormatException.class,
+			() -> ProgramFile.fromBytes (ByteBuffer.wrap(garbage), null)).getMessage());
+	}
+
+	@Test
+	public void rejectsEveryTruncation() throws Exception
+	{
+		for (long seed = 0; seed < 20; seed++)
+		{
+			byte[] bytes = ProgramFile.toBytes (BackendDifferentialTest.parse (ProgramGenerator.generate (seed)),
+				HASH);
+			for (int length = 0; length < bytes.length; length++)
+			{
+				ByteBuffer truncated = ByteBuffer.wrap(bytes, 0, length);
+				assertThrows(ProgramFormatException.class, () -> ProgramFile.fromBytes (truncated, null),
+					"seed " + seed + " truncated to " + length + " bytes");
+			}
+		}
+	}
+
+	@Test
+	public void damagedFileLoadsOrIsRejected() throws Exception
+	{
+		Random random = new Random (0);
+		for (long seed = 0; seed < 200; seed++)
+		{
+			byte[] bytes = ProgramFile.toBytes (BackendDifferentialTest.parse (ProgramGenerator.generate (seed)),
+				HASH);
+			for (int i = 0; i < 100; i++)
+			{
+				byte[] damaged = bytes.clone();
+				int position = random.nextInt(damaged.length);
+				damaged[position] = (byte) random.nextInt(256);
+				try
+				{
+					// a changed literal or slot may still be a valid program
+					ProgramFile.fromBytes (ByteBuffer.wrap(damaged), null);
+				}
+				catch (ProgramFormatException e)
+				{
+					// the damage was detected
+				}
+				catch (RuntimeException | StackOverflowError e)
+				{
+					throw new AssertionError ("seed " + seed + " damaged at " + position, e);
+				}
+			}
+		}
+	}
+}
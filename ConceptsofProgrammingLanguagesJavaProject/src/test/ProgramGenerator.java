@@ -0,0 +1,226 @@
+import java.util.Random;
+
+/**
+ * ProgramGenerator writes random programs that every backend must run the
+ * same way. A program uses variables with names of one and more characters,
+ * some of them keywords with a suffix, three tables indexed by negative,
+ * small and computed keys, nested if statements, while and repeat loops and
+ * up to three functions taking up to three parameters, plus a recursive
+ * function when there are any. Every loop counts a variable of its own that
+ * no other statement assigns, so every program ends; divisions by a
+ * variable may divide by zero, and so does a call whose arguments divide
+ * by zero.
+ *
+ * A function only calls the functions defined after it in the order of
+ * generation, or the recursive function with a small depth, so calls
+ * nest a bounded number of times. The functions are written in the reverse
+ * order, so that the program has calls both to functions defined before
+ * and after the caller.
+ */
+public class ProgramGenerator
+{
+	private static final String[] VARIABLES = {"a", "b", "c", "d", "x", "y", "z", "A", "B", "C", "total",
+		"i1", "_tmp", "endx", "iff", "doo", "whilex", "printer", "untilY", "ELSE", "x_2", "functions"};
+	private static final String[] TABLES = {"t", "tab", "arr"};
+	private static final String[] PARAMETERS = {"a", "x", "n", "total", "i1"};
+	private static final String[] RELATIONAL_OPERATORS = {"==", "~=", "<", "<=", ">", ">="};
+	// counters of the while and repeat loops, by nesting depth
+	private static final String WHILE_COUNTERS = "pqrs", REPEAT_COUNTERS = "PQRS";
+
+	private final Random random;
+	private final int maxIterations;
+	private final StringBuilder source = new StringBuilder();
+	// parameter count of every function, by order of generation
+	private int[] arities = new int[0];
+	// function being generated, -1 for the main function
+	private int level = -1;
+	private boolean inRecursive;
+
+	/**
+	 * @param seed seed of the random program
+	 * @param maxIterations > 0 - bound of the iterations of the loops at
+	 *        the top of the main function; nested loops and loops in
+	 *        other functions iterate at most five times
+	 * @throws IllegalArgumentException if maxIterations is not positive
+	 */
+	private ProgramGenerator(long seed, int maxIterations)
+	{
+		if (maxIterations <= 0)
+			throw new IllegalArgumentException ("invalid iteration count argument");
+		random = new Random (seed);
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * @param seed seed of the random program
+	 * @return source of the program generated from seed
+	 */
+	public static String generate(long seed)
+	{
+		return generate (seed, 6);
+	}
+
+	/**
+	 * @param seed seed of the random program
+	 * @param maxIterations > 0 - bound of the iterations of the loops at the
+	 *        top of the main function, high enough for a Tracer to compile
+	 *        them if above Tracer.HOT_LOOP
+	 * @return source of the program generated from seed
+	 * @throws IllegalArgumentException if maxIterations is not positive
+	 */
+	public static String generate(long seed, int maxIterations)
+	{
+		return new ProgramGenerator (seed, maxIterations).program();
+	}
+
+	private String program()
+	{
+		if (random.nextInt(5) < 3)
+		{
+			arities = new int[1 + random.nextInt(3)];
+			for (int i = 0; i < arities.length; i++)
+				arities[i] = random.nextInt(4);
+		}
+		source.append("function f ( )\n");
+		block (0, "\t", false);
+		source.append("\tprint ( a )\n\tprint ( x )\nend\n");
+		if (arities.length == 0)
+			return source.toString();
+		for (int j = arities.length - 1; j >= 0; j--)
+		{
+			level = j;
+			source.append("function g").append(j).append(" (");
+			for (int i = 0; i < arities[j]; i++)
+				source.append(i > 0 ? " , " : " ").append(PARAMETERS[i]);
+			source.append(" )\n");
+			block (0, "\t", false);
+			source.append("\treturn ").append(expression (0)).append("\nend\n");
+		}
+		level = arities.length;
+		inRecursive = true;
+		source.append("function rec ( n , a )\n\tif <= n 0 then\n");
+		block (1, "\t\t", true);
+		source.append("\telse\n");
+		block (1, "\t\t", false);
+		source.append("\t\treturn + a rec ( - n 1 , ").append(expression (1)).append(" )\n\tend\n\treturn a\nend\n");
+		return source.toString();
+	}
+
+	private void block(int depth, String indent, boolean mayReturn)
+	{
+		int count = 1 + random.nextInt(4);
+		for (int i = 0; i < count; i++)
+			statement (depth, indent);
+		if (mayReturn && arities.length > 0 && random.nextInt(level >= 0 ? 4 : 30) == 0)
+			source.append(indent).append("return").append(random.nextInt(4) == 0 ? "" : " " + expression (0))
+				.append('\n');
+	}
+
+	private void statement(int depth, String indent)
+	{
+		switch (random.nextInt(depth > 2 ? 2 : 5))
+		{
+		case 0:
+			source.append(indent).append(random.nextInt(3) == 0 ? element (1) : variable ()).append(" = ")
+				.append(expression (0)).append('\n');
+			break;
+		case 1:
+			if (arities.length > 0 && !inRecursive && random.nextInt(4) == 0)
+				source.append(indent).append(call (0)).append('\n');
+			else
+				source.append(indent).append("print ( ").append(expression (0)).append(" )\n");
+			break;
+		case 2:
+			source.append(indent).append("if ").append(condition ()).append(" then\n");
+			block (depth + 1, indent + "\t", true);
+			source.append(indent).append("else\n");
+			block (depth + 1, indent + "\t", true);
+			source.append(indent).append("end\n");
+			break;
+		case 3:
+		{
+			char counter = WHILE_COUNTERS.charAt(depth);
+			source.append(indent).append(counter).append(" = 0\n");
+			source.append(indent).append("while < ").append(counter).append(' ').append(iterations (depth))
+				.append(" do\n");
+			block (depth + 1, indent + "\t", false);
+			source.append(indent).append("\t").append(counter).append(" = + ").append(counter).append(" 1\n");
+			source.append(indent).append("end\n");
+			break;
+		}
+		default:
+		{
+			char counter = REPEAT_COUNTERS.charAt(depth);
+			source.append(indent).append(counter).append(" = 0\n");
+			source.append(indent).append("repeat\n");
+			block (depth + 1, indent + "\t", false);
+			source.append(indent).append("\t").append(counter).append(" = + ").append(counter).append(" 1\n");
+			source.append(indent).append("until >= ").append(counter).append(' ').append(iterations (depth))
+				.append('\n');
+			break;
+		}
+		}
+	}
+
+	private int iterations(int depth)
+	{
+		return random.nextInt(depth == 0 && level < 0 ? maxIterations : 6);
+	}
+
+	private String expression(int depth)
+	{
+		switch (random.nextInt(depth > 3 ? 2 : 4))
+		{
+		case 0:
+			if (arities.length > 0 && random.nextInt(5) == 0)
+				return call (depth);
+			return random.nextInt(4) == 0 ? element (depth) : variable ();
+		case 1:
+			return "" + random.nextInt(10);
+		default:
+			String op = "" + "+-*/".charAt(random.nextInt(4));
+			if (op.equals("/"))
+				return "/ " + expression (depth + 1) + " " +
+					(random.nextInt(25) == 0 ? variable () : "" + (1 + random.nextInt(5)));
+			return op + " " + expression (depth + 1) + " " + expression (depth + 1);
+		}
+	}
+
+	private String call(int depth)
+	{
+		if (level < arities.length - 1 && random.nextInt(3) > 0)
+		{
+			int j = level + 1 + random.nextInt(arities.length - level - 1);
+			StringBuilder call = new StringBuilder ("g" + j + " (");
+			for (int i = 0; i < arities[j]; i++)
+				call.append(i > 0 ? " , " : " ").append(expression (depth + 2));
+			return call.append(" )").toString();
+		}
+		if (!inRecursive)
+			return "rec ( " + random.nextInt(6) + " , " + expression (depth + 2) + " )";
+		return "" + random.nextInt(10);
+	}
+
+	private String element(int depth)
+	{
+		String index;
+		if (random.nextInt(6) == 0)
+			index = "- 0 " + random.nextInt(3);
+		else if (random.nextInt(3) == 0)
+			index = "" + random.nextInt(12);
+		else
+			index = expression (depth + 2);
+		return TABLES[random.nextInt(TABLES.length)] + " [ " + index + " ]";
+	}
+
+	private String variable()
+	{
+		return VARIABLES[random.nextInt(VARIABLES.length)];
+	}
+
+	private String condition()
+	{
+		return RELATIONAL_OPERATORS[random.nextInt(RELATIONAL_OPERATORS.length)] + " " + expression (2) + " " +
+			expression (2);
+	}
+}